@@ -0,0 +1,54 @@
+# Workload for lockbatch.sh: 20000 passes over a 100-word array, each filling it
+# with word, byte and halfword stores and loads, summing it, and calling a small
+# function.  About 24 million instructions, mostly memory accesses and branches.
+        .data
+arr:    .space 400
+msg:    .asciiz "sum="
+nl:     .asciiz "\n"
+        .text
+main:
+        li   $s0, 0          # outer iteration
+outer:
+        la   $t0, arr
+        li   $t1, 100
+        li   $t2, 0
+fill:   sw   $t2, 0($t0)
+        sb   $t2, 1($t0)
+        lh   $t3, 0($t0)
+        addi $t0, $t0, 4
+        addi $t2, $t2, 7
+        addi $t1, $t1, -1
+        bgtz $t1, fill
+        la   $t0, arr
+        li   $t1, 100
+        li   $t4, 0
+sum:    lw   $t3, 0($t0)
+        addu $t4, $t4, $t3
+        addi $t0, $t0, 4
+        addi $t1, $t1, -1
+        bne  $t1, $zero, sum
+        jal  func
+        addi $s0, $s0, 1
+        blt  $s0, 20000, outer
+        li   $v0, 4
+        la   $a0, msg
+        syscall
+        li   $v0, 1
+        move $a0, $t4
+        syscall
+        li   $v0, 4
+        la   $a0, nl
+        syscall
+        mult $t4, $t4
+        mfhi $a1
+        mflo $a2
+        addi $sp, $sp, -8
+        sw   $a2, 4($sp)
+        lw   $a3, 4($sp)
+        li   $v0, 10
+        syscall
+func:   addi $sp, $sp, -4
+        sw   $ra, 0($sp)
+        lw   $ra, 0($sp)
+        addi $sp, $sp, 4
+        jr   $ra
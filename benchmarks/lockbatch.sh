@@ -0,0 +1,26 @@
+#!/bin/sh
+# Compare simulator throughput with the memory/register lock taken for every
+# instruction (batch size 1, as before batching) and held across batches of 1000
+# (the default, Simulator.LOCK_BATCH_SIZE), both interpreting every instruction
+# (ni) and with hot code run as basic blocks.  Prints the instructions per second
+# of each run, from the json result.
+#
+# Usage, from the MARS directory:  benchmarks/lockbatch.sh [classpath] [runs]
+# e.g. benchmarks/lockbatch.sh . 5
+
+cp=${1:-.}
+runs=${2:-5}
+for mode in ni blocks; do
+   for batch in 1 1000; do
+      printf "%-6s batch %4s:" $mode $batch
+      run=0
+      while [ $run -lt $runs ]; do
+         opts=""
+         [ $mode = ni ] && opts=ni
+         java -Dmars.lockBatchSize=$batch -cp "$cp" Mars nc json $opts benchmarks/lockbatch.asm \
+            | sed -n 's/.*"instructionsPerSecond":\([0-9]*\).*/ \1/p' | tr -d '\n'
+         run=$((run+1))
+      done
+      echo
+   done
+done
@@ -52,11 +52,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static InstructionSet instructionSet;
    /** the program currently being worked with.  Used by GUI only, not command line. **/
       public static MIPSprogram program;
-   /** Symbol table for file currently being assembled. **/
+   /** Symbol table for file currently being assembled.  The default Machine's. **/
       public static SymbolTable symbolTable;
-    /** Simulated MIPS memory component. **/
+    /** Simulated MIPS memory component.  The default Machine's (see Memory.getInstance()). **/
       public static Memory memory;
-    /** Lock variable used at head of synchronized block to guard MIPS memory and registers **/
+    /** Lock variable used at head of synchronized block to guard MIPS memory and registers.
+        The simulator holds it across batches of instructions, so other threads should call
+        Simulator.requestSafepoint() before synchronizing on it and Simulator.safepointTaken()
+        once they hold it. **/
       public static Object memoryAndRegistersLock = new Object();
     /** Flag to determine whether or not to produce internal debugging information. **/
       public static boolean debug = false;
@@ -83,6 +86,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int maximumErrorMessages = getErrorLimit();
     /** Maximum number of back-step operations to buffer */
       public static final int maximumBacksteps = getBackstepLimit();
+    /** Number of instructions executed between checkpoints (0 for none) */
+      public static final int checkpointInterval = getCheckpointInterval();
+    /** Maximum storage, in megabytes, for the checkpoints of one program run */
+      public static final int checkpointMemoryLimit = getCheckpointMemoryLimit();
+    /** Most instructions a hart runs in one turn when harts are scheduled one at a time */
+      public static final int hartQuantum = getHartQuantum();
    	/** MARS copyright years */
       public static final String copyrightYears = getCopyrightYears();
    	/** MARS copyright holders */
@@ -123,7 +132,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             memory = Memory.getInstance();  //clients can use Memory.getInstance instead of Globals.memory
             instructionSet = new InstructionSet();
             instructionSet.populate();    
-            symbolTable = new SymbolTable("global");
+            symbolTable = Machine.getDefault().getSymbolTable();
             settings = new Settings(gui);
             initialized = true;
             debug = false; 
@@ -145,6 +154,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private static int getBackstepLimit() {
          return getIntegerProperty(configPropertiesFile, "BackstepLimit", 1000);
       } 
+
+   	// Read checkpoint interval (number of instructions) from properties file.
+       private static int getCheckpointInterval() {
+         return getIntegerProperty(configPropertiesFile, "CheckpointInterval", 100000);
+      } 
+
+   	// Read storage limit for checkpoints (megabytes) from properties file.
+       private static int getCheckpointMemoryLimit() {
+         return getIntegerProperty(configPropertiesFile, "CheckpointMemoryLimit", 64);
+      } 
+
+   	// Read longest turn of a hart (number of instructions) from properties file.
+       private static int getHartQuantum() {
+         return getIntegerProperty(configPropertiesFile, "HartQuantum", 100);
+      } 
 		
    	// Read ASCII default display character for non-printing characters, from properties file.
        public static String getAsciiNonPrint() {
@@ -4,6 +4,7 @@
    import mars.assembler.*;
    import mars.simulator.*;
    import mars.mips.hardware.*;
+   import mars.util.*;
 	
    import java.util.*;
    import java.io.*;
@@ -58,6 +59,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private ArrayList parsedList;
       private ArrayList machineList;
       private BackStepper backStepper;
+      private Checkpointer checkpointer;
+      private MemorySnapshot assembledImage;  // memory right after assembly, for reset()
       private SymbolTable localSymbolTable;
       private MacroPool macroPool;
       private ArrayList<SourceLine> sourceLineList;
@@ -169,6 +172,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return backStepper;
       }
    
+   /**
+    * Returns Checkpointer associated with this program.  It is created upon successful assembly.
+    * @return Checkpointer object, null if there is none.
+    **/
+    
+       public Checkpointer getCheckpointer() {
+         return checkpointer;
+      }
+   
    /**
     * Returns SymbolTable associated with this program.  It is created at assembly time,
     * and stores local labels (those not declared using .globl directive).
@@ -313,13 +325,63 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     
        public ErrorList assemble(ArrayList MIPSprogramsToAssemble, boolean extendedAssemblerEnabled,
               boolean warningsAreErrors) throws ProcessingException {
+         HartScheduler harts = Machine.current().getHarts();
+         if (harts != null) {
+            harts.end();  // harts of a paused run of the last program
+         }
          this.backStepper = null;
+         this.checkpointer = null;
+         this.assembledImage = null;
+         ExecutionConfig.refresh();
          Assembler asm = new Assembler();
          this.machineList = asm.assemble(MIPSprogramsToAssemble, extendedAssemblerEnabled, warningsAreErrors);
+         this.assembledImage = Memory.getInstance().takeSnapshot();
          this.backStepper = new BackStepper();
+         this.checkpointer = new Checkpointer();
+         Simulator.getInstance().resetExecutionState();
+         ExecutionConfig.refresh();
          return asm.getErrorList();
       }
    
+   /**
+    * Puts the machine back in the state it was in right after this program was
+    * assembled, so it can be run again, e.g. on other input (see SystemIO.setConsole()),
+    * without assembling it again.  Memory gets back the image taken at assembly, whose
+    * pages are shared until written; registers and coprocessors are reset; the
+    * instruction count, backstep history, checkpoints, open files and any harts are
+    * dropped.  Program arguments, if any, must be stored again.  Must not be called
+    * while the program is running.
+    * @param startAtMain true to set the program counter to the "main" label if there is
+    * one, as RegisterFile.initializeProgramCounter(boolean) does
+    * @return true if done; false if nothing was done because the program is not assembled,
+    * or memory was cleared since, e.g. by assembling another program on the machine.
+    * It must then be assembled again.
+    **/
+   
+       public boolean reset(boolean startAtMain) {
+         Memory memory = Memory.getInstance();
+         if (assembledImage == null || !memory.canRestore(assembledImage)) {
+            return false;
+         }
+         HartScheduler harts = Machine.current().getHarts();
+         if (harts != null) {
+            harts.end();
+         }
+         synchronized (Machine.current().getLock()) {
+            memory.restoreSnapshot(assembledImage);
+            RegisterFile.resetRegisters();
+            RegisterFile.initializeProgramCounter(startAtMain); // not the registry setting
+            Coprocessor1.resetRegisters();
+            Coprocessor0.resetRegisters();
+            this.backStepper = new BackStepper();
+            this.checkpointer = new Checkpointer();
+            Simulator.getInstance().resetExecutionState();
+            ExecutionConfig.refresh();
+         }
+         SystemIO.resetFiles();
+         return true;
+      }
+   
    
    /**
     * Simulates execution of the MIPS program. Program must have already been assembled.
@@ -345,7 +407,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     
        public boolean simulate(int maxSteps) throws ProcessingException {
          return this.simulateFromPC(null, maxSteps, null);
-      }	
+      }
+
+   /**
+    * Simulates execution of the MIPS program. Program must have already been assembled.
+    * Begins simulation at current program counter address and continues to completion,
+    * a runtime error, or until the budget runs out.  For running from the command line.
+    * @param budget limits on instructions, time and console output.  Can be null.
+    * @return how the run ended, including any runtime error
+    **/
+
+       public RunResult simulate(ExecutionBudget budget) {
+         steppedExecution = false;
+         Simulator sim = Simulator.getInstance();
+         return sim.simulate(this, RegisterFile.getProgramCounter(), budget, null);
+      }
    
    /**
     * Simulates execution of the MIPS program. Program must have already been assembled.
@@ -0,0 +1,338 @@
+   package mars;
+   import mars.mips.hardware.*;
+   import mars.assembler.*;
+   import mars.simulator.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+   import java.util.concurrent.*;
+
+/**
+ * One simulated MIPS machine: its memory, CPU and coprocessor registers, global symbol
+ * table, the program it runs (which holds the BackStepper), its Simulator, and the console
+ * and files used by its syscalls.  Several machines can assemble and run programs at the
+ * same time, each on its own threads, e.g. to grade a batch of submissions on a thread
+ * pool.
+ * <p>
+ * The static methods of Memory, RegisterFile, Coprocessor0, Coprocessor1, Simulator and
+ * SystemIO act on the machine bound to the calling thread.  A thread is bound with run()
+ * or call(); one that is not works on the default machine, the one behind the GUI, the
+ * command line and Globals.memory, Globals.program and Globals.symbolTable.  The simulator
+ * binds the threads it starts to its own machine.
+ * <p>
+ * Settings, the memory configuration and the instruction set are shared by all machines.
+ * The memory configuration, which sets the segment addresses in Memory's static fields,
+ * is fixed once the first machine other than the default is created (see
+ * Memory.fixConfiguration()), so choose it and the large memory setting before that.
+ * Machines other than the default are meant for running without the GUI: their console
+ * is the pair of streams they are created with.
+ * <p>
+ * A program may start more hardware threads, or harts, on its machine (see
+ * HartScheduler).  Each hart is a machine of its own for its registers, coprocessors
+ * and Simulator, and shares everything else with the machine it was started on, hart 0.
+ */
+
+    public class Machine {
+
+      private static final Machine DEFAULT = new Machine(Globals.memoryAndRegistersLock, null, null);
+      private static final ThreadLocal<Machine> bound =
+          new ThreadLocal<Machine>() {
+             protected Machine initialValue() {
+               return DEFAULT;
+            }
+         };
+      // Set once a thread is bound to a machine other than the default.  Until then, every
+   	// thread is on the default machine and current() does not look at the thread.  Only
+   	// bound threads need to see it set, and they set it themselves, so it is not volatile.
+      private static boolean anyBound = false;
+
+      private final Machine parent;  // hart 0 of the harts sharing this machine's memory
+      private final int hartId;
+      private final Memory memory;
+      private final RegisterFile registerFile;
+      private final Coprocessor0 coprocessor0;
+      private final Coprocessor1 coprocessor1;
+      private final SymbolTable symbolTable;
+      private final SystemIO systemIO;
+      private final HashMap<Integer, Random> randomStreams;
+      private final Object lock;
+      private MIPSprogram program;
+      private Simulator simulator;
+      private int exitCode;
+      private volatile HartScheduler harts;  // of hart 0, once it starts another hart
+
+     /**
+      *  Create a machine with empty memory and registers in their reset state, whose
+      *  syscalls read console input from the given stream and write console output to the
+      *  other.  Files opened by its syscalls are its own.
+      *
+      *  @param in console input, for the read syscalls
+      *  @param out console output, for the print syscalls
+      */
+       public Machine(InputStream in, PrintStream out) {
+         this(new Object(), in, out);
+      }
+
+      // For the default machine, a null stream stands for System.in or System.out.
+       private Machine(Object lock, InputStream in, PrintStream out) {
+         if (DEFAULT != null) {
+            Memory.fixConfiguration();  // not the default machine itself, which is being created
+         }
+         this.lock = lock;
+         parent = this;
+         hartId = 0;
+         memory = new Memory();
+         registerFile = new RegisterFile();
+         coprocessor0 = new Coprocessor0();
+         coprocessor1 = new Coprocessor1();
+         symbolTable = new SymbolTable("global");
+         systemIO = new SystemIO(in, out);
+         randomStreams = new HashMap<Integer, Random>();
+      }
+
+      // A hart of the given machine: own registers, coprocessors, lock and Simulator.
+       private Machine(Machine parent, int hartId) {
+         this.parent = parent;
+         this.hartId = hartId;
+         lock = new Object();
+         memory = parent.memory;
+         registerFile = new RegisterFile();
+         coprocessor0 = new Coprocessor0();
+         coprocessor1 = new Coprocessor1();
+         symbolTable = parent.symbolTable;
+         systemIO = parent.systemIO;
+         randomStreams = parent.randomStreams;
+      }
+
+     /**
+      *  Returns the machine bound to the calling thread, or the default machine if none is.
+      *
+      *  @return the current machine
+      */
+       public static Machine current() {
+         return (anyBound) ? bound.get() : DEFAULT;
+      }
+
+     /**
+      *  Returns the default machine, the one used by the GUI and the command line.
+      *
+      *  @return the default machine
+      */
+       public static Machine getDefault() {
+         return DEFAULT;
+      }
+
+     /**
+      *  Run the given code on this machine: the calling thread is bound to it until the
+      *  code returns, then to the machine it was on before.
+      *
+      *  @param code what to run, e.g. assemble and simulate a program
+      */
+       public void run(Runnable code) {
+         Machine previous = bind(this);
+         try {
+            code.run();
+         }
+         finally {
+            bind(previous);
+         }
+      }
+
+     /**
+      *  Run the given code on this machine, as run() does, and return its result.  Fits
+      *  ExecutorService.submit(): <code>pool.submit(() -> machine.call(job))</code>.
+      *
+      *  @param code what to run
+      *  @return the result of the code
+      *  @throws Exception whatever the code throws
+      */
+       public <T> T call(Callable<T> code) throws Exception {
+         Machine previous = bind(this);
+         try {
+            return code.call();
+         }
+         finally {
+            bind(previous);
+         }
+      }
+
+     /**
+      *  Bind the calling thread to the given machine.  Prefer run() or call(), which undo
+      *  it.
+      *
+      *  @param machine the machine to work on
+      *  @return the machine the thread was bound to before
+      */
+       public static Machine bind(Machine machine) {
+         Machine previous = current();
+         if (machine != DEFAULT) {
+            anyBound = true;
+         }
+         if (anyBound) {
+            bound.set(machine);
+         }
+         return previous;
+      }
+
+     /**
+      *  Returns this machine's memory.  Memory.getInstance() returns the current machine's.
+      */
+       public Memory getMemory() {
+         return memory;
+      }
+
+     /**
+      *  Returns this machine's CPU registers, for RegisterFile's static methods.
+      */
+       public RegisterFile getRegisterFile() {
+         return registerFile;
+      }
+
+     /**
+      *  Returns this machine's Coprocessor 0 registers, for Coprocessor0's static methods.
+      */
+       public Coprocessor0 getCoprocessor0() {
+         return coprocessor0;
+      }
+
+     /**
+      *  Returns this machine's floating point registers, for Coprocessor1's static methods.
+      */
+       public Coprocessor1 getCoprocessor1() {
+         return coprocessor1;
+      }
+
+     /**
+      *  Returns the symbol table of global labels of the program assembled on this
+      *  machine.  For the default machine this is Globals.symbolTable.
+      */
+       public SymbolTable getSymbolTable() {
+         return symbolTable;
+      }
+
+     /**
+      *  Returns the console and file state of this machine's syscalls, for SystemIO's
+      *  static methods.
+      */
+       public SystemIO getSystemIO() {
+         return systemIO;
+      }
+
+     /**
+      *  Returns the random number streams of this machine's random syscalls, by stream
+      *  number.
+      */
+       public HashMap<Integer, Random> getRandomStreams() {
+         return randomStreams;
+      }
+
+     /**
+      *  Returns the lock that guards this machine's memory and registers (see
+      *  Globals.memoryAndRegistersLock, which is the default machine's).
+      */
+       public Object getLock() {
+         return lock;
+      }
+
+     /**
+      *  Returns the program this machine is working with, whose BackStepper records its
+      *  changes, or null if there is none.  For the default machine this is Globals.program,
+      *  which the command line leaves null so as not to keep a backstep log.  Harts other
+      *  than hart 0 have none.
+      */
+       public MIPSprogram getProgram() {
+         return (this == DEFAULT) ? Globals.program : program;
+      }
+
+     /**
+      *  Set the program this machine is working with.  Only needed for backstepping and
+      *  checkpoints: a program can be assembled and simulated without it.
+      *
+      *  @param program the program, or null
+      */
+       public void setProgram(MIPSprogram program) {
+         if (this == DEFAULT) {
+            Globals.program = program;
+         }
+         else {
+            this.program = program;
+         }
+         ExecutionConfig.refresh();
+      }
+
+     /**
+      *  Returns this machine's Simulator, creating it the first time.  Simulator.getInstance()
+      *  returns the current machine's.
+      */
+       public Simulator getSimulator() {
+         if (simulator == null) {
+            simulator = new Simulator(this);
+         }
+         return simulator;
+      }
+
+     /**
+      *  Returns the exit code the program set with syscall 17.  For the default machine
+      *  this is Globals.exitCode.
+      */
+       public int getExitCode() {
+         if (parent != this) {
+            return parent.getExitCode();
+         }
+         return (this == DEFAULT) ? Globals.exitCode : exitCode;
+      }
+
+     /**
+      *  Set the exit code of the program.
+      *
+      *  @param code the exit code
+      */
+       public void setExitCode(int code) {
+         if (parent != this) {
+            parent.setExitCode(code);
+         }
+         else if (this == DEFAULT) {
+            Globals.exitCode = code;
+         }
+         else {
+            exitCode = code;
+         }
+      }
+   
+     /**
+      *  Returns the number of this hart among those sharing its memory: 0 for a machine
+      *  created with the constructor, 1 and up for the harts started on it.
+      */
+       public int getHartId() {
+         return hartId;
+      }
+
+     /**
+      *  Returns the scheduler of the harts sharing this machine's memory, or null if the
+      *  program running on it has not started any.
+      */
+       public HartScheduler getHarts() {
+         return parent.harts;
+      }
+
+     /**
+      *  Set the scheduler of the harts started on this machine.  Called by HartScheduler.
+      *
+      *  @param harts the scheduler, or null once the harts have ended
+      */
+       public void setHarts(HartScheduler harts) {
+         parent.harts = harts;
+         ExecutionConfig.refresh();
+      }
+
+     /**
+      *  Create a hart that shares this machine's memory, symbol table, console and files.
+      *  Its registers are in their reset state.  Called by HartScheduler.
+      *
+      *  @param hartId number of the new hart
+      *  @return the hart
+      */
+       public Machine newHart(int hartId) {
+         return new Machine(parent, hartId);
+      }
+   }
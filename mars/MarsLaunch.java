@@ -4,6 +4,7 @@
    import mars.mips.dump.*;
    import mars.mips.hardware.*;
    import mars.simulator.*;
+   import mars.tools.*;
    import java.io.*;
    import java.util.*;
    import java.awt.*;
@@ -56,6 +57,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.<br>
    	  ascii  -- display memory or register contents interpreted as ASCII
    		   b  -- brief - do not display register/memory address along with contents<br>
+          bht  -- add a branch history table to <tt>rp</tt>.  Option has 3 arguments, e.g.<br>
+                  <tt>bht &lt;entries&gt; &lt;history&gt; &lt;initial&gt;</tt>: a power of 2, 1 or 2 bits of history,<br>
+                  and <tt>T</tt> or <tt>NT</tt> to predict taken or not taken at first.  Option may be repeated.<br>
+        cache  -- add a cache to <tt>rp</tt>.  Option has 4 arguments, e.g.<br>
+                  <tt>cache &lt;blocks&gt; &lt;words&gt; &lt;set&gt; &lt;policy&gt;</tt>: blocks, words per block,<br>
+                  blocks per set and <tt>LRU</tt> or <tt>Random</tt> replacement.  Option may be repeated.<br>
    		   d  -- print debugging statements<br>
            da  -- both a and d<br>
            db  -- MIPS delayed branching is enabled.<br>
@@ -65,9 +72,20 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   an address range (see <i>m-n</i> below).  Current supported <br>
                   segments are <tt>.text</tt> and <tt>.data</tt>.  Current supported dump formats <br>
                   are <tt>Binary</tt>, <tt>HexText</tt>, <tt>BinaryText</tt>.<br>
+           fg  -- write call stacks for a flame graph.  Option has 1 argument, the file to write the<br>
+                  instructions executed under each path of calls to, in collapsed stack format.<br>
             h  -- display help.  Use by itself and with no filename</br>
           hex  -- display memory or register contents in hexadecimal (default)<br>
+           hs  -- set hart scheduler.  Option has 1 argument, <tt>Parallel</tt> (default) to run harts<br>
+                  at the same time, or an integer seed to run them one at a time in a repeatable order.<br>
            ic  -- display count of MIPS basic instructions 'executed'");
+           in  -- read console input from a file.  Option has 1 argument, the file, and may be repeated:<br>
+                  the program is then run once per file, reset between runs without assembling it again.<br>
+           lm  -- Large Memory - data segment, stack and kernel data segment are not capped at 4MB<br>
+         json  -- display the result of each run as one line of JSON: why it ended, instructions executed,<br>
+                  time taken, instructions per second and exit code.  <tt>--json</tt> works too.<br>
+           mb  -- set memory backend.  Option has 1 argument, <tt>Heap</tt> (default), <tt>Direct</tt><br>
+                  for memory outside the Java heap, or <tt>Mapped</tt> for memory backed by a temporary file.<br>
            mc  -- set memory configuration.  Option has 1 argument, e.g.<br>
                   <tt>mc &lt;config$gt;</tt>, where &lt;config$gt; is <tt>Default</tt><br>
                   for the MARS default 32-bit address space, <tt>CompactDataAtZero</tt> for<br>
@@ -75,12 +93,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   for a 32KB address space with text segment at address 0.<br>
            me  -- display MARS messages to standard err instead of standard out. Can separate via redirection.</br>
            nc  -- do not display copyright notice (for cleaner redirected/piped output).</br>
+           ni  -- No block execution - Interpret every instruction individually.<br>
+           ol  -- set output limit.  Option has 1 argument, the most bytes the program may write to the console.<br>
    		  np  -- No Pseudo-instructions allowed ("ne" will work also).<br>
    		   p  -- Project mode - assemble all files in the same directory as given file.<br>
+           pf  -- display a profile at end of run: the labels, functions and instructions executed most, with source lines.<br>
+           pl  -- play back a syscall log.  Option has 1 argument, the file written by <tt>rl</tt>.  Console<br>
+                  input, the time, random numbers and file results come from it instead of the outside world.<br>
+           ps  -- display count of 4K memory pages allocated at end of run.<br>
+           rl  -- record a syscall log.  Option has 1 argument, the file to record in, to be played back with <tt>pl</tt>.<br>
+           rp  -- replay a trace instead of running.  Option has 1 argument, the file written by <tt>tr</tt> for the<br>
+                  program, whose loads, stores and branches are replayed into the caches and branch history<br>
+                  tables of the <tt>cache</tt> and <tt>bht</tt> options to display their hit rates and accuracy.<br>
+           rs  -- restore a snapshot.  Option has 1 argument, the file written by <tt>ss</tt>.  The machine<br>
+                  state saved in it replaces that of the freshly assembled program before it runs.<br>
    	  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.<br>
            sm  -- Start execution at Main - Execution will start at program statement globally labeled main.<br>
           smc  -- Self Modifying Code - Program can write and branch to either text or data segment<br>
+           ss  -- save a snapshot.  Option has 1 argument, the file to save the whole machine state in<br>
+                  at the end of the run, e.g. when the maximum step count is reached.<br>
+           tl  -- set time limit.  Option has 1 argument, the most milliseconds the program may run.<br>
+           tr  -- write an execution trace.  Option has 1 argument, the file to record each instruction<br>
+                  executed, load and store in, in the compact binary format of <tt>ExecutionTrace</tt>.<br>
            we  -- assembler Warnings will be considered Errors<br>
+           wp  -- set a watchpoint.  Option has 2 arguments, e.g. <tt>wp &lt;kind&gt; &lt;address&gt;</tt>,<br>
+                  where &lt;kind&gt; is any of <tt>r</tt> (read), <tt>w</tt> (write) and <tt>c</tt> (value change),<br>
+                  e.g. <tt>rw</tt>.  Execution stops at the first access to a watched word.  Option may be repeated.<br>
           <n>  -- where <n> is an integer maximum count of steps to simulate.<br>
                   If 0, negative or not specified, there is no maximum.<br>
        $<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose <br>
@@ -108,6 +146,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private boolean startAtMain; // Whether to start execution at statement labeled 'main' 
       private boolean countInstructions; // Whether to count and report number of instructions executed 
       private boolean selfModifyingCode; // Whether to allow self-modifying code (e.g. write to text segment)
+      private boolean blockExecution; // Whether hot code may run as basic blocks
+      private boolean largeMemory; // Whether data, stack and kernel data segments are uncapped
+      private String memoryBackend; // Memory.HEAP_BACKEND, DIRECT_BACKEND or MAPPED_BACKEND
+      private String hartScheduler; // HartScheduler.PARALLEL or a seed
+      private String snapshotToRestore; // file for the rs option, or null
+      private String snapshotToSave; // file for the ss option, or null
+      private ArrayList inputFileList; // files for the in option, one per run
+      private String syscallLogToRecord; // file for the rl option, or null
+      private String syscallLogToPlay; // file for the pl option, or null
+      private SyscallLog syscallLog; // log opened for one of them
+      private boolean pageStatistics; // Whether to report number of memory pages allocated
+      private long timeLimit; // milliseconds, for the tl option, or 0 for none
+      private long outputLimit; // bytes, for the ol option, or 0 for none
+      private boolean jsonResult; // Whether to display the result of each run as JSON
+      private boolean profiling; // Whether to report the labels and instructions executed most
+      private String collapsedStacksFile; // file for the fg option, or null
+      private boolean collapsedStacksWritten; // whether a run has written to it yet
+      private ExecutionProfile profile; // counts for the pf and fg options
+      private String traceFile; // file for the tr option, or null
+      private ExecutionTrace trace; // trace opened for it
+      private String replayFile; // file for the rp option, or null
+      private TraceReplay replay; // caches and branch history tables to replay it into
       private static final String rangeSeparator = "-";
       private static final int splashDuration = 2000; // time in MS to show splash screen
       private static final int memoryWordsPerLine = 4; // display 4 memory words, tab separated, per line
@@ -122,6 +182,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private int instructionCount;
       private PrintStream out; // stream for display of command line output
       private ArrayList dumpTriples = null; // each element holds 3 arguments for dump option
+      private ArrayList watchpointList = new ArrayList(); // of Watchpoint, for the wp option
       private ArrayList programArgumentList; // optional program args for MIPS program (becomes argc, argv)
       private int assembleErrorExitCode;  // MARS command exit code to return if assemble error occurs
       private int simulateErrorExitCode;// MARS command exit code to return if simulation error occurs
@@ -145,12 +206,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             startAtMain = false;
             countInstructions = false;
 				selfModifyingCode = false;
+				blockExecution = true;
+            largeMemory = false;
+            memoryBackend = Memory.HEAP_BACKEND;
+            hartScheduler = HartScheduler.PARALLEL;
+            pageStatistics = false;
             instructionCount = 0;
             assembleErrorExitCode = 0;
             simulateErrorExitCode = 0;
             registerDisplayList = new ArrayList();
             memoryDisplayList = new ArrayList();
             filenameList = new ArrayList();
+            inputFileList = new ArrayList();
+            replay = new TraceReplay();
             MemoryConfigurations.setCurrentConfiguration(MemoryConfigurations.getDefaultConfiguration());
          	// do NOT use Globals.program for command line MARS -- it triggers 'backstep' log.
             code = new MIPSprogram();  
@@ -162,6 +230,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   displayRegistersPostMortem();
                   displayMemoryPostMortem();
                }
+               closeSyscallLog();
+               closeTrace();
                dumpSegments();
             }
             System.exit(Globals.exitCode);
@@ -311,6 +381,161 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
                continue;
             } 
+            if (args[i].toLowerCase().equals("wp")) {
+               if (args.length <= (i+2)) {
+                  out.println("Watchpoint command line argument requires a kind and an address.");
+                  argsOK = false;
+               } 
+               else {
+                  String kind = args[++i];
+                  String address = args[++i];
+                  try {
+                     watchpointList.add(new Watchpoint(Binary.stringToInt(address), kind));
+                  } 
+                      catch (NumberFormatException nfe) {
+                        out.println("Invalid watchpoint address: "+address);
+                        argsOK = false;
+                     }
+                      catch (IllegalArgumentException iae) {
+                        out.println("Invalid watchpoint kind: "+kind);
+                        argsOK = false;
+                     }
+               }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("mb")) {
+               String backendName = args[++i];
+               if (backendName.equals(Memory.HEAP_BACKEND) || backendName.equals(Memory.DIRECT_BACKEND)
+                   || backendName.equals(Memory.MAPPED_BACKEND)) {
+                  memoryBackend = backendName;
+               } 
+               else {
+                  out.println("Invalid memory backend: "+backendName);
+                  argsOK = false;
+               }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("hs")) {
+               String schedulerName = args[++i];
+               try {
+                  if (!schedulerName.equalsIgnoreCase(HartScheduler.PARALLEL)) {
+                     Long.parseLong(schedulerName);
+                  }
+                  hartScheduler = schedulerName;
+               } 
+                   catch (NumberFormatException nfe) {
+                     out.println("Invalid hart scheduler: "+schedulerName);
+                     argsOK = false;
+                  }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("rs")) {
+               snapshotToRestore = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("ss")) {
+               snapshotToSave = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("rl")) {
+               syscallLogToRecord = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("pl")) {
+               syscallLogToPlay = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("fg")) {
+               collapsedStacksFile = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("tr")) {
+               traceFile = args[++i];
+               continue;
+            }
+            if (args[i].toLowerCase().equals("rp")) {
+               replayFile = args[++i];
+               simulate = false;
+               continue;
+            }
+            if (args[i].toLowerCase().equals("cache")) {
+               if (args.length <= (i+4)) {
+                  out.println("Cache command line argument requires blocks, words per block, blocks per set and a policy.");
+                  argsOK = false;
+               } 
+               else {
+                  String policy = args[i+4];
+                  try {
+                     if (!policy.equalsIgnoreCase("LRU") && !policy.equalsIgnoreCase("Random")) {
+                        throw new IllegalArgumentException();
+                     }
+                     replay.addCache(new CacheModel(Integer.parseInt(args[i+1]), Integer.parseInt(args[i+2]),
+                                                    Integer.parseInt(args[i+3]),
+                                                    policy.equalsIgnoreCase("LRU") ? CacheModel.LRU : CacheModel.RANDOM,
+                                                    new Random(0)));
+                  } 
+                      catch (IllegalArgumentException iae) { // including NumberFormatException
+                        out.println("Invalid cache: "+args[i+1]+" "+args[i+2]+" "+args[i+3]+" "+policy);
+                        argsOK = false;
+                     }
+                  i += 4;
+               }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("bht")) {
+               if (args.length <= (i+3)) {
+                  out.println("BHT command line argument requires entries, history and an initial prediction.");
+                  argsOK = false;
+               } 
+               else {
+                  String initial = args[i+3];
+                  try {
+                     if (!initial.equalsIgnoreCase("T") && !initial.equalsIgnoreCase("NT")) {
+                        throw new IllegalArgumentException();
+                     }
+                     replay.addBranchHistoryTable(Integer.parseInt(args[i+1]), Integer.parseInt(args[i+2]),
+                                                  initial.equalsIgnoreCase("T"));
+                  } 
+                      catch (IllegalArgumentException iae) { // including NumberFormatException
+                        out.println("Invalid BHT: "+args[i+1]+" "+args[i+2]+" "+initial);
+                        argsOK = false;
+                     }
+                  i += 3;
+               }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("in")) {
+               String inputFile = args[++i];
+               if (!new File(inputFile).canRead()) {
+                  out.println("Cannot read input file: "+inputFile);
+                  argsOK = false;
+               } 
+               else {
+                  inputFileList.add(inputFile);
+               }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("tl") || args[i].toLowerCase().equals("ol")) {
+               String option = args[i].toLowerCase();
+               String limit = args[++i];
+               try {
+                  if (option.equals("tl")) {
+                     timeLimit = Long.decode(limit).longValue();
+                  } 
+                  else {
+                     outputLimit = Long.decode(limit).longValue();
+                  }
+               } 
+                   catch (NumberFormatException nfe) {
+                     out.println("Invalid "+((option.equals("tl")) ? "time" : "output")+" limit: "+limit);
+                     argsOK = false;
+                  }
+               continue;
+            }
+            if (args[i].toLowerCase().equals("json") || args[i].toLowerCase().equals("--json")) {
+               jsonResult = true;
+               continue;
+            }
             if (args[i].toLowerCase().equals("mc")) {
                String configName = args[++i];
                MemoryConfiguration config = MemoryConfigurations.getConfigurationByName(configName);
@@ -399,6 +624,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                selfModifyingCode = true;
                continue;
             }
+            if (args[i].toLowerCase().equals("ni")) {
+               blockExecution = false;
+               continue;
+            }
+            if (args[i].toLowerCase().equals("lm")) {
+               largeMemory = true;
+               continue;
+            }
+            if (args[i].toLowerCase().equals("ps")) {
+               pageStatistics = true;
+               continue;
+            }
+            if (args[i].toLowerCase().equals("pf")) {
+               profiling = true;
+               continue;
+            }
             if (args[i].toLowerCase().equals("ic")) { // added 19-Jul-2012 DPS
                countInstructions = true;
                continue;
@@ -467,6 +708,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          try {
             Globals.getSettings().setBooleanSettingNonPersistent(Settings.DELAYED_BRANCHING_ENABLED, delayedBranching);
             Globals.getSettings().setBooleanSettingNonPersistent(Settings.SELF_MODIFYING_CODE_ENABLED, selfModifyingCode);
+            Globals.getSettings().setBooleanSettingNonPersistent(Settings.BLOCK_EXECUTION_ENABLED, blockExecution);
+            Globals.getSettings().setBooleanSettingNonPersistent(Settings.LARGE_MEMORY_ENABLED, largeMemory);
+            Globals.getSettings().setMemoryBackendNonPersistent(memoryBackend);
+            Globals.getSettings().setHartSchedulerNonPersistent(hartScheduler);
             File mainFile = new File((String) filenameList.get(0)).getAbsoluteFile();// First file is "main" file
             ArrayList filesToAssemble;
             if (assembleProject) { 
@@ -506,18 +751,113 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                out.println(warnings.generateWarningReport());
             }
             RegisterFile.initializeProgramCounter(startAtMain); // DPS 3/9/09
+            if (replayFile != null) {
+               replayTrace();
+            }
             if (simulate) {
-               // store program args (if any) in MIPS memory
-               new ProgramArgumentList(programArgumentList).storeProgramArguments();
             	// establish observer if specified  
                establishObserver();
-               if (Globals.debug) {
-                  out.println("--------  SIMULATION BEGINS  -----------");
+               for (int i = 0; i < watchpointList.size(); i++) {
+                  try {
+                     Globals.memory.addWatchpoint((Watchpoint) watchpointList.get(i));
+                  } 
+                      catch (AddressErrorException aee) {
+                        out.println("Watchpoint address not in a data segment: "+Binary.intToHexString(aee.getAddress()));
+                     }
                }
-               programRan = true;
-               boolean done = code.simulate(maxSteps);
-               if (!done) {
-                  out.println("\nProgram terminated when maximum step limit "+maxSteps+" reached.");
+               if (syscallLogToRecord != null || syscallLogToPlay != null) {
+                  try {
+                     syscallLog = (syscallLogToPlay != null) ? new SyscallLog(new FileInputStream(syscallLogToPlay))
+                                                             : new SyscallLog(new FileOutputStream(syscallLogToRecord));
+                  } 
+                      catch (IOException ioe) {
+                        out.println("Error opening syscall log "+((syscallLogToPlay != null) ? syscallLogToPlay : syscallLogToRecord)
+                                    +": "+ioe.getMessage());
+                        return programRan;
+                     }
+                  SystemIO.setSyscallLog(syscallLog);
+               }
+               if (profiling || collapsedStacksFile != null) {
+                  profile = new ExecutionProfile();
+                  Simulator.getInstance().setProfile(profile);
+               }
+               if (traceFile != null) {
+                  try {
+                     trace = new ExecutionTrace(new File(traceFile));
+                  } 
+                      catch (IOException ioe) {
+                        out.println("Error opening trace "+traceFile+": "+ioe.getMessage());
+                        return programRan;
+                     }
+                  Simulator.getInstance().setTrace(trace);
+               }
+               ExecutionBudget budget = new ExecutionBudget(maxSteps, timeLimit, outputLimit);
+               // One run per input file, or one run on standard input if there are none.
+               int runs = Math.max(1, inputFileList.size());
+               for (int run = 0; run < runs; run++) {
+                  if (run > 0) {
+                     displayMiscellaneousPostMortem();
+                     displayRegistersPostMortem();
+                     displayMemoryPostMortem();
+                     code.reset(startAtMain);
+                     instructionCount = 0;
+                  }
+                  if (inputFileList.size() > 0) {
+                     try {
+                        SystemIO.setConsole(new FileInputStream((String) inputFileList.get(run)), null);
+                     } 
+                         catch (FileNotFoundException fnfe) {
+                           out.println("Cannot read input file: "+inputFileList.get(run));
+                           return programRan;
+                        }
+                  }
+                  // store program args (if any) in MIPS memory
+                  new ProgramArgumentList(programArgumentList).storeProgramArguments();
+                  if (snapshotToRestore != null) {
+                     try {
+                        SnapshotFile.restore(new File(snapshotToRestore));
+                     } 
+                         catch (IOException ioe) {
+                           out.println("Error restoring snapshot "+snapshotToRestore+": "+ioe.getMessage());
+                           return programRan;
+                        }
+                  }
+                  if (Globals.debug) {
+                     out.println("--------  SIMULATION BEGINS  -----------");
+                  }
+                  programRan = true;
+                  RunResult result = code.simulate(budget);
+                  if (jsonResult) {
+                     out.println("\n"+result.toJson());
+                  } 
+                  else if (result.getError() != null) {
+                     out.println(result.getError().errors().generateErrorAndWarningReport());
+                     out.println("Processing terminated due to errors.");
+                  } 
+                  else if (result.getReason() == Simulator.WATCHPOINT) {
+                     out.println("\nProgram stopped at "+Globals.memory.getWatchpointHit()+".");
+                  } 
+                  else if (result.getReason() == Simulator.TIME_LIMIT) {
+                     out.println("\nProgram terminated when time limit "+timeLimit+" ms reached.");
+                  } 
+                  else if (result.getReason() == Simulator.OUTPUT_LIMIT) {
+                     out.println("\nProgram terminated when output limit "+outputLimit+" bytes reached.");
+                  } 
+                  else if (!result.isDone()) {
+                     out.println("\nProgram terminated when maximum step limit "+maxSteps+" reached.");
+                  }
+                  // A run ending in error does not keep the program from running on the other inputs.
+                  if (result.getError() != null) {
+                     Globals.exitCode = simulateErrorExitCode;
+                  }
+                  if (snapshotToSave != null) {
+                     try {
+                        SnapshotFile.save(new File(snapshotToSave));
+                     } 
+                         catch (IOException ioe) {
+                           out.println("Error saving snapshot "+snapshotToSave+": "+ioe.getMessage());
+                        }
+                  }
                }
             }
             if (Globals.debug) {
@@ -533,6 +873,61 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    
+   	//////////////////////////////////////////////////////////////////////
+      // Replay the trace of the rp option into its caches and branch history tables,
+      // by default one of each as the tools start with, and display the results.
+   	
+      private void replayTrace() {
+         if (replay.isEmpty()) {
+            replay.addCache(new CacheModel(8, 4, 1, CacheModel.LRU, new Random(0)));
+            replay.addBranchHistoryTable(BHTSimulator.BHT_DEFAULT_SIZE, BHTSimulator.BHT_DEFAULT_HISTORY,
+                                         BHTSimulator.BHT_DEFAULT_INITVAL);
+         }
+         try {
+            ExecutionTraceReader reader = new ExecutionTraceReader(new File(replayFile));
+            try {
+               replay.replay(reader, delayedBranching);
+            }
+            finally {
+               reader.close();
+            }
+         } 
+             catch (IOException ioe) {
+               out.println("Error replaying trace "+replayFile+": "+ioe.getMessage());
+               return;
+            }
+         out.println(replay.getReport());
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+      // Finish the syscall log of the rl or pl option, if any, once all runs are done.
+   	
+      private void closeSyscallLog() {
+         if (syscallLog != null) {
+            try {
+               syscallLog.close();
+            } 
+                catch (IOException ioe) {
+                  out.println("Error writing syscall log "+syscallLogToRecord+": "+ioe.getMessage());
+               }
+         }
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+      // Finish the trace of the tr option, if any, once all runs are done.
+   	
+      private void closeTrace() {
+         if (trace != null) {
+            Simulator.getInstance().setTrace(null);
+            try {
+               trace.close();
+            } 
+                catch (IOException ioe) {
+                  out.println("Error writing trace "+traceFile+": "+ioe.getMessage());
+               }
+         }
+      }
+   
    	//////////////////////////////////////////////////////////////////////
       // Check for memory address subrange.  Has to be two integers separated
       // by "-"; no embedded spaces.  e.g. 0x00400000-0x00400010
@@ -598,6 +993,29 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (countInstructions) {
             out.println("\n"+instructionCount);
          }
+         if (pageStatistics) {
+            out.println("\nMemory pages allocated: "+Globals.memory.getAllocatedPageCount()+" data, "
+                        +Globals.memory.getAllocatedTextPageCount()+" text ("
+                        +(Globals.memory.getAllocatedPageCount()+Globals.memory.getAllocatedTextPageCount())*4+" KB)");
+         }
+         if (profiling) {
+            out.print("\n"+profile.getReport(ExecutionProfile.DEFAULT_REPORT_ROWS));
+         }
+         if (collapsedStacksFile != null) {
+            // The stacks of later runs are added to those of the first.
+            try {
+               FileWriter stacks = new FileWriter(collapsedStacksFile, collapsedStacksWritten);
+               stacks.write(profile.getCollapsedStacks());
+               stacks.close();
+               collapsedStacksWritten = true;
+            } 
+                catch (IOException ioe) {
+                  out.println("Error writing call stacks "+collapsedStacksFile+": "+ioe.getMessage());
+               }
+         }
+         if (profile != null) {
+            profile.clear();  // each run gets a profile of its own
+         }
       }
    
    	     		   	
@@ -792,6 +1210,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.");
          out.println("  ascii  -- display memory or register contents interpreted as ASCII codes.");
          out.println("      b  -- brief - do not display register/memory address along with contents");
+         out.println("    bht <entries> <history> <initial>  -- add a branch history table to rp: <entries> a");
+         out.println("            power of 2, <history> 1 or 2 bits, and <initial> T or NT to predict taken or");
+         out.println("            not taken at first.  Option may be repeated.");
+         out.println("  cache <blocks> <words> <set> <policy>  -- add a cache to rp: <blocks> blocks of");
+         out.println("            <words> words, <set> blocks per set (1 for direct mapping), and <policy>");
+         out.println("            LRU or Random replacement.  Option may be repeated.");
          out.println("      d  -- display MARS debugging statements");
          out.println("     db  -- MIPS delayed branching is enabled");
          out.println("    dec  -- display memory or register contents in decimal.");
@@ -801,9 +1225,30 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("            Segment and format are case-sensitive and possible values are:");
          out.println("            <segment> = "+segments);
          out.println("            <format> = "+formats);
+         out.println("     fg <file>  -- write the call stacks of the run to <file> in the collapsed stack");
+         out.println("            format of flamegraph.pl: a line per path of calls, with the instructions");
+         out.println("            executed at its end.  Stacks of later runs are added to the file.");
          out.println("      h  -- display this help.  Use by itself with no filename.");
          out.println("    hex  -- display memory or register contents in hexadecimal (default)");
+         out.println("     hs <scheduler>  -- set hart scheduler.  Argument <scheduler> is Parallel (default)");
+         out.println("            to run the harts a program starts at the same time, or an integer seed");
+         out.println("            to run them one at a time in an order that is the same on every run.");
          out.println("     ic  -- display count of MIPS basic instructions 'executed'");
+         out.println("     in <file>  -- read console input from <file>.  Option may be repeated: the");
+         out.println("            program then runs once per file, in order, and is reset between runs");
+         out.println("            rather than assembled again.  Register and memory contents are");
+         out.println("            displayed after each run.");
+         out.println("     lm  -- Large Memory - data segment, stack and kernel data segment extend to the");
+         out.println("            limits of the memory configuration rather than 4MB each");
+         out.println("   json  -- display the result of each run as one line of JSON, with the fields");
+         out.println("            reason (e.g. NORMAL_TERMINATION, MAX_STEPS, TIME_LIMIT, OUTPUT_LIMIT),");
+         out.println("            done, instructions, elapsedMilliseconds, instructionsPerSecond, exitCode");
+         out.println("            and, after a runtime error, error.  Replaces the messages on how the run");
+         out.println("            ended.  --json works too.");
+         out.println("     mb <backend>  -- set memory backend.  Argument <backend> is case-sensitive and");
+         out.println("            possible values are: Heap (default) for memory on the Java heap, Direct");
+         out.println("            for memory outside the Java heap, or Mapped for memory backed by a");
+         out.println("            temporary file.");
          out.println("     mc <config>  -- set memory configuration.  Argument <config> is");
          out.println("            case-sensitive and possible values are: Default for the default");
          out.println("            32-bit address space, CompactDataAtZero for a 32KB memory with");
@@ -812,11 +1257,39 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("     me  -- display MARS messages to standard err instead of standard out. ");
          out.println("            Can separate messages from program output using redirection");
          out.println("     nc  -- do not display copyright notice (for cleaner redirected/piped output).");
+         out.println("     ni  -- no block execution: interpret every instruction individually");
          out.println("     np  -- use of pseudo instructions and formats not permitted");
+         out.println("     ol <n>  -- output limit: stop the program once it has written <n> bytes to the");
+         out.println("            console.  Output past the limit is dropped.");
          out.println("      p  -- Project mode - assemble all files in the same directory as given file.");
+         out.println("     pf  -- display a profile at end of run: the labels under which most instructions");
+         out.println("            were executed, the functions that executed most in them and what they");
+         out.println("            call, and the instructions executed most with their source lines.");
+         out.println("     pl <file>  -- play back the syscall log in <file> written by rl: console input,");
+         out.println("            the time, random numbers and file results come from the log, and the");
+         out.println("            console, clock and files are left alone.  Sleep does not wait.");
+         out.println("     ps  -- display count of 4K memory pages allocated, at end of run");
+         out.println("     rl <file>  -- record in <file> the console input, time, random numbers and file");
+         out.println("            results the program's syscalls get, to run it again the same way with pl.");
+         out.println("     rp <file>  -- replay the trace in <file> written by tr for the program, instead of");
+         out.println("            running it: its loads and stores go to the caches of the cache options and");
+         out.println("            its branches to the tables of the bht options, 8 blocks of 4 words direct");
+         out.println("            mapped and a 16-entry 1-bit table if there are none, and their hit rates and");
+         out.println("            prediction accuracy are displayed.");
+         out.println("     rs <file>  -- restore the machine state saved in <file> by ss, once the program");
+         out.println("            is assembled, and run on from there.");
          out.println("  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.");
          out.println("     sm  -- start execution at statement with global label main, if defined");
          out.println("    smc  -- Self Modifying Code - Program can write and branch to either text or data segment");
+         out.println("     ss <file>  -- save the whole machine state in <file> at the end of the run, e.g.");
+         out.println("            when the step limit is reached, to be resumed later with rs.");
+         out.println("     tl <n>  -- time limit: stop the program once it has run for <n> milliseconds.");
+         out.println("     tr <file>  -- write a trace of the run to <file>: the address of each instruction");
+         out.println("            executed, and the address, size and value of each load and store, in a");
+         out.println("            compact binary format.");
+         out.println("     wp <kind> <address>  -- set a watchpoint on the word at <address>: execution stops");
+         out.println("            at the first access of the given kind, any of r (read), w (write) and");
+         out.println("            c (value change), e.g. rw.  Option may be repeated.");
          out.println("    <n>  -- where <n> is an integer maximum count of steps to simulate.");
          out.println("            If 0, negative or not specified, there is no maximum.");
          out.println(" $<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose ");
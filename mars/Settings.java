@@ -1,6 +1,7 @@
    package mars;
    import mars.*;
    import mars.util.*;
+   import mars.simulator.ExecutionConfig;
    import mars.venus.editors.jeditsyntax.*;
    import java.io.*;
    import java.util.*;
@@ -112,6 +113,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     /** Flag to determine whether a program can write binary code to the text or data segment and
         execute that code.  */
       public static final int SELF_MODIFYING_CODE_ENABLED = 20;	
+    /** Flag to determine whether hot straight-line code is run as basic blocks rather than
+        one instruction at a time.  Only used when there are no memory observers, the run is
+        not throttled and the program does not run as several harts.  A block stops before
+        any instruction with a breakpoint, so it does not change program behavior. */
+      public static final int BLOCK_EXECUTION_ENABLED = 21;
+    /** Flag to determine whether the data, stack and kernel data segments extend to the limits
+        of the memory configuration, rather than being capped at 4MB each.  Takes effect the
+        next time memory is cleared (i.e. at assembly). */
+      public static final int LARGE_MEMORY_ENABLED = 22;
    
       // NOTE: key sequence must match up with labels above which are used for array indexes!
       private static String[] booleanSettingsKeys = {"ExtendedAssembler", "BareMachine", "AssembleOnOpen", "AssembleAll",
@@ -120,7 +130,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          												"WarningsAreErrors", "ProgramArguments", "DataSegmentHighlighting",
          												"RegistersHighlighting", "StartAtMain", "EditorCurrentLineHighlighting",
          												"PopupInstructionGuidance", "PopupSyscallInput", "GenericTextEditor", 
-         												"AutoIndent", "SelfModifyingCode" };
+         												"AutoIndent", "SelfModifyingCode", "BlockExecution", "LargeMemory" };
    
       /** Last resort default values for boolean settings; will use only  if neither
    	 *  the Preferences nor the properties file work. If you wish to change them, 
@@ -129,7 +139,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
       public static boolean[] defaultBooleanSettingsValues = { // match the above list by position
                                               true, false, false, false, false, true, true, false, false, 
-         												 true, false, false, true, true, false, true, true, false, false, true, false };
+         												 true, false, false, true, true, false, true, true, false, false, true, false, true, false };
    
       // STRING SETTINGS.  Each array position has associated name.
    	/** Current specified exception handler file (a MIPS assembly source file) */
@@ -146,15 +156,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int EDITOR_TAB_SIZE = 5;
    	/** Number of letters to be matched by editor's instruction guide before popup generated (if popup enabled) */
       public static final int EDITOR_POPUP_PREFIX_LENGTH = 6;
+   	/** Where simulated memory is kept: Heap, Direct or Mapped (see Memory.HEAP_BACKEND etc.) */
+      public static final int MEMORY_BACKEND = 7;
+   	/** How harts are scheduled: Parallel, or a seed for one at a time (see HartScheduler) */
+      public static final int HART_SCHEDULER = 8;
    	// Match the above by position.
-      private static final String[] stringSettingsKeys = { "ExceptionHandler", "TextColumnOrder", "LabelSortState", "MemoryConfiguration", "CaretBlinkRate", "EditorTabSize", "EditorPopupPrefixLength" };
+      private static final String[] stringSettingsKeys = { "ExceptionHandler", "TextColumnOrder", "LabelSortState", "MemoryConfiguration", "CaretBlinkRate", "EditorTabSize", "EditorPopupPrefixLength", "MemoryBackend", "HartScheduler" };
    
       /** Last resort default values for String settings; 
    	 *  will use only if neither the Preferences nor the properties file work.
    	 *  If you wish to change, do so before instantiating the Settings object.
    	 *  Must match key by list position.
    	 */
-      private static String[] defaultStringSettingsValues = { "", "0 1 2 3 4", "0", "", "500", "8", "2" }; 
+      private static String[] defaultStringSettingsValues = { "", "0 1 2 3 4", "0", "", "500", "8", "2", "Heap", "Parallel" }; 
    
    
       // FONT SETTINGS.  Each array position has associated name.
@@ -305,7 +319,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @return true if backstepping is permitted, false otherwise.
      */
        public boolean getBackSteppingEnabled() {
-         return (Globals.program!=null && Globals.program.getBackStepper()!=null && Globals.program.getBackStepper().enabled());
+         MIPSprogram program = Machine.current().getProgram();
+         return (program!=null && program.getBackStepper()!=null && program.getBackStepper().enabled());
       }
    
    
@@ -627,6 +642,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return stringSettingsValues[MEMORY_CONFIGURATION];
       }
    		
+   	/**
+   	 * Returns identifier of the backend that keeps simulated memory.
+   	 * @return Memory.HEAP_BACKEND, Memory.DIRECT_BACKEND or Memory.MAPPED_BACKEND
+   	 */
+       public String getMemoryBackend() {
+         return stringSettingsValues[MEMORY_BACKEND];
+      }
+   		
+   	/**
+   	 * Returns how the harts of a program are scheduled.
+   	 * @return HartScheduler.PARALLEL, or the seed of the scheduler that runs one at a time
+   	 */
+       public String getHartScheduler() {
+         return stringSettingsValues[HART_SCHEDULER];
+      }
+   		
    	/**
    	 * Current editor font.  Retained for compatibility but replaced  
    	 * by: getFontByPosition(Settings.EDITOR_FONT)
@@ -988,6 +1019,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void setBooleanSettingNonPersistent(int id, boolean value) {
          if (id >=0 && id < booleanSettingsValues.length) {
             booleanSettingsValues[id] = value;
+            ExecutionConfig.refresh();
          } 
          else {
             throw new IllegalArgumentException("Invalid boolean setting ID");
@@ -1010,6 +1042,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	// setting (lost when MARS terminates).  For persistent, use
       	// the internalSetBooleanSetting() method instead.
          booleanSettingsValues[DELAYED_BRANCHING_ENABLED] = value;
+         ExecutionConfig.refresh();
       }
 
    
@@ -1029,6 +1062,47 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void setMemoryConfiguration(String config) {
          setStringSetting(MEMORY_CONFIGURATION, config);
       }
+   	 
+   	 /**
+   	  * Store the identifier of the memory backend.  Takes effect the next time memory is
+   	  * cleared (i.e. at assembly).
+   	  * @param backend Memory.HEAP_BACKEND, Memory.DIRECT_BACKEND or Memory.MAPPED_BACKEND
+   	  */
+   	  
+       public void setMemoryBackend(String backend) {
+         setStringSetting(MEMORY_BACKEND, backend);
+      }
+   	 
+   	 /**
+   	  * Establish the memory backend, without writing it to persistent storage.  Used
+   	  * by the command-line "mb" option.
+   	  * @param backend Memory.HEAP_BACKEND, Memory.DIRECT_BACKEND or Memory.MAPPED_BACKEND
+   	  */
+   	  
+       public void setMemoryBackendNonPersistent(String backend) {
+         // Assignment to the array alone is not written to persistent storage.
+         stringSettingsValues[MEMORY_BACKEND] = backend;
+      }
+   	 
+   	 /**
+   	  * Store how harts are scheduled.  Takes effect the next time a program starts a hart.
+   	  * @param scheduler HartScheduler.PARALLEL, or a seed
+   	  */
+   	  
+       public void setHartScheduler(String scheduler) {
+         setStringSetting(HART_SCHEDULER, scheduler);
+      }
+   	 
+   	 /**
+   	  * Establish how harts are scheduled, without writing it to persistent storage.  Used
+   	  * by the command-line "hs" option.
+   	  * @param scheduler HartScheduler.PARALLEL, or a seed
+   	  */
+   	  
+       public void setHartSchedulerNonPersistent(String scheduler) {
+         // Assignment to the array alone is not written to persistent storage.
+         stringSettingsValues[HART_SCHEDULER] = scheduler;
+      }
       
    	/**
    	 * Set the caret blinking rate in milliseconds.  Rate of 0 means no blinking.
@@ -1181,6 +1255,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (value != booleanSettingsValues[settingIndex]) {
             booleanSettingsValues[settingIndex] = value;
             saveBooleanSetting(settingIndex); 
+            ExecutionConfig.refresh();
 				setChanged(); 
 				notifyObservers();
          }		 
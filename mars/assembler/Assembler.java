@@ -8,6 +8,7 @@
    import mars.ErrorMessage;
    import mars.Globals;
    import mars.MIPSprogram;
+   import mars.Machine;
    import mars.ProcessingException;
    import mars.ProgramStatement;
    import mars.mips.hardware.AddressErrorException;
@@ -191,8 +192,8 @@
          externAddress = Memory.externBaseAddress;
          currentFileDataSegmentForwardReferences = new DataSegmentForwardReferences();
          accumulatedDataSegmentForwardReferences = new DataSegmentForwardReferences();
-         Globals.symbolTable.clear();
-         Globals.memory.clear();
+         Machine.current().getSymbolTable().clear();
+         Memory.getInstance().clear();
          this.machineList = new ArrayList();
          this.errors = new ErrorList(); 
          if (Globals.debug)
@@ -269,7 +270,7 @@
       // Have processed all source files. Attempt to resolve any remaining forward label
       // references from global symbol table. Those that remain unresolved are undefined
       // and require error message.
-         accumulatedDataSegmentForwardReferences.resolve(Globals.symbolTable);
+         accumulatedDataSegmentForwardReferences.resolve(Machine.current().getSymbolTable());
          accumulatedDataSegmentForwardReferences.generateErrorMessages(errors);
       
       // Throw collection of errors accumulated through the first pass.
@@ -386,7 +387,7 @@
             if (Globals.debug)
                System.out.println(statement);
             try {
-               Globals.memory.setStatement(statement.getAddress(), statement);
+               Memory.getInstance().setStatement(statement.getAddress(), statement);
             } 
                catch (AddressErrorException e) {
                   Token t = statement.getOriginalTokenList().get(0);
@@ -622,7 +623,7 @@
    // alternate compact translation.
       private boolean compactTranslationCanBeApplied(ProgramStatement statement) {
          return (statement.getInstruction() instanceof ExtendedInstruction
-            && Globals.memory.usingCompactMemoryConfiguration() && ((ExtendedInstruction) statement
+            && Memory.getInstance().usingCompactMemoryConfiguration() && ((ExtendedInstruction) statement
             	.getInstruction()).hasCompactTranslation());
       }
    
@@ -849,8 +850,8 @@
             }
             int size = Binary.stringToInt(tokens.get(2).getValue());
          // If label already in global symtab, do nothing. If not, add it right now.
-            if (Globals.symbolTable.getAddress(tokens.get(1).getValue()) == SymbolTable.NOT_FOUND) {
-               Globals.symbolTable.addSymbol(tokens.get(1), this.externAddress,
+            if (Machine.current().getSymbolTable().getAddress(tokens.get(1).getValue()) == SymbolTable.NOT_FOUND) {
+               Machine.current().getSymbolTable().addSymbol(tokens.get(1), this.externAddress,
                   Symbol.DATA_SYMBOL, errors);
                this.externAddress += size;
             }
@@ -905,14 +906,14 @@
                   		+ "\" declared global label but not defined."));
             } 
             else {
-               if (Globals.symbolTable.getAddress(label.getValue()) != SymbolTable.NOT_FOUND) {
+               if (Machine.current().getSymbolTable().getAddress(label.getValue()) != SymbolTable.NOT_FOUND) {
                   errors.add(new ErrorMessage(fileCurrentlyBeingAssembled, label.getSourceLine(),
                      label.getStartPos(), "\"" + label.getValue()
                      		+ "\" already defined as global in a different file."));
                } 
                else {
                   fileCurrentlyBeingAssembled.getLocalSymbolTable().removeSymbol(label);
-                  Globals.symbolTable.addSymbol(label, symtabEntry.getAddress(),
+                  Machine.current().getSymbolTable().addSymbol(label, symtabEntry.getAddress(),
                      symtabEntry.getType(), errors);
                }
             }
@@ -1099,7 +1100,7 @@
             ********/
             else {
                try {
-                  Globals.memory.set(this.textAddress.get(), value, lengthInBytes);
+                  Memory.getInstance().set(this.textAddress.get(), value, lengthInBytes);
                } 
                   catch (AddressErrorException e) {
                      errors.add(new ErrorMessage(token.getSourceMIPSprogram(),
@@ -1242,7 +1243,7 @@
                      }
                   }
                   try {
-                     Globals.memory.set(this.dataAddress.get(), (int) theChar,
+                     Memory.getInstance().set(this.dataAddress.get(), (int) theChar,
                         DataTypes.CHAR_SIZE);
                   } 
                      catch (AddressErrorException e) {
@@ -1254,7 +1255,7 @@
                }
                if (direct == Directives.ASCIIZ) {
                   try {
-                     Globals.memory.set(this.dataAddress.get(), 0, DataTypes.CHAR_SIZE);
+                     Memory.getInstance().set(this.dataAddress.get(), 0, DataTypes.CHAR_SIZE);
                   } 
                      catch (AddressErrorException e) {
                         errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
@@ -1290,7 +1291,7 @@
             this.dataAddress.set(this.alignToBoundary(this.dataAddress.get(), lengthInBytes));
          }
          try {
-            Globals.memory.set(this.dataAddress.get(), value, lengthInBytes);
+            Memory.getInstance().set(this.dataAddress.get(), value, lengthInBytes);
          } 
             catch (AddressErrorException e) {
                errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(), token
@@ -1314,7 +1315,7 @@
             this.dataAddress.set(this.alignToBoundary(this.dataAddress.get(), lengthInBytes));
          }
          try {
-            Globals.memory.setDouble(this.dataAddress.get(), value);
+            Memory.getInstance().setDouble(this.dataAddress.get(), value);
          } 
             catch (AddressErrorException e) {
                errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(), token
@@ -1474,7 +1475,7 @@
                if (labelAddress != SymbolTable.NOT_FOUND) {
                // patch address has to be valid b/c we already stored there...
                   try {
-                     Globals.memory.set(entry.patchAddress, labelAddress, entry.length);
+                     Memory.getInstance().set(entry.patchAddress, labelAddress, entry.length);
                   } 
                      catch (AddressErrorException aee) {
                      }
@@ -118,7 +118,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/		
        public int getAddressLocalOrGlobal(String s) {
          int address = this.getAddress(s);
-         return (address==NOT_FOUND) ? Globals.symbolTable.getAddress(s) : address ;
+         return (address==NOT_FOUND) ? Machine.current().getSymbolTable().getAddress(s) : address ;
       }
    	
    	
@@ -167,7 +167,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        **/
        public Symbol getSymbolGivenAddressLocalOrGlobal(String s){
          Symbol sym = this.getSymbolGivenAddress(s);
-         return (sym==null) ? Globals.symbolTable.getSymbolGivenAddress(s) : sym ;
+         return (sym==null) ? Machine.current().getSymbolTable().getSymbolGivenAddress(s) : sym ;
       }
    			  
    
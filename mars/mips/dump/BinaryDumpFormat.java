@@ -3,6 +3,8 @@
    import mars.Globals;
    import mars.mips.hardware.*;
    import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
 /*
 Copyright (c) 2003-2008,  Pete Sanderson and Kenneth Vollmar
 
@@ -34,7 +36,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 /**
  * Class that represents the "binary" memory dump format.  The output 
  * is a binary file containing the memory words as a byte stream.  Output
- * is produced using PrintStream's write() method.
+ * is produced through a FileChannel.
  * @author Pete Sanderson 
  * @version December 2007
  */
@@ -42,6 +44,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
     public class BinaryDumpFormat extends AbstractDumpFormat {
    
+      private static final int PAGE_LENGTH_BYTES = 4096;
+   
    /**
    *  Constructor.  There is no standard file extension for this format.
    */
@@ -51,8 +55,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    
    /**
-   *  Write MIPS memory contents in pure binary format.  One byte at a time
-	*  using PrintStream's write() method.  Adapted by Pete Sanderson from
+   *  Write MIPS memory contents in pure binary format.  One word at a time
+	*  through a FileChannel, or a 4K page at a time for pages kept off the Java heap.
+	*  Adapted by Pete Sanderson from
 	*  code written by Greg Gibeling.
 	*
    *  @param  file  File in which to store MIPS memory contents.  
@@ -65,20 +70,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    */
        public void dumpMemoryRange(File file, int firstAddress, int lastAddress) 
         throws AddressErrorException, IOException {
-         PrintStream out = new PrintStream(new FileOutputStream(file));
+         FileOutputStream stream = new FileOutputStream(file);
+         FileChannel channel = stream.getChannel();
+         ByteBuffer wordBytes = ByteBuffer.allocate(Memory.WORD_LENGTH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
          try {
-            for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
-               Integer temp = Globals.memory.getRawWordOrNull(address);
+            long last = lastAddress & 0xFFFFFFFFL;
+            for (long address = firstAddress & 0xFFFFFFFFL; address <= last; ) {
+               // A page kept off the Java heap is written straight from its storage.
+               if ((address & (PAGE_LENGTH_BYTES - 1)) == 0 && address + PAGE_LENGTH_BYTES - 1 <= last) {
+                  ByteBuffer page = Memory.getInstance().getPageBytes((int) address);
+                  if (page != null) {
+                     while (page.hasRemaining()) {
+                        channel.write(page);
+                     }
+                     address += PAGE_LENGTH_BYTES;
+                     continue;
+                  }
+               }
+               Integer temp = Memory.getInstance().getRawWordOrNull((int) address);
                if (temp == null) 
                   break;
-               int word = temp.intValue();
-               for (int i = 0; i < 4; i++) 
-                  out.write((word >>> (i << 3)) & 0xFF);
+               wordBytes.clear();
+               wordBytes.putInt(temp.intValue()).flip();
+               while (wordBytes.hasRemaining()) {
+                  channel.write(wordBytes);
+               }
+               address += Memory.WORD_LENGTH_BYTES;
             }
          } 
          finally { 
-            out.close(); 
+            channel.close();
+            stream.close(); 
          }
       }
-   
    }
\ No newline at end of file
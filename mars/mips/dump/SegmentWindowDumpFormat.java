@@ -95,7 +95,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      string = ((hexAddresses) ? Binary.intToHexString(address) : Binary.unsignedIntToIntString(address))  + "    ";
                   }
                   offset++;
-                  Integer temp = Globals.memory.getRawWordOrNull(address);
+                  Integer temp = Memory.getInstance().getRawWordOrNull(address);
                   if (temp == null) 
                      break;
                   string += ((hexValues) 
@@ -126,12 +126,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          try {
             for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
                string = ((hexAddresses) ? Binary.intToHexString(address) : Binary.unsignedIntToIntString(address))  + "  ";
-               Integer temp = Globals.memory.getRawWordOrNull(address);
+               Integer temp = Memory.getInstance().getRawWordOrNull(address);
                if (temp == null) 
                   break;
                string += Binary.intToHexString(temp.intValue()) + "  ";
                try {
-                  ProgramStatement ps = Globals.memory.getStatement(address);
+                  ProgramStatement ps = Memory.getInstance().getStatement(address);
                   string += (ps.getPrintableBasicAssemblyStatement()+"                      ").substring(0,22);
                   string += (((ps.getSource()=="") ? "" : new Integer(ps.getSourceLine()).toString())+"     ").substring(0,5);
                   string += ps.getSource();
@@ -54,6 +54,17 @@ public abstract class AccessNotice {
 		accessType = type;
 		thread = Thread.currentThread();
 	}
+	/** Reinitialize a notice that is being reused for another access. */
+	void reset(int type) {
+		accessType = type;
+		thread = Thread.currentThread();
+	}
+	
+	/** Attribute a reused notice to the thread that made the original access. */
+	void setThread(Thread thread) {
+		this.thread = thread;
+	}
+	
 	/** Get the access type: READ or WRITE.  
 	 * @return Access type, either AccessNotice.READ or AccessNotice.WRITE
 	 */
@@ -0,0 +1,179 @@
+   package mars.mips.hardware;
+   import java.util.*;
+
+/**
+ * Fixed-size ring buffer of memory and register access notices, for passing them
+ * from the simulator thread to an observer that processes them on a thread of its
+ * own.  It is meant for exactly one producer (the thread calling put()) and one
+ * consumer (the thread calling drain()).
+ * <p>
+ * Each notice is copied into preallocated parallel arrays, so put() does not allocate.
+ * drain() rebuilds the notices one at a time into a MemoryAccessNotice or
+ * RegisterAccessNotice that it reuses, so a consumer must not keep them.  Rebuilt
+ * notices report the producer's thread, so accessIsFromMIPS() still works.
+ * <p>
+ * When the buffer is full, put() either drops the notice (and counts it) or, if
+ * the buffer was created with back-pressure, waits for the consumer to make room.
+ * When it is empty, the consumer can block in awaitNotices() until put() wakes it.
+ * A waiting producer may be holding Globals.memoryAndRegistersLock, so a consumer
+ * of a back-pressure buffer must never try to acquire that lock.
+ */
+
+    public class AccessNoticeBuffer {
+
+     /** Capacity used by the tools, in notices. */
+      public static final int DEFAULT_CAPACITY = 1 << 14;
+
+      private final int mask;
+      private final boolean backPressure;
+      private final int[] types, addresses, lengths, values;
+      private final Observable[] resources;
+      private final String[] registerNames;  // null for memory notices
+      private volatile Thread producer;
+
+      private volatile long head = 0;  // next slot to write; written only by the producer
+      private volatile long tail = 0;  // next slot to read; written only by the consumer
+      private volatile long dropped = 0;
+      private volatile boolean closed = false;
+      private volatile boolean consumerWaiting = false;  // consumer is in awaitNotices()
+
+      private final MemoryAccessNotice memoryNotice = new MemoryAccessNotice(AccessNotice.READ, 0, 0, 0);
+      private final RegisterAccessNotice registerNotice = new RegisterAccessNotice(AccessNotice.READ, "");
+
+     /**
+      *  Create an empty buffer.
+      *
+      *  @param capacity number of notices it can hold; rounded up to a power of 2
+      *  @param backPressure true if put() should wait rather than drop a notice when full
+      */
+       public AccessNoticeBuffer(int capacity, boolean backPressure) {
+         int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+         this.mask = size - 1;
+         this.backPressure = backPressure;
+         types = new int[size];
+         addresses = new int[size];
+         lengths = new int[size];
+         values = new int[size];
+         resources = new Observable[size];
+         registerNames = new String[size];
+      }
+
+     /**
+      *  Append a copy of the notice.  Called by the producer only.
+      *
+      *  @param resource the Observable the notice came from
+      *  @param notice a MemoryAccessNotice or RegisterAccessNotice
+      *  @return true if the notice was stored, false if it was dropped
+      */
+       public boolean put(Observable resource, AccessNotice notice) {
+         long h = head;
+         while (h - tail > mask) {
+            if (!backPressure || closed) {
+               dropped++;
+               return false;
+            }
+            Thread.yield();
+         }
+         int slot = (int) h & mask;
+         types[slot] = notice.getAccessType();
+         resources[slot] = resource;
+         if (notice instanceof MemoryAccessNotice) {
+            MemoryAccessNotice m = (MemoryAccessNotice) notice;
+            addresses[slot] = m.getAddress();
+            lengths[slot] = m.getLength();
+            values[slot] = m.getValue();
+            registerNames[slot] = null;
+         }
+         else {
+            registerNames[slot] = ((RegisterAccessNotice) notice).getRegisterName();
+         }
+         producer = notice.getThread();
+         head = h + 1;
+         if (consumerWaiting) {
+            synchronized (this) {
+               notifyAll();
+            }
+         }
+         return true;
+      }
+
+     /**
+      *  Hand up to max buffered notices, oldest first, to the observer.  Called by the
+      *  consumer only.
+      *
+      *  @param observer receives update(resource, notice) for each notice
+      *  @param max largest number of notices to deliver in this call
+      *  @return number of notices delivered; fewer than are waiting if the buffer is
+      *  closed meanwhile
+      */
+       public int drain(Observer observer, int max) {
+         long t = tail;
+         int count = (int) Math.min(head - t, max);
+         Thread thread = producer;
+         for (int i = 0; i < count && !closed; i++) {
+            int slot = (int) (t + i) & mask;
+            AccessNotice notice;
+            if (registerNames[slot] == null) {
+               memoryNotice.set(types[slot], addresses[slot], lengths[slot], values[slot]);
+               notice = memoryNotice;
+            }
+            else {
+               registerNotice.set(types[slot], registerNames[slot]);
+               notice = registerNotice;
+            }
+            notice.setThread(thread);
+            Observable resource = resources[slot];
+            resources[slot] = null;
+            tail = t + i + 1;
+            observer.update(resource, notice);
+         }
+         return count;
+      }
+
+     /**
+      *  Wait until there is a notice to drain or the buffer is closed.  Called by the
+      *  consumer only.
+      *
+      *  @return true if there is a notice to drain, false if the buffer is closed
+      *  @throws InterruptedException if the consumer is interrupted while waiting
+      */
+       public boolean awaitNotices() throws InterruptedException {
+         synchronized (this) {
+            consumerWaiting = true;
+            try {
+               while (head == tail && !closed) {
+                  wait();
+               }
+            } 
+            finally {
+               consumerWaiting = false;
+            }
+         }
+         return !closed;
+      }
+
+     /**
+      *  Number of notices waiting to be drained.
+      */
+       public int size() {
+         return (int) (head - tail);
+      }
+
+     /**
+      *  Number of notices dropped so far because the buffer was full.
+      */
+       public long getDroppedCount() {
+         return dropped;
+      }
+
+     /**
+      *  Mark the buffer as no longer drained, so that a producer never waits on it again
+      *  and the consumer delivers no further notice from it.
+      */
+       public void close() {
+         closed = true;
+         synchronized (this) {
+            notifyAll();
+         }
+      }
+   }
@@ -1,5 +1,7 @@
    package mars.mips.hardware;
    import mars.Globals;
+   import mars.Machine;
+   import mars.simulator.ExecutionConfig;
    import java.util.*;
 
 /*
@@ -49,12 +51,35 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 		// bit 1 (exception level) not set, bit 0 (interrupt enable) set.
 		public static final int DEFAULT_STATUS_VALUE = 0x0000FF11;
 		
-      private static Register [] registers = 
-          { new Register("$8 (vaddr)", 8, 0),  
-            new Register("$12 (status)", 12, DEFAULT_STATUS_VALUE),
-         	new Register("$13 (cause)", 13, 0),  
-         	new Register("$14 (epc)", 14, 0)
+      // Register values, indexed by register number.  Only the four registers below exist;
+   	// the other slots are unused.
+      private final int[] values = new int[32];
+   
+      private final Register [] registers = 
+          { new Register("$8 (vaddr)", 8, 0, values, VADDR),  
+            new Register("$12 (status)", 12, DEFAULT_STATUS_VALUE, values, STATUS),
+         	new Register("$13 (cause)", 13, 0, values, CAUSE),  
+         	new Register("$14 (epc)", 14, 0, values, EPC)
            };
+   
+      // The same Register objects, indexed by register number (null where none exists).
+      private final Register [] registersByNumber = new Register[values.length];
+   
+   	/**
+   	  *  Create a set of Coprocessor 0 registers in their reset state.  Each mars.Machine
+   	  *  creates its own; the static methods act on those of the machine the calling
+   	  *  thread works on.
+   	  **/
+       public Coprocessor0() {
+         for (int i=0; i< registers.length; i++){
+            registersByNumber[registers[i].getNumber()] = registers[i];
+         }
+      }
+   
+      // Registers of the machine the calling thread works on.
+       private static Coprocessor0 current() {
+         return Machine.current().getCoprocessor0();
+      }
         												  
    	 
    	/**
@@ -62,10 +87,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/	 
    		 
        public static void showRegisters(){
-         for (int i=0; i< registers.length; i++){
-            System.out.println("Name: " + registers[i].getName());
-            System.out.println("Number: " + registers[i].getNumber());
-            System.out.println("Value: " + registers[i].getValue());	
+         Coprocessor0 cp0 = current();
+         for (int i=0; i< cp0.registers.length; i++){
+            System.out.println("Name: " + cp0.registers[i].getName());
+            System.out.println("Number: " + cp0.registers[i].getNumber());
+            System.out.println("Value: " + cp0.registers[i].getValue());	
             System.out.println(""); 
          }
       }
@@ -78,11 +104,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int updateRegister(String n, int val){
+		   Coprocessor0 cp0 = current();
 		   int oldValue = 0;
-         for (int i=0; i< registers.length; i++){
-            if(("$"+registers[i].getNumber()).equals(n) || registers[i].getName().equals(n)) {
-				   oldValue = registers[i].getValue();
-               registers[i].setValue(val);
+         for (int i=0; i< cp0.registers.length; i++){
+            if(("$"+cp0.registers[i].getNumber()).equals(n) || cp0.registers[i].getName().equals(n)) {
+				   oldValue = cp0.registers[i].getValue();
+               cp0.registers[i].setValue(val);
                break;
             }
          }
@@ -96,14 +123,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 		  *   @return old value in register prior to update
    	  **/
        public static int updateRegister(int num, int val){
+         Coprocessor0 cp0 = current();
          int old = 0;
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addCoprocessor0Restore(num,registers[i].setValue(val))
-                  		: registers[i].setValue(val);
-               break;
-            }
+         Register register = (num >= 0 && num < cp0.registersByNumber.length) ? cp0.registersByNumber[num] : null;
+         if (register != null) {
+            old = (ExecutionConfig.get().backstepping)
+                     ? Machine.current().getProgram().getBackStepper().addCoprocessor0Restore(num,register.setValue(val))
+               		: register.setValue(val);
          }
          return old;
 			}
@@ -116,12 +142,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               return registers[i].getValue();
-            }
-         }
-         return 0;
+         Coprocessor0 cp0 = current();
+         Register register = (num >= 0 && num < cp0.registersByNumber.length) ? cp0.registersByNumber[num] : null;
+         return (register == null) ? 0 : register.getValue();
       }
       		
       	/**
@@ -131,9 +154,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		  **/	
       		
        public static int getNumber(String n){
-         for (int i=0; i< registers.length; i++){
-            if(("$"+registers[i].getNumber()).equals(n) || registers[i].getName().equals(n)) {
-               return registers[i].getNumber();
+         Coprocessor0 cp0 = current();
+         for (int i=0; i< cp0.registers.length; i++){
+            if(("$"+cp0.registers[i].getNumber()).equals(n) || cp0.registers[i].getName().equals(n)) {
+               return cp0.registers[i].getNumber();
             }
          } 
          return -1;     
@@ -145,7 +169,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register[] getRegisters(){
-         return registers;
+         return current().registers;
       }
 
       
@@ -158,8 +182,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getRegisterPosition(Register r){
-         for (int i=0; i< registers.length; i++){
-            if(registers[i]==r) {
+         Coprocessor0 cp0 = current();
+         for (int i=0; i< cp0.registers.length; i++){
+            if(cp0.registers[i]==r) {
                return i;
             }
          } 
@@ -173,9 +198,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register getRegister(String rname) {
-         for (int i=0; i< registers.length; i++){
-            if(("$"+registers[i].getNumber()).equals(rname) || registers[i].getName().equals(rname)) {
-               return registers[i];
+         Coprocessor0 cp0 = current();
+         for (int i=0; i< cp0.registers.length; i++){
+            if(("$"+cp0.registers[i].getNumber()).equals(rname) || cp0.registers[i].getName().equals(rname)) {
+               return cp0.registers[i];
             }
          } 
          return null;
@@ -187,18 +213,39 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void resetRegisters(){
-         for(int i=0; i< registers.length; i++){
-            registers[i].resetValue();
+         Coprocessor0 cp0 = current();
+         for(int i=0; i< cp0.registers.length; i++){
+            cp0.registers[i].resetValue();
          }
       }
       
+      /**
+   	 *  Returns a copy of the values of all Coprocessor 0 registers, e.g. for a
+   	 *  checkpoint.  Put them back with restoreValues().
+   	 *  @return the values, in an array to be treated as opaque
+   	 */
+       public static int[] copyValues() {
+         return (int[]) current().values.clone();
+      }
+   
+      /**
+   	 *  Sets every register to a value returned by copyValues().  Observers are not
+   	 *  notified and no backstep is recorded.
+   	 *  @param saved values returned by copyValues()
+   	 */
+       public static void restoreValues(int[] saved) {
+         Coprocessor0 cp0 = current();
+         System.arraycopy(saved, 0, cp0.values, 0, cp0.values.length);
+      }
+   
       /**
    	 *  Each individual register is a separate object and Observable.  This handy method
    	 *  will add the given Observer to each one.  
    	 */
        public static void addRegistersObserver(Observer observer) {
-         for (int i=0; i<registers.length; i++) {
-            registers[i].addObserver(observer);
+         Coprocessor0 cp0 = current();
+         for (int i=0; i<cp0.registers.length; i++) {
+            cp0.registers[i].addObserver(observer);
          }
       }
       
@@ -207,8 +254,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will delete the given Observer from each one.  
    	 */
        public static void deleteRegistersObserver(Observer observer) {
-         for (int i=0; i<registers.length; i++) {
-            registers[i].deleteObserver(observer);
+         Coprocessor0 cp0 = current();
+         for (int i=0; i<cp0.registers.length; i++) {
+            cp0.registers[i].deleteObserver(observer);
          }
       }
 
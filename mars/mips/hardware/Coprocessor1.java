@@ -1,6 +1,8 @@
    package mars.mips.hardware;
    import mars.util.*;
    import mars.Globals;
+   import mars.Machine;
+   import mars.simulator.ExecutionConfig;
    import java.util.*;
 
 /*
@@ -48,38 +50,56 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 // storing into registers, and reassembled upon retrieval.
 
     public  class Coprocessor1 {
-      private static Register [] registers = 
-          { new Register("$f0", 0, 0),  new Register("$f1", 1, 0),
-         	new Register("$f2", 2, 0),  new Register("$f3", 3, 0),
-         	new Register("$f4", 4, 0),  new Register("$f5", 5, 0),
-         	new Register("$f6", 6, 0),  new Register("$f7", 7, 0),
-         	new Register("$f8", 8, 0),  new Register("$f9", 9, 0),
-         	new Register("$f10", 10, 0),new Register("$f11", 11, 0), 
-         	new Register("$f12", 12, 0),new Register("$f13", 13, 0),
-         	new Register("$f14", 14, 0),new Register("$f15", 15, 0),
-         	new Register("$f16", 16, 0),new Register("$f17", 17, 0),
-         	new Register("$f18", 18, 0),new Register("$f19", 19, 0),
-         	new Register("$f20", 20, 0),new Register("$f21", 21, 0),
-         	new Register("$f22", 22, 0),new Register("$f23", 23, 0),
-         	new Register("$f24", 24, 0),new Register("$f25", 25, 0),
-         	new Register("$f26", 26, 0),new Register("$f27", 27, 0),
-         	new Register("$f28", 28, 0),new Register("$f29", 29, 0),
-         	new Register("$f30", 30, 0),new Register("$f31", 31, 0)
+      // Values of $f0-$f31 at their register numbers, followed by the condition flags.
+   	// The Register objects below are views over these slots.
+      private final int[] values = new int[33];
+   
+      private final Register [] registers = 
+          { new Register("$f0", 0, 0, values, 0),  new Register("$f1", 1, 0, values, 1),
+         	new Register("$f2", 2, 0, values, 2),  new Register("$f3", 3, 0, values, 3),
+         	new Register("$f4", 4, 0, values, 4),  new Register("$f5", 5, 0, values, 5),
+         	new Register("$f6", 6, 0, values, 6),  new Register("$f7", 7, 0, values, 7),
+         	new Register("$f8", 8, 0, values, 8),  new Register("$f9", 9, 0, values, 9),
+         	new Register("$f10", 10, 0, values, 10),new Register("$f11", 11, 0, values, 11), 
+         	new Register("$f12", 12, 0, values, 12),new Register("$f13", 13, 0, values, 13),
+         	new Register("$f14", 14, 0, values, 14),new Register("$f15", 15, 0, values, 15),
+         	new Register("$f16", 16, 0, values, 16),new Register("$f17", 17, 0, values, 17),
+         	new Register("$f18", 18, 0, values, 18),new Register("$f19", 19, 0, values, 19),
+         	new Register("$f20", 20, 0, values, 20),new Register("$f21", 21, 0, values, 21),
+         	new Register("$f22", 22, 0, values, 22),new Register("$f23", 23, 0, values, 23),
+         	new Register("$f24", 24, 0, values, 24),new Register("$f25", 25, 0, values, 25),
+         	new Register("$f26", 26, 0, values, 26),new Register("$f27", 27, 0, values, 27),
+         	new Register("$f28", 28, 0, values, 28),new Register("$f29", 29, 0, values, 29),
+         	new Register("$f30", 30, 0, values, 30),new Register("$f31", 31, 0, values, 31)
            };
    	// The 8 condition flags will be stored in bits 0-7 for flags 0-7.
-      private static Register condition = new Register("cf",32, 0);	 
+      private final Register condition = new Register("cf",32, 0, values, 32);	 
       private static int numConditionFlags = 8;
+   
+   	/**
+   	  *  Create a set of floating point registers and condition flags in their reset
+   	  *  state.  Each mars.Machine creates its own; the static methods act on those of
+   	  *  the machine the calling thread works on.
+   	  **/
+       public Coprocessor1() {
+      }
+   
+      // Registers of the machine the calling thread works on.
+       private static Coprocessor1 current() {
+         return Machine.current().getCoprocessor1();
+      }
    	
    	/**
    	  *  Method for displaying the register values for debugging.
    	  **/	 
    		 
        public static void showRegisters(){
-         for (int i=0; i< registers.length; i++){
+         Coprocessor1 fpu = current();
+         for (int i=0; i< fpu.registers.length; i++){
           
-            System.out.println("Name: " + registers[i].getName());
-            System.out.println("Number: " + registers[i].getNumber());
-            System.out.println("Value: " + registers[i].getValue());	
+            System.out.println("Name: " + fpu.registers[i].getName());
+            System.out.println("Number: " + fpu.registers[i].getNumber());
+            System.out.println("Value: " + fpu.registers[i].getValue());	
             System.out.println(""); 
          }
       }
@@ -102,8 +122,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static void setRegisterToFloat(int reg, float val){
-         if(reg >= 0 && reg < registers.length) {
-            registers[reg].setValue(Float.floatToRawIntBits(val));
+         Coprocessor1 fpu = current();
+         if(reg >= 0 && reg < fpu.registers.length) {
+            fpu.registers[reg].setValue(Float.floatToRawIntBits(val));
          }
       }
    
@@ -127,8 +148,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static void setRegisterToInt(int reg, int val){
-         if(reg >= 0 && reg < registers.length) {
-            registers[reg].setValue(val);
+         Coprocessor1 fpu = current();
+         if(reg >= 0 && reg < fpu.registers.length) {
+            fpu.registers[reg].setValue(val);
          }
       }
    
@@ -144,12 +166,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static void setRegisterPairToDouble(int reg, double val) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 fpu = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
          long bits = Double.doubleToRawLongBits(val); 
-         registers[reg+1].setValue(Binary.highOrderLongToInt(bits));  // high order 32 bits
-         registers[reg].setValue(Binary.lowOrderLongToInt(bits)); // low order 32 bits
+         fpu.registers[reg+1].setValue(Binary.highOrderLongToInt(bits));  // high order 32 bits
+         fpu.registers[reg].setValue(Binary.lowOrderLongToInt(bits)); // low order 32 bits
       }
    
    
@@ -179,11 +202,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static void setRegisterPairToLong(int reg, long val) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 fpu = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         registers[reg+1].setValue(Binary.highOrderLongToInt(val));  // high order 32 bits
-         registers[reg].setValue(Binary.lowOrderLongToInt(val)); // low order 32 bits
+         fpu.registers[reg+1].setValue(Binary.highOrderLongToInt(val));  // high order 32 bits
+         fpu.registers[reg].setValue(Binary.lowOrderLongToInt(val)); // low order 32 bits
       }
    
    
@@ -210,9 +234,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static float getFloatFromRegister(int reg){
+         Coprocessor1 fpu = current();
          float result = 0F;
-         if(reg >= 0 && reg < registers.length) {
-            result = Float.intBitsToFloat(registers[reg].getValue());
+         if(reg >= 0 && reg < fpu.registers.length) {
+            result = Float.intBitsToFloat(fpu.registers[reg].getValue());
          }
          return result;
       }
@@ -236,9 +261,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getIntFromRegister(int reg){
+         Coprocessor1 fpu = current();
          int result = 0;
-         if(reg >= 0 && reg < registers.length) {
-            result = registers[reg].getValue();
+         if(reg >= 0 && reg < fpu.registers.length) {
+            result = fpu.registers[reg].getValue();
          }
          return result;
       }
@@ -264,11 +290,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static double getDoubleFromRegisterPair(int reg) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 fpu = current();
          double result = 0.0;
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         long bits = Binary.twoIntsToLong(registers[reg+1].getValue(),registers[reg].getValue());
+         long bits = Binary.twoIntsToLong(fpu.registers[reg+1].getValue(),fpu.registers[reg].getValue());
          return Double.longBitsToDouble(bits);
       }
    
@@ -296,11 +323,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static long getLongFromRegisterPair(int reg) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 fpu = current();
          double result = 0.0;
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         return Binary.twoIntsToLong(registers[reg+1].getValue(),registers[reg].getValue());
+         return Binary.twoIntsToLong(fpu.registers[reg+1].getValue(),fpu.registers[reg].getValue());
       }
    
    
@@ -326,14 +354,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static int updateRegister(int num, int val){
+         Coprocessor1 fpu = current();
          int old = 0;
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addCoprocessor1Restore(num,registers[i].setValue(val))
-                  		: registers[i].setValue(val);
-               break;
-            }
+         if (num >= 0 && num < fpu.registers.length) {
+            old = (ExecutionConfig.get().backstepping)
+                     ? Machine.current().getProgram().getBackStepper().addCoprocessor1Restore(num,fpu.registers[num].setValue(val))
+               		: fpu.registers[num].setValue(val);
          }
          return old;
       }
@@ -347,7 +373,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         return registers[num].getValue();
+         return current().registers[num].getValue();
       }
       		
       	/**
@@ -357,10 +383,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		  **/	
       		
        public static int getRegisterNumber(String n){
+         Coprocessor1 fpu = current();
          int j=-1;
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getName().equals(n)) {
-               j= registers[i].getNumber();
+         for (int i=0; i< fpu.registers.length; i++){
+            if(fpu.registers[i].getName().equals(n)) {
+               j= fpu.registers[i].getNumber();
                break;
             }
          } 
@@ -373,7 +400,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register[] getRegisters(){
-         return registers;
+         return current().registers;
       }
       
    	/**
@@ -383,11 +410,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register getRegister(String rName) {
+         Coprocessor1 fpu = current();
          Register reg = null;
          if (rName.charAt(0) == '$' && rName.length() > 1 && rName.charAt(1) == 'f') {
             try {
                    // check for register number 0-31.
-               reg = registers[Binary.stringToInt(rName.substring(2))];    // KENV 1/6/05
+               reg = fpu.registers[Binary.stringToInt(rName.substring(2))];    // KENV 1/6/05
             }
                 catch (Exception e) {
                    // handles both NumberFormat and ArrayIndexOutOfBounds
@@ -403,19 +431,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void resetRegisters(){
-         for(int i=0; i < registers.length; i++)
-            registers[i].resetValue();
+         Coprocessor1 fpu = current();
+         for(int i=0; i < fpu.registers.length; i++)
+            fpu.registers[i].resetValue();
          clearConditionFlags();
       }
       
    
+      /**
+   	 *  Returns a copy of the values of all Coprocessor 1 registers and the condition
+   	 *  flags, e.g. for a checkpoint.  Put them back with restoreValues().
+   	 *  @return the values, in an array to be treated as opaque
+   	 */
+       public static int[] copyValues() {
+         return (int[]) current().values.clone();
+      }
+   
+      /**
+   	 *  Sets every register to a value returned by copyValues().  Observers are not
+   	 *  notified and no backstep is recorded.
+   	 *  @param saved values returned by copyValues()
+   	 */
+       public static void restoreValues(int[] saved) {
+         Coprocessor1 fpu = current();
+         System.arraycopy(saved, 0, fpu.values, 0, fpu.values.length);
+      }
+   
       /**
    	 *  Each individual register is a separate object and Observable.  This handy method
    	 *  will add the given Observer to each one.  
    	 */
        public static void addRegistersObserver(Observer observer) {
-         for (int i=0; i<registers.length; i++) {
-            registers[i].addObserver(observer);
+         Coprocessor1 fpu = current();
+         for (int i=0; i<fpu.registers.length; i++) {
+            fpu.registers[i].addObserver(observer);
          }
       }
 
@@ -425,8 +474,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will delete the given Observer from each one.  
    	 */
        public static void deleteRegistersObserver(Observer observer) {
-         for (int i=0; i<registers.length; i++) {
-            registers[i].deleteObserver(observer);
+         Coprocessor1 fpu = current();
+         for (int i=0; i<fpu.registers.length; i++) {
+            fpu.registers[i].deleteObserver(observer);
          }
       }
    	
@@ -437,16 +487,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return previous flag setting (0 or 1)
    	 */
        public static int setConditionFlag(int flag) {
+         Coprocessor1 fpu = current();
          int old = 0;
          if (flag >= 0 && flag < numConditionFlags) {
             old = getConditionFlag(flag);
-            condition.setValue(Binary.setBit(condition.getValue(),flag));
-            if (Globals.getSettings().getBackSteppingEnabled())
+            fpu.condition.setValue(Binary.setBit(fpu.condition.getValue(),flag));
+            if (ExecutionConfig.get().backstepping)
                if (old==0) {
-                  Globals.program.getBackStepper().addConditionFlagClear(flag);
+                  Machine.current().getProgram().getBackStepper().addConditionFlagClear(flag);
                } 
                else {
-                  Globals.program.getBackStepper().addConditionFlagSet(flag);
+                  Machine.current().getProgram().getBackStepper().addConditionFlagSet(flag);
                }
          }
          return old;
@@ -459,16 +510,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return previous flag setting (0 or 1)
    	 */
        public static int clearConditionFlag(int flag) {
+         Coprocessor1 fpu = current();
          int old = 0;
          if (flag >= 0 && flag < numConditionFlags) {
             old = getConditionFlag(flag);
-            condition.setValue(Binary.clearBit(condition.getValue(),flag));
-            if (Globals.getSettings().getBackSteppingEnabled())
+            fpu.condition.setValue(Binary.clearBit(fpu.condition.getValue(),flag));
+            if (ExecutionConfig.get().backstepping)
                if (old==0) {
-                  Globals.program.getBackStepper().addConditionFlagClear(flag);
+                  Machine.current().getProgram().getBackStepper().addConditionFlagClear(flag);
                } 
                else {
-                  Globals.program.getBackStepper().addConditionFlagSet(flag);
+                  Machine.current().getProgram().getBackStepper().addConditionFlagSet(flag);
                }
          }
          return old;
@@ -482,9 +534,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return 0 if condition is false, 1 if condition is true
    	 */
        public static int getConditionFlag(int flag) {
+         Coprocessor1 fpu = current();
          if (flag < 0 || flag >= numConditionFlags) 
             flag = 0;
-         return Binary.bitValue(condition.getValue(), flag);
+         return Binary.bitValue(fpu.condition.getValue(), flag);
       }		
    	
    	
@@ -494,7 +547,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return array of int condition flags
    	 */
        public static int getConditionFlags() {
-         return condition.getValue();
+         return current().condition.getValue();
       }	
    	
    	
@@ -503,7 +556,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *
    	 */
        public static void clearConditionFlags() {
-         condition.setValue(0);  // sets all 32 bits to 0.
+         current().condition.setValue(0);  // sets all 32 bits to 0.
       }		
    	
       /**
@@ -511,7 +564,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *
    	 */
        public static void setConditionFlags() {
-         condition.setValue(-1);  // sets all 32 bits to 1.
+         current().condition.setValue(-1);  // sets all 32 bits to 1.
       }	
    	
       /**
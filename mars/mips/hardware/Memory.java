@@ -4,6 +4,9 @@
    import mars.simulator.*;
    import mars.mips.instructions.*;
    import java.util.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+   import java.io.*;
 	
 	/*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -89,91 +92,110 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	/** Current setting for endian (default LITTLE_ENDIAN) **/
       private static boolean byteOrder = LITTLE_ENDIAN;
    	
-      public static int heapAddress;
+      private int heapAddress;
    
     // Memory will maintain a collection of observables.  Each one is associated
     // with a specific memory address or address range, and each will have at least
     // one observer registered with it.  When memory access is made, make sure only
     // observables associated with that address send notices to their observers.
     // This assures that observers are not bombarded with notices from memory
-    // addresses they do not care about.
-    //
-    // Would like a tree-like implementation, but that is complicated by this fact:
-    // key for insertion into the tree would be based on Comparable using both low 
-    // and high end of address range, but retrieval from the tree has to be based
-    // on target address being ANYWHERE IN THE RANGE (not an exact key match).
+    // addresses they do not care about.  MemoryObserverTable indexes them by page,
+    // so that an access to an address nobody observes costs one array lookup.
       
-      Collection observables = getNewMemoryObserversCollection();
-   
-    // The data segment is allocated in blocks of 1024 ints (4096 bytes).  Each block is
-    // referenced by a "block table" entry, and the table has 1024 entries.  The capacity
-    // is thus 1024 entries * 4096 bytes = 4 MB.  Should be enough to cover most
-    // programs!!  Beyond that it would go to an "indirect" block (similar to Unix i-nodes),
-    // which is not implemented.
-    //
-    // Although this scheme is an array of arrays, it is relatively space-efficient since
-    // only the table is created initially. A 4096-byte block is not allocated until a value 
-    // is written to an address within it.  Thus most small programs will use only 8K bytes 
-    // of space (the table plus one block).  The index into both arrays is easily computed 
-    // from the address; access time is constant.
+      MemoryObserverTable observables = new MemoryObserverTable();
+   
+    // Every segment has a capacity of 4 MB: BLOCK_TABLE_LENGTH blocks of BLOCK_LENGTH_WORDS
+    // words, a block being 4K bytes.  That should be enough to cover most programs!!
+    // The exceptions are memory mapped I/O, limited to 64K (MMIO_TABLE_LENGTH blocks),
+    // and the text segments, whose blocks hold references to ProgramStatement objects
+    // rather than int's.  With Settings.LARGE_MEMORY_ENABLED the data, stack and kernel
+    // data segments are not capped, and extend to the limits of the memory configuration
+    // (e.g. the default data segment then spans 0x10000000 to 0x7ffffffe).
     //
     // SPIM stores statically allocated data (following first .data directive) starting
     // at location 0x10010000.  This is the first Data Segment word beyond the reach of $gp
     // used in conjunction with signed 16 bit immediate offset.  $gp has value 0x10008000
     // and with the signed 16 bit offset can reach from 0x10008000 - 0xFFFF = 0x10000000 
     // (Data Segment base) to 0x10008000 + 0x7FFF = 0x1000FFFF (the byte preceding 0x10010000).
-    //
-    // Using my scheme, 0x10010000 falls at the beginning of the 17'th block -- table entry 16.
     // SPIM uses a heap base address of 0x10040000 which is not part of the MIPS specification.
-    // (I don't have a reference for that offhand...)  Using my scheme, 0x10040000 falls at
-    // the start of the 65'th block -- table entry 64.  That leaves (1024-64) * 4096 = 3,932,160
-    // bytes of space available without going indirect.
+    // That leaves (1024-64) * 4096 = 3,932,160 bytes of heap.
     
       private static final int BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 ints == 4K bytes
-      private static final int BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
-      private int[][] dataBlockTable;
-      private int[][] kernelDataBlockTable;
-    
-    // The stack is modeled similarly to the data segment.  It cannot share the same
-    // data structure because the stack base address is very large.  To store it in the
-    // same data structure would require implementation of indirect blocks, which has not
-    // been realized.  So the stack gets its own table of blocks using the same dimensions 
-    // and allocation scheme used for data segment.
-    //
-    // The other major difference is the stack grows DOWNWARD from its base address, not
-    // upward.  I.e., the stack base is the largest stack address. This turns the whole 
-    // scheme for translating memory address to block-offset on its head!  The simplest
-    // solution is to calculate relative address (offset from base) by subtracting the 
-    // desired address from the stack base address (rather than subtracting base address 
-    // from desired address).  Thus as the address gets smaller the offset gets larger.
-    // Everything else works the same, so it shares some private helper methods with
-    // data segment algorithms.
-    
-      private int[][] stackBlockTable;
-   
-    // Memory mapped I/O is simulated with a separate table using the same structure and
-    // logic as data segment.  Memory is allocated in 4K byte blocks.  But since MMIO
-    // address range is limited to 0xffff0000 to 0xfffffffc, there are only 64K bytes 
-    // total.  Thus there will be a maximum of 16 blocks, and I suspect never more than
-    // one since only the first few addresses are typically used.  The only exception
-    // may be a rogue program generating such addresses in a loop.  Note that the
-    // MMIO addresses are interpreted by Java as negative numbers since it does not 
-    // have unsigned types.  As long as the absolute address is correctly translated
-    // into a table offset, this is of no concern.
-   
-      private static final int MMIO_TABLE_LENGTH = 16; // Each entry of table points to a 4K block.
-      private int[][] memoryMapBlockTable;
-   	    
-    // I use a similar scheme for storing instructions.  MIPS text segment ranges from
-    // 0x00400000 all the way to data segment (0x10000000) a range of about 250 MB!  So
-    // I'll provide table of blocks with similar capacity.  This differs from data segment
-    // somewhat in that the block entries do not contain int's, but instead contain
-    // references to ProgramStatement objects.  
-   
+      private static final int BLOCK_TABLE_LENGTH = 1024; // blocks per segment
+      private static final int MMIO_TABLE_LENGTH = 16; // blocks for memory mapped I/O
       private static final int TEXT_BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 ints == 4K bytes
-      private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
-      private ProgramStatement[][] textBlockTable;
-      private ProgramStatement[][] kernelTextBlockTable;
+      private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // blocks per text segment
+   
+    // All segments are stored in one two-level page directory covering the whole 32-bit
+    // address space.  The top 10 bits of an address select a directory entry (4 MB), the
+    // next 10 bits select a MemoryPage (4K) within it.  The page carries the permission
+    // bits of its segment (read/write/execute/MMIO/kernel) along with its storage, so a
+    // load or store needs two array lookups to find both, whichever segment it hits.
+    // Both levels are sparse: a directory entry and a page are created the first time an
+    // address in them is used, and a page's storage the first time it is written, so
+    // memory use follows what the program touches rather than the size of its segments.
+    // Addresses no segment reaches never get a page.
+    //
+    // Unlike the old per-segment block tables, storage is indexed by absolute address.
+    // The stack used to be stored "backward" from its base; it is now laid out like the
+    // others, so multi-byte accesses that cross a word boundary in the stack finally
+    // touch the right bytes.
+    //
+    // Segment limits need not be page-aligned and the compact configurations put the
+    // stack inside the data segment.  A page not wholly owned by one segment has
+    // permissions 0, and accesses to it consult the segment ranges below, in priority
+    // order (data, stack, text, MMIO, kernel data, kernel text).
+   
+      private static final int DIRECTORY_BITS = 22;
+      private static final int DIRECTORY_LENGTH = 1 << (32 - DIRECTORY_BITS);
+      private static final int PAGES_PER_ENTRY = 1 << (DIRECTORY_BITS - MemoryPage.PAGE_BITS);
+      private MemoryPage[][] pageDirectory;
+      private int[] segmentLow, segmentHigh, segmentPermissions;  // inclusive bounds
+      private int allocatedPages, allocatedTextPages;  // pages holding words and statements
+   
+    // Where the words of each page are kept, as chosen by Settings.getMemoryBackend() when
+    // memory is cleared: int arrays on the Java heap (HEAP_BACKEND), or outside the heap
+    // in direct buffers (DIRECT_BACKEND) or a memory-mapped scratch file (MAPPED_BACKEND).
+    // The latter two keep large simulated memories from inflating the heap and GC pauses.
+    // The store is null for the heap.
+   
+    /** Identifier of the backend keeping simulated memory in int arrays on the Java heap (default). */
+      public static final String HEAP_BACKEND = "Heap";
+    /** Identifier of the backend keeping simulated memory in direct (off-heap) buffers. */
+      public static final String DIRECT_BACKEND = "Direct";
+    /** Identifier of the backend keeping simulated memory in a memory-mapped scratch file. */
+      public static final String MAPPED_BACKEND = "Mapped";
+      private MemoryBackingStore backingStore;
+   
+    // Watchpoints, in the order they were set.  Every page holding a watched word is
+    // flagged as guarded (see createPage), and only accesses to guarded pages look
+    // through this array, right where observers are notified.  It is replaced rather
+    // than changed, so the simulator can read it without locking.  Only the accesses of
+    // watchingThread, the simulator thread of hart 0's run in progress, can hit one: not
+    // those of the GUI, tools or other harts.  The first hit since the simulator last
+    // cleared it is kept in watchpointHit.
+      private volatile Watchpoint[] watchpoints = new Watchpoint[0];
+      private volatile Thread watchingThread;
+      private volatile WatchpointHit watchpointHit;
+   
+    // Load-linked reservations of the harts sharing this memory (see HartScheduler): the
+    // address of the word each hart last reserved with loadLinked(), by hart number, or
+    // NO_RESERVATION.  Null while there is only one hart, and then ll and sc act as lw and
+    // sw, as they always have in MARS.  While it is not null, every store takes this
+    // Memory's monitor to write and break the reservations of the word at once, so that a
+    // store conditional by another hart comes either before both or after both.
+      private volatile int[] reservations;
+      private static final int NO_RESERVATION = 1;  // never a word address
+   
+    // Trace of the run in progress, if any, told of each load and store right where
+    // observers are notified.  It records only those of the simulator thread, which is
+    // the one that sets it, so it is deliberately not volatile.
+      private ExecutionTrace trace;
+   
+    // Flattened, pre-decoded copy of both text segments for the simulator's fetch loop.
+    // Built on demand and dropped whenever memory is cleared.  Every statement stored
+    // while it exists is passed along so it never goes stale (see setStatement).
+      private DecodedProgram decodedProgram;
     
     // Set "top" address boundary to go with each "base" address.  This determines permissable
     // address range for user program.  Currently limit is 4MB, or 1024 * 1024 * 4 bytes based
@@ -191,27 +213,43 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       														  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES;
       public static int memoryMapLimitAddress   = memoryMapBaseAddress + 
                                  					  BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES;  
-    // This will be a Singleton class, only one instance is ever created.  Since I know the 
-    // Memory object is always needed, I'll go ahead and create it at the time of class loading.
-    // (greedy rather than lazy instantiation).  The constructor is private and getInstance()
-    // always returns this instance.
-    
-      private static Memory uniqueMemoryInstance = new Memory(); 
-   	
-    
-    /*
-     * Private constructor for Memory.  Separate data structures for text and data segments. 
+    // Set for good by fixConfiguration(), after which the addresses above do not change.
+      private static volatile boolean configurationFixed = false;
+    /**
+     * Create the memory of a machine.  Each mars.Machine creates its own; everyone else
+     * should use getInstance().  Separate data structures for text and data segments. 
      **/
-       private Memory() {
+       public Memory() {
          initialize();
       }
    
      /**
-      * Returns the unique Memory instance, which becomes in essence global.
+      * Returns the memory of the machine the calling thread works on (see mars.Machine).
+      * Unless the thread was bound to another machine, this is the default machine's,
+      * which is also Globals.memory.
    	*/
    	
        public static Memory getInstance() {
-         return uniqueMemoryInstance;
+         return Machine.current().getMemory();
+      }
+   	
+     /**
+     * Fixes the memory configuration as it is now: from then on setConfiguration() leaves
+     * the segment addresses alone and MemoryConfigurations refuses to switch to another
+     * configuration.  The addresses are static, so every machine uses the same ones, and
+     * they must not change under a machine that may be running.  mars.Machine calls this
+     * when the first machine other than the default is created.
+     */
+       public static synchronized void fixConfiguration() {
+         configurationFixed = true;
+      }
+   
+     /**
+     * Tells whether the memory configuration is fixed (see fixConfiguration()).
+     * @return true once a machine other than the default has been created
+     */
+       public static boolean isConfigurationFixed() {
+         return configurationFixed;
       }
    	
    	/**
@@ -221,15 +259,25 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void clear() {
          setConfiguration();
          initialize(); 		
+         // Call garbage collector on any Table memory just deallocated.  Only for the
+      	// default machine: other machines are typically run many at a time, e.g. by a
+      	// pool of grading jobs, and a full collection for each would stall all of them.
+         if (this == Machine.getDefault().getMemory()) {
+            System.gc();
+         }
       }
    
      /**
      * Sets current memory configuration for simulated MIPS.  Configuration is 
      * collection of memory segment addresses. e.g. text segment starting at 
      * address 0x00400000.  Configuration can be modified starting with MARS 3.7.
+     * Does nothing once the configuration is fixed (see fixConfiguration()).
      */
    
-       public static void setConfiguration() {
+       public static synchronized void setConfiguration() {
+         if (configurationFixed) {
+            return;
+         }
          textBaseAddress = MemoryConfigurations.getCurrentConfiguration().getTextBaseAddress(); //0x00400000;
          dataSegmentBaseAddress = MemoryConfigurations.getCurrentConfiguration().getDataSegmentBaseAddress(); //0x10000000;
          externBaseAddress = MemoryConfigurations.getCurrentConfiguration().getExternBaseAddress(); //0x10000000;
@@ -245,19 +293,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          kernelDataBaseAddress = MemoryConfigurations.getCurrentConfiguration().getKernelDataBaseAddress(); //0x90000000;
          memoryMapBaseAddress = MemoryConfigurations.getCurrentConfiguration().getMemoryMapBaseAddress(); //0xffff0000;
          kernelHighAddress = MemoryConfigurations.getCurrentConfiguration().getKernelHighAddress(); //0xffffffff;		
-         dataSegmentLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress(),
+         boolean largeMemory = Globals.getSettings() != null 
+                        && Globals.getSettings().getBooleanSetting(Settings.LARGE_MEMORY_ENABLED);
+         dataSegmentLimitAddress = (largeMemory) 
+                                    ? MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress()
+                                    : Math.min(MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress(),
                                       dataSegmentBaseAddress + 
             								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
          textLimitAddress        = Math.min(MemoryConfigurations.getCurrentConfiguration().getTextLimitAddress(),
                                       textBaseAddress + 
             								  TEXT_BLOCK_LENGTH_WORDS * TEXT_BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);																  
-         kernelDataSegmentLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress(),
+         kernelDataSegmentLimitAddress = (largeMemory)
+                                    ? MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress()
+                                    : Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress(),
                                       kernelDataBaseAddress + 
             								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
          kernelTextLimitAddress  = Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelTextLimitAddress(),
                                       kernelTextBaseAddress + 
             								  TEXT_BLOCK_LENGTH_WORDS * TEXT_BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);																  
-         stackLimitAddress       = Math.max(MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress(),
+         stackLimitAddress       = (largeMemory)
+                                    ? MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress()
+                                    : Math.max(MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress(),
                                       stackBaseAddress - 
             								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
          memoryMapLimitAddress   = Math.min(MemoryConfigurations.getCurrentConfiguration().getMemoryMapLimitAddress(),
@@ -286,36 +342,115 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
        private void initialize() {
          heapAddress = heapBaseAddress;
-         textBlockTable  = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-         dataBlockTable  = new int[BLOCK_TABLE_LENGTH][]; // array of null int[] references
-         kernelTextBlockTable  = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-         kernelDataBlockTable  = new int[BLOCK_TABLE_LENGTH][];      
-         stackBlockTable = new int[BLOCK_TABLE_LENGTH][];
-         memoryMapBlockTable = new int[MMIO_TABLE_LENGTH][];
-         System.gc(); // call garbage collector on any Table memory just deallocated. 	  
+         reservations = null;
+         buildPageDirectory();
+         decodedProgram = null;
       }  
+   
+    // Record the segment ranges of the current configuration and start with an empty 
+    // page directory.
+       private void buildPageDirectory() {
+         int readWrite = MemoryPage.READ | MemoryPage.WRITE;
+         segmentLow = new int[] { dataSegmentBaseAddress, stackLimitAddress + 1, textBaseAddress,
+                                  memoryMapBaseAddress, kernelDataBaseAddress, kernelTextBaseAddress };
+         segmentHigh = new int[] { dataSegmentLimitAddress - 1, stackBaseAddress, textLimitAddress - 1,
+                                   memoryMapLimitAddress - 1, kernelDataSegmentLimitAddress - 1, kernelTextLimitAddress - 1 };
+         segmentPermissions = new int[] { readWrite, readWrite, MemoryPage.EXECUTE, 
+                                          readWrite | MemoryPage.MMIO | MemoryPage.KERNEL,
+                                          readWrite | MemoryPage.KERNEL, MemoryPage.EXECUTE | MemoryPage.KERNEL };
+         pageDirectory = new MemoryPage[DIRECTORY_LENGTH][];
+         allocatedPages = 0;
+         allocatedTextPages = 0;
+         if (backingStore != null) {
+            backingStore.close();
+         }
+         String backend = (Globals.getSettings() == null) ? HEAP_BACKEND : Globals.getSettings().getMemoryBackend();
+         backingStore = (DIRECT_BACKEND.equals(backend) || MAPPED_BACKEND.equals(backend)) 
+                        ? new MemoryBackingStore(MAPPED_BACKEND.equals(backend)) : null;
+      }
+   
+    // The page holding the given address, or null if no segment reaches that page.
+       private MemoryPage getPage(int address) {
+         MemoryPage[] entry = pageDirectory[address >>> DIRECTORY_BITS];
+         if (entry != null) {
+            MemoryPage page = entry[(address >>> MemoryPage.PAGE_BITS) & (PAGES_PER_ENTRY - 1)];
+            if (page != null) {
+               return page;
+            }
+         }
+         return createPage(address);
+      }
+   
+    // Create the page holding the given address, if some segment reaches it.  The page
+    // belongs to the first segment that reaches it, if that segment covers all of it.
+    // Synchronized, and checks again, because the GUI may look up a page while the
+    // simulator is creating it.
+       private synchronized MemoryPage createPage(int address) {
+         MemoryPage[] entry = pageDirectory[address >>> DIRECTORY_BITS];
+         int index = (address >>> MemoryPage.PAGE_BITS) & (PAGES_PER_ENTRY - 1);
+         if (entry != null && entry[index] != null) {
+            return entry[index];
+         }
+         int pageLow = address & -(1 << MemoryPage.PAGE_BITS);
+         int pageHigh = pageLow + (1 << MemoryPage.PAGE_BITS) - 1;
+         for (int segment = 0; segment < segmentLow.length; segment++) {
+            int low = segmentLow[segment];
+            int high = segmentHigh[segment];
+            if (low <= high && low <= pageHigh && high >= pageLow) {
+               if (entry == null) {
+                  entry = new MemoryPage[PAGES_PER_ENTRY];
+                  pageDirectory[address >>> DIRECTORY_BITS] = entry;
+               }
+               int permissions = (low <= pageLow && high >= pageHigh) ? segmentPermissions[segment] : 0;
+               MemoryPage page = (backingStore == null) ? new MemoryPage(permissions) 
+                                                        : new OffHeapMemoryPage(permissions, backingStore);
+               page.guarded = isWatched(pageLow);
+               entry[index] = page;
+               return page;
+            }
+         }
+         return null;
+      }
+   
+    // Permission bits for the given address, which lies in the given page (null if none).
+    // Pages shared by segments need the address to be checked against each segment.
+       private int getPermissions(MemoryPage page, int address) {
+         if (page == null) {
+            return 0;
+         }
+         if (page.permissions != 0) {
+            return page.permissions;
+         }
+         for (int segment = 0; segment < segmentLow.length; segment++) {
+            if (address >= segmentLow[segment] && address <= segmentHigh[segment]) {
+               return segmentPermissions[segment];
+            }
+         }
+         return 0;
+      }
      
    	/**
    	 * Returns the next available word-aligned heap address.  There is no recycling and
-   	 * no heap management!  There is however nearly 4MB of heap space available in Mars.
+   	 * no heap management!  There is however nearly 4MB of heap space available in Mars (much more with large memory).
    	 *
    	 * @param numBytes Number of bytes requested.  Should be multiple of 4, otherwise next higher multiple of 4 allocated.
    	 * @return address of allocated heap storage. 
    	 * @throws IllegalArgumentException if number of requested bytes is negative or exceeds available heap storage
    	 */
-       public int allocateBytesFromHeap(int numBytes) throws IllegalArgumentException {
+       public synchronized int allocateBytesFromHeap(int numBytes) throws IllegalArgumentException {
          int result = heapAddress;
          if (numBytes < 0) {
             throw new IllegalArgumentException("request ("+numBytes+") is negative heap amount");
          }
-         int newHeapAddress = heapAddress + numBytes;
+         // long arithmetic, since with large memory the result can exceed the largest int
+         long newHeapAddress = (long) heapAddress + numBytes;
          if (newHeapAddress % 4 != 0) {
             newHeapAddress = newHeapAddress + (4 - newHeapAddress % 4) ; // next higher multiple of 4
          }
          if (newHeapAddress >= dataSegmentLimitAddress) {
             throw new IllegalArgumentException("request ("+numBytes+") exceeds available heap storage");
          }
-         heapAddress = newHeapAddress;
+         heapAddress = (int) newHeapAddress;
          return result;
       }
    
@@ -358,23 +493,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public int set(int address, int value, int length) throws AddressErrorException {
          int oldValue = 0;
          if (Globals.debug) System.out.println("memory["+address+"] set to "+value+"("+length+" bytes)");
-         int relativeByteAddress;
-         if (inDataSegment(address)) {
-           // in data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(dataBlockTable, relativeByteAddress, length, value);
-         } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack.  Handle similarly to data segment write, except relative byte
-           // address calculated "backward" because stack addresses grow down from base.
-            relativeByteAddress = stackBaseAddress - address; 
-            oldValue = storeBytesInTable(stackBlockTable, relativeByteAddress, length, value);
+         MemoryPage page = getPage(address);
+         int permissions = getPermissions(page, address);
+         if ((permissions & MemoryPage.WRITE) != 0) {
+           // in data segment, stack, kernel data segment or memory mapped I/O.
+           // Aligned accesses are done in one step, others one byte at a time.
+            Watchpoint watchpoint = (page.guarded) ? findWatchpoint(address, length, Watchpoint.WRITE | Watchpoint.CHANGE) : null;
+            int watchedValue = (watchpoint == null) ? 0 : getWatchedValue(watchpoint);
+            if (reservations != null) {
+               // Store and break the reservations of the word at once (see reservations).
+               synchronized (this) {
+                  oldValue = storeBytes(page, address, length, value);
+                  breakReservations(address, length);
+               }
+            } 
+            else {
+               oldValue = storeBytes(page, address, length, value);
+            }
+            if (watchpoint != null) {
+               checkWrite(watchpoint, watchedValue);
+            }
          } 
-         else if (inTextSegment(address)) {
+         else if (permissions == MemoryPage.EXECUTE) {
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
          
-            if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
+            if (ExecutionConfig.get().selfModifyingCode) {
                ProgramStatement oldStatement = getStatementNoNotify(address);
                if (oldStatement != null) {
                   oldValue = oldStatement.getBinaryStatement();
@@ -387,17 +531,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_STORE, address);
             }
          } 
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
-           // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            oldValue = storeBytesInTable(memoryMapBlockTable, relativeByteAddress, length, value);
-         }
-         else if (inKernelDataSegment(address)) {
-           // in kernel data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(kernelDataBlockTable, relativeByteAddress, length, value);
-         } 
-         else if (inKernelTextSegment(address)) {
+         else if (permissions == (MemoryPage.EXECUTE | MemoryPage.KERNEL)) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                "DEVELOPER: You must use setStatement() to write to kernel text segment!", 
@@ -408,6 +542,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
+         if (trace != null) {
+            trace.store(address, length, value);
+         }
          notifyAnyObservers(AccessNotice.WRITE, address, length, value);
          return oldValue;
       }
@@ -424,26 +561,35 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @throws AddressErrorException If address is not on word boundary.
     **/
        public int setRawWord(int address, int value) throws AddressErrorException {
-         int relative, oldValue=0;
+         int oldValue=0;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("store address not aligned on word boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         if (inDataSegment(address)) {
-           // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(dataBlockTable, relative, value);
+         MemoryPage page = getPage(address);
+         int permissions = getPermissions(page, address);
+         if ((permissions & MemoryPage.WRITE) != 0) {
+           // in data segment, stack, kernel data segment or memory mapped I/O.
+            Watchpoint watchpoint = (page.guarded) ? findWatchpoint(address, WORD_LENGTH_BYTES, Watchpoint.WRITE | Watchpoint.CHANGE) : null;
+            int watchedValue = (watchpoint == null) ? 0 : getWatchedValue(watchpoint);
+            if (reservations != null) {
+               // Store and break the reservations of the word at once (see reservations).
+               synchronized (this) {
+                  oldValue = storeWord(page, address, value);
+                  breakReservations(address, WORD_LENGTH_BYTES);
+               }
+            } 
+            else {
+               oldValue = storeWord(page, address, value);
+            }
+            if (watchpoint != null) {
+               checkWrite(watchpoint, watchedValue);
+            }
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack.  Handle similarly to data segment write, except relative 
-           // address calculated "backward" because stack addresses grow down from base.
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(stackBlockTable, relative, value);
-         }
-         else if (inTextSegment(address)) {	
+         else if (permissions == MemoryPage.EXECUTE) {	
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
-            if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
+            if (ExecutionConfig.get().selfModifyingCode) {
                ProgramStatement oldStatement = getStatementNoNotify(address);
                if (oldStatement != null) {
                   oldValue = oldStatement.getBinaryStatement();
@@ -456,17 +602,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_STORE, address);
             }
          } 
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
-           // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2; // convert byte address to word
-            oldValue = storeWordInTable(memoryMapBlockTable, relative, value);
-         }
-         else if (inKernelDataSegment(address)) {
-           // in data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(kernelDataBlockTable, relative, value);
-         }
-         else if (inKernelTextSegment(address)) {
+         else if (permissions == (MemoryPage.EXECUTE | MemoryPage.KERNEL)) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                	"DEVELOPER: You must use setStatement() to write to kernel text segment!", 
@@ -477,9 +613,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("store address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE,	address);
          }
+         if (trace != null) {
+            trace.store(address, WORD_LENGTH_BYTES, value);
+         }
          notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
-         if (Globals.getSettings().getBackSteppingEnabled()) {
-            Globals.program.getBackStepper().addMemoryRestoreRawWord(address,oldValue);
+         if (ExecutionConfig.get().backstepping) {
+            Machine.current().getProgram().getBackStepper().addMemoryRestoreRawWord(address,oldValue);
          }
          return oldValue;
       }
@@ -500,8 +639,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                "store address not aligned on word boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE,address);
          }
-         return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreWord(address,set(address, value, WORD_LENGTH_BYTES))
+         return (ExecutionConfig.get().backstepping)
+            ? Machine.current().getProgram().getBackStepper().addMemoryRestoreWord(address,set(address, value, WORD_LENGTH_BYTES))
             : set(address, value, WORD_LENGTH_BYTES);
       }
    
@@ -521,8 +660,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("store address not aligned on halfword boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreHalf(address,set(address,value,2))
+         return (ExecutionConfig.get().backstepping)
+            ? Machine.current().getProgram().getBackStepper().addMemoryRestoreHalf(address,set(address,value,2))
             : set(address, value, 2);
       }
    
@@ -536,8 +675,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      **/
      
        public int setByte(int address, int value) throws AddressErrorException {
-         return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreByte(address,set(address,value,1))
+         return (ExecutionConfig.get().backstepping)
+            ? Machine.current().getProgram().getBackStepper().addMemoryRestoreByte(address,set(address,value,1))
             : set(address, value, 1);
       }
    
@@ -571,17 +710,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     **/
    
        public void setStatement(int address, ProgramStatement statement) throws AddressErrorException {
-         if (address % 4 != 0 || !(inTextSegment(address) || inKernelTextSegment(address))) {
+         MemoryPage page = getPage(address);
+         if (address % 4 != 0 || (getPermissions(page, address) & MemoryPage.EXECUTE) == 0) {
             throw new AddressErrorException(
                "store address to text segment out of range or not aligned to word boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
          if (Globals.debug) System.out.println("memory["+address+"] set to "+statement.getBinaryStatement());
-         if (inTextSegment(address)) {
-            storeProgramStatement(address, statement, textBaseAddress, textBlockTable);
-         } 
-         else {
-            storeProgramStatement(address, statement, kernelTextBaseAddress, kernelTextBlockTable);
+         storeProgramStatement(page, address, statement);
+         if (decodedProgram != null) {
+            decodedProgram.update(address, statement);
          }
       }
    	
@@ -606,27 +744,20 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// Does the real work, but includes option to NOT notify observers.
        private int get(int address, int length, boolean notify) throws AddressErrorException {
          int value = 0;
-         int relativeByteAddress;
-         if (inDataSegment(address)) {
-           // in data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(dataBlockTable, relativeByteAddress, length);
-         } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack. Similar to data, except relative address computed "backward"
-            relativeByteAddress = stackBaseAddress - address;
-            value = fetchBytesFromTable(stackBlockTable, relativeByteAddress, length);
+         MemoryPage page = getPage(address);
+         int permissions = getPermissions(page, address);
+         if ((permissions & MemoryPage.READ) != 0) {
+           // in data segment, stack, kernel data segment or memory mapped I/O.
+           // Aligned accesses are done in one step, others one byte at a time.
+            value = fetchBytes(page, address, length);
+            if (notify && page.guarded) {
+               checkRead(address, length);
+            }
          } 
-         
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
-           // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            value = fetchBytesFromTable(memoryMapBlockTable, relativeByteAddress, length);
-         }
-         else if (inTextSegment(address)) {
+         else if (permissions == MemoryPage.EXECUTE) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
-            if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
+            if (ExecutionConfig.get().selfModifyingCode) {
                ProgramStatement stmt = getStatementNoNotify(address);
                value = stmt == null ? 0 : stmt.getBinaryStatement();
             } 
@@ -636,12 +767,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
             }
          } 
-         else if (inKernelDataSegment(address)) {
-           // in kernel data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(kernelDataBlockTable, relativeByteAddress, length);
-         } 
-         else if (inKernelTextSegment(address)) {
+         else if (permissions == (MemoryPage.EXECUTE | MemoryPage.KERNEL)) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                "DEVELOPER: You must use getStatement() to read from kernel text segment!", 
@@ -652,6 +778,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
+         if (notify && trace != null) {
+            trace.load(address, length, value);
+         }
          if (notify) notifyAnyObservers(AccessNotice.READ, address, length, value);
          return value;
       }
@@ -675,30 +804,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     // I decided to keep the duplicate logic.
        public int getRawWord(int address) throws AddressErrorException {
          int value = 0;
-         int relative;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (inDataSegment(address)) {
-           // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(dataBlockTable, relative);
+         MemoryPage page = getPage(address);
+         int permissions = getPermissions(page, address);
+         if ((permissions & MemoryPage.READ) != 0) {
+           // in data segment, stack, kernel data segment or memory mapped I/O.
+            value = fetchWord(page, address);
+            if (page.guarded) {
+               checkRead(address, WORD_LENGTH_BYTES);
+            }
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordFromTable(stackBlockTable, relative);
-         }
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
-           // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2;
-            value = fetchWordFromTable(memoryMapBlockTable, relative);
-         }
-         else if (inTextSegment(address)) {
+         else if (permissions == MemoryPage.EXECUTE) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
-            if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
+            if (ExecutionConfig.get().selfModifyingCode) {
                ProgramStatement stmt = getStatementNoNotify(address);
                value = stmt == null ? 0 : stmt.getBinaryStatement();
             } 
@@ -708,12 +830,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
             }
          }  
-         else if (inKernelDataSegment(address)) {
-           // in kernel data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(kernelDataBlockTable, relative);
-         } 
-         else if (inKernelTextSegment(address)) {
+         else if (permissions == (MemoryPage.EXECUTE | MemoryPage.KERNEL)) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                     "DEVELOPER: You must use getStatement() to read from kernel text segment!",
@@ -724,6 +841,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ", 
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
+         if (trace != null) {
+            trace.load(address, WORD_LENGTH_BYTES, value);
+         }
          notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES,value);
          return value;
       } 
@@ -752,33 +872,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 
        public Integer getRawWordOrNull(int address) throws AddressErrorException {
          Integer value = null;
-         int relative;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (inDataSegment(address)) {
-              // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(dataBlockTable, relative);
+         MemoryPage page = getPage(address);
+         int permissions = getPermissions(page, address);
+         if ((permissions & MemoryPage.READ) != 0 && (permissions & MemoryPage.MMIO) == 0) {
+              // in data segment, stack or kernel data segment
+            value = (!page.hasWords()) ? null : new Integer(page.getWord(MemoryPage.wordIndex(address)));
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
-              // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(stackBlockTable, relative);
-         }
-         else if (inTextSegment(address) || inKernelTextSegment(address)) {
+         else if ((permissions & MemoryPage.EXECUTE) != 0) {
             try { 
                value = (getStatementNoNotify(address) == null) ? null : new Integer(getStatementNoNotify(address).getBinaryStatement());
             } 
                 catch (AddressErrorException aee) { 
                   value = null;               }
          }  
-         else if (inKernelDataSegment(address)) {
-              // in kernel data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(kernelDataBlockTable, relative);
-         } 
          else {
               // falls outside Mars addressing range
             throw new AddressErrorException("address out of range ", Exceptions.ADDRESS_EXCEPTION_LOAD, address);
@@ -936,21 +1046,548 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                "fetch address for text segment not aligned to word boundary ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (!Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)
-          && !(inTextSegment(address) || inKernelTextSegment(address))) {
+         MemoryPage page = getPage(address);
+         if ((getPermissions(page, address) & MemoryPage.EXECUTE) != 0) 
+            return readProgramStatement(page, address, notify);
+         else if (ExecutionConfig.get().selfModifyingCode) 
+            return new ProgramStatement(get(address, WORD_LENGTH_BYTES), address);
+         else 
             throw new AddressErrorException(
                "fetch address for text segment out of range ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
-         }
-         if (inTextSegment(address)) 
-            return readProgramStatement(address, textBaseAddress, textBlockTable, notify);
-         else if (inKernelTextSegment(address)) 
-            return readProgramStatement(address, kernelTextBaseAddress, kernelTextBlockTable, notify);
-         else 
-            return new ProgramStatement(get(address, WORD_LENGTH_BYTES), address);
       }
    		
    		
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the pre-decoded form of the text and kernel text segments, building it
+    * if necessary.  It is rebuilt after every clear() and kept current by setStatement().
+    * @return DecodedProgram for the statements currently in memory
+    * @see DecodedProgram
+    **/
+       public DecodedProgram getDecodedProgram() {
+         if (decodedProgram == null) {
+            decodedProgram = new DecodedProgram(this);
+         }
+         return decodedProgram;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Copies the statements of the user or kernel text segment into a flat array indexed
+    * by word offset from the segment base address.  The array extends through the last
+    * text page holding statements, so unused trailing space is not included.  Observers are not notified.
+    * @param kernel true for the kernel text segment, false for the user text segment
+    * @return array of ProgramStatement, with null where no statement is stored
+    **/
+       public ProgramStatement[] copyTextStatements(boolean kernel) {
+         int base = (kernel) ? kernelTextBaseAddress : textBaseAddress;
+         int limit = (kernel) ? kernelTextLimitAddress : textLimitAddress;
+         int pageLength = MemoryPage.PAGE_LENGTH_WORDS * WORD_LENGTH_BYTES;
+         int length = 0;
+         for (int address = base; address < limit && address >= base; address += pageLength) {
+            MemoryPage page = getPage(address);
+            if (page != null && page.statements != null) {
+               length = Math.min((address - base) / WORD_LENGTH_BYTES + MemoryPage.PAGE_LENGTH_WORDS, 
+                                 (limit - base) / WORD_LENGTH_BYTES);
+            }
+         }
+         ProgramStatement[] statements = new ProgramStatement[length];
+         for (int index = 0; index < length; ) {
+            int address = base + index * WORD_LENGTH_BYTES;
+            int offset = MemoryPage.wordIndex(address);
+            int count = Math.min(MemoryPage.PAGE_LENGTH_WORDS - offset, length - index);
+            MemoryPage page = getPage(address);
+            if (page != null && page.statements != null) {
+               System.arraycopy(page.statements, offset, statements, index, count);
+            }
+            index += count;
+         }
+         return statements;
+      }
+   		
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the number of 4K pages of the data segment, stack, kernel data segment and
+    * memory mapped I/O that have been written since memory was last cleared, and so 
+    * have storage allocated.  Pages never written read as zeroes and take no storage.
+    * @return number of data pages allocated
+    **/
+       public int getAllocatedPageCount() {
+         return allocatedPages;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the number of 4K pages of the text and kernel text segments that hold 
+    * at least one ProgramStatement.
+    * @return number of text pages allocated
+    **/
+       public int getAllocatedTextPageCount() {
+         return allocatedTextPages;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the name of the backend currently keeping simulated memory.
+    * @return HEAP_BACKEND, DIRECT_BACKEND or MAPPED_BACKEND
+    **/
+       public String getBackend() {
+         if (backingStore == null) {
+            return HEAP_BACKEND;
+         }
+         return (backingStore.isMapped()) ? MAPPED_BACKEND : DIRECT_BACKEND;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the contents of the 4K page holding the given address, as a read-only
+    * buffer of little-endian words, if the page is kept off the Java heap.  The buffer
+    * shares the page's storage, so a memory dump can write it out without copying it.
+    * The buffer is only valid until memory is next cleared.
+    * @param address any address within the page
+    * @return buffer of 4096 bytes, or null if the page is not entirely data (readable,
+    *  not MMIO), has never been written, or is kept on the Java heap
+    **/
+       public ByteBuffer getPageBytes(int address) {
+         MemoryPage page = getPage(address);
+         if (page == null || (page.permissions & MemoryPage.READ) == 0 || (page.permissions & MemoryPage.MMIO) != 0) {
+            return null;
+         }
+         return page.getBytes();
+      }
+
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Takes a snapshot of the contents of memory and of the heap pointer, to be put back
+    * later by restoreSnapshot().  Pages are shared with the snapshot rather than copied,
+    * and copied when next written.  Observers are not notified.
+    * @return the snapshot
+    **/
+       public synchronized MemorySnapshot takeSnapshot() {
+         int count = 0;
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               if (entry[j] != null && (entry[j].hasWords() || entry[j].statements != null)) {
+                  count++;
+               }
+            }
+         }
+         int[] pageNumbers = new int[count];
+         int[][] words = new int[count][];
+         ProgramStatement[][] statements = new ProgramStatement[count][];
+         long newBytes = 0;
+         int k = 0;
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               MemoryPage page = entry[j];
+               if (page != null && (page.hasWords() || page.statements != null)) {
+                  if (page.wordsModifiedSinceShared()) {
+                     newBytes += MemorySnapshot.PAGE_BYTES;
+                  }
+                  if (page.statementsModifiedSinceShared()) {
+                     newBytes += MemorySnapshot.PAGE_BYTES;
+                  }
+                  pageNumbers[k] = i * PAGES_PER_ENTRY + j;
+                  words[k] = page.shareWords();
+                  statements[k] = page.shareStatements();
+                  k++;
+               }
+            }
+         }
+         return new MemorySnapshot(pageNumbers, words, statements, heapAddress, pageDirectory, newBytes);
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Puts back the contents of memory and the heap pointer as they were when the
+    * snapshot was taken.  Pages written since then get their old contents back, or
+    * read as zeroes if they were not written before.  The snapshot must have been taken
+    * since memory was last cleared.  Observers are not notified.
+    * @param snapshot a snapshot returned by takeSnapshot()
+    **/
+       public synchronized void restoreSnapshot(MemorySnapshot snapshot) {
+         int k = 0;
+         boolean statementsChanged = false;
+         allocatedPages = 0;
+         allocatedTextPages = 0;
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               MemoryPage page = entry[j];
+               if (page == null) {
+                  continue;
+               }
+               int[] words = null;
+               ProgramStatement[] statements = null;
+               if (k < snapshot.pageNumbers.length && snapshot.pageNumbers[k] == i * PAGES_PER_ENTRY + j) {
+                  words = snapshot.words[k];
+                  statements = snapshot.statements[k];
+                  k++;
+               }
+               statementsChanged |= page.statements != statements;
+               page.restoreWords(words);
+               page.restoreStatements(statements);
+               if (page.hasWords()) {
+                  allocatedPages++;
+               }
+               if (page.statements != null) {
+                  allocatedTextPages++;
+               }
+            }
+         }
+         heapAddress = snapshot.heapAddress;
+         if (statementsChanged) {
+            decodedProgram = null;
+         }
+      }
+
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Tells whether a snapshot can be put back by restoreSnapshot(), i.e. whether it was
+    * taken from this memory since memory was last cleared.
+    * @param snapshot a snapshot returned by takeSnapshot()
+    * @return true if it can be restored
+    **/
+       public synchronized boolean canRestore(MemorySnapshot snapshot) {
+         return snapshot.directory == pageDirectory;
+      }
+
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Writes the contents of memory and the heap pointer to the given channel, to be
+    * read back by readImage() (see SnapshotFile).  Only pages that were written, or hold
+    * statements, are included.  Each goes out as its page number, what it holds, its
+    * words as 4K of little-endian bytes, and the binary form of its statements, with a
+    * bit for each telling whether there is one.  Observers are not notified.
+    * @param channel where to write
+    * @throws IOException if writing fails
+    **/
+       public synchronized void writeImage(WritableByteChannel channel) throws IOException {
+         int count = 0;
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               if (entry[j] != null && (entry[j].hasWords() || entry[j].statements != null)) {
+                  count++;
+               }
+            }
+         }
+         ByteBuffer buffer = ByteBuffer.allocateDirect(IMAGE_BUFFER_PAGES * IMAGE_PAGE_MAXIMUM).order(ByteOrder.LITTLE_ENDIAN);
+         buffer.putInt(heapAddress).putInt(count);
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               MemoryPage page = entry[j];
+               if (page == null || (!page.hasWords() && page.statements == null)) {
+                  continue;
+               }
+               if (buffer.remaining() < IMAGE_PAGE_MAXIMUM) {
+                  writeFully(channel, buffer);
+               }
+               buffer.putInt(i * PAGES_PER_ENTRY + j);
+               buffer.putInt(((page.hasWords()) ? IMAGE_WORDS : 0) | ((page.statements != null) ? IMAGE_STATEMENTS : 0));
+               if (page.hasWords()) {
+                  page.copyWordsTo(buffer);
+               }
+               ProgramStatement[] statements = page.statements;
+               if (statements != null) {
+                  int[] present = new int[MemoryPage.PAGE_LENGTH_WORDS / 32];
+                  for (int k = 0; k < statements.length; k++) {
+                     if (statements[k] != null) {
+                        present[k >>> 5] |= 1 << (k & 31);
+                     }
+                  }
+                  buffer.asIntBuffer().put(present);
+                  buffer.position(buffer.position() + present.length * WORD_LENGTH_BYTES);
+                  for (int k = 0; k < statements.length; k++) {
+                     buffer.putInt((statements[k] == null) ? 0 : statements[k].getBinaryStatement());
+                  }
+               }
+            }
+         }
+         writeFully(channel, buffer);
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Replaces the contents of memory and the heap pointer with those written by
+    * writeImage().  Pages not in the image read as zeroes and hold no statements.  A
+    * statement whose binary form matches the one already at its address, e.g. from
+    * assembling the same program, is kept, source line and all; any other is decoded
+    * from its binary form, as for self-modifying code.  The memory configuration must
+    * be the one the image was written with.  If reading fails, memory is left partly
+    * replaced.  Observers are not notified.
+    * @param channel where to read
+    * @throws IOException if reading fails or a page lies outside the memory configuration
+    **/
+       public synchronized void readImage(ReadableByteChannel channel) throws IOException {
+         ByteBuffer buffer = ByteBuffer.allocateDirect(IMAGE_PAGE_MAXIMUM).order(ByteOrder.LITTLE_ENDIAN);
+         readFully(channel, buffer, 2 * WORD_LENGTH_BYTES);
+         int savedHeapAddress = buffer.getInt();
+         int count = buffer.getInt();
+         // Keep the statements there now, to match against, and empty every page.
+         HashMap previousStatements = new HashMap();  // of ProgramStatement[], by page number
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               MemoryPage page = entry[j];
+               if (page != null) {
+                  if (page.statements != null) {
+                     previousStatements.put(new Integer(i * PAGES_PER_ENTRY + j), page.statements);
+                  }
+                  page.restoreWords(null);
+                  page.restoreStatements(null);
+               }
+            }
+         }
+         decodedProgram = null;
+         for (int n = 0; n < count; n++) {
+            readFully(channel, buffer, 2 * WORD_LENGTH_BYTES);
+            int pageNumber = buffer.getInt();
+            int contents = buffer.getInt();
+            int address = pageNumber << MemoryPage.PAGE_BITS;
+            MemoryPage page = getPage(address);
+            if (page == null) {
+               throw new IOException("page at "+Binary.intToHexString(address)+" is outside the memory configuration");
+            }
+            if ((contents & IMAGE_WORDS) != 0) {
+               readFully(channel, buffer, MemorySnapshot.PAGE_BYTES);
+               page.copyWordsFrom(buffer);
+            }
+            if ((contents & IMAGE_STATEMENTS) != 0) {
+               readFully(channel, buffer, MemorySnapshot.PAGE_BYTES / 32 + MemorySnapshot.PAGE_BYTES);
+               int[] present = new int[MemoryPage.PAGE_LENGTH_WORDS / 32];
+               buffer.asIntBuffer().get(present);
+               buffer.position(buffer.position() + present.length * WORD_LENGTH_BYTES);
+               ProgramStatement[] previous = (ProgramStatement[]) previousStatements.get(new Integer(pageNumber));
+               ProgramStatement[] statements = new ProgramStatement[MemoryPage.PAGE_LENGTH_WORDS];
+               for (int k = 0; k < statements.length; k++) {
+                  int binary = buffer.getInt();
+                  if ((present[k >>> 5] & (1 << (k & 31))) != 0) {
+                     statements[k] = (previous != null && previous[k] != null && previous[k].getBinaryStatement() == binary)
+                                     ? previous[k] : new ProgramStatement(binary, address + k * WORD_LENGTH_BYTES);
+                  }
+               }
+               page.statements = statements;
+            }
+         }
+         heapAddress = savedHeapAddress;
+         allocatedPages = 0;
+         allocatedTextPages = 0;
+         for (int i = 0; i < DIRECTORY_LENGTH; i++) {
+            MemoryPage[] entry = pageDirectory[i];
+            for (int j = 0; entry != null && j < PAGES_PER_ENTRY; j++) {
+               if (entry[j] != null && entry[j].hasWords()) {
+                  allocatedPages++;
+               }
+               if (entry[j] != null && entry[j].statements != null) {
+                  allocatedTextPages++;
+               }
+            }
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Sets a watchpoint, replacing any already set on the same word.  From then on, the
+    * simulator stops when the program accesses the word as the watchpoint specifies.
+    * Watchpoints stay set when memory is cleared.
+    * @param watchpoint the watchpoint
+    * @throws AddressErrorException If the watched word is not in a data segment, stack,
+    * kernel data segment or memory mapped I/O.
+    **/
+       public synchronized void addWatchpoint(Watchpoint watchpoint) throws AddressErrorException {
+         int address = watchpoint.getAddress();
+         MemoryPage page = getPage(address);
+         if ((getPermissions(page, address) & MemoryPage.READ) == 0) {
+            throw new AddressErrorException("watchpoint address not in a data segment ",
+               Exceptions.ADDRESS_EXCEPTION_LOAD, address);
+         }
+         ArrayList list = new ArrayList(Arrays.asList(watchpoints));
+         for (int i = 0; i < list.size(); i++) {
+            if (((Watchpoint) list.get(i)).getAddress() == address) {
+               list.remove(i);
+               break;
+            }
+         }
+         list.add(watchpoint);
+         watchpoints = (Watchpoint[]) list.toArray(new Watchpoint[list.size()]);
+         page.guarded = true;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Removes the watchpoint on the word holding the given address, if there is one.
+    * @param address address within the watched word
+    **/
+       public synchronized void removeWatchpoint(int address) {
+         address &= -WORD_LENGTH_BYTES;
+         ArrayList list = new ArrayList(Arrays.asList(watchpoints));
+         for (int i = 0; i < list.size(); i++) {
+            if (((Watchpoint) list.get(i)).getAddress() == address) {
+               list.remove(i);
+               watchpoints = (Watchpoint[]) list.toArray(new Watchpoint[list.size()]);
+               MemoryPage page = getPage(address);
+               if (page != null) {
+                  page.guarded = isWatched(address);
+               }
+               return;
+            }
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Removes all watchpoints.
+    **/
+       public synchronized void clearWatchpoints() {
+         Watchpoint[] removed = watchpoints;
+         watchpoints = new Watchpoint[0];
+         for (int i = 0; i < removed.length; i++) {
+            MemoryPage page = getPage(removed[i].getAddress());
+            if (page != null) {
+               page.guarded = isWatched(removed[i].getAddress());
+            }
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the watchpoints currently set.
+    * @return the watchpoints, in the order they were set
+    **/
+       public Watchpoint[] getWatchpoints() {
+         return (Watchpoint[]) watchpoints.clone();
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the first watchpoint hit since clearWatchpointHit() was last called.  The
+    * simulator clears it when a run starts, so after a run stopped by a watchpoint
+    * (Simulator.WATCHPOINT) this tells which one, and what the program did there.
+    * @return the hit, or null if there was none
+    **/
+       public WatchpointHit getWatchpointHit() {
+         return watchpointHit;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Forgets the watchpoint hit, so that the next one is recorded.
+    **/
+       public void clearWatchpointHit() {
+         watchpointHit = null;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Has the watchpoints see the accesses of the calling thread, and of no other, from
+    * now until endWatching(), and forgets the watchpoint hit.  Called by the simulator
+    * thread when a run of hart 0 starts.
+    **/
+       public void beginWatching() {
+         watchpointHit = null;
+         watchingThread = Thread.currentThread();
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Stops the watchpoints seeing the accesses of the calling thread, if beginWatching()
+    * made them.  Called by the simulator thread when a run ends.  The hit, if any, is kept.
+    **/
+       public void endWatching() {
+         if (watchingThread == Thread.currentThread()) {
+            watchingThread = null;
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Sets the trace to tell of each load and store, or null for none.  Called by the
+    * simulator as a run starts and ends (see Simulator.setTrace()).
+    * @param trace the trace of the run
+    **/
+       public void setTrace(ExecutionTrace trace) {
+         this.trace = trace;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Turns load-linked reservations on or off.  HartScheduler turns them on when a
+    * program starts a second hart, and off when its harts end.  While they are off, ll
+    * and sc act as lw and sw: sc always succeeds.
+    * @param enabled true to keep reservations
+    **/
+       public synchronized void setReservationsEnabled(boolean enabled) {
+         reservations = (enabled) ? new int[0] : null;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Load linked: reads the word at the given address, as getWord() does, and reserves
+    * it for the hart making the access.  A later storeConditional() by the same hart
+    * succeeds only if no store to the word came in between, from any hart.
+    * @param address address of the word, which must be word-aligned
+    * @return the word
+    * @throws AddressErrorException If address is not on word boundary or not in a data segment.
+    **/
+       public int loadLinked(int address) throws AddressErrorException {
+         if (reservations != null && address % WORD_LENGTH_BYTES == 0) {
+            // Reserve and read at once, so that a store conditional by another hart comes
+            // either before both or after both, and then breaks the reservation.
+            synchronized (this) {
+               reserve(Machine.current().getHartId(), address);
+               return getWord(address);
+            }
+         }
+         return getWord(address);
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Store conditional: writes the word at the given address, as setWord() does, if the
+    * hart making the access still holds the reservation of its last loadLinked() on it.
+    * A successful store conditional breaks every reservation of the word.  Always
+    * succeeds while reservations are off.
+    * @param address address of the word, which must be word-aligned
+    * @param value the word to store
+    * @return true if the word was stored, false if the reservation had been broken
+    * @throws AddressErrorException If address is not on word boundary or not in a data segment.
+    **/
+       public boolean storeConditional(int address, int value) throws AddressErrorException {
+         if (address % WORD_LENGTH_BYTES != 0) {
+            throw new AddressErrorException(
+               "store address not aligned on word boundary ",
+               Exceptions.ADDRESS_EXCEPTION_STORE,address);
+         }
+         if (reservations != null) {
+            synchronized (this) {
+               if (!claimReservation(Machine.current().getHartId(), address)) {
+                  return false;
+               }
+               setWord(address, value);
+               return true;
+            }
+         }
+         setWord(address, value);
+         return true;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Drops the reservation of the hart making the call, if it has one, so that its next
+    * storeConditional() fails.  Done by eret, and when a hart ends.
+    **/
+       public synchronized void clearReservation() {
+         int hart = Machine.current().getHartId();
+         if (reservations != null && hart < reservations.length) {
+            reservations[hart] = NO_RESERVATION;
+         }
+      }
+   
    /*********************************  THE UTILITIES  *************************************/ 
    
    /**
@@ -1118,7 +1755,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("end address of range < start address of range ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, startAddr);
          }
-         observables.add(new MemoryObservable(obs, startAddr, endAddr));
+         observables.add(obs, startAddr, endAddr);
       }
    
       /**
@@ -1133,18 +1770,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @param obs  Observer to be removed
    	 */   		
        public void deleteObserver(Observer obs) {
-         Iterator it = observables.iterator();
-         while (it.hasNext()) {
-            ((MemoryObservable)it.next()).deleteObserver(obs);
-         }	
+         observables.remove(obs);
       }
    	
    	/**
    	 *  Remove all memory observers
    	 */
        public void deleteObservers() {
-         // just drop the collection
-         observables = getNewMemoryObserversCollection();
+         observables.clear();
       }
    	
    	/**
@@ -1168,49 +1801,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    		
    		
-       private Collection getNewMemoryObserversCollection() {
-         return new Vector();  // Vectors are thread-safe
-      }
-   		
-       /////////////////////////////////////////////////////////////////////////
-       // Private class whose objects will represent an observable-observer pair 
-   	 // for a given memory address or range.
-       private class MemoryObservable extends Observable implements Comparable {
-         private int lowAddress, highAddress; 
-      	
-          public MemoryObservable(Observer obs, int startAddr, int endAddr) {
-            lowAddress = startAddr;
-            highAddress = endAddr;
-            this.addObserver(obs);
-         }
-      	
-          public boolean match(int address) {
-            return (address >= lowAddress && address <= highAddress-1+WORD_LENGTH_BYTES);
-         }
-      	
-          public void notifyObserver(MemoryAccessNotice notice) {
-            this.setChanged();
-            this.notifyObservers(notice);
-         }
-         
-      	// Useful to have for future refactoring, if it actually becomes worthwhile to sort
-      	// these or put 'em in a tree (rather than sequential search through list).
-          public int compareTo(Object obj) {
-            if (!(obj instanceof MemoryObservable)) {
-               throw new ClassCastException();
-            }
-            MemoryObservable mo = (MemoryObservable) obj;
-            if (this.lowAddress < mo.lowAddress || this.lowAddress==mo.lowAddress && this.highAddress < mo.highAddress) {
-               return -1;
-            }
-            if (this.lowAddress > mo.lowAddress || this.lowAddress==mo.lowAddress && this.highAddress > mo.highAddress) {
-               return -1;
-            }
-            return 0;  // they have to be equal at this point.
-         }
-      }
-      
-   
    /*********************************  THE HELPERS  *************************************/
      
    
@@ -1221,44 +1811,87 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // The "|| Globals.getGui()==null" is a hack added 19 July 2012 DPS.  IF MIPS simulation
    // is from command mode, Globals.program is null but still want ability to observe.
        private void notifyAnyObservers(int type, int address, int length, int value) {
-         if ((Globals.program != null || Globals.getGui()==null) && this.observables.size() > 0) {
-            Iterator it = this.observables.iterator();
-            MemoryObservable mo;
-            while (it.hasNext()) {
-               mo = (MemoryObservable)it.next();
-               if (mo.match(address)) {
-                  mo.notifyObserver(new MemoryAccessNotice(type, address, length, value));
-               }
-            }
+         if (Machine.current().getProgram() != null || Globals.getGui()==null) {
+            observables.dispatch(type, address, length, value);
          } 		
       }
    
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to store 1, 2 or 4 byte value in table that represents MIPS
-   // memory. Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.
+   // Helper method to store 1, 2 or 4 byte value in the pages that represent MIPS
+   // memory.  The address has already been verified as valid, and lies in the given page.
    // Modified 29 Dec 2005 to return old value of replaced bytes.
+   //
+   // A naturally aligned byte, halfword or word lies within one word of one page, so it
+   // is moved with a single shift and mask.  Byte order is dealt with once, by choosing
+   // the shift and (for BIG_ENDIAN halfwords and words) swapping the bytes.  Anything
+   // else goes through storeOrFetchBytes(), one byte at a time.
    //
       private static final boolean STORE = true;
       private static final boolean FETCH = false;
    	 
-       private int storeBytesInTable(int [][] blockTable, 
-                                   int relativeByteAddress, int length, int value) {
-         return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, value, STORE);
+       private int storeBytes(MemoryPage page, int address, int length, int value) {
+         if (!naturallyAligned(address, length)) {
+            return storeOrFetchBytes(address, length, value, STORE);
+         }
+         if (!page.hasWords()) {
+            // First time writing to this page, so allocate the space.
+            allocateWords(page);
+         }
+         int offset = MemoryPage.wordIndex(address);
+         int word = page.getWord(offset);
+         if (length == WORD_LENGTH_BYTES) {
+            if (byteOrder == LITTLE_ENDIAN) {
+               page.setWord(offset, value);
+               return word;
+            }
+            page.setWord(offset, reverseBytes(value));
+            return reverseBytes(word);
+         }
+         int shift = fieldShift(address, length);
+         int mask = (length == 1) ? 0xFF : 0xFFFF;
+         int field = (length == 2 && byteOrder == BIG_ENDIAN) ? swapHalfBytes(value) : value & mask;
+         page.setWord(offset, (word & ~(mask << shift)) | (field << shift));
+         int oldField = (word >>> shift) & mask;
+         return (length == 2 && byteOrder == BIG_ENDIAN) ? swapHalfBytes(oldField) : oldField;
       }
    	
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to fetch 1, 2 or 4 byte value from table that represents MIPS
-   // memory.  Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.
+   // Helper method to fetch 1, 2 or 4 byte value from the pages that represent MIPS
+   // memory.  The address has already been verified as valid, and lies in the given page.
+   // Aligned accesses are done in one step, as in storeBytes().
    //	
    
-       private int fetchBytesFromTable(int[][] blockTable, int relativeByteAddress, int length) {
-         return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, 0, FETCH);
+       private int fetchBytes(MemoryPage page, int address, int length) {
+         if (!naturallyAligned(address, length)) {
+            return storeOrFetchBytes(address, length, 0, FETCH);
+         }
+         if (!page.hasWords()) {
+            return 0;
+         }
+         int word = page.getWord(MemoryPage.wordIndex(address));
+         if (length == WORD_LENGTH_BYTES) {
+            return (byteOrder == LITTLE_ENDIAN) ? word : reverseBytes(word);
+         }
+         int field = (word >>> fieldShift(address, length)) & ((length == 1) ? 0xFF : 0xFFFF);
+         return (length == 2 && byteOrder == BIG_ENDIAN) ? swapHalfBytes(field) : field;
+      }
+   
+   // True for a byte, or a halfword or word starting on its own boundary.
+       private static boolean naturallyAligned(int address, int length) {
+         return length == 1 || ((length == 2 || length == WORD_LENGTH_BYTES) && (address & (length - 1)) == 0);
+      }
+   
+   // Bit position, within its word, of the byte or halfword at the given address.
+       private static int fieldShift(int address, int length) {
+         int bytePosition = address & 3;
+         return (byteOrder == LITTLE_ENDIAN) ? bytePosition << 3 : (4 - length - bytePosition) << 3;
+      }
+   
+   // Exchanges the two low order bytes of the given value, discarding the rest.
+       private static int swapHalfBytes(int value) {
+         return ((value & 0xFF) << 8) | ((value >> 8) & 0xFF);
       }
    
    ////////////////////////////////////////////////////////////////////////////////		
@@ -1268,122 +1901,228 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // and element byte(s).  This method performs either store or fetch, as directed by its 
    // client using STORE or FETCH in last arg.
    // Modified 29 Dec 2005 to return old value of replaced bytes, for STORE.
+   // No longer synchronized: writers are serialized by Globals.memoryAndRegistersLock,
+   // which the simulator already holds, so a second monitor per access bought nothing.
+   // Each byte finds its own page, since an unaligned access may run into the next one.
    //
-       private synchronized int storeOrFetchBytesInTable(int [][] blockTable, 
-                                   int relativeByteAddress, int length, int value, boolean op) {
-         int relativeWordAddress, block, offset, bytePositionInMemory, bytePositionInValue;
+       private int storeOrFetchBytes(int address, int length, int value, boolean op) {
+         int bytePositionInMemory, bytePositionInValue;
          int oldValue = 0; // for STORE, return old values of replaced bytes
          int loopStopper = 3-length;
-      	// IF added DPS 22-Dec-2008. NOTE: has NOT been tested with Big-Endian.
-      	// Fix provided by Saul Spatz; comments that follow are his.
-      	// If address in stack segment is 4k + m, with 0 < m < 4, then the
-         // relativeByteAddress we want is stackBaseAddress - 4k + m, but the
-         // address actually passed in is stackBaseAddress - (4k + m), so we
-         // need to add 2m.  Because of the change in sign, we get the
-         // expression 4-delta below in place of m.
-         if (blockTable == stackBlockTable) {
-            int delta = relativeByteAddress % 4;
-            if (delta != 0) {
-               relativeByteAddress += ( 4 - delta ) << 1;
-            }
-         }
          for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
-            bytePositionInMemory = relativeByteAddress % 4;
-            relativeWordAddress = relativeByteAddress >> 2;
-            block = relativeWordAddress / BLOCK_LENGTH_WORDS;  // Block number
-            offset = relativeWordAddress % BLOCK_LENGTH_WORDS; // Word within that block
-            if (blockTable[block] == null) {
+            MemoryPage page = getPage(address);
+            if (page == null) {
+               // ran off the end of the addressing range; nothing there
+               address++;
+               continue;
+            }
+            bytePositionInMemory = address & 3;
+            int offset = MemoryPage.wordIndex(address);
+            if (!page.hasWords()) {
                if (op==STORE) 
-                  blockTable[block] = new int[BLOCK_LENGTH_WORDS];
+                  allocateWords(page);
                else 
                   return 0;
             }
+            int word = page.getWord(offset);
             if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
             if (op == STORE) {
-               oldValue = replaceByte(blockTable[block][offset], bytePositionInMemory,
+               oldValue = replaceByte(word, bytePositionInMemory,
                   								oldValue, bytePositionInValue);
-               blockTable[block][offset] = replaceByte(value, bytePositionInValue, 
-                                         blockTable[block][offset], bytePositionInMemory);
+               page.setWord(offset, replaceByte(value, bytePositionInValue, 
+                                         word, bytePositionInMemory));
             } 
             else {// op == FETCH
-               value = replaceByte(blockTable[block][offset], bytePositionInMemory, 
+               value = replaceByte(word, bytePositionInMemory, 
                                                           value, bytePositionInValue);
             }
-            relativeByteAddress++;
+            address++;
          }
          return (op == STORE)	? oldValue : value;
       }	
    
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to store 4 byte value in table that represents MIPS memory.
-   // Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.  Assumes address is word aligned, no endian processing.
+   // Reservation helpers.  The array of reservations is only read and changed while
+   // holding this Memory's monitor; stores test the field for null without it.
+   
+   // Reserve the word at the given address for the given hart, replacing its reservation.
+       private synchronized void reserve(int hart, int address) {
+         if (reservations == null) {
+            return;
+         }
+         if (hart >= reservations.length) {
+            int[] grown = new int[hart + 1];
+            Arrays.fill(grown, NO_RESERVATION);
+            System.arraycopy(reservations, 0, grown, 0, reservations.length);
+            reservations = grown;
+         }
+         reservations[hart] = address;
+      }
+   
+   // True if the given hart still holds a reservation of the word at the given address.
+   // If so, that and every other reservation of the word are broken, as by a store.
+       private synchronized boolean claimReservation(int hart, int address) {
+         if (reservations == null) {
+            return true;
+         }
+         if (hart >= reservations.length || reservations[hart] != address) {
+            return false;
+         }
+         breakReservations(address, WORD_LENGTH_BYTES);
+         return true;
+      }
+   
+   // A store to the given bytes: break the reservations of the words they belong to.
+       private synchronized void breakReservations(int address, int length) {
+         if (reservations == null) {
+            return;
+         }
+         int first = address & -WORD_LENGTH_BYTES;
+         int last = (address + length - 1) & -WORD_LENGTH_BYTES;
+         for (int i = 0; i < reservations.length; i++) {
+            int reserved = reservations[i];
+            if (reserved == first || reserved == last) {
+               reservations[i] = NO_RESERVATION;
+            }
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Memory image helpers.
+   
+      private static final int IMAGE_WORDS = 1;       // the page's words follow
+      private static final int IMAGE_STATEMENTS = 2;  // then its statements
+      private static final int IMAGE_PAGE_MAXIMUM = 2 * WORD_LENGTH_BYTES   // page number and contents
+                                                    + MemorySnapshot.PAGE_BYTES
+                                                    + MemorySnapshot.PAGE_BYTES / 32 + MemorySnapshot.PAGE_BYTES;
+      private static final int IMAGE_BUFFER_PAGES = 64;
+   
+   // Write the buffer's contents, from the start, and empty it.
+       private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+   
+   // Fill the buffer with the given number of bytes from the channel, to be read from the start.
+       private static void readFully(ReadableByteChannel channel, ByteBuffer buffer, int length) throws IOException {
+         buffer.clear();
+         buffer.limit(length);
+         while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+               throw new EOFException("memory image ends early");
+            }
+         }
+         buffer.flip();
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Watchpoint helpers.  Called only for accesses to guarded pages.
+   
+   // True if a watchpoint is set in the page holding the given address.
+       private boolean isWatched(int address) {
+         Watchpoint[] watched = watchpoints;
+         for (int i = 0; i < watched.length; i++) {
+            if ((watched[i].getAddress() ^ address) >>> MemoryPage.PAGE_BITS == 0) {
+               return true;
+            }
+         }
+         return false;
+      }
+   
+   // The first watchpoint of one of the given kinds on a word touched by the access.
+       private Watchpoint findWatchpoint(int address, int length, int kind) {
+         Watchpoint[] watched = watchpoints;
+         for (int i = 0; i < watched.length; i++) {
+            if ((watched[i].getKind() & kind) != 0 && watched[i].overlaps(address, length)) {
+               return watched[i];
+            }
+         }
+         return null;
+      }
+   
+   // Current value of the watched word, as a load would see it.
+       private int getWatchedValue(Watchpoint watchpoint) {
+         return fetchBytes(getPage(watchpoint.getAddress()), watchpoint.getAddress(), WORD_LENGTH_BYTES);
+      }
+   
+   // A load from a guarded page: record a hit if it read a watched word.
+       private void checkRead(int address, int length) {
+         Watchpoint watchpoint = findWatchpoint(address, length, Watchpoint.READ);
+         if (watchpoint != null) {
+            int value = getWatchedValue(watchpoint);
+            recordWatchpointHit(watchpoint, false, value, value);
+         }
+      }
+   
+   // A store touching a watched word, whose value before it is given: record a hit if
+   // the watchpoint is on writes, or on changes and the value changed.
+       private void checkWrite(Watchpoint watchpoint, int oldValue) {
+         int newValue = getWatchedValue(watchpoint);
+         if ((watchpoint.getKind() & Watchpoint.WRITE) != 0 || newValue != oldValue) {
+            recordWatchpointHit(watchpoint, true, oldValue, newValue);
+         }
+      }
+   
+   // Keep the hit unless an earlier one is still waiting, and have the simulator stop.
+   // The program counter has already moved past the instruction making the access.
+   // Like breakpoints, watchpoints only stop hart 0, and only the program's own accesses
+   // count: the GUI and tools read and write memory from other threads.
+       private void recordWatchpointHit(Watchpoint watchpoint, boolean write, int oldValue, int newValue) {
+         if (watchpointHit == null && Thread.currentThread() == watchingThread) {
+            watchpointHit = new WatchpointHit(watchpoint, write,
+               RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH, oldValue, newValue);
+            Simulator.watchpointReached();
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Give the page storage for its words, and count it.  Synchronized, and checks again,
+   // because harts running in parallel may write to a new page at the same time.
+   
+       private synchronized void allocateWords(MemoryPage page) {
+         if (!page.hasWords()) {
+            page.allocateWords();
+            allocatedPages++;
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Helper method to store 4 byte value in the given page.  Assumes address is 
+   // word aligned, no endian processing.
    // Modified 29 Dec 2005 to return overwritten value.
          
-       private synchronized int storeWordInTable(int[][] blockTable, int relative, int value) {
-         int  block, offset, oldValue;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-               // First time writing to this block, so allocate the space.
-            blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-         }
-         oldValue = blockTable[block][offset];
-         blockTable[block][offset] = value;
+       private int storeWord(MemoryPage page, int address, int value) {
+         if (!page.hasWords()) {
+               // First time writing to this page, so allocate the space.
+            allocateWords(page);
+         }
+         int offset = MemoryPage.wordIndex(address);
+         int oldValue = page.getWord(offset);
+         page.setWord(offset, value);
          return oldValue;
       }
       
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to fetch 4 byte value from table that represents MIPS memory.
-   // Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.  Assumes word alignment, no endian processing.
+   // Helper method to fetch 4 byte value from the given page.  Assumes word 
+   // alignment, no endian processing.
    //
    
-       private synchronized int fetchWordFromTable(int[][] blockTable, int relative) {
-         int value = 0;
-         int block, offset;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-                   // first reference to an address in this block.  Assume initialized to 0.
-            value = 0;
+       private int fetchWord(MemoryPage page, int address) {
+         if (!page.hasWords()) {
+                   // first reference to an address in this page.  Assume initialized to 0.
+            return 0;
          } 
-         else {
-            value = blockTable[block][offset];
-         }
-         return value;
+         return page.getWord(MemoryPage.wordIndex(address));
       }     
-       
-       ////////////////////////////////////////////////////////////////////////////////
-       //
-       // Helper method to fetch 4 byte value from table that represents MIPS memory.
-       // Originally used just for data segment, but now also used for stack.
-       // Both use different tables but same storage method and same table size
-       // and block size.  Assumes word alignment, no endian processing.
-   	 //
-   	 // This differs from "fetchWordFromTable()" in that it returns an Integer and
-   	 // returns null instead of 0 if the 4K table has not been allocated.  Developed
-   	 // by Greg Gibeling of UC Berkeley, fall 2007.
-       //
-       
-       private synchronized Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
-         int value = 0;
-         int block, offset;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-                       // first reference to an address in this block.  Assume initialized to 0.
-            return null;
-         } 
-         else {
-            value = blockTable[block][offset];
-         }
-         return new Integer(value);
-      }
    	   
    ////////////////////////////////////////////////////////////////////////////////////
    // Returns result of substituting specified byte of source value into specified byte 
@@ -1412,44 +2151,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    ///////////////////////////////////////////////////////////////////////   	
    // Store a program statement at the given address.  Address has already been verified
-   // as valid.  It may be either in user or kernel text segment, as specified by arguments.
-       private void storeProgramStatement(int address, ProgramStatement statement, 
-                                          int baseAddress, ProgramStatement[][] blockTable) {
-         int relative = (address - baseAddress) >> 2; // convert byte address to words
-         int block = relative / BLOCK_LENGTH_WORDS;
-         int offset = relative % BLOCK_LENGTH_WORDS; 
-         if (block < TEXT_BLOCK_TABLE_LENGTH) {
-            if (blockTable[block] == null) {
-               // No instructions are stored in this block, so allocate the block.
-               blockTable[block] = new ProgramStatement[BLOCK_LENGTH_WORDS];
-            }
-            blockTable[block][offset] = statement;
+   // as valid.  It may be either in user or kernel text segment.
+       private void storeProgramStatement(MemoryPage page, int address, ProgramStatement statement) {
+         if (page.statements == null) {
+            // No instructions are stored in this page, so allocate it.
+            page.statements = new ProgramStatement[MemoryPage.PAGE_LENGTH_WORDS];
+            allocatedTextPages++;
          }
+         page.setStatement(MemoryPage.wordIndex(address), statement);
       }
    
    
    ///////////////////////////////////////////////////////////////////////   	
    // Read a program statement from the given address.  Address has already been verified
-   // as valid.  It may be either in user or kernel text segment, as specified by arguments.  
+   // as valid.  It may be either in user or kernel text segment.
    // Returns associated ProgramStatement or null if none. 
    // Last parameter controls whether or not observers will be notified.
-       private ProgramStatement readProgramStatement(int address, int baseAddress, ProgramStatement[][] blockTable, boolean notify) {
-         int relative = (address - baseAddress) >> 2; // convert byte address to words
-         int block = relative / TEXT_BLOCK_LENGTH_WORDS;
-         int offset = relative % TEXT_BLOCK_LENGTH_WORDS; 
-         if (block < TEXT_BLOCK_TABLE_LENGTH) {
-            if (blockTable[block] == null || blockTable[block][offset] == null) {
-               // No instructions are stored in this block or offset.
-               if (notify) notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH,0);
-               return null;
-            } 
-            else {
-               if (notify) notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH, blockTable[block][offset].getBinaryStatement());
-               return blockTable[block][offset];
-            }
-         }
-         if (notify) notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH,0);
-         return null;
+       private ProgramStatement readProgramStatement(MemoryPage page, int address, boolean notify) {
+         ProgramStatement[] statements = page.statements;
+         ProgramStatement statement = (statements == null) ? null : statements[MemoryPage.wordIndex(address)];
+         if (notify) notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH, 
+                                        (statement == null) ? 0 : statement.getBinaryStatement());
+         return statement;
       }
    	   	
    }
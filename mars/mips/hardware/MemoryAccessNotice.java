@@ -31,6 +31,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 /**
  * Object provided to Observers of runtime access to MIPS memory.
  * Observer can get the access type (R/W), address and length in bytes (4,2,1).
+ * <p>
+ * Memory reuses notices for accesses made by the running MIPS program, so an
+ * Observer must not keep a reference to one after its update() returns; copy
+ * out the fields it needs instead.
  * 
  * @author Pete Sanderson 
  * @version July 2005
@@ -59,6 +63,13 @@ public class MemoryAccessNotice extends AccessNotice {
 	  this.length = Memory.WORD_LENGTH_BYTES;
 	  this.value = value;
   }
+  /** Reinitialize this notice for reuse.  Called only within this package. */
+   void set(int type, int address, int length, int value) {
+     reset(type);
+	  this.address = address;
+	  this.length = length;
+	  this.value = value;
+  }
   /** Fetch the memory address that was accessed. */
   public int getAddress() {
      return address;
@@ -0,0 +1,115 @@
+   package mars.mips.hardware;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+
+/**
+ * Source of off-heap storage for the pages of simulated memory.  Storage is obtained
+ * in chunks of CHUNK_PAGES pages, either as direct ByteBuffers or by mapping
+ * successive regions of a scratch file, and handed out one 4K page at a time.
+ * Neither kind counts against the Java heap, and neither is scanned by the garbage
+ * collector, so a program using hundreds of MB of simulated memory no longer
+ * inflates the heap or GC pauses.
+ * <p>
+ * Storage is never returned individually; close() releases all of it when memory
+ * is cleared.  Direct buffers are then freed by the garbage collector, and the
+ * scratch file is deleted.
+ */
+
+    class MemoryBackingStore {
+
+      private static final int CHUNK_PAGES = 256;  // 1 MB
+      private static final int PAGE_BYTES = MemoryPage.PAGE_LENGTH_WORDS * Memory.WORD_LENGTH_BYTES;
+
+      private final boolean mapped;
+      private File file;
+      private RandomAccessFile scratch;
+      private FileChannel channel;
+      private long fileLength = 0;
+      private ByteBuffer chunk;
+      private int pagesLeftInChunk = 0;
+
+     /**
+      *  Create a store.  If a memory-mapped scratch file was asked for but cannot be
+      *  created, direct buffers are used instead.
+      *
+      *  @param mapped true for a memory-mapped scratch file, false for direct buffers
+      */
+       MemoryBackingStore(boolean mapped) {
+         if (mapped) {
+            try {
+               file = File.createTempFile("mars", ".mem");
+               file.deleteOnExit();
+               scratch = new RandomAccessFile(file, "rw");
+               channel = scratch.getChannel();
+            } 
+                catch (IOException e) {
+                  close();
+                  mapped = false;
+               }
+         }
+         this.mapped = mapped;
+      }
+
+     /**
+      *  Determine whether pages are mapped from a scratch file.
+      */
+       boolean isMapped() {
+         return mapped;
+      }
+
+     /**
+      *  Allocate storage for one page, initially all zero.
+      *
+      *  @return little-endian buffer of exactly one page
+      */
+       ByteBuffer allocatePage() {
+         if (pagesLeftInChunk == 0) {
+            chunk = allocateChunk();
+            pagesLeftInChunk = CHUNK_PAGES;
+         }
+         int offset = (CHUNK_PAGES - pagesLeftInChunk) * PAGE_BYTES;
+         pagesLeftInChunk--;
+         ByteBuffer page = chunk.duplicate();
+         page.position(offset);
+         page.limit(offset + PAGE_BYTES);
+         return page.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+     /**
+      *  Release all storage.  Pages allocated from this store must not be used afterward.
+      */
+       void close() {
+         chunk = null;
+         pagesLeftInChunk = 0;
+         try {
+            if (scratch != null) {
+               scratch.close();
+            }
+         } 
+             catch (IOException e) {
+            }
+         if (file != null) {
+            file.delete();
+         }
+         scratch = null;
+         channel = null;
+         file = null;
+      }
+
+      // Next chunk, mapped from the end of the scratch file (growing it) or allocated
+      // directly.  Falls back to a direct buffer if the file cannot be extended.
+       private ByteBuffer allocateChunk() {
+         int size = CHUNK_PAGES * PAGE_BYTES;
+         if (channel != null) {
+            try {
+               ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, fileLength, size);
+               fileLength += size;
+               return buffer;
+            } 
+                catch (IOException e) {
+               }
+         }
+         return ByteBuffer.allocateDirect(size);
+      }
+   }
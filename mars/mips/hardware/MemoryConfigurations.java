@@ -216,8 +216,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (config == null) 
             return false;
          if (config != currentConfiguration) {
+            if (Memory.isConfigurationFixed()) {
+               return false;  // other machines use the segment addresses (see Memory.fixConfiguration)
+            }
             currentConfiguration = config;
-            Globals.memory.clear();
+            Memory.getInstance().clear();
             RegisterFile.getUserRegister("$gp").changeResetValue(config.getGlobalPointer());
             RegisterFile.getUserRegister("$sp").changeResetValue(config.getStackPointer());
             RegisterFile.getProgramCounterRegister().changeResetValue(config.getTextBaseAddress());
@@ -0,0 +1,217 @@
+   package mars.mips.hardware;
+   import mars.*;
+   import java.util.*;
+
+/**
+ * Registry of memory observers, indexed by 4K page so that an access nobody is
+ * watching costs one array lookup.
+ * <p>
+ * The 32-bit address space is split by a directory of 1024 entries, each covering
+ * 4 MB.  An entry is null when no registered range touches that part of the address
+ * space.  Otherwise it holds the observables whose range covers the whole 4 MB,
+ * plus, for ranges that cover only part of it, a list per 4K page.  Both lists are
+ * kept in registration order, and merged when notifying, so observers see notices
+ * in the same order as they did when Memory kept them in a single Vector.
+ * <p>
+ * Registration is rare, so the whole index is rebuilt on every change and then
+ * published with a single volatile write.  Lookups therefore need no locking.
+ * <p>
+ * When the thread making the access holds its machine's lock (always the
+ * case for the running MIPS program), one MemoryAccessNotice is reused for every
+ * notification instead of allocating a new one each time.  Only hart 0 reuses it,
+ * since other harts sharing the memory may run at the same time.  While there are
+ * such harts, observers are notified one access at a time, as they expect.
+ */
+
+    class MemoryObserverTable {
+
+      private static final int PAGE_BITS = 12;                  // 4K pages
+      private static final int LEAF_BITS = 22;                  // 4M covered by one directory entry
+      private static final int PAGES_PER_LEAF = 1 << (LEAF_BITS - PAGE_BITS);
+      private static final int DIRECTORY_LENGTH = 1 << (32 - LEAF_BITS);
+      private static final MemoryObservable[] NONE = new MemoryObservable[0];
+
+      private List registrations = new ArrayList();  // of MemoryObservable, in registration order
+      private int nextSequence = 0;
+      private volatile int size = 0;                 // registrations.size(), readable without locking
+      private volatile Leaf[] directory = new Leaf[DIRECTORY_LENGTH];
+
+      private MemoryAccessNotice reusableNotice = new MemoryAccessNotice(AccessNotice.READ, 0, 0, 0);
+      private boolean dispatching = false;
+      private final Object notifying = new Object();  // held while notifying, with harts
+
+     /**
+      *  Register an observer for the given range.  The range is assumed to have been
+      *  validated by Memory: word aligned, end not below start, not crossing 0x80000000.
+      *
+      *  @param obs the observer
+      *  @param startAddr first word of the range
+      *  @param endAddr last word of the range
+      */
+       synchronized void add(Observer obs, int startAddr, int endAddr) {
+         registrations.add(new MemoryObservable(obs, startAddr, endAddr, nextSequence++));
+         rebuild();
+      }
+
+     /**
+      *  Remove every registration of the given observer.
+      *
+      *  @param obs the observer
+      */
+       synchronized void remove(Observer obs) {
+         Iterator it = registrations.iterator();
+         while (it.hasNext()) {
+            if (((MemoryObservable) it.next()).observer == obs) {
+               it.remove();
+            }
+         }
+         rebuild();
+      }
+
+     /**
+      *  Remove all registrations.
+      */
+       synchronized void clear() {
+         registrations.clear();
+         rebuild();
+      }
+
+     /**
+      *  Number of registrations currently in effect.
+      */
+       int size() {
+         return size;
+      }
+
+     /**
+      *  Notify the observers whose range includes the given address.
+      *
+      *  @param type AccessNotice.READ or AccessNotice.WRITE
+      *  @param address address accessed
+      *  @param length number of bytes accessed
+      *  @param value value read or written
+      */
+       void dispatch(int type, int address, int length, int value) {
+         Leaf leaf = directory[address >>> LEAF_BITS];
+         if (leaf == null) {
+            return;
+         }
+         MemoryObservable[] whole = leaf.whole;
+         MemoryObservable[][] pages = leaf.pages;
+         MemoryObservable[] page = (pages == null) ? NONE : pages[(address >>> PAGE_BITS) & (PAGES_PER_LEAF - 1)];
+         MemoryAccessNotice notice = null;
+         boolean reused = false;
+         boolean serialized = false;
+         try {
+            int w = 0, p = 0;
+            while (w < whole.length || p < page.length) {
+               MemoryObservable mo = (p == page.length || (w < whole.length && whole[w].sequence < page[p].sequence))
+                                     ? whole[w++] : page[p++];
+               if (mo.match(address)) {
+                  if (notice == null) {
+                     Machine machine = Machine.current();
+                     serialized = machine.getHarts() != null;
+                     if (!dispatching && machine.getHartId() == 0 && Thread.holdsLock(machine.getLock())) {
+                        dispatching = reused = true;
+                        notice = reusableNotice;
+                        notice.set(type, address, length, value);
+                     }
+                     else {
+                        notice = new MemoryAccessNotice(type, address, length, value);
+                     }
+                  }
+                  if (serialized) {
+                     synchronized (notifying) {
+                        mo.notifyObserver(notice);
+                     }
+                  }
+                  else {
+                     mo.notifyObserver(notice);
+                  }
+               }
+            }
+         }
+         finally {
+            if (reused) {
+               dispatching = false;
+            }
+         }
+      }
+
+      // Rebuild the directory from the registration list and publish it.
+       private void rebuild() {
+         Leaf[] newDirectory = new Leaf[DIRECTORY_LENGTH];
+         for (int i = 0; i < registrations.size(); i++) {
+            MemoryObservable mo = (MemoryObservable) registrations.get(i);
+            long low = mo.lowAddress & 0xFFFFFFFFL;
+            long high = (mo.highAddress & 0xFFFFFFFFL) + Memory.WORD_LENGTH_BYTES - 1;
+            for (long leafIndex = low >>> LEAF_BITS; leafIndex <= high >>> LEAF_BITS; leafIndex++) {
+               long leafLow = leafIndex << LEAF_BITS;
+               long leafHigh = leafLow + (1L << LEAF_BITS) - 1;
+               Leaf leaf = newDirectory[(int) leafIndex];
+               if (leaf == null) {
+                  leaf = new Leaf();
+                  newDirectory[(int) leafIndex] = leaf;
+               }
+               if (low <= leafLow && high >= leafHigh) {
+                  leaf.whole = append(leaf.whole, mo);
+               }
+               else {
+                  long firstPage = Math.max(low, leafLow) >>> PAGE_BITS;
+                  long lastPage = Math.min(high, leafHigh) >>> PAGE_BITS;
+                  if (leaf.pages == null) {
+                     leaf.pages = new MemoryObservable[PAGES_PER_LEAF][];
+                     Arrays.fill(leaf.pages, NONE);
+                  }
+                  for (long pageIndex = firstPage; pageIndex <= lastPage; pageIndex++) {
+                     int slot = (int) pageIndex & (PAGES_PER_LEAF - 1);
+                     leaf.pages[slot] = append(leaf.pages[slot], mo);
+                  }
+               }
+            }
+         }
+         directory = newDirectory;
+         size = registrations.size();
+      }
+
+       private static MemoryObservable[] append(MemoryObservable[] list, MemoryObservable mo) {
+         MemoryObservable[] longer = new MemoryObservable[list.length + 1];
+         System.arraycopy(list, 0, longer, 0, list.length);
+         longer[list.length] = mo;
+         return longer;
+      }
+
+      // Observables for one directory entry.  The per-page lists are only allocated
+      // if some range covers part of the entry.
+       private static class Leaf {
+         MemoryObservable[] whole = NONE;
+         MemoryObservable[][] pages = null;
+      }
+
+      /////////////////////////////////////////////////////////////////////////
+      // Objects of this class represent an observable-observer pair for a given
+      // memory address or range.  Observers receive it as the Observable argument
+      // of update(), as they always have.
+       private static class MemoryObservable extends Observable {
+         final Observer observer;
+         final int lowAddress, highAddress;
+         final int sequence;
+
+          MemoryObservable(Observer obs, int startAddr, int endAddr, int sequence) {
+            this.observer = obs;
+            this.lowAddress = startAddr;
+            this.highAddress = endAddr;
+            this.sequence = sequence;
+         }
+
+          boolean match(int address) {
+            return (address >= lowAddress && address <= highAddress-1+Memory.WORD_LENGTH_BYTES);
+         }
+
+      	// Calls the observer directly; Observable.notifyObservers() would copy its
+      	// observer list on every call.
+          void notifyObserver(MemoryAccessNotice notice) {
+            observer.update(this, notice);
+         }
+      }
+   }
@@ -0,0 +1,196 @@
+   package mars.mips.hardware;
+   import mars.*;
+   import java.nio.*;
+
+/**
+ * One 4K page of simulated memory, as found through the page directory in Memory.
+ * It carries the permission bits of the segment it belongs to and the storage
+ * for its contents: words for the data, stack, kernel data and MMIO segments,
+ * ProgramStatements for the text segments.  Both are allocated on first store,
+ * exactly as the 4K blocks of the old per-segment block tables were.
+ * <p>
+ * Words are kept in an int array on the Java heap.  OffHeapMemoryPage overrides the
+ * word accessors to keep them in a buffer outside it instead.
+ * <p>
+ * A MemorySnapshot keeps a page's words and statements by sharing them: the page
+ * copies them before its next write, so a page that is not written again costs the
+ * snapshot nothing.
+ * <p>
+ * A page holding a word watched by a Watchpoint is flagged as guarded.  Memory checks
+ * loads and stores against the watchpoints only in guarded pages.
+ * <p>
+ * A page whose addresses do not all belong to the same segment (segment limits
+ * need not fall on a page boundary, and some configurations nest the stack inside
+ * the data segment) has permissions 0.  Memory then decides address by address.
+ */
+
+    class MemoryPage {
+
+     /** Loads are allowed. */
+      static final int READ = 1;
+     /** Stores are allowed. */
+      static final int WRITE = 2;
+     /** Holds ProgramStatements (text or kernel text segment). */
+      static final int EXECUTE = 4;
+     /** Memory-mapped I/O. */
+      static final int MMIO = 8;
+     /** In kernel space (kernel text, kernel data and MMIO). */
+      static final int KERNEL = 16;
+
+      static final int PAGE_BITS = 12;
+      static final int PAGE_LENGTH_WORDS = 1 << (PAGE_BITS - 2);
+
+     /** Permission bits shared by every address in the page, or 0 if they differ. */
+      final int permissions;
+      ProgramStatement[] statements;
+     /** Holds a watched word, so loads and stores must be checked against the watchpoints. */
+      boolean guarded;
+      private int[] words;
+      private boolean statementsShared, wordsShared;  // copy before the next write
+
+       MemoryPage(int permissions) {
+         this.permissions = permissions;
+      }
+
+     /**
+      *  Determine whether storage for words has been allocated, i.e. whether any word
+      *  of the page has ever been written.
+      */
+       boolean hasWords() {
+         return words != null;
+      }
+
+     /**
+      *  Allocate storage for words, all zero.  Called once, before the first setWord().
+      */
+       void allocateWords() {
+         words = new int[PAGE_LENGTH_WORDS];
+      }
+
+     /**
+      *  Word at the given index.  Storage must have been allocated.
+      */
+       int getWord(int index) {
+         return words[index];
+      }
+
+     /**
+      *  Replace the word at the given index.  Storage must have been allocated.
+      */
+       void setWord(int index, int value) {
+         if (wordsShared) {
+            words = (int[]) words.clone();
+            wordsShared = false;
+         }
+         words[index] = value;
+      }
+
+     /**
+      *  The words, for a snapshot to keep.  They are copied before the next setWord().
+      *
+      *  @return the page's words, or null if storage has not been allocated
+      */
+       int[] shareWords() {
+         wordsShared = words != null;
+         return words;
+      }
+
+     /**
+      *  Determine whether shareWords() would return words that no snapshot holds yet.
+      */
+       boolean wordsModifiedSinceShared() {
+         return words != null && !wordsShared;
+      }
+
+     /**
+      *  Replace the words with ones returned by shareWords() earlier.
+      *
+      *  @param saved the words to restore, or null for a page never written
+      */
+       void restoreWords(int[] saved) {
+         words = saved;
+         wordsShared = saved != null;
+      }
+
+     /**
+      *  Replace the statement at the given index.  Storage must have been allocated.
+      */
+       void setStatement(int index, ProgramStatement statement) {
+         if (statementsShared) {
+            statements = (ProgramStatement[]) statements.clone();
+            statementsShared = false;
+         }
+         statements[index] = statement;
+      }
+
+     /**
+      *  The statements, for a snapshot to keep.  They are copied before the next
+      *  setStatement().
+      *
+      *  @return the page's statements, or null if storage has not been allocated
+      */
+       ProgramStatement[] shareStatements() {
+         statementsShared = statements != null;
+         return statements;
+      }
+
+     /**
+      *  Determine whether shareStatements() would return statements that no snapshot
+      *  holds yet.
+      */
+       boolean statementsModifiedSinceShared() {
+         return statements != null && !statementsShared;
+      }
+
+     /**
+      *  Replace the statements with ones returned by shareStatements() earlier.
+      *
+      *  @param saved the statements to restore, or null for none
+      */
+       void restoreStatements(ProgramStatement[] saved) {
+         statements = saved;
+         statementsShared = saved != null;
+      }
+
+     /**
+      *  Put the words into the given little-endian buffer, as 4K of bytes from its
+      *  position on, and advance it past them.  Storage must have been allocated.
+      *
+      *  @param buffer buffer with room for the page
+      */
+       void copyWordsTo(ByteBuffer buffer) {
+         buffer.asIntBuffer().put(words);
+         buffer.position(buffer.position() + PAGE_LENGTH_WORDS * Memory.WORD_LENGTH_BYTES);
+      }
+
+     /**
+      *  Replace the words with 4K of bytes read from the given little-endian buffer, and
+      *  advance it past them.  Allocates storage if need be.
+      *
+      *  @param buffer buffer holding the page from its position on
+      */
+       void copyWordsFrom(ByteBuffer buffer) {
+         int[] loaded = new int[PAGE_LENGTH_WORDS];
+         buffer.asIntBuffer().get(loaded);
+         buffer.position(buffer.position() + PAGE_LENGTH_WORDS * Memory.WORD_LENGTH_BYTES);
+         words = loaded;
+         wordsShared = false;
+      }
+
+     /**
+      *  The page's words as little-endian bytes, if they are kept in a buffer that can
+      *  be handed out without copying.
+      *
+      *  @return read-only view of the 4K of storage, or null if not available
+      */
+       ByteBuffer getBytes() {
+         return null;
+      }
+
+     /**
+      *  Index of the word holding the given address within this page's arrays.
+      */
+       static int wordIndex(int address) {
+         return (address >> 2) & (PAGE_LENGTH_WORDS - 1);
+      }
+   }
@@ -0,0 +1,71 @@
+   package mars.mips.hardware;
+   import mars.*;
+
+/**
+ * The contents of memory at one moment, as taken by Memory.takeSnapshot() and put
+ * back by Memory.restoreSnapshot().
+ * <p>
+ * The snapshot holds the word and statement arrays of every page that has them.
+ * It shares them with memory, which copies a page before writing it again (see
+ * MemoryPage), so taking a snapshot copies nothing but off-heap pages, and a page
+ * not written between two snapshots is held once by both.  getNewBytes() tells how
+ * much storage a snapshot added to the one before it.
+ */
+
+    public final class MemorySnapshot {
+
+      static final int PAGE_BYTES = MemoryPage.PAGE_LENGTH_WORDS * Memory.WORD_LENGTH_BYTES;
+      private static final int BYTES_PER_PAGE_ENTRY = 16;  // page number and two references
+
+      final int[] pageNumbers;          // address >>> PAGE_BITS of each page, ascending
+      final int[][] words;              // null where the page was never written
+      final ProgramStatement[][] statements;  // null where the page holds no statements
+      final int heapAddress;
+      final MemoryPage[][] directory;   // page directory of the memory it was taken from
+      private final long newBytes;
+
+       MemorySnapshot(int[] pageNumbers, int[][] words, ProgramStatement[][] statements,
+                      int heapAddress, MemoryPage[][] directory, long newBytes) {
+         this.pageNumbers = pageNumbers;
+         this.words = words;
+         this.statements = statements;
+         this.heapAddress = heapAddress;
+         this.directory = directory;
+         this.newBytes = newBytes + (long) pageNumbers.length * BYTES_PER_PAGE_ENTRY;
+      }
+
+     /**
+      *  Storage taken by pages copied for this snapshot, i.e. not held by the one taken
+      *  before it, plus the snapshot's own tables.
+      *
+      *  @return approximate number of bytes
+      */
+       public long getNewBytes() {
+         return newBytes;
+      }
+
+     /**
+      *  Storage this snapshot shares with another, i.e. page arrays held by both.
+      *
+      *  @param other another snapshot of the same memory
+      *  @return approximate number of bytes
+      */
+       public long getSharedBytes(MemorySnapshot other) {
+         long bytes = 0;
+         int j = 0;
+         for (int i = 0; i < pageNumbers.length; i++) {
+            while (j < other.pageNumbers.length && other.pageNumbers[j] < pageNumbers[i]) {
+               j++;
+            }
+            if (j < other.pageNumbers.length && other.pageNumbers[j] == pageNumbers[i]) {
+               if (words[i] != null && words[i] == other.words[j]) {
+                  bytes += PAGE_BYTES;
+               }
+               if (statements[i] != null && statements[i] == other.statements[j]) {
+                  bytes += PAGE_BYTES;
+               }
+            }
+         }
+         return bytes;
+      }
+   }
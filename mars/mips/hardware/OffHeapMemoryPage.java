@@ -0,0 +1,97 @@
+   package mars.mips.hardware;
+   import java.nio.*;
+
+/**
+ * MemoryPage whose words are kept outside the Java heap, in a 4K slice of a buffer
+ * handed out by a MemoryBackingStore.  The slice is little-endian, so its bytes are
+ * laid out just as a binary dump writes them.
+ * <p>
+ * A buffer cannot be shared the way an array is, so a snapshot gets a copy of the
+ * words in an array.  The copy is handed out again until the page is next written.
+ */
+
+    class OffHeapMemoryPage extends MemoryPage {
+
+      private final MemoryBackingStore store;
+      private ByteBuffer bytes;
+      private IntBuffer words;
+      private int[] shared;       // last copy handed to a snapshot, or null
+      private boolean modified;   // written since that copy was made
+
+       OffHeapMemoryPage(int permissions, MemoryBackingStore store) {
+         super(permissions);
+         this.store = store;
+      }
+
+       boolean hasWords() {
+         return words != null;
+      }
+
+       void allocateWords() {
+         bytes = store.allocatePage();
+         words = bytes.asIntBuffer();
+      }
+
+       int getWord(int index) {
+         return words.get(index);
+      }
+
+       void setWord(int index, int value) {
+         modified = true;
+         words.put(index, value);
+      }
+
+       int[] shareWords() {
+         if (words != null && (shared == null || modified)) {
+            shared = new int[PAGE_LENGTH_WORDS];
+            IntBuffer view = words.duplicate();
+            view.clear();
+            view.get(shared);
+            modified = false;
+         }
+         return (words == null) ? null : shared;
+      }
+
+       boolean wordsModifiedSinceShared() {
+         return words != null && (shared == null || modified);
+      }
+
+     // The storage is not given back to the store, so a page restored to never having
+     // been written just reads as zeroes.
+       void restoreWords(int[] saved) {
+         if ((saved == null && words == null) || (saved != null && saved == shared && !modified)) {
+            return;  // nothing to do
+         }
+         if (words == null) {
+            allocateWords();
+         }
+         IntBuffer view = words.duplicate();
+         view.clear();
+         view.put((saved == null) ? new int[PAGE_LENGTH_WORDS] : saved);
+         shared = saved;
+         modified = false;
+      }
+
+       void copyWordsTo(ByteBuffer buffer) {
+         ByteBuffer view = bytes.duplicate();
+         view.clear();
+         buffer.put(view);
+      }
+
+       void copyWordsFrom(ByteBuffer buffer) {
+         if (words == null) {
+            allocateWords();
+         }
+         ByteBuffer source = buffer.duplicate();
+         source.limit(source.position() + PAGE_LENGTH_WORDS * Memory.WORD_LENGTH_BYTES);
+         ByteBuffer view = bytes.duplicate();
+         view.clear();
+         view.put(source);
+         buffer.position(source.position());
+         modified = true;
+      }
+
+       ByteBuffer getBytes() {
+         return (bytes == null) ? null : bytes.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+      }
+   }
@@ -1,6 +1,7 @@
    package mars.mips.hardware;
    import mars.*;
    import java.util.*;
+   import java.lang.invoke.*;
 
 /*
 Copyright (c) 2003-2006,  Pete Sanderson and Kenneth Vollmar
@@ -39,11 +40,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class Register extends Observable {
       private String name;
       private int number, resetValue;
-   	// volatile should be enough to allow safe multi-threaded access  
-   	// w/o the use of synchronized methods.  getValue and setValue
-   	// are the only methods here used by the register collection
-   	// (RegisterFile, Coprocessor0, Coprocessor1) methods. 
-      private volatile int value;
+   	// The value is kept in one slot of an int array, normally shared by all the
+   	// registers of a collection (RegisterFile, Coprocessor0, Coprocessor1) so that
+   	// the simulator can index it directly.  The Register is a view over that slot,
+   	// which the GUI and observers use.  The simulator modifies registers only while
+   	// holding its machine's lock, but the GUI reads them without it, so the slot is
+   	// written with release and read with acquire semantics (see VALUE), as a volatile
+   	// field would be.
+      private static final VarHandle VALUE = MethodHandles.arrayElementVarHandle(int[].class);
+      private int[] values;
+      private int index;
+   	// True while at least one observer is attached, so the common unobserved
+   	// access does not have to go through Observable's synchronized methods.
+      private volatile boolean observed;
       
    	 /**
         *  Creates a new register with specified name, number, and value.
@@ -53,9 +62,25 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         */
    	  
        public Register(String n, int num, int val){
+         this(n, num, val, new int[1], 0);
+      }
+      
+   	 /**
+        *  Creates a new register with specified name, number, and value, whose
+        *  value is stored in the given slot of an existing array.
+        *   @param n The name of the register.
+        *   @param num The number of the register.
+        *   @param val The inital (and reset) value of the register.
+        *   @param values The array holding the register's value.
+        *   @param index The position of the register's value in that array.
+        */
+   	  
+       public Register(String n, int num, int val, int[] values, int index){
          name= n;
          number=num;
-         value= val;
+         this.values = values;
+         this.index = index;
+         values[index]= val;
          resetValue = val;
       }
       
@@ -74,9 +99,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return value The value of the Register.
    	  */
    	  
-       public synchronized int getValue(){
-         notifyAnyObservers(AccessNotice.READ);
-         return value;
+       public int getValue(){
+         if (observed) {
+            notifyAnyObservers(AccessNotice.READ);
+         }
+         return (int) VALUE.getAcquire(values, index);
       }
 
       
@@ -86,8 +113,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return value The value of the Register.
    	  */
    	  
-       public synchronized int getValueNoNotify(){
-         return value;
+       public int getValueNoNotify(){
+         return (int) VALUE.getAcquire(values, index);
       }
 		
    
@@ -115,10 +142,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return previous value of register
    	  */
    	  
-       public synchronized int setValue(int val){
-         int old = value;
-         value = val;
-         notifyAnyObservers(AccessNotice.WRITE);
+       public int setValue(int val){
+         int old = (int) VALUE.getAcquire(values, index);
+         VALUE.setRelease(values, index, val);
+         if (observed) {
+            notifyAnyObservers(AccessNotice.WRITE);
+         }
          return old;
       }
    	
@@ -127,8 +156,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *  Observers are not notified.  
    	  */
    	  
-       public synchronized void resetValue(){
-         value = resetValue;
+       public void resetValue(){
+         VALUE.setRelease(values, index, resetValue);
       }
    	
    	/**
@@ -140,6 +169,35 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          resetValue = reset;
       }
    
+   	/**
+   	 *  Adds an observer, which from now on is notified of every read and write.
+   	 *  @param o the observer to add
+   	 */
+   	 
+       public synchronized void addObserver(Observer o) {
+         super.addObserver(o);
+         observed = this.countObservers() > 0;
+      }
+   
+   	/**
+   	 *  Removes an observer.
+   	 *  @param o the observer to remove
+   	 */
+   	 
+       public synchronized void deleteObserver(Observer o) {
+         super.deleteObserver(o);
+         observed = this.countObservers() > 0;
+      }
+   
+   	/**
+   	 *  Removes all observers.
+   	 */
+   	 
+       public synchronized void deleteObservers() {
+         super.deleteObservers();
+         observed = false;
+      }
+   
    //
    // Method to notify any observers of register operation that has just occurred.
    //
@@ -46,6 +46,11 @@ public class RegisterAccessNotice extends AccessNotice {
      super(type);
 	  this.registerName = registerName;
   }
+ /** Reinitialize this notice for reuse.  Called only within this package. */
+  void set(int type, String registerName) {
+     reset(type);
+	  this.registerName = registerName;
+  }
  /** Fetch the register number of register accessed. */
   public String getRegisterName() {
      return registerName;
@@ -0,0 +1,120 @@
+   package mars.mips.hardware;
+   import mars.util.*;
+
+/**
+ * A data watchpoint: a word of memory at which the running program is stopped when
+ * it reads the word, writes it, or changes its value, much as a breakpoint stops it
+ * at an instruction.  Set through Memory.addWatchpoint().
+ * <p>
+ * Memory flags each page holding a watched word as guarded, and only loads and stores
+ * to guarded pages are checked against the watchpoints, so watching costs nothing
+ * elsewhere.  Only accesses made on behalf of the MIPS program, the ones that notify
+ * memory observers, are checked.
+ */
+
+    public final class Watchpoint {
+
+     /** Stop when the program reads the word. */
+      public static final int READ = 1;
+     /** Stop when the program writes the word, whether or not its value changes. */
+      public static final int WRITE = 2;
+     /** Stop when the program writes a different value into the word. */
+      public static final int CHANGE = 4;
+
+      private final int address;
+      private final int kind;
+
+     /**
+      *  Create a watchpoint on the word holding the given address.
+      *
+      *  @param address any address within the word to watch
+      *  @param kind READ, WRITE and/or CHANGE, or'ed together
+      *  @throws IllegalArgumentException if kind holds none of them
+      */
+       public Watchpoint(int address, int kind) {
+         if ((kind & (READ | WRITE | CHANGE)) == 0) {
+            throw new IllegalArgumentException("watchpoint must watch reads, writes or changes");
+         }
+         this.address = address & -Memory.WORD_LENGTH_BYTES;
+         this.kind = kind & (READ | WRITE | CHANGE);
+      }
+
+     /**
+      *  Create a watchpoint from a description of its kind: any of the letters r (read),
+      *  w (write) and c (value change), e.g. "rw".
+      *
+      *  @param address any address within the word to watch
+      *  @param kind the letters, in any order and case
+      *  @throws IllegalArgumentException if kind is empty or holds any other character
+      */
+       public Watchpoint(int address, String kind) {
+         this(address, parseKind(kind));
+      }
+
+     /**
+      *  Address of the watched word.
+      */
+       public int getAddress() {
+         return address;
+      }
+
+     /**
+      *  Kinds of access watched: READ, WRITE and/or CHANGE, or'ed together.
+      */
+       public int getKind() {
+         return kind;
+      }
+
+     /**
+      *  Determine whether an access of the given number of bytes at the given address
+      *  touches the watched word.
+      *
+      *  @param address first byte accessed
+      *  @param length number of bytes accessed, 1 to 4
+      */
+       boolean overlaps(int address, int length) {
+         int offset = address - this.address;
+         return offset > -length && offset < Memory.WORD_LENGTH_BYTES;
+      }
+
+     /**
+      *  Names of the kinds of access watched, e.g. "read/write".
+      */
+       public String getKindName() {
+         String name = "";
+         if ((kind & READ) != 0) {
+            name += "read";
+         }
+         if ((kind & WRITE) != 0) {
+            name += (name.length() == 0 ? "" : "/") + "write";
+         }
+         if ((kind & CHANGE) != 0) {
+            name += (name.length() == 0 ? "" : "/") + "change";
+         }
+         return name;
+      }
+
+       public String toString() {
+         return getKindName() + " watchpoint at " + Binary.intToHexString(address);
+      }
+
+       private static int parseKind(String kind) {
+         int bits = 0;
+         for (int i = 0; i < kind.length(); i++) {
+            switch (Character.toLowerCase(kind.charAt(i))) {
+               case 'r' :
+                  bits |= READ;
+                  break;
+               case 'w' :
+                  bits |= WRITE;
+                  break;
+               case 'c' :
+                  bits |= CHANGE;
+                  break;
+               default :
+                  throw new IllegalArgumentException("invalid watchpoint kind: " + kind);
+            }
+         }
+         return bits;
+      }
+   }
@@ -0,0 +1,70 @@
+   package mars.mips.hardware;
+   import mars.util.*;
+
+/**
+ * What the program did at a watchpoint: the instruction that made the access, and
+ * the value of the watched word before and after it.  Memory keeps the first hit of a
+ * run, which the simulator stops at; see Memory.getWatchpointHit().
+ */
+
+    public final class WatchpointHit {
+
+      private final Watchpoint watchpoint;
+      private final boolean write;
+      private final int programCounter;
+      private final int oldValue, newValue;
+
+       WatchpointHit(Watchpoint watchpoint, boolean write, int programCounter, int oldValue, int newValue) {
+         this.watchpoint = watchpoint;
+         this.write = write;
+         this.programCounter = programCounter;
+         this.oldValue = oldValue;
+         this.newValue = newValue;
+      }
+
+     /**
+      *  The watchpoint reached.
+      */
+       public Watchpoint getWatchpoint() {
+         return watchpoint;
+      }
+
+     /**
+      *  Determine whether the access was a store rather than a load.
+      */
+       public boolean isWrite() {
+         return write;
+      }
+
+     /**
+      *  Address of the instruction that made the access.
+      */
+       public int getProgramCounter() {
+         return programCounter;
+      }
+
+     /**
+      *  Value of the watched word before the access.
+      */
+       public int getOldValue() {
+         return oldValue;
+      }
+
+     /**
+      *  Value of the watched word after the access; the same as getOldValue() for a load.
+      */
+       public int getNewValue() {
+         return newValue;
+      }
+
+     /**
+      *  Describes the hit, e.g. "write watchpoint at 0x10010000: written by instruction
+      *  at 0x00400014, 0x00000000 -> 0x0000002a".
+      */
+       public String toString() {
+         return watchpoint + ": " + (write ? "written" : "read") + " by instruction at "
+                + Binary.intToHexString(programCounter) + ", "
+                + (write ? Binary.intToHexString(oldValue) + " -> " + Binary.intToHexString(newValue)
+                         : "value " + Binary.intToHexString(oldValue));
+      }
+   }
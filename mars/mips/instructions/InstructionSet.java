@@ -2,6 +2,7 @@
    import mars.simulator.*;
    import mars.mips.hardware.*;
    import mars.mips.instructions.syscalls.*;
+   import mars.util.*;
    import mars.*;
    import java.util.*;
    import java.io.*;
@@ -277,7 +278,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                                                         throws ProcessingException {
          Syscall service = syscallLoader.findSyscall(number);
          if (service != null) {
-            service.simulate(statement);
+            try {
+               service.simulate(statement);
+            } 
+                catch (SyscallLog.LogException e) {
+                  throw new ProcessingException(statement, e.getMessage()+" (syscall "+number+")",
+                        Exceptions.SYSCALL_EXCEPTION);
+               }
             return;
          }
          throw new ProcessingException(statement,
@@ -302,7 +309,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // the bottom (currently line 194, heavily commented).
    	 
        public void processBranch(int displacement) {
-         if (Globals.getSettings().getDelayedBranchingEnabled()) {
+         if (ExecutionConfig.get().delayedBranching) {
             // Register the branch target address (absolute byte address).
             DelayedBranch.register(RegisterFile.getProgramCounter() + (displacement << 2));
          } 
@@ -325,7 +332,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	 
        public void processJump(int targetAddress) {
-         if (Globals.getSettings().getDelayedBranchingEnabled()) {
+         if (ExecutionConfig.get().delayedBranching) {
             DelayedBranch.register(targetAddress);
          } 
          else {
@@ -346,9 +353,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	 
        public void processReturnAddress(int register) {
-         RegisterFile.updateRegister(register, RegisterFile.getProgramCounter() +
-                 ((Globals.getSettings().getDelayedBranchingEnabled()) ? 
-            	  Instruction.INSTRUCTION_LENGTH : 0) );	 
+         int returnAddress = RegisterFile.getProgramCounter() +
+                 ((ExecutionConfig.get().delayedBranching) ? 
+            	  Instruction.INSTRUCTION_LENGTH : 0);
+         RegisterFile.updateRegister(register, returnAddress);
+         Simulator.noteCall(returnAddress);
+      }
+   
+   	/*
+   	 * Method to process a jump to the address in the given register, for jr.
+   	 * A jump to the address in $ra is a return from a call, for the profiler
+   	 * (see ExecutionProfile).
+   	 *
+   	 * The parameter is the number of the register holding the target address.
+   	 */
+   	 
+       public void processJumpRegister(int register) {
+         int targetAddress = RegisterFile.getValue(register);
+         if (register == 31) {
+            Simulator.noteReturn(targetAddress);
+         }
+         processJump(targetAddress);
       }
 
 	  private static class MatchMap implements Comparable {
@@ -603,7 +603,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -614,16 +614,16 @@ public class MipsAssembly extends CustomAssembly{
                }));
          instructionList.add(
                 new BasicInstruction("ll $t1,-100($t2)",
-                "Load linked : Paired with Store Conditional (sc) to perform atomic read-modify-write.  Treated as equivalent to Load Word (lw) because MARS does not simulate multiple processors.",
+                "Load linked : Paired with Store Conditional (sc) to perform atomic read-modify-write.  Loads the word and reserves it for this hart.  Treated as equivalent to Load Word (lw) unless the program has started other harts.",
             	 BasicInstructionFormat.I_FORMAT,
                 "110000 ttttt fffff ssssssssssssssss",
-            	 // The ll (load link) command is supposed to be the front end of an atomic
-            	 // operation completed by sc (store conditional), with success or failure
-            	 // of the store depending on whether the memory block containing the
-            	 // loaded word is modified in the meantime by a different processor.
-            	 // Since MARS, like SPIM simulates only a single processor, the store
-            	 // conditional will always succeed so there is no need to do anything
-            	 // special here.  In that case, ll is same as lw.  And sc does the same
+            	 // The ll (load link) command is the front end of an atomic operation
+            	 // completed by sc (store conditional), with success or failure of the
+            	 // store depending on whether the loaded word is modified in the meantime.
+            	 // Once a program has started more harts (see HartScheduler), Memory
+            	 // keeps a reservation per hart that any store to the word breaks.  Until
+            	 // then MARS, like SPIM, simulates only a single processor, the store
+            	 // conditional always succeeds, ll is same as lw, and sc does the same
             	 // thing as sw except in addition it writes 1 into the source register.
                 new SimulationCode()
                {
@@ -633,7 +633,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().loadLinked(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -656,8 +656,8 @@ public class MipsAssembly extends CustomAssembly{
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int result = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=address % Globals.memory.WORD_LENGTH_BYTES; i++) {
-                           result = Binary.setByte(result,3-i,Globals.memory.getByte(address-i));
+                        for (int i=0; i<=address % Memory.WORD_LENGTH_BYTES; i++) {
+                           result = Binary.setByte(result,3-i,Memory.getInstance().getByte(address-i));
                         }
                         RegisterFile.updateRegister(operands[0], result);
                      } 
@@ -681,8 +681,8 @@ public class MipsAssembly extends CustomAssembly{
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int result = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=3-(address % Globals.memory.WORD_LENGTH_BYTES); i++) {
-                           result = Binary.setByte(result,i,Globals.memory.getByte(address+i));
+                        for (int i=0; i<=3-(address % Memory.WORD_LENGTH_BYTES); i++) {
+                           result = Binary.setByte(result,i,Memory.getInstance().getByte(address+i));
                         }
                         RegisterFile.updateRegister(operands[0], result);
                      } 
@@ -704,7 +704,7 @@ public class MipsAssembly extends CustomAssembly{
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             RegisterFile.getValue(operands[0]));
                      } 
@@ -716,19 +716,20 @@ public class MipsAssembly extends CustomAssembly{
                }));
          instructionList.add(
                 new BasicInstruction("sc $t1,-100($t2)",
-                "Store conditional : Paired with Load Linked (ll) to perform atomic read-modify-write.  Stores $t1 value into effective address, then sets $t1 to 1 for success.  Always succeeds because MARS does not simulate multiple processors.",
+                "Store conditional : Paired with Load Linked (ll) to perform atomic read-modify-write.  Stores $t1 value into effective address, then sets $t1 to 1 for success, or leaves memory alone and sets $t1 to 0 if another store to the word came after the ll.  Always succeeds unless the program has started other harts.",
             	 BasicInstructionFormat.I_FORMAT,
                 "111000 ttttt fffff ssssssssssssssss",
             	 // See comments with "ll" instruction above.  "sc" is implemented
-            	 // like "sw", except that 1 is placed in the source register.
+            	 // like "sw", except that 1 or 0 is placed in the source register.
                 new SimulationCode()
                {
                    public void simulate(ProgramStatement statement) throws ProcessingException
                   {
                      int[] operands = statement.getOperands();
+                     boolean stored;
                      try
                      {
-                        Globals.memory.setWord(
+                        stored = Memory.getInstance().storeConditional(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             RegisterFile.getValue(operands[0]));
                      } 
@@ -736,7 +737,7 @@ public class MipsAssembly extends CustomAssembly{
                         {
                            throw new ProcessingException(statement, e);
                         }
-                     RegisterFile.updateRegister(operands[0],1); // always succeeds
+                     RegisterFile.updateRegister(operands[0], (stored) ? 1 : 0);
                   }
                }));
          instructionList.add(
@@ -753,8 +754,8 @@ public class MipsAssembly extends CustomAssembly{
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int source = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=address % Globals.memory.WORD_LENGTH_BYTES; i++) {
-                           Globals.memory.setByte(address-i,Binary.getByte(source,3-i));
+                        for (int i=0; i<=address % Memory.WORD_LENGTH_BYTES; i++) {
+                           Memory.getInstance().setByte(address-i,Binary.getByte(source,3-i));
                         }
                      } 
                          catch (AddressErrorException e)
@@ -777,8 +778,8 @@ public class MipsAssembly extends CustomAssembly{
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int source = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=3-(address % Globals.memory.WORD_LENGTH_BYTES); i++) {
-                           Globals.memory.setByte(address+i,Binary.getByte(source,i));
+                        for (int i=0; i<=3-(address % Memory.WORD_LENGTH_BYTES); i++) {
+                           Memory.getInstance().setByte(address+i,Binary.getByte(source,i));
                         }
                      } 
                          catch (AddressErrorException e)
@@ -1167,7 +1168,7 @@ public class MipsAssembly extends CustomAssembly{
                    public void simulate(ProgramStatement statement) throws ProcessingException
                   {
                      int[] operands = statement.getOperands();
-                     Globals.instructionSet.processJump(RegisterFile.getValue(operands[0]));
+                     Globals.instructionSet.processJumpRegister(operands[0]);
                   }
                }));
          instructionList.add(
@@ -1227,7 +1228,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getByte(
+                            Memory.getInstance().getByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             << 24
@@ -1252,7 +1253,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getHalf(
+                            Memory.getInstance().getHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             << 16
@@ -1278,7 +1279,7 @@ public class MipsAssembly extends CustomAssembly{
                      {
                      // offset is sign-extended and loaded halfword value is zero-extended
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getHalf(
+                            Memory.getInstance().getHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             & 0x0000ffff);
@@ -1302,7 +1303,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getByte(
+                            Memory.getInstance().getByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             & 0x000000ff);
@@ -1325,7 +1326,7 @@ public class MipsAssembly extends CustomAssembly{
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setByte(
+                        Memory.getInstance().setByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16),
                                     RegisterFile.getValue(operands[0])
@@ -1349,7 +1350,7 @@ public class MipsAssembly extends CustomAssembly{
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setHalf(
+                        Memory.getInstance().setHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16),
                                     RegisterFile.getValue(operands[0])
@@ -2670,7 +2671,7 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         Coprocessor1.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -2693,7 +2694,7 @@ public class MipsAssembly extends CustomAssembly{
                         throw new ProcessingException(statement, "first register must be even-numbered");
                      }
                   	// IF statement added by DPS 13-July-2011.
-                     if (!Globals.memory.doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
+                     if (!Memory.getInstance().doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
                         throw new ProcessingException(statement,
                            new AddressErrorException("address not aligned on doubleword boundary ",
                            Exceptions.ADDRESS_EXCEPTION_LOAD, RegisterFile.getValue(operands[2]) + operands[1]));
@@ -2702,10 +2703,10 @@ public class MipsAssembly extends CustomAssembly{
                      try
                      {
                         Coprocessor1.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                         Coprocessor1.updateRegister(operands[0]+1,
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1] + 4));
                      } 
                          catch (AddressErrorException e)
@@ -2726,7 +2727,7 @@ public class MipsAssembly extends CustomAssembly{
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             Coprocessor1.getValue(operands[0]));
                      } 
@@ -2750,17 +2751,17 @@ public class MipsAssembly extends CustomAssembly{
                         throw new ProcessingException(statement, "first register must be even-numbered");
                      }
                   	// IF statement added by DPS 13-July-2011.
-                     if (!Globals.memory.doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
+                     if (!Memory.getInstance().doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
                         throw new ProcessingException(statement,
                            new AddressErrorException("address not aligned on doubleword boundary ",
                            Exceptions.ADDRESS_EXCEPTION_STORE, RegisterFile.getValue(operands[2]) + operands[1]));
                      }
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             Coprocessor1.getValue(operands[0]));
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1] + 4,
                             Coprocessor1.getValue(operands[0]+1));
                      } 
@@ -3002,6 +3003,8 @@ public class MipsAssembly extends CustomAssembly{
                      Coprocessor0.updateRegister(Coprocessor0.STATUS, 
                                                  Binary.clearBit(Coprocessor0.getValue(Coprocessor0.STATUS), Coprocessor0.EXCEPTION_LEVEL));
                      RegisterFile.setProgramCounter(Coprocessor0.getValue(Coprocessor0.EPC));
+                     // an sc after the handler returns must not complete an ll from before it
+                     Memory.getInstance().clearReservation();
                   }
                }));      			
 
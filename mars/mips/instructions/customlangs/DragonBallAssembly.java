@@ -79,17 +79,17 @@ public class DragonBallAssembly extends CustomAssembly{
                      // Get the name of the label from the token list
                      String label = statement.getOriginalTokenList().get(1).getValue();
                      // Look up the label in the program symbol table to get its address
-                     int byteAddress = Globals.program.getLocalSymbolTable().getAddressLocalOrGlobal(label);
+                     int byteAddress = Machine.current().getProgram().getLocalSymbolTable().getAddressLocalOrGlobal(label);
 
                      try
                         {
-                           ch = (char) Globals.memory.getByte(byteAddress);
+                           ch = (char) Memory.getInstance().getByte(byteAddress);
                                              // won't stop until NULL byte reached!
                            while (ch != 0)
                            {
                               SystemIO.printString(new Character(ch).toString());
                               byteAddress++;
-                              ch = (char) Globals.memory.getByte(byteAddress);
+                              ch = (char) Memory.getInstance().getByte(byteAddress);
                            }
                         } 
                            catch (AddressErrorException e)
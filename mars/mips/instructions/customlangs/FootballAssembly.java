@@ -223,16 +223,16 @@ public class FootballAssembly extends CustomAssembly{
                 char ch = 0;
                 String label = statement.getOriginalTokenList().get(1).getValue();
                 // Searching the label in the program symbol table to get its address
-                int byteAddress = Globals.program.getLocalSymbolTable().getAddressLocalOrGlobal(label);
+                int byteAddress = Machine.current().getProgram().getLocalSymbolTable().getAddressLocalOrGlobal(label);
                 try
                     {
-                    ch = (char) Globals.memory.getByte(byteAddress);
+                    ch = (char) Memory.getInstance().getByte(byteAddress);
                     // ensures it prints all possible characters
                     while (ch != 0)
                     {
                         SystemIO.printString(new Character(ch).toString());
                         byteAddress++;
-                        ch = (char) Globals.memory.getByte(byteAddress);
+                        ch = (char) Memory.getInstance().getByte(byteAddress);
                     }
                     } 
                     catch (AddressErrorException e)
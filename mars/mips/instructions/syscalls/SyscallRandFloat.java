@@ -56,12 +56,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
           // Input arguments: $a0 = index of pseudorandom number generator
           // Return: $f0 = the next pseudorandom, uniformly distributed float value between 0.0 and 1.0
           // from this random number generator's sequence.
+         if (SyscallLog.playingBack()) {
+            Coprocessor1.setRegisterToFloat(0, Float.intBitsToFloat(SyscallLog.nextInt(SyscallLog.RANDOM)));
+            return;
+         }
          Integer index = new Integer(RegisterFile.getValue(4));
-         Random stream = (Random) RandomStreams.randomStreams.get(index);
+         Random stream = (Random) RandomStreams.get().get(index);
          if (stream == null) {
             stream = new Random(); // create a non-seeded stream
-            RandomStreams.randomStreams.put(index, stream);
+            RandomStreams.get().put(index, stream);
          } 
-         Coprocessor1.setRegisterToFloat(0, stream.nextFloat( ));
+         float value = stream.nextFloat( );
+         SyscallLog.record(SyscallLog.RANDOM, Float.floatToIntBits(value));
+         Coprocessor1.setRegisterToFloat(0, value);
       }
    }
\ No newline at end of file
@@ -54,13 +54,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void simulate(ProgramStatement statement) throws ProcessingException {
           // Input arguments: $a0 = index of pseudorandom number generator
           // Return: $a0 = the next pseudorandom, uniformly distributed int value from this random number generator's sequence.
+          if (SyscallLog.playingBack()) {
+             RegisterFile.updateRegister(4, SyscallLog.nextInt(SyscallLog.RANDOM));
+             return;
+          }
           Integer index = new Integer(RegisterFile.getValue(4));
-			 Random stream = (Random) RandomStreams.randomStreams.get(index);
+			 Random stream = (Random) RandomStreams.get().get(index);
           if (stream == null) {
 			    stream = new Random(); // create a non-seeded stream
-			    RandomStreams.randomStreams.put(index, stream);
+			    RandomStreams.get().put(index, stream);
 			 } 
-			 RegisterFile.updateRegister(4, stream.nextInt() );
+			 RegisterFile.updateRegister(4, SyscallLog.record(SyscallLog.RANDOM, stream.nextInt()) );
        }
 
    }
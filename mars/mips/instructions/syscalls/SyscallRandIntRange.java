@@ -58,14 +58,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
           //    $a1 = the upper bound of range of returned values.
           // Return: $a0 = the next pseudorandom, uniformly distributed int value from this
           // random number generator's sequence.
+         if (SyscallLog.playingBack()) {
+            if (RegisterFile.getValue(5) <= 0) {  // as Random.nextInt() would have found
+               throw new ProcessingException(statement,
+                       "Upper bound of range cannot be negative (syscall "+this.getNumber()+")",
+                             Exceptions.SYSCALL_EXCEPTION);
+            }
+            RegisterFile.updateRegister(4, SyscallLog.nextInt(SyscallLog.RANDOM));
+            return;
+         }
          Integer index = new Integer(RegisterFile.getValue(4));
-         Random stream = (Random) RandomStreams.randomStreams.get(index);
+         Random stream = (Random) RandomStreams.get().get(index);
          if (stream == null) {
             stream = new Random(); // create a non-seeded stream
-            RandomStreams.randomStreams.put(index, stream);
+            RandomStreams.get().put(index, stream);
          } 
          try {
-            RegisterFile.updateRegister(4, stream.nextInt( RegisterFile.getValue(5) ) );
+            RegisterFile.updateRegister(4, SyscallLog.record(SyscallLog.RANDOM, stream.nextInt( RegisterFile.getValue(5) )) );
          } 
              catch (IllegalArgumentException iae) {
                throw new ProcessingException(statement,
@@ -53,6 +53,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    */
        public void simulate(ProgramStatement statement) throws ProcessingException {
           // Input arguments: $a0 is the length of time to sleep in milliseconds.
+          // A run played back from a syscall log does not wait.
+               if (SyscallLog.playingBack()) {
+                  return;
+               }
 
                try
                {
@@ -51,7 +51,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 	* and $a1 (high order 32 bits).
    */
        public void simulate(ProgramStatement statement) throws ProcessingException {
-			long value = new java.util.Date().getTime();
+			long value = SyscallLog.playingBack() ? SyscallLog.nextLong(SyscallLog.TIME) 
+			             : SyscallLog.record(SyscallLog.TIME, new java.util.Date().getTime());
          RegisterFile.updateRegister(4, Binary.lowOrderLongToInt(value)); // $a0 
 			RegisterFile.updateRegister(5, Binary.highOrderLongToInt(value)); // $a1
       }
@@ -54,19 +54,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int COPROC1_CONDITION_SET = 9;
       private static final int DO_NOTHING = 10;  // instruction does not write anything.
    
-      // Flag to mark BackStep object as prepresenting specific situation: user manipulates
-   	// memory/register value via GUI after assembling program but before running it.
-      private static final int NOT_PC_VALUE = -1;
+      // Added to the action of a step taken by an instruction in the "delay slot".
+      private static final int IN_DELAY_SLOT = 0x10;
+      // Added to the action of the first step taken by an instruction execution.
+      private static final int INSTRUCTION_START = 0x20;
+      private static final int ACTION_MASK = 0x0F;
    	
       private boolean engaged;
       private BackstepStack backSteps;
    	
-   	// One can argue using java.util.Stack, given its clumsy implementation.
-   	// A homegrown linked implementation will be more streamlined, but
-   	// I anticipate that backstepping will only be used during timed
-   	// (currently max 30 instructions/second) or stepped execution, where
-   	// performance is not an issue.  Its Vector implementation may result
-   	// in quicker garbage collection than a pure linked list implementation.
+   	// The stack is kept in parallel arrays of primitives, allocated once, so that
+   	// recording a step costs a few array stores.  That keeps backstepping cheap
+   	// enough to leave enabled for full-speed runs.
    
        /**
    	  * Create a fresh BackStepper.  It is enabled, which means all
@@ -92,6 +91,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  */
        public void setEnabled(boolean state) {
          engaged = state;
+         ExecutionConfig.refresh();
+      }
+   
+      /**
+   	 * Discard all steps, e.g. because the Checkpointer has restored an earlier machine state.
+   	 */
+       public void clear() {
+         backSteps.clear();
       }
    
       /**
@@ -110,7 +117,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	// Added 25 June 2007
        public boolean inDelaySlot() {
-         return !empty() && backSteps.peek().inDelaySlot;
+         return !empty() && (backSteps.peekAction() & IN_DELAY_SLOT) != 0;
       }
    	
       /**
@@ -123,53 +130,65 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // all store their result in register pairs which results in two store operations.  
    	 // Both must be undone transparently, so we need to detect that multiple steps happen
    	 // together and carry out all of them here.  
-   	 // Use a do-while loop based on the backstep's program statement reference.
+   	 // Use a do-while loop based on the backstep's program counter value: the steps of
+   	 // one instruction execution are recorded with the same one.  The loop also stops at
+   	 // the first step of an execution, so that an instruction executed several times in a
+   	 // row, e.g. a branch to itself, is undone one execution at a time.
    	 
        public void backStep() {
          if (engaged && !backSteps.empty()) {
-            ProgramStatement statement = ((BackStep)backSteps.peek()).ps;
+            int pc = backSteps.peekPC();
+            // A step recorded while the PC does not address an instruction comes from
+            // the user changing memory or registers through the GUI after assembling
+            // the program but before running it (or after backstepping all the way to
+            // the start).  It is carried out without setting the PC.
+            boolean setPC = isInstructionAddress(pc);
             engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
+            ExecutionConfig.refresh();
+            boolean first;
             do {
-               BackStep step = (BackStep) backSteps.pop();
+               int slot = backSteps.pop();
+               first = (backSteps.action[slot] & INSTRUCTION_START) != 0;
+               int param1 = backSteps.param1[slot];
+               int param2 = backSteps.param2[slot];
             /*
-            	System.out.println("backstep POP: action "+step.action+" pc "+mars.util.Binary.intToHexString(step.pc)+
-            	                   " source "+((step.ps==null)? "none":step.ps.getSource())+
-            							 " parm1 "+step.param1+" parm2 "+step.param2);
+            	System.out.println("backstep POP: action "+backSteps.action[slot]+" pc "+mars.util.Binary.intToHexString(pc)+
+            							 " parm1 "+param1+" parm2 "+param2);
             */
-               if (step.pc != NOT_PC_VALUE) {
-                  RegisterFile.setProgramCounter(step.pc);
+               if (setPC) {
+                  RegisterFile.setProgramCounter(pc);
                }
                try {
-                  switch (step.action) {
+                  switch (backSteps.action[slot] & ACTION_MASK) {
                      case MEMORY_RESTORE_RAW_WORD : 
-                        Globals.memory.setRawWord(step.param1, step.param2);
+                        Memory.getInstance().setRawWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_WORD : 
-                        Globals.memory.setWord(step.param1, step.param2);
+                        Memory.getInstance().setWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_HALF :
-                        Globals.memory.setHalf(step.param1, step.param2);
+                        Memory.getInstance().setHalf(param1, param2);
                         break;
                      case MEMORY_RESTORE_BYTE :
-                        Globals.memory.setByte(step.param1, step.param2);
+                        Memory.getInstance().setByte(param1, param2);
                         break;
                      case REGISTER_RESTORE :
-                        RegisterFile.updateRegister(step.param1, step.param2);
+                        RegisterFile.updateRegister(param1, param2);
                         break;
                      case PC_RESTORE : 
-                        RegisterFile.setProgramCounter(step.param1);
+                        RegisterFile.setProgramCounter(param1);
                         break;
                      case COPROC0_REGISTER_RESTORE :
-                        Coprocessor0.updateRegister(step.param1, step.param2);
+                        Coprocessor0.updateRegister(param1, param2);
                         break;
                      case COPROC1_REGISTER_RESTORE :
-                        Coprocessor1.updateRegister(step.param1, step.param2);
+                        Coprocessor1.updateRegister(param1, param2);
                         break;
                      case COPROC1_CONDITION_CLEAR :
-                        Coprocessor1.clearConditionFlag(step.param1);
+                        Coprocessor1.clearConditionFlag(param1);
                         break;
                      case COPROC1_CONDITION_SET :
-                        Coprocessor1.setConditionFlag(step.param1);
+                        Coprocessor1.setConditionFlag(param1);
                         break;
                      case DO_NOTHING :
                         break;
@@ -180,12 +199,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      System.out.println("Internal MARS error: address exception while back-stepping.");
                      System.exit(0);
                   }
-            } while (!backSteps.empty() && statement == ((BackStep)backSteps.peek()).ps);
+            } while (!first && !backSteps.empty() && backSteps.peekPC() == pc);
+            backSteps.endInstruction();
             engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
+            ExecutionConfig.refresh();
+            if (setPC) {
+               // One instruction execution undone.  Checkpoints taken after it are of a
+            	// future that may not happen again.
+               Simulator simulator = Simulator.getInstance();
+               simulator.instructionCount--;
+               Machine.current().getProgram().getCheckpointer().discardAfter(simulator.instructionCount);
+            }
          }
       }
+   
+      // True if the given address can hold an instruction, i.e. fetching the statement
+      // there does not fail.  Observers are not notified.
+       private boolean isInstructionAddress(int address) {
+         try {
+            Memory.getInstance().getStatementNoNotify(address);
+            return true;
+         } 
+             catch (Exception e) {
+               return false;
+            }
+      }
   
-     
       /* Convenience method called below to get program counter value.  If it needs to be
    	 * be modified (e.g. to subtract 4) that can be done here in one place.
    	 */
@@ -319,90 +358,67 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        /**
    	  * Add a new "back step" (the undo action) to the stack.  The action here
    	  * is to do nothing!  This is just a place holder so when user is backstepping
-   	  * through the program no instructions will be skipped.  Cosmetic. If the top of the
-   	  * stack has the same PC counter, the do-nothing action will not be added.  
+   	  * through the program no instructions will be skipped.  Cosmetic. If the instruction
+   	  * execution has already added a step, the do-nothing action will not be added.
+   	  * Called after each instruction execution, it also marks the end of that execution.
    	  * @return 0
    	  */
        public int addDoNothing(int pc) {
-         if (backSteps.empty() || backSteps.peek().pc != pc) { 
+         if (backSteps.atInstructionStart() || backSteps.peekPC() != pc) { 
             backSteps.push(DO_NOTHING, pc);
          }
+         backSteps.endInstruction();
          return 0;
       }
-   	
-   		   	 	
-   	// Represents a "back step" (undo action) on the stack.
-       private class BackStep {
-         private int action;  // what do do MEMORY_RESTORE_WORD, etc
-         private int pc;      // program counter value when original step occurred
-         private ProgramStatement ps;   // statement whose action is being "undone" here
-         private int param1;  // first parameter required by that action
-         private int param2;  // optional second parameter required by that action
-         private boolean inDelaySlot; // true if instruction executed in "delay slot" (delayed branching enabled)
-      
-         // it is critical that BackStep object get its values by calling this method
-      	// rather than assigning to individual members, because of the technique used
-      	// to set its ps member (and possibly pc).
-          private void assign(int act, int programCounter, int parm1, int parm2) {
-            action = act;
-            pc     = programCounter;
-            try {
-            // Client does not have direct access to program statement, and rather than making all
-            // of them go through the methods below to obtain it, we will do it here.  
-            // Want the program statement but do not want observers notified.
-               ps = Globals.memory.getStatementNoNotify(programCounter);
-            } 
-                catch (Exception e) {
-                // The only situation causing this so far: user modifies memory or register
-                // contents through direct manipulation on the GUI, after assembling the program but
-                // before starting to run it (or after backstepping all the way to the start).
-                // The action will not be associated with any instruction, but will be carried out
-                // when popped.
-                  ps = null;
-                  pc = NOT_PC_VALUE; // Backstep method above will see this as flag to not set PC
-               } 
-            param1 = parm1;
-            param2 = parm2;
-            inDelaySlot = Simulator.inDelaySlot(); // ADDED 25 June 2007
-         /*				
-            System.out.println("backstep PUSH: action "+action+" pc "+mars.util.Binary.intToHexString(pc)+
-         		                   " source "+((ps==null)? "none":ps.getSource())+
-         								 " parm1 "+param1+" parm2 "+param2);
-         */
-         }
+   
+       /**
+   	  * Have the steps added next undone together with those of the instruction execution
+   	  * that just ended, e.g. the program counter change of a delayed branch, which the
+   	  * simulator makes after the instruction in the delay slot has completed.
+   	  */
+       public void continueInstruction() {
+         backSteps.continueInstruction();
+      }
+   
+       /**
+   	  * Mark the end of an instruction execution: the next step added is the first of
+   	  * another one.  addDoNothing does this after each instruction that completes.
+   	  */
+       public void endInstruction() {
+         backSteps.endInstruction();
       }
    	
+   		   	 	
    	// *****************************************************************************
    	// special purpose stack class for backstepping.  You've heard of circular queues
    	// implemented with an array, right?  This is a circular stack!  When full, the
    	// newly-pushed item overwrites the oldest item, with circular top!  All operations 
    	// are constant time.  It's synchronized too, to be safe (is used by both the 
    	// simulation thread and the GUI thread for the back-step button).
-   	// Upon construction, it is filled with newly-created empty BackStep objects which
-   	// will exist for the life of the stack.  Push does not create a BackStep object 
-   	// but instead overwrites the contents of the existing one.  Thus during MIPS
-   	// program (simulated) execution, BackStep objects are never created or junked
-   	// regardless of how many steps are executed.  This will speed things up a bit
-   	// and make life easier for the garbage collector.
+   	// Each step occupies one slot of four parallel arrays, allocated when the stack is
+   	// created.  Push overwrites the slot's contents, so during MIPS program (simulated)
+   	// execution nothing is created or junked regardless of how many steps are executed.
    	
        private class BackstepStack {
          private int capacity;
          private int size;
          private int top;
-         private BackStep[] stack;
+         private byte[] action; // what to do: MEMORY_RESTORE_WORD etc, plus IN_DELAY_SLOT and INSTRUCTION_START
+         private int[] pc;      // program counter value when original step occurred
+         private int[] param1;  // first parameter required by that action
+         private int[] param2;  // optional second parameter required by that action
+         private boolean instructionStart; // true until the current instruction execution pushes a step
       
-          // Stack is created upon successful assembly or reset.  The one-time overhead of
-      	 // creating all the BackStep objects will not be noticed by the user, and enhances
-      	 // runtime performance by not having to create or recycle them during MIPS
-      	 // program execution.
+          // Stack is created upon successful assembly or reset.
           private BackstepStack(int capacity) {
             this.capacity = capacity;
             this.size = 0;
             this.top = -1;
-            this.stack = new BackStep[capacity];
-            for (int i=0; i<capacity; i++) {
-               this.stack[i] = new BackStep();
-            }
+            this.action = new byte[capacity];
+            this.pc = new int[capacity];
+            this.param1 = new int[capacity];
+            this.param2 = new int[capacity];
+            this.instructionStart = true;
          }
       	
           private synchronized boolean empty() {
@@ -415,15 +431,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                size++;
             } 
             else if (size < capacity) {
-               top = (top + 1) % capacity;
+               top = (top + 1 == capacity) ? 0 : top + 1;
                size++;
             } 
             else { // size == capacity.  The top moves up one, replacing oldest entry (goodbye!)
-               top = (top + 1) % capacity;
+               top = (top + 1 == capacity) ? 0 : top + 1;
             }
-         	// We'll re-use existing objects rather than create/discard each time.
-         	// Must use assign() method rather than series of assignment statements!
-            stack[top].assign(act, programCounter, parm1, parm2);
+            if (Simulator.inDelaySlot()) {
+               act |= IN_DELAY_SLOT; // ADDED 25 June 2007
+            }
+            if (instructionStart) {
+               act |= INSTRUCTION_START;
+               instructionStart = false;
+            }
+            action[top] = (byte) act;
+            pc[top] = programCounter;
+            param1[top] = parm1;
+            param2[top] = parm2;
+         /*				
+            System.out.println("backstep PUSH: action "+act+" pc "+mars.util.Binary.intToHexString(programCounter)+
+         								 " parm1 "+parm1+" parm2 "+parm2);
+         */
          }
       	
           private synchronized void push(int act, int programCounter, int parm1) {
@@ -435,24 +463,49 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
          
       	// NO PROTECTION.  This class is used only within this file so there is no excuse
-      	// for trying to pop from empty stack.
-          private synchronized BackStep pop() {
-            BackStep bs;
-            bs = stack[top];
+      	// for trying to pop from empty stack.  Returns the slot of the popped step, which
+      	// keeps its contents until the next push.
+          private synchronized int pop() {
+            int slot = top;
             if (size==1) {
                top = -1;
             } 
             else {
-               top = (top + capacity - 1) % capacity;
+               top = (top == 0) ? capacity - 1 : top - 1;
             }
             size--;
-            return bs;
+            return slot;
          }
       
       	// NO PROTECTION.  This class is used only within this file so there is no excuse
       	// for trying to peek from empty stack.         
-          private synchronized BackStep peek() {
-            return stack[top];
+          private synchronized int peekPC() {
+            return pc[top];
+         }
+      
+          private synchronized int peekAction() {
+            return action[top];
+         }
+      
+          private synchronized void clear() {
+            size = 0;
+            top = -1;
+            instructionStart = true;
+         }
+      
+         // Whether no step has been pushed since the last instruction execution ended.
+          private synchronized boolean atInstructionStart() {
+            return instructionStart || size == 0;
+         }
+      
+         // The next step pushed is the first of an instruction execution.
+          private synchronized void endInstruction() {
+            instructionStart = true;
+         }
+      
+         // The next step pushed belongs to the instruction execution that just ended.
+          private synchronized void continueInstruction() {
+            instructionStart = false;
          }
       			
       }
@@ -0,0 +1,81 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.instructions.*;
+
+/**
+ * A straight-line run of pre-decoded instructions, used by the block execution tier
+ * of <code>Simulator</code>.  A block starts at any instruction that has become hot
+ * and extends through the first branch or jump (I_BRANCH_FORMAT or J_FORMAT), the
+ * first slot that is not pre-decoded, or MAXIMUM_LENGTH instructions, whichever
+ * comes first.
+ * <p>
+ * The block holds its own copies of the statements and their SimulationCode, so the
+ * simulator can run it without fetching each instruction.  That does not make the
+ * block authoritative about control flow: instructions such as jr, syscall and eret
+ * are not recognized statically, so the simulator still checks after every instruction
+ * that the program counter advanced sequentially and leaves the block if not.
+ * <p>
+ * Blocks are created and invalidated by <code>DecodedProgram</code>.
+ */
+
+    class BasicBlock {
+
+     /** Upper limit on the number of instructions in a block.  This also bounds how
+      *  long the simulator runs between checks of the stop flag. */
+      static final int MAXIMUM_LENGTH = 64;
+
+      final int address;
+      final ProgramStatement[] statements;
+      final SimulationCode[] code;
+   
+     /** Cleared when a statement inside the block is replaced, so that a block that
+      *  modifies its own code stops at the point of modification. */
+      boolean valid = true;
+
+     /**
+      *  Build the block starting at the given index of a pre-decoded segment.
+      *
+      *  @param address text address of the first instruction
+      *  @param statements statement array of the segment
+      *  @param code handler array of the segment, parallel to statements
+      *  @param index index of the first instruction; code[index] must be non-null
+      */
+       BasicBlock(int address, ProgramStatement[] statements, SimulationCode[] code, int index) {
+         int end = index;
+         int limit = Math.min(code.length, index + MAXIMUM_LENGTH);
+         while (end < limit && code[end] != null) {
+            end++;
+            if (endsBlock(statements[end - 1])) {
+               break;
+            }
+         }
+         this.address = address;
+         this.statements = new ProgramStatement[end - index];
+         this.code = new SimulationCode[end - index];
+         System.arraycopy(statements, index, this.statements, 0, end - index);
+         System.arraycopy(code, index, this.code, 0, end - index);
+      }
+
+     /**
+      *  Number of instructions in this block.
+      *
+      *  @return block length, at least 1
+      */
+       int length() {
+         return code.length;
+      }
+
+     /**
+      *  Determine whether the slot with the given index lies inside this block,
+      *  given the index the block starts at.
+      */
+       boolean covers(int start, int index) {
+         return index >= start && index < start + code.length;
+      }
+
+      // Branches and jumps are the only statically known transfers of control.
+       private static boolean endsBlock(ProgramStatement statement) {
+         BasicInstructionFormat format = ((BasicInstruction) statement.getInstruction()).getInstructionFormat();
+         return format == BasicInstructionFormat.I_BRANCH_FORMAT || format == BasicInstructionFormat.J_FORMAT;
+      }
+   }
@@ -0,0 +1,81 @@
+   package mars.simulator;
+
+/**
+ * Set of breakpoint addresses, compiled into one bit per instruction word so that
+ * the simulator can test the program counter after every instruction with a couple
+ * of array loads instead of a binary search.
+ * <p>
+ * As in Memory's page directory, the address space is split into 1024 entries of
+ * 4 MB, each an array of 1024 pages of 4K.  A page holding at least one breakpoint
+ * has 1024 bits (16 longs), one per word.  All other pages and entries are null, so
+ * an empty set, or a program counter far from every breakpoint, costs one load.
+ */
+
+    class BreakpointSet {
+
+      private static final int PAGE_BITS = 12;    // 4K pages
+      private static final int ENTRY_BITS = 22;   // 4M covered by one directory entry
+      private static final int PAGES_PER_ENTRY = 1 << (ENTRY_BITS - PAGE_BITS);
+      private static final int WORDS_PER_PAGE = 1 << (PAGE_BITS - 2);
+
+      private final long[][][] directory = new long[1 << (32 - ENTRY_BITS)][][];
+      private int size = 0;
+
+     /**
+      *  Compile the given breakpoints.  Addresses not on a word boundary can never be
+      *  reached by the program counter and are ignored.
+      *
+      *  @param addresses breakpoint addresses, in any order; may be null
+      */
+       BreakpointSet(int[] addresses) {
+         if (addresses == null) {
+            return;
+         }
+         for (int i = 0; i < addresses.length; i++) {
+            int address = addresses[i];
+            if ((address & 3) != 0) {
+               continue;
+            }
+            long[][] entry = directory[address >>> ENTRY_BITS];
+            if (entry == null) {
+               entry = new long[PAGES_PER_ENTRY][];
+               directory[address >>> ENTRY_BITS] = entry;
+            }
+            int pageIndex = (address >>> PAGE_BITS) & (PAGES_PER_ENTRY - 1);
+            if (entry[pageIndex] == null) {
+               entry[pageIndex] = new long[WORDS_PER_PAGE / 64];
+            }
+            int word = (address >>> 2) & (WORDS_PER_PAGE - 1);
+            if ((entry[pageIndex][word >>> 6] & (1L << word)) == 0) {
+               entry[pageIndex][word >>> 6] |= 1L << word;
+               size++;
+            }
+         }
+      }
+
+     /**
+      *  Determine whether there is a breakpoint at the given address.
+      *
+      *  @param address program counter value
+      *  @return true if a breakpoint is set there
+      */
+       boolean contains(int address) {
+         long[][] entry = directory[address >>> ENTRY_BITS];
+         if (entry == null || (address & 3) != 0) {
+            return false;
+         }
+         long[] page = entry[(address >>> PAGE_BITS) & (PAGES_PER_ENTRY - 1)];
+         if (page == null) {
+            return false;
+         }
+         int word = (address >>> 2) & (WORDS_PER_PAGE - 1);
+         return (page[word >>> 6] & (1L << word)) != 0;
+      }
+
+     /**
+      *  Determine whether the set holds no breakpoints.
+      */
+       boolean isEmpty() {
+         return size == 0;
+      }
+   }
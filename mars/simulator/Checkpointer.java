@@ -0,0 +1,242 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.util.*;
+   import mars.mips.hardware.*;
+   import java.util.*;
+
+/**
+ * Copies of the whole machine state taken every Globals.checkpointInterval
+ * instructions, so that execution can be taken back to any earlier instruction count:
+ * restore the last checkpoint at or before that count, then execute forward from it.
+ * This reaches much farther back than the BackStepper, whose stack holds only the
+ * last Globals.maximumBacksteps changes, at the cost of executing at most one interval
+ * of instructions again.
+ * <p>
+ * A checkpoint holds the registers of the CPU and both coprocessors, any pending
+ * delayed branch, and a MemorySnapshot.  Memory pages are shared with the snapshot and
+ * copied when next written, so a checkpoint costs about the pages written since the
+ * one before it.  The oldest checkpoints are dropped to keep the total within
+ * Globals.checkpointMemoryLimit megabytes.
+ * <p>
+ * Executing forward again gives the same results as the first time as long as the
+ * program gets nothing from outside but console input, which SystemIO logs and hands
+ * out again.  Console output is not shown again.  Files, MMIO devices, the system
+ * time, random numbers and dialog syscalls are not part of a checkpoint.
+ * <p>
+ * Checkpoints are taken while backstepping is enabled, i.e. in the IDE, and with an
+ * interval of more than 0.
+ */
+
+    public class Checkpointer {
+
+      private static final long BYTES_PER_CHECKPOINT = 512;  // registers and bookkeeping
+
+      private final Simulator simulator;  // of the machine the program was assembled on
+      private final ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();  // oldest first
+      private long totalBytes = 0;
+      private boolean suspended = false;  // true while searching for a breakpoint
+
+      private static class Checkpoint {
+         long count;
+         int[] registers, coprocessor0, coprocessor1;
+         int delayedBranchState, delayedBranchTarget;
+         MemorySnapshot memory;
+         int inputLogPosition;
+         long bytes;  // storage held by this checkpoint and not by the one before it
+      }
+
+     /**
+      *  Create a Checkpointer with no checkpoints, for a program freshly assembled or reset
+      *  on the machine the calling thread works on.  The Simulator's execution state must
+      *  start over with it: see Simulator.resetExecutionState().
+      */
+       public Checkpointer() {
+         simulator = Simulator.getInstance();
+      }
+
+     /**
+      *  Determine whether there is a checkpoint to go back to, i.e. one taken before the
+      *  current instruction count.
+      *
+      *  @return true if travelTo() can go back at least one instruction
+      */
+       public boolean canTravelBack() {
+         return !checkpoints.isEmpty() && checkpoints.get(0).count < simulator.instructionCount;
+      }
+
+     /**
+      *  Smallest instruction count that travelTo() can reach.
+      *
+      *  @return count at the oldest checkpoint, or the current count if there is none
+      */
+       public long getEarliestCount() {
+         return checkpoints.isEmpty() ? simulator.instructionCount : checkpoints.get(0).count;
+      }
+
+     /**
+      *  Take the machine back to the state it was in after the given number of instructions
+      *  had executed: restore the last checkpoint at or before then and execute forward from
+      *  it.  Steps executed forward can then be undone by the BackStepper as usual.  Must not
+      *  be called while the program is running.
+      *
+      *  @param count instruction count to go to.  A count before the oldest checkpoint goes
+      *  to that checkpoint.
+      *  @return the instruction count reached
+      *  @throws ProcessingException if executing forward ends in a runtime error
+      */
+       public long travelTo(long count) throws ProcessingException {
+         if (checkpoints.isEmpty()) {
+            return simulator.instructionCount;
+         }
+         count = Math.max(count, getEarliestCount());
+         discardAfter(count);
+         restore(checkpoints.get(checkpoints.size() - 1));
+         executeForward(count - simulator.instructionCount, null, false);
+         return simulator.instructionCount;
+      }
+
+     /**
+      *  Take the machine back to the last time a breakpoint or watchpoint was reached, i.e.
+      *  the latest instruction count before the current one at which the program counter
+      *  held a breakpoint address or the instruction just executed hit a watchpoint.
+      *  Checkpoints are searched newest first by executing forward from each.  If neither
+      *  was reached since the oldest checkpoint, the machine is taken back to that
+      *  checkpoint.  Must not be called while the program is running.
+      *
+      *  @param breakPoints breakpoint addresses, as for Simulator.simulate()
+      *  @return true if a breakpoint or watchpoint was found, false if the oldest checkpoint
+      *  was reached
+      *  @throws ProcessingException if executing forward ends in a runtime error
+      */
+       public boolean reverseContinue(int[] breakPoints) throws ProcessingException {
+         long current = simulator.instructionCount;
+         int[] sorted = (breakPoints == null) ? new int[0] : (int[]) breakPoints.clone();
+         Arrays.sort(sorted);
+         long found = -1;
+         suspended = true;
+         try {
+            for (int index = indexAtOrBefore(current - 1); index >= 0 && found < 0; index--) {
+               // Look for the last stop in [start, end): each forward run stops at the next one.
+               Checkpoint checkpoint = checkpoints.get(index);
+               long end = (index + 1 < checkpoints.size()) ? Math.min(checkpoints.get(index + 1).count, current) : current;
+               restore(checkpoint);
+               if (Arrays.binarySearch(sorted, RegisterFile.getProgramCounter()) >= 0) {
+                  found = checkpoint.count;
+               }
+               while (simulator.instructionCount < end - 1) {
+                  int reason = executeForward(end - 1 - simulator.instructionCount, sorted, true);
+                  if (reason == Simulator.BREAKPOINT || reason == Simulator.WATCHPOINT) {
+                     found = simulator.instructionCount;
+                  }
+                  else if (reason != Simulator.MAX_STEPS) {
+                     break;
+                  }
+               }
+            }
+         }
+         finally {
+            suspended = false;
+         }
+         travelTo((found >= 0) ? found : getEarliestCount());
+         return found >= 0;
+      }
+
+     /**
+      *  Drop the checkpoints taken after the given instruction count.  Called when
+      *  execution is taken back to it, since what came after may not happen again.
+      *
+      *  @param count instruction count
+      */
+       public void discardAfter(long count) {
+         while (!checkpoints.isEmpty() && checkpoints.get(checkpoints.size() - 1).count > count) {
+            totalBytes -= checkpoints.remove(checkpoints.size() - 1).bytes;
+         }
+      }
+
+     /**
+      *  Instruction count at which the simulator should take the next checkpoint.
+      *
+      *  @return the count, or Long.MAX_VALUE if none is to be taken
+      */
+       long getNextCheckpoint() {
+         if (Globals.checkpointInterval <= 0 || suspended) {
+            return Long.MAX_VALUE;
+         }
+         return checkpoints.isEmpty() ? 0 : checkpoints.get(checkpoints.size() - 1).count + Globals.checkpointInterval;
+      }
+
+     /**
+      *  Take a checkpoint of the current machine state.  Called by the simulator at an
+      *  instruction boundary, holding its machine's lock.
+      *
+      *  @return instruction count at which to take the next checkpoint
+      */
+       long checkpoint() {
+         if (suspended) {
+            return Long.MAX_VALUE;
+         }
+         discardAfter(simulator.instructionCount - 1);
+         Checkpoint checkpoint = new Checkpoint();
+         checkpoint.count = simulator.instructionCount;
+         checkpoint.registers = RegisterFile.copyValues();
+         checkpoint.coprocessor0 = Coprocessor0.copyValues();
+         checkpoint.coprocessor1 = Coprocessor1.copyValues();
+         checkpoint.delayedBranchState = DelayedBranch.getState();
+         checkpoint.delayedBranchTarget = DelayedBranch.getBranchTargetAddress();
+         checkpoint.memory = Memory.getInstance().takeSnapshot();
+         checkpoint.inputLogPosition = SystemIO.getInputLogPosition();
+         checkpoint.bytes = checkpoint.memory.getNewBytes() + BYTES_PER_CHECKPOINT;
+         checkpoints.add(checkpoint);
+         totalBytes += checkpoint.bytes;
+         // Pages the oldest checkpoint shares with the next one stay, held by that one.
+         long limit = (long) Globals.checkpointMemoryLimit << 20;
+         while (totalBytes > limit && checkpoints.size() > 1) {
+            Checkpoint oldest = checkpoints.remove(0);
+            Checkpoint next = checkpoints.get(0);
+            long shared = next.memory.getSharedBytes(oldest.memory);
+            next.bytes += shared;
+            totalBytes += shared - oldest.bytes;
+         }
+         return getNextCheckpoint();
+      }
+
+      // Index of the last checkpoint taken at or before the given count, or -1 if none.
+       private int indexAtOrBefore(long count) {
+         int index = checkpoints.size() - 1;
+         while (index >= 0 && checkpoints.get(index).count > count) {
+            index--;
+         }
+         return index;
+      }
+
+      // Put the machine back in the state saved by the checkpoint.
+       private void restore(Checkpoint checkpoint) {
+         synchronized (Machine.current().getLock()) {
+            RegisterFile.restoreValues(checkpoint.registers);
+            Coprocessor0.restoreValues(checkpoint.coprocessor0);
+            Coprocessor1.restoreValues(checkpoint.coprocessor1);
+            DelayedBranch.restore(checkpoint.delayedBranchState, checkpoint.delayedBranchTarget);
+            Memory.getInstance().restoreSnapshot(checkpoint.memory);
+            SystemIO.setInputLogPosition(checkpoint.inputLogPosition);
+            simulator.instructionCount = checkpoint.count;
+            Machine.current().getProgram().getBackStepper().clear();
+         }
+      }
+
+      // Execute the given number of instructions, stopping early at a breakpoint, at a
+   	// watchpoint if asked to, or at the end of the program.  Returns the reason for
+   	// stopping, as Simulator.replay() does.
+       private int executeForward(long steps, int[] breakPoints, boolean watchpoints) throws ProcessingException {
+         int reason = Simulator.MAX_STEPS;
+         while (steps > 0 && reason == Simulator.MAX_STEPS) {
+            int batch = (int) Math.min(steps, Integer.MAX_VALUE);
+            long before = simulator.instructionCount;
+            reason = simulator.replay(Machine.current().getProgram(), batch, breakPoints, watchpoints);
+            steps -= simulator.instructionCount - before;
+            if (simulator.instructionCount == before) {
+               break;
+            }
+         }
+         return reason;
+      }
+   }
@@ -0,0 +1,147 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+
+/**
+ * Pre-decoded form of the user and kernel text segments, used by the fetch/execute
+ * loop in <code>Simulator</code>.  Each segment is flattened into a pair of parallel
+ * arrays indexed by <code>(pc - base) >> 2</code>: one holds the ProgramStatement,
+ * the other holds the SimulationCode that executes it.  A fetch that hits a decoded
+ * slot therefore costs one subtraction, one shift and two array loads, instead of the
+ * range checks, settings lookup and observer notification done by
+ * <code>Memory.getStatement()</code>.
+ * <p>
+ * A null handler slot means "not decoded": either no statement is stored there or
+ * it is not a valid basic instruction.  The simulator then falls back to
+ * <code>Memory.getStatement()</code>, which produces the usual result (null statement,
+ * reserved instruction exception, address error) for that address.
+ * <p>
+ * The table is owned by Memory, which drops it whenever memory is cleared and keeps
+ * it current when a statement is stored (e.g. self-modifying code).
+ * <p>
+ * It also counts how often each slot is entered by the block execution tier, and
+ * once a slot is hot, caches the <code>BasicBlock</code> starting there.  Storing a
+ * statement discards every cached block that covers its slot.
+ */
+
+    public class DecodedProgram {
+
+      int textBase;
+      ProgramStatement[] textStatements;
+      SimulationCode[] textCode;
+      int kernelTextBase;
+      ProgramStatement[] kernelTextStatements;
+      SimulationCode[] kernelTextCode;
+   
+     /** Number of entries to a slot before its basic block is built. */
+      static final int HOT_THRESHOLD = 16;
+   
+      private BasicBlock[] textBlocks;
+      private int[] textHeat;
+      private BasicBlock[] kernelTextBlocks;
+      private int[] kernelTextHeat;
+
+     /**
+      *  Build decoded tables for the text and kernel text segments of the given memory.
+      *  Only the portion of each segment that actually holds statements is decoded.
+      *
+      *  @param memory the simulated memory whose text segments are to be decoded
+      */
+       public DecodedProgram(Memory memory) {
+         textBase = Memory.textBaseAddress;
+         textStatements = memory.copyTextStatements(false);
+         textCode = decode(textStatements);
+         kernelTextBase = Memory.kernelTextBaseAddress;
+         kernelTextStatements = memory.copyTextStatements(true);
+         kernelTextCode = decode(kernelTextStatements);
+         textBlocks = new BasicBlock[textCode.length];
+         textHeat = new int[textCode.length];
+         kernelTextBlocks = new BasicBlock[kernelTextCode.length];
+         kernelTextHeat = new int[kernelTextCode.length];
+      }
+
+     /**
+      *  Record that a statement has been stored at the given text address.  If the
+      *  address falls within a decoded segment, its slot is re-decoded.  Addresses
+      *  beyond the decoded portion are left to the slow path.
+      *
+      *  @param address text or kernel text address that was written
+      *  @param statement the statement now stored there (may be null)
+      */
+       public void update(int address, ProgramStatement statement) {
+         int index = (address - textBase) >> 2;
+         if (index >= 0 && index < textCode.length) {
+            textStatements[index] = statement;
+            textCode[index] = decode(statement);
+            invalidate(textBlocks, index);
+            return;
+         }
+         index = (address - kernelTextBase) >> 2;
+         if (index >= 0 && index < kernelTextCode.length) {
+            kernelTextStatements[index] = statement;
+            kernelTextCode[index] = decode(statement);
+            invalidate(kernelTextBlocks, index);
+         }
+      }
+   
+     /**
+      *  Count an entry to the given address and return the basic block that starts
+      *  there, building it if the address has just become hot.
+      *
+      *  @param address word-aligned text or kernel text address of a pre-decoded instruction
+      *  @return the BasicBlock starting at address, or null if none (yet)
+      */
+       BasicBlock getBlock(int address) {
+         int index = (address - textBase) >> 2;
+         if (index >= 0 && index < textCode.length) {
+            return getBlock(address, textStatements, textCode, textBlocks, textHeat, index);
+         }
+         index = (address - kernelTextBase) >> 2;
+         if (index >= 0 && index < kernelTextCode.length) {
+            return getBlock(address, kernelTextStatements, kernelTextCode, kernelTextBlocks, kernelTextHeat, index);
+         }
+         return null;
+      }
+   
+       private static BasicBlock getBlock(int address, ProgramStatement[] statements, SimulationCode[] code,
+                                      BasicBlock[] blocks, int[] heat, int index) {
+         BasicBlock block = blocks[index];
+         if (block == null && code[index] != null && ++heat[index] >= HOT_THRESHOLD) {
+            block = new BasicBlock(address, statements, code, index);
+            blocks[index] = block;
+         }
+         return block;
+      }
+   
+      // Discard every cached block that includes the given slot.
+       private static void invalidate(BasicBlock[] blocks, int index) {
+         for (int start = Math.max(0, index - BasicBlock.MAXIMUM_LENGTH + 1); start <= index; start++) {
+            if (blocks[start] != null && blocks[start].covers(start, index)) {
+               blocks[start].valid = false;
+               blocks[start] = null;
+            }
+         }
+      }
+
+      // Build the handler array parallel to the given statement array.
+       private static SimulationCode[] decode(ProgramStatement[] statements) {
+         SimulationCode[] code = new SimulationCode[statements.length];
+         for (int i = 0; i < statements.length; i++) {
+            code[i] = decode(statements[i]);
+         }
+         return code;
+      }
+
+      // The handler for one statement, or null if it cannot be executed directly.
+       private static SimulationCode decode(ProgramStatement statement) {
+         if (statement == null) {
+            return null;
+         }
+         Instruction instruction = statement.getInstruction();
+         if (!(instruction instanceof BasicInstruction)) {
+            return null;
+         }
+         return ((BasicInstruction) instruction).getSimulationCode();
+      }
+   }
@@ -52,8 +52,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  * would hope) but in the meantime the first statement following the sequence
  * of successful branches will constitute the delay slot and will be executed!
  *
- * Since only one pending delayed branch can be taken at a time, everything
- * here is done with statics.  The class itself represents the potential branch.
+ * Since only one pending delayed branch can be taken at a time, each machine's
+ * Simulator holds one DelayedBranch, and the static methods here act on that of
+ * the machine the calling thread works on (see mars.Machine).  The object itself
+ * represents the potential branch.
  * 
  * @author Pete Sanderson
  * @version June 2007
@@ -67,8 +69,13 @@ public class DelayedBranch {
 
    // Initially nothing is happening.
 	
-	private static int state = CLEARED;
-	private static int branchTargetAddress = 0;
+	private int state = CLEARED;
+	private int branchTargetAddress = 0;
+	
+	// Pending branch of the machine the calling thread works on.
+	private static DelayedBranch current() {
+	   return Simulator.getInstance().delayedBranch;
+	}
 	
 	/**
     *  Register the fact that a successful branch is to occur.  This is called in
@@ -82,11 +89,12 @@ public class DelayedBranch {
 	 *  @param targetAddress The address to branch to after executing the next instruction
 	 */
 	public static void register(int targetAddress) {
+	  DelayedBranch branch = current();
 	  // About as clean as a switch statement can be!
-	  switch (state) {
-	    case CLEARED    :  branchTargetAddress = targetAddress;
+	  switch (branch.state) {
+	    case CLEARED    :  branch.branchTargetAddress = targetAddress;
 		 case REGISTERED :
-		 case TRIGGERED  :  state = REGISTERED;
+		 case TRIGGERED  :  branch.state = REGISTERED;
 	  }          
 	}
 
@@ -103,10 +111,11 @@ public class DelayedBranch {
 	 *
 	 */
 	 static void trigger() {
+	  DelayedBranch branch = current();
 	  // About as clean as a switch statement can be!
-	  switch (state) {
+	  switch (branch.state) {
 		 case REGISTERED :
-		 case TRIGGERED  :  state = TRIGGERED;
+		 case TRIGGERED  :  branch.state = TRIGGERED;
 		 case CLEARED    :
 	  }          
 	}
@@ -116,8 +125,9 @@ public class DelayedBranch {
 	 *  program counter to the target address.  This method has package visibility.
 	 */
 	 static void clear() {
-	  state = CLEARED;
-	  branchTargetAddress = 0; 
+	  DelayedBranch branch = current();
+	  branch.state = CLEARED;
+	  branch.branchTargetAddress = 0; 
 	}
 
    /**
@@ -129,7 +139,7 @@ public class DelayedBranch {
 	 */
 
     static boolean isRegistered() {
-	   return state == REGISTERED;
+	   return current().state == REGISTERED;
 	}
 	
    /**
@@ -140,7 +150,7 @@ public class DelayedBranch {
 	 */
 
    static boolean isTriggered() {
-	   return state == TRIGGERED;
+	   return current().state == TRIGGERED;
 	}	
 
 
@@ -153,7 +163,30 @@ public class DelayedBranch {
 	*  @return Target address of the delayed branch.
 	*/
 	 static int getBranchTargetAddress() {
-	    return branchTargetAddress;
+	    return current().branchTargetAddress;
+	}
+
+  /**
+   *  Return the state, for a checkpoint to save along with the branch target address.
+	*  This method has package visibility.
+	*
+	*  @return CLEARED, REGISTERED or TRIGGERED
+	*/
+	 static int getState() {
+	    return current().state;
+	}
+
+  /**
+   *  Put back a state and branch target address saved in a checkpoint.  This method
+	*  has package visibility.
+	*
+	*  @param savedState value returned by getState()
+	*  @param targetAddress value returned by getBranchTargetAddress()
+	*/
+	 static void restore(int savedState, int targetAddress) {
+	    DelayedBranch branch = current();
+	    branch.state = savedState;
+	    branch.branchTargetAddress = targetAddress;
 	}
 	
 }  // DelayedBranch
\ No newline at end of file
@@ -0,0 +1,130 @@
+   package mars.simulator;
+   import java.util.*;
+
+/**
+ * Limits on a run from the command line: how many instructions it may execute, how long
+ * it may take, and how many bytes it may write to the console.  The first limit reached
+ * stops the run, which ends with MAX_STEPS, TIME_LIMIT or OUTPUT_LIMIT as its reason
+ * (see Simulator.simulate(MIPSprogram, int, ExecutionBudget, int[]) and RunResult).
+ * <p>
+ * None of the limits costs a clock read or a call per instruction.  The instruction
+ * limit is compared with the instruction count as checkpoints are; the time limit is
+ * kept by a timer, and the output limit by SystemIO as it writes, both of which flag
+ * the simulator to stop after the instruction it is executing.  A program waiting for
+ * console input or sleeping is stopped only once the syscall returns.  Console output
+ * past the limit is dropped.  With harts, the limits apply to hart 0, whose instructions
+ * alone are counted, though all harts' output is.
+ * <p>
+ * A budget can be used for one run at a time, and again for the next.
+ */
+
+    public class ExecutionBudget {
+
+      private static Timer deadlines;  // daemon thread shared by all budgets, once needed
+
+      private final long maxInstructions;
+      private final long maxMilliseconds;
+      private final long maxOutputBytes;
+      // State of the run the budget is spent on.
+      private Simulator simulator;
+      private TimerTask deadline;
+      private long outputBytes;
+      private volatile int exhausted;  // reason of the first limit reached, or 0
+
+     /**
+      *  Create a budget.  A limit of 0 or less is no limit.
+      *
+      *  @param maxInstructions most instructions the run may execute
+      *  @param maxMilliseconds most milliseconds the run may take, by the wall clock
+      *  @param maxOutputBytes most bytes the run may write to the console
+      */
+       public ExecutionBudget(long maxInstructions, long maxMilliseconds, long maxOutputBytes) {
+         this.maxInstructions = maxInstructions;
+         this.maxMilliseconds = maxMilliseconds;
+         this.maxOutputBytes = maxOutputBytes;
+      }
+
+     /** Returns the most instructions a run may execute, or 0 or less for no limit. */
+       public long getMaxInstructions() {
+         return maxInstructions;
+      }
+
+     /** Returns the most milliseconds a run may take, or 0 or less for no limit. */
+       public long getMaxMilliseconds() {
+         return maxMilliseconds;
+      }
+
+     /** Returns the most bytes a run may write to the console, or 0 or less for no limit. */
+       public long getMaxOutputBytes() {
+         return maxOutputBytes;
+      }
+
+     /**
+      *  Take the given number of bytes of console output out of the budget.  Called by
+      *  SystemIO before it writes them.  If they do not all fit, the run is stopped.
+      *
+      *  @param length bytes the program asks to write
+      *  @return how many of them to write
+      */
+       public synchronized int spendOutput(int length) {
+         if (maxOutputBytes <= 0) {
+            return length;
+         }
+         int allowed = (int) Math.min(length, Math.max(0, maxOutputBytes - outputBytes));
+         outputBytes += allowed;
+         if (allowed < length) {
+            exhaust(Simulator.OUTPUT_LIMIT);
+         }
+         return allowed;
+      }
+
+      // Start spending the budget on a run of the given simulator: start the clock.
+       synchronized void start(Simulator runner) {
+         simulator = runner;
+         outputBytes = 0;
+         exhausted = 0;
+         if (maxMilliseconds > 0) {
+            deadline =
+                new TimerTask() {
+                   public void run() {
+                     expire();
+                  }
+               };
+            deadlineTimer().schedule(deadline, maxMilliseconds);
+         }
+      }
+
+      // The run has ended.
+       synchronized void finish() {
+         if (deadline != null) {
+            deadline.cancel();
+            deadline = null;
+         }
+         simulator = null;
+      }
+
+      // Reason the run is to stop for, Simulator.TIME_LIMIT or OUTPUT_LIMIT, or 0.
+       int getExhaustedReason() {
+         return exhausted;
+      }
+
+       private synchronized void expire() {
+         if (deadline != null) {
+            exhaust(Simulator.TIME_LIMIT);
+         }
+      }
+
+       private void exhaust(int reason) {
+         if (exhausted == 0 && simulator != null) {
+            exhausted = reason;
+            simulator.budgetExhausted();
+         }
+      }
+
+       private static synchronized Timer deadlineTimer() {
+         if (deadlines == null) {
+            deadlines = new Timer("MARS execution deadlines", true);
+         }
+         return deadlines;
+      }
+   }
@@ -0,0 +1,92 @@
+   package mars.simulator;
+   import mars.*;
+   import java.util.concurrent.atomic.*;
+
+/**
+ * The settings that the simulated machine consults while it runs, captured once
+ * when a run starts.  Code on the instruction path (register and memory writes,
+ * branches) reads these fields instead of going through <code>Settings</code> and the
+ * program's BackStepper each time.  That is still a lookup of the machine the calling
+ * thread works on and of its simulator per access, not a constant; the run loop reads
+ * the snapshot once as the run starts instead.
+ * <p>
+ * Each machine's simulator installs a snapshot for the length of each run (a Go, a
+ * Step, or a resumption after a pause), and get() returns the one of the machine the
+ * calling thread works on.  A setting changed while the program is running takes
+ * effect at the next pause.  Outside a run, get() returns a capture of the current
+ * settings that is kept until refresh() is called, so the GUI and assembler see every
+ * change immediately without a capture per call.  Whatever changes what is captured
+ * calls refresh(): the setters of Settings, the BackStepper being created, enabled or
+ * disabled, the program or harts of a machine changing, and the end of each run.
+ */
+
+    public final class ExecutionConfig {
+
+     /** Whether each change to registers and memory is recorded for backstepping.  Never
+      *  while the program has harts running (see HartScheduler). */
+      public final boolean backstepping;
+     /** Whether the text segment may be read and written like data. */
+      public final boolean selfModifyingCode;
+     /** Whether branches and jumps take effect after the instruction that follows them. */
+      public final boolean delayedBranching;
+
+      // Incremented by refresh(); a capture made outside a run is good while it is unchanged.
+      private static final AtomicInteger generation = new AtomicInteger();
+      private final int capturedGeneration;
+
+       private ExecutionConfig() {
+         capturedGeneration = generation.get();
+         Settings settings = Globals.getSettings();
+         backstepping = settings.getBackSteppingEnabled() && Machine.current().getHarts() == null;
+         selfModifyingCode = settings.getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED);
+         delayedBranching = settings.getDelayedBranchingEnabled();
+      }
+
+     /**
+      *  Returns the settings in effect for the simulated machine: the snapshot taken
+      *  at the start of the current run, or the current settings if no run is active.
+      *
+      *  @return the execution settings
+      */
+       public static ExecutionConfig get() {
+         Simulator simulator = Simulator.getInstance();
+         ExecutionConfig config = simulator.executionConfig;
+         if (config != null) {
+            return config;
+         }
+         config = simulator.idleExecutionConfig;
+         if (config == null || config.capturedGeneration != generation.get()) {
+            config = new ExecutionConfig();
+            simulator.idleExecutionConfig = config;
+         }
+         return config;
+      }
+
+     /**
+      *  Have the next get() outside a run capture the settings again, because something
+      *  it captures may have changed.  Runs in progress keep their snapshot.
+      */
+       public static void refresh() {
+         generation.incrementAndGet();
+      }
+
+     /**
+      *  Capture the current settings and make them the ones in effect until end() is
+      *  called.  Called by the simulator thread when a run starts.
+      *
+      *  @return the snapshot now in effect
+      */
+       static ExecutionConfig begin() {
+         ExecutionConfig config = new ExecutionConfig();
+         Simulator.getInstance().executionConfig = config;
+         return config;
+      }
+
+     /**
+      *  Discard the snapshot.  Called by the simulator thread when a run ends.
+      */
+       static void end() {
+         Simulator.getInstance().executionConfig = null;
+         refresh();
+      }
+   }
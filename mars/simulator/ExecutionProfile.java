@@ -0,0 +1,509 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.assembler.*;
+   import mars.mips.hardware.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+
+/**
+ * Counts how often each instruction of a program is executed, and reports the hottest
+ * instructions with their source lines, and the labels under which the time is spent.
+ * <p>
+ * The counts are kept in arrays parallel to the text segments of the DecodedProgram,
+ * indexed by <code>(pc - base) >> 2</code>, so counting an instruction costs a
+ * subtraction, a shift, a bounds check and an increment.  Unlike InstructionCounter and
+ * InstructionStatistics, which observe Memory, a profile leaves the simulator on its
+ * fast path, and basic blocks still run.  Instructions outside the decoded text, e.g.
+ * written to the data segment by self-modifying code, are counted in a map.
+ * <p>
+ * A profile also follows calls, with a shadow call stack: jal, jalr, bgezal and bltzal
+ * push the return address they link, and jr $ra to an address on the stack pops back to
+ * it.  Each path of calls from the function the program starts in is a node of a call
+ * tree, charged with the instructions executed in it; these give each function the
+ * instructions executed in it and in what it calls, and the collapsed stacks from which
+ * flame graphs are drawn.  A jump to $ra matching no return address is not taken as a
+ * return.  Calls are followed no more than MAX_CALL_DEPTH deep; deeper ones are charged
+ * to the function at that depth.
+ * <p>
+ * A profile is attached to a machine's simulator with Simulator.setProfile().  It then
+ * counts the instructions that machine executes in every run, adding up across pauses
+ * and runs until clear() is called.  Instructions the Checkpointer executes again are not
+ * counted twice, but those undone by backstepping stay counted.  Harts other than hart 0
+ * are not counted, and backstepping does not undo calls and returns.  The counts must only be cleared or read while the program is not
+ * running; a report taken during a run may be slightly off.
+ */
+
+    public class ExecutionProfile {
+
+     /** Number of rows in each table of a report, unless asked otherwise. */
+      public static final int DEFAULT_REPORT_ROWS = 20;
+
+     /** Most calls deep that the call tree goes; deeper calls are charged to their caller. */
+      public static final int MAX_CALL_DEPTH = 256;
+
+      private static final String NO_LABEL = "(no label)";
+      // Most calls followed on the shadow stack, so that a program using jal as a plain
+      // jump cannot fill the memory.  Deeper calls are taken as jumps.
+      private static final int MAX_STACK_DEPTH = 1 << 16;
+      // Indexes of the counts kept for each function by addFunctions().
+      private static final int INCLUSIVE = 0;
+      private static final int EXCLUSIVE = 1;
+      private static final int CALLS = 2;
+
+      private int textBase;
+      private long[] textCounts = new long[0];
+      private int kernelTextBase;
+      private long[] kernelTextCounts = new long[0];
+      private final HashMap<Integer, long[]> otherCounts = new HashMap<Integer, long[]>();
+      // The call tree, under a root standing for no function, and the shadow call stack:
+      // the node of each caller, with the address its callee is to return to.
+      private final CallNode callRoot = new CallNode(0, null);
+      private CallNode current;     // node instructions are charged to, or null before a run
+      private CallNode[] callers = new CallNode[16];
+      private int[] returnAddresses = new int[16];
+      private int depth;
+      private int entering;         // instructions until the callee's first, after a call
+      private int enteringReturn;   // return address of that call
+      private long charged;         // instruction count up to which instructions are charged
+
+      // A function as called along one path from the root of the call tree.
+       private static final class CallNode {
+         final int entry;           // address of the first instruction of the function
+         final CallNode parent;
+         final HashMap<Integer, CallNode> callees = new HashMap<Integer, CallNode>();
+         CallNode lastCallee;       // the one called last, looked for first
+         final int level;           // calls from the root
+         long instructions;         // executed in the function, not in what it calls
+         long calls;
+
+          CallNode(int entry, CallNode parent) {
+            this.entry = entry;
+            this.parent = parent;
+            this.level = (parent == null) ? 0 : parent.level + 1;
+         }
+
+          CallNode callee(int entry) {
+            if (lastCallee != null && lastCallee.entry == entry) {
+               return lastCallee;
+            }
+            CallNode callee = callees.get(entry);
+            if (callee == null) {
+               callee = new CallNode(entry, this);
+               callees.put(entry, callee);
+            }
+            lastCallee = callee;
+            return callee;
+         }
+      }
+
+     /**
+      *  Create an empty profile.
+      */
+       public ExecutionProfile() {
+      }
+
+      // Make room for a count per slot of the given decoded program, keeping the counts so
+   	// far, and follow calls from the current instruction count.  A run of a program just
+   	// assembled or reset starts from the root of the call tree at the given address.
+   	// Called as a run starts.
+       synchronized void prepare(DecodedProgram decoded, int pc, long instructionCount) {
+         if (decoded.textBase != textBase || decoded.kernelTextBase != kernelTextBase) {
+            textBase = decoded.textBase;
+            kernelTextBase = decoded.kernelTextBase;
+            clear();
+         }
+         if (textCounts.length < decoded.textCode.length) {
+            textCounts = Arrays.copyOf(textCounts, decoded.textCode.length);
+         }
+         if (kernelTextCounts.length < decoded.kernelTextCode.length) {
+            kernelTextCounts = Arrays.copyOf(kernelTextCounts, decoded.kernelTextCode.length);
+         }
+         if (current == null || instructionCount == 0) {
+            depth = 0;
+            entering = 0;
+            current = callRoot.callee(pc);
+            current.calls++;
+         }
+         charged = instructionCount;
+      }
+
+      // Charge the instructions of the run since the last call or return.  Called as a
+   	// run ends.
+       synchronized void finish(long instructionCount) {
+         if (current != null) {
+            current.instructions += instructionCount - charged;
+            charged = instructionCount;
+         }
+      }
+
+      // Count one execution of the instruction at the given address.  Called by the
+   	// simulator thread for each instruction.
+       final void count(int address) {
+         int index = (address - textBase) >> 2;
+         if (index >= 0 && index < textCounts.length) {
+            textCounts[index]++;
+         }
+         else {
+            countElsewhere(address);
+         }
+         if (entering != 0 && --entering == 0) {
+            enter(address);
+         }
+      }
+
+       private void countElsewhere(int address) {
+         int index = (address - kernelTextBase) >> 2;
+         if (index >= 0 && index < kernelTextCounts.length) {
+            kernelTextCounts[index]++;
+            return;
+         }
+         long[] count = otherCounts.get(address);
+         if (count == null) {
+            count = new long[1];
+            otherCounts.put(address, count);
+         }
+         count[0]++;
+      }
+
+      // The instruction being executed, the given number of instructions into the run,
+   	// calls a function that is to return to the given address.  The function starts at
+   	// the next instruction, or the one after with delayed branching.
+       final void call(int returnAddress, long instructionCount, boolean delayedBranching) {
+         if (current == null || depth == MAX_STACK_DEPTH) {
+            return;
+         }
+         current.instructions += instructionCount - charged;
+         charged = instructionCount;
+         entering = (delayedBranching) ? 2 : 1;
+         enteringReturn = returnAddress;
+      }
+
+       private void enter(int address) {
+         if (depth == callers.length) {
+            callers = Arrays.copyOf(callers, 2 * depth);
+            returnAddresses = Arrays.copyOf(returnAddresses, 2 * depth);
+         }
+         callers[depth] = current;
+         returnAddresses[depth] = enteringReturn;
+         depth++;
+         if (current.level < MAX_CALL_DEPTH) {
+            current = current.callee(address);
+         }
+         current.calls++;
+      }
+
+      // The instruction being executed jumps to the given address in $ra.  If a call on
+   	// the stack is to return there, it returns, along with any it made.
+       final void jumpToReturnAddress(int address, long instructionCount) {
+         for (int i = depth - 1; i >= 0; i--) {
+            if (returnAddresses[i] == address) {
+               current.instructions += instructionCount - charged;
+               charged = instructionCount;
+               current = callers[i];
+               Arrays.fill(callers, i, depth, null);
+               depth = i;
+               return;
+            }
+         }
+      }
+
+     /**
+      *  Set all counts back to zero.
+      */
+       public synchronized void clear() {
+         Arrays.fill(textCounts, 0);
+         Arrays.fill(kernelTextCounts, 0);
+         otherCounts.clear();
+         callRoot.callees.clear();
+         callRoot.lastCallee = null;
+         current = null;
+         depth = 0;
+         entering = 0;
+         Arrays.fill(callers, null);
+      }
+
+     /**
+      *  Returns the number of times the instruction at the given address was executed.
+      *
+      *  @param address address of the instruction
+      *  @return its count
+      */
+       public synchronized long getCount(int address) {
+         int index = (address - textBase) >> 2;
+         if (index >= 0 && index < textCounts.length) {
+            return textCounts[index];
+         }
+         index = (address - kernelTextBase) >> 2;
+         if (index >= 0 && index < kernelTextCounts.length) {
+            return kernelTextCounts[index];
+         }
+         long[] count = otherCounts.get(address);
+         return (count == null) ? 0 : count[0];
+      }
+
+     /**
+      *  Returns the number of instructions executed in all.
+      *
+      *  @return the sum of all counts
+      */
+       public synchronized long getTotal() {
+         long total = 0;
+         for (int i = 0; i < textCounts.length; i++) {
+            total += textCounts[i];
+         }
+         for (int i = 0; i < kernelTextCounts.length; i++) {
+            total += kernelTextCounts[i];
+         }
+         for (long[] count : otherCounts.values()) {
+            total += count[0];
+         }
+         return total;
+      }
+
+     /**
+      *  Returns a report of the counts for the program on the machine the calling thread
+      *  works on.  It has three tables, each sorted by count: the labels, with the
+      *  instructions executed from each up to the next label; the functions called, with
+      *  the instructions executed in each and what it calls (inclusive), in it alone
+      *  (exclusive), and the number of calls; and the instructions executed most, with
+      *  their address, label and offset, and source file, line and statement.
+      *
+      *  @param rows most rows in each table
+      *  @return the report, as lines of text
+      */
+       public synchronized String getReport(int rows) {
+         Machine machine = Machine.current();
+         final HashMap<Integer, Long> executed = getExecuted();
+         long total = 0;
+         for (Long count : executed.values()) {
+            total += count.longValue();
+         }
+         HashMap<Integer, ProgramStatement> statements = getStatements(machine, executed);
+         TreeMap<Integer, String> labels = getLabels(machine, statements);
+         // Instructions executed under each label.
+         final HashMap<String, Long> labelCounts = new HashMap<String, Long>();
+         for (Map.Entry<Integer, Long> entry : executed.entrySet()) {
+            String label = labelOf(labels, entry.getKey().intValue(), false);
+            Long sum = labelCounts.get(label);
+            labelCounts.put(label, entry.getValue().longValue() + ((sum == null) ? 0 : sum.longValue()));
+         }
+         ArrayList<String> byLabel = new ArrayList<String>(labelCounts.keySet());
+         Collections.sort(byLabel,
+               new Comparator<String>() {
+                   public int compare(String a, String b) {
+                     int order = labelCounts.get(b).compareTo(labelCounts.get(a));
+                     return (order != 0) ? order : a.compareTo(b);
+                  }
+               });
+         // Instructions executed in each function, with and without what it calls.
+         final HashMap<String, long[]> functions = new HashMap<String, long[]>();
+         for (CallNode function : callRoot.callees.values()) {
+            addFunctions(functions, new HashMap<String, Integer>(), function, labels);
+         }
+         ArrayList<String> byFunction = new ArrayList<String>(functions.keySet());
+         Collections.sort(byFunction,
+               new Comparator<String>() {
+                   public int compare(String a, String b) {
+                     int order = Long.compare(functions.get(b)[INCLUSIVE], functions.get(a)[INCLUSIVE]);
+                     return (order != 0) ? order : a.compareTo(b);
+                  }
+               });
+         ArrayList<Integer> byAddress = new ArrayList<Integer>(executed.keySet());
+         Collections.sort(byAddress,
+               new Comparator<Integer>() {
+                   public int compare(Integer a, Integer b) {
+                     int order = executed.get(b).compareTo(executed.get(a));
+                     return (order != 0) ? order : Integer.compareUnsigned(a.intValue(), b.intValue());
+                  }
+               });
+
+         StringWriter text = new StringWriter();
+         PrintWriter report = new PrintWriter(text);
+         report.println("Profile: "+total+" instructions executed at "+executed.size()+" addresses");
+         report.println();
+         report.println("Labels by instructions executed:");
+         report.println(String.format("%12s %7s  %s", "count", "%", "label"));
+         for (int i = 0; i < byLabel.size() && i < rows; i++) {
+            long count = labelCounts.get(byLabel.get(i)).longValue();
+            report.println(String.format("%12d %6.2f%%  %s", count, percent(count, total), byLabel.get(i)));
+         }
+         report.println();
+         report.println("Functions by instructions executed in them and what they call:");
+         report.println(String.format("%12s %7s  %12s %7s  %10s  %s", "inclusive", "%", "exclusive", "%", "calls", "function"));
+         for (int i = 0; i < byFunction.size() && i < rows; i++) {
+            long[] function = functions.get(byFunction.get(i));
+            report.println(String.format("%12d %6.2f%%  %12d %6.2f%%  %10d  %s", function[INCLUSIVE], percent(function[INCLUSIVE], total),
+                                         function[EXCLUSIVE], percent(function[EXCLUSIVE], total), function[CALLS], byFunction.get(i)));
+         }
+         report.println();
+         report.println("Hottest instructions:");
+         report.println(String.format("%12s %7s  %-10s  %-24s %-20s %s", "count", "%", "address", "label", "line", "source"));
+         for (int i = 0; i < byAddress.size() && i < rows; i++) {
+            int address = byAddress.get(i).intValue();
+            long count = executed.get(byAddress.get(i)).longValue();
+            ProgramStatement statement = statements.get(byAddress.get(i));
+            String line = "";
+            String source = "";
+            if (statement != null) {
+               if (statement.getSourceLine() > 0) {
+                  line = new File(statement.getSourceFile()).getName()+":"+statement.getSourceLine();
+               }
+               source = (statement.getSource() != null && statement.getSource().trim().length() > 0)
+                      ? statement.getSource().trim() : statement.getPrintableBasicAssemblyStatement();
+            }
+            report.println(String.format("%12d %6.2f%%  %-10s  %-24s %-20s %s", count, percent(count, total),
+                                         Binary.intToHexString(address), labelOf(labels, address, true), line, source));
+         }
+         report.flush();
+         return text.toString();
+      }
+
+     /**
+      *  Returns the call stacks of the program on the machine the calling thread works on,
+      *  in the collapsed format read by flamegraph.pl and other flame graph renderers: a
+      *  line per path of calls, e.g. <code>main;sort;swap 1200</code>, giving the functions
+      *  from the outermost in, and the instructions executed in the last.  Functions are
+      *  named by their labels.  The lines are sorted, and stacks named alike are merged.
+      *
+      *  @return the collapsed stacks, one per line
+      */
+       public synchronized String getCollapsedStacks() {
+         Machine machine = Machine.current();
+         TreeMap<Integer, String> labels = getLabels(machine, getStatements(machine, getExecuted()));
+         TreeMap<String, Long> stacks = new TreeMap<String, Long>();
+         for (CallNode function : callRoot.callees.values()) {
+            addStacks(stacks, null, function, labels);
+         }
+         StringBuffer text = new StringBuffer();
+         for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            text.append(stack.getKey()).append(' ').append(stack.getValue()).append('\n');
+         }
+         return text.toString();
+      }
+
+      // Add the counts of the given node and those under it to its function and theirs.
+   	// A function's inclusive count is added only where it is not already on the path,
+   	// so that recursive calls are not counted twice.  Returns the instructions under it.
+       private static long addFunctions(HashMap<String, long[]> functions, HashMap<String, Integer> onPath,
+                                        CallNode node, TreeMap<Integer, String> labels) {
+         String name = functionName(labels, node.entry);
+         Integer outer = onPath.get(name);
+         onPath.put(name, (outer == null) ? 1 : outer.intValue() + 1);
+         long total = node.instructions;
+         for (CallNode callee : node.callees.values()) {
+            total += addFunctions(functions, onPath, callee, labels);
+         }
+         if (outer == null) {
+            onPath.remove(name);
+         }
+         else {
+            onPath.put(name, outer);
+         }
+         long[] function = functions.get(name);
+         if (function == null) {
+            function = new long[3];
+            functions.put(name, function);
+         }
+         if (outer == null) {
+            function[INCLUSIVE] += total;
+         }
+         function[EXCLUSIVE] += node.instructions;
+         function[CALLS] += node.calls;
+         return total;
+      }
+
+       private static void addStacks(TreeMap<String, Long> stacks, String callers, CallNode node, TreeMap<Integer, String> labels) {
+         String stack = (callers == null) ? functionName(labels, node.entry) : callers+";"+functionName(labels, node.entry);
+         if (node.instructions > 0) {
+            Long sum = stacks.get(stack);
+            stacks.put(stack, node.instructions + ((sum == null) ? 0 : sum.longValue()));
+         }
+         for (CallNode callee : node.callees.values()) {
+            addStacks(stacks, stack, callee, labels);
+         }
+      }
+
+      // Addresses executed, with their counts.
+       private HashMap<Integer, Long> getExecuted() {
+         HashMap<Integer, Long> executed = new HashMap<Integer, Long>();
+         for (int i = 0; i < textCounts.length; i++) {
+            addExecuted(executed, textBase + (i << 2), textCounts[i]);
+         }
+         for (int i = 0; i < kernelTextCounts.length; i++) {
+            addExecuted(executed, kernelTextBase + (i << 2), kernelTextCounts[i]);
+         }
+         for (Map.Entry<Integer, long[]> entry : otherCounts.entrySet()) {
+            addExecuted(executed, entry.getKey().intValue(), entry.getValue()[0]);
+         }
+         return executed;
+      }
+
+      // Statements at the addresses executed.
+       private static HashMap<Integer, ProgramStatement> getStatements(Machine machine, HashMap<Integer, Long> executed) {
+         HashMap<Integer, ProgramStatement> statements = new HashMap<Integer, ProgramStatement>();
+         for (Integer address : executed.keySet()) {
+            try {
+               ProgramStatement statement = machine.getMemory().getStatementNoNotify(address.intValue());
+               if (statement != null) {
+                  statements.put(address, statement);
+               }
+            }
+                catch (AddressErrorException e) {
+               } // cannot happen for an address that was executed
+         }
+         return statements;
+      }
+
+      // Text labels, global and local to each source file of the given statements, keyed
+   	// by address as labelOf() expects.
+       private static TreeMap<Integer, String> getLabels(Machine machine, HashMap<Integer, ProgramStatement> statements) {
+         HashSet<MIPSprogram> sources = new HashSet<MIPSprogram>();
+         for (ProgramStatement statement : statements.values()) {
+            if (statement.getSourceMIPSprogram() != null) {
+               sources.add(statement.getSourceMIPSprogram());
+            }
+         }
+         TreeMap<Integer, String> labels = new TreeMap<Integer, String>();
+         addLabels(labels, machine.getSymbolTable());
+         for (MIPSprogram source : sources) {
+            addLabels(labels, source.getLocalSymbolTable());
+         }
+         return labels;
+      }
+
+       private static void addExecuted(HashMap<Integer, Long> executed, int address, long count) {
+         if (count > 0) {
+            executed.put(address, count);
+         }
+      }
+
+       private static void addLabels(TreeMap<Integer, String> labels, SymbolTable table) {
+         ArrayList symbols = table.getTextSymbols();
+         for (int i = 0; i < symbols.size(); i++) {
+            Symbol symbol = (Symbol) symbols.get(i);
+            labels.put(symbol.getAddress() ^ Integer.MIN_VALUE, symbol.getName());
+         }
+      }
+
+      // The label at or before the given address, with the offset from it if wanted.
+   	// Labels are keyed with the sign bit flipped, so that kernel addresses sort last.
+       private static String labelOf(TreeMap<Integer, String> labels, int address, boolean offset) {
+         Map.Entry<Integer, String> label = labels.floorEntry(address ^ Integer.MIN_VALUE);
+         if (label == null) {
+            return NO_LABEL;
+         }
+         int distance = address - (label.getKey().intValue() ^ Integer.MIN_VALUE);
+         return (offset && distance != 0) ? label.getValue()+"+"+distance : label.getValue();
+      }
+
+      // The label of a function starting at the given address, with the offset from it if
+   	// it starts past the label, or the address if no label comes before it.
+       private static String functionName(TreeMap<Integer, String> labels, int entry) {
+         return (labels.floorKey(entry ^ Integer.MIN_VALUE) == null) ? Binary.intToHexString(entry) : labelOf(labels, entry, true);
+      }
+
+       private static double percent(long count, long total) {
+         return (total == 0) ? 0 : 100.0 * count / total;
+      }
+   }
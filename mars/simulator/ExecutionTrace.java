@@ -0,0 +1,278 @@
+   package mars.simulator;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+   import java.util.concurrent.*;
+
+/**
+ * A compact binary trace of a program's execution: the address of each instruction
+ * executed, and the effective address, size and value of each load and store.  Traces
+ * are read back with ExecutionTraceReader, e.g. to replay the memory accesses and
+ * branches of a run into a cache or branch predictor model many times over.
+ * <p>
+ * The file holds a header of two ints, MAGIC and VERSION, then one record per event.
+ * A record starts with a varint (7 bits a byte, low bits first, high bit set on all but
+ * the last byte) whose low 3 bits are its tag and whose other bits are a delta,
+ * zigzag-encoded so small negative deltas are short too:
+ * <ul>
+ * <li>tag 0: an instruction; the delta is from the address after the previous
+ * instruction, so an instruction following the previous one takes a single 0 byte.</li>
+ * <li>tags 1 to 3: a load of 1, 2 or 4 bytes, and tags 5 to 7 a store of as many; the
+ * delta is from the address of the previous load or store.  A second varint follows,
+ * the zigzag-encoded value loaded or stored.</li>
+ * </ul>
+ * Addresses and values are 32 bits, so deltas wrap around.  A run of 10^8 instructions,
+ * a third of them loads and stores, takes about 230 MB.
+ * <p>
+ * The simulator thread only appends records to a preallocated buffer.  When it fills,
+ * it is handed to a writer thread, which writes it to the file through a FileChannel
+ * while the simulator fills the other; the simulator waits only if the disk falls a
+ * whole buffer behind.  An error writing the file is thrown by close().
+ * <p>
+ * A trace is attached to a machine's simulator with Simulator.setTrace(), and records
+ * every run from then on until it is closed.  Loads and stores made by syscalls on the
+ * simulator thread are recorded, as they are seen by memory observers; those of other
+ * threads, such as the GUI and harts other than hart 0, are not.  Instructions the
+ * Checkpointer executes again are not recorded twice, but those undone by backstepping
+ * stay recorded.
+ */
+
+    public class ExecutionTrace {
+
+     /** First int of a trace file: "MTRC". */
+      public static final int MAGIC = 0x4d545243;
+     /** Second int of a trace file: the version of the format described above. */
+      public static final int VERSION = 1;
+
+      // Tags of records.  The low 2 bits of a load or store tag give its size.
+      static final int INSTRUCTION_TAG = 0;
+      static final int STORE_TAG = 4;
+      static final int TAG_BITS = 3;
+
+      private static final int BUFFER_BYTES = 1 << 20;
+      // Most bytes a record can take: two varints of up to 64 bits.
+      private static final int MAX_RECORD_BYTES = 20;
+      // Handed to the writer thread to have it finish.
+      private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+      private final File file;
+      private final FileChannel channel;
+      private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(2);
+      private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(2);
+      private final Thread writer;
+      private volatile IOException failure;
+      // The buffer being filled, and the state of the encoding, for the simulator thread.
+      private byte[] buffer;
+      private int position;
+      private int nextAddress;       // of the instruction after the last one recorded
+      private int lastAccess;        // address of the last load or store recorded
+      private Thread owner;          // simulator thread of the run in progress
+      private boolean closed;
+
+     /**
+      *  Create a trace, and start its writer thread.
+      *
+      *  @param file the file to write the trace to, replacing any there
+      *  @throws IOException if the file cannot be opened or its header written
+      */
+       public ExecutionTrace(File file) throws IOException {
+         this.file = file;
+         channel = new FileOutputStream(file).getChannel();
+         ByteBuffer header = ByteBuffer.allocate(8);
+         header.putInt(MAGIC).putInt(VERSION).flip();
+         while (header.hasRemaining()) {
+            channel.write(header);
+         }
+         buffer = new byte[BUFFER_BYTES];
+         free.add(ByteBuffer.allocate(BUFFER_BYTES));
+         writer =
+             new Thread("MARS trace writer") {
+                public void run() {
+                  write();
+               }
+            };
+         writer.setDaemon(true);
+         writer.start();
+      }
+
+     /**
+      *  Returns the file the trace is written to.
+      *
+      *  @return the file
+      */
+       public File getFile() {
+         return file;
+      }
+
+      // A run is starting on the calling thread, which will record its instructions.
+       synchronized void start() {
+         owner = Thread.currentThread();
+      }
+
+      // Record the execution of the instruction at the given address.  Called by the
+   	// simulator thread for each instruction.
+       final void instruction(int address) {
+         if (position > BUFFER_BYTES - MAX_RECORD_BYTES) {
+            handOver();
+         }
+         int delta = address - nextAddress;
+         nextAddress = address + 4;
+         if (delta == 0) {
+            buffer[position++] = 0;
+         }
+         else {
+            putVarint(zigzag(delta) << TAG_BITS | INSTRUCTION_TAG);
+         }
+      }
+
+     /**
+      *  Record a load.  Called by Memory for each load; only those of the simulator thread
+      *  of the run in progress are recorded.
+      *
+      *  @param address effective address
+      *  @param length bytes loaded: 1, 2 or 4
+      *  @param value value loaded
+      */
+       public final void load(int address, int length, int value) {
+         if (Thread.currentThread() == owner) {
+            access(sizeCode(length), address, value);
+         }
+      }
+
+     /**
+      *  Record a store.  Called by Memory for each store; only those of the simulator thread
+      *  of the run in progress are recorded.
+      *
+      *  @param address effective address
+      *  @param length bytes stored: 1, 2 or 4
+      *  @param value value stored, in the low bytes
+      */
+       public final void store(int address, int length, int value) {
+         if (Thread.currentThread() == owner) {
+            access(STORE_TAG | sizeCode(length), address, value);
+         }
+      }
+
+       private void access(int tag, int address, int value) {
+         if (position > BUFFER_BYTES - MAX_RECORD_BYTES) {
+            handOver();
+         }
+         putVarint(zigzag(address - lastAccess) << TAG_BITS | tag);
+         putVarint(zigzag(value));
+         lastAccess = address;
+      }
+
+       private static int sizeCode(int length) {
+         return (length == 4) ? 3 : length;
+      }
+
+       private static long zigzag(int value) {
+         return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+      }
+
+       private void putVarint(long value) {
+         while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+         }
+         buffer[position++] = (byte) value;
+      }
+
+      // Hand the buffer filled to the writer thread and take the other.
+       private void handOver() {
+         put(full, ByteBuffer.wrap(buffer, 0, position));
+         buffer = take(free).array();
+         position = 0;
+      }
+
+      // The writer thread: write each buffer handed over, until the end.
+       private void write() {
+         while (true) {
+            ByteBuffer chunk = take(full);
+            if (chunk == END) {
+               return;
+            }
+            try {
+               if (failure == null) {
+                  while (chunk.hasRemaining()) {
+                     channel.write(chunk);
+                  }
+               }
+            }
+                catch (IOException e) {
+                  failure = e;
+               }
+            chunk.clear();
+            put(free, chunk);
+         }
+      }
+
+     /**
+      *  Write out what has been recorded, and close the file.  Detach the trace from its
+      *  simulator first.  A closed trace records nothing more.
+      *
+      *  @throws IOException if the trace could not be written
+      */
+       public synchronized void close() throws IOException {
+         if (closed) {
+            return;
+         }
+         closed = true;
+         owner = null;
+         if (position > 0) {
+            handOver();
+         }
+         put(full, END);
+         boolean interrupted = false;
+         while (writer.isAlive()) {
+            try {
+               writer.join();
+            }
+                catch (InterruptedException e) {
+                  interrupted = true;
+               }
+         }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+         channel.close();
+         if (failure != null) {
+            throw failure;
+         }
+      }
+
+      // Queue operations that carry on if the thread is interrupted, and keep the interrupt.
+       private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer chunk) {
+         boolean interrupted = false;
+         while (true) {
+            try {
+               queue.put(chunk);
+               break;
+            }
+                catch (InterruptedException e) {
+                  interrupted = true;
+               }
+         }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+      }
+
+       private static ByteBuffer take(BlockingQueue<ByteBuffer> queue) {
+         boolean interrupted = false;
+         ByteBuffer chunk;
+         while (true) {
+            try {
+               chunk = queue.take();
+               break;
+            }
+                catch (InterruptedException e) {
+                  interrupted = true;
+               }
+         }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+         return chunk;
+      }
+   }
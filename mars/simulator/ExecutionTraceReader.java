@@ -0,0 +1,159 @@
+   package mars.simulator;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+
+/**
+ * Reads back a trace written by ExecutionTrace, one event at a time: next() moves to the
+ * next instruction, load or store, whose address, size and value are then returned by
+ * the getters.  The file is read through a FileChannel in large blocks and decoded in
+ * place, so a trace can be replayed many times over at the speed of the disk.
+ */
+
+    public class ExecutionTraceReader {
+
+     /** Event returned by next() at the end of the trace. */
+      public static final int END = 0;
+     /** Event returned by next() for an instruction; getAddress() gives its address. */
+      public static final int INSTRUCTION = 1;
+     /** Event returned by next() for a load. */
+      public static final int LOAD = 2;
+     /** Event returned by next() for a store. */
+      public static final int STORE = 3;
+
+      private static final int BUFFER_BYTES = 1 << 20;
+
+      private final FileChannel channel;
+      private final ByteBuffer block = ByteBuffer.allocate(BUFFER_BYTES);
+      private final byte[] bytes = block.array();
+      private int position;
+      private int limit;
+      private boolean endOfFile;
+      private int nextAddress;
+      private int lastAccess;
+      // The current event.
+      private int event = END;
+      private int address;
+      private int length;
+      private int value;
+
+     /**
+      *  Open a trace.
+      *
+      *  @param file a file written by ExecutionTrace
+      *  @throws IOException if it cannot be read, or is not a trace of this version
+      */
+       public ExecutionTraceReader(File file) throws IOException {
+         channel = new FileInputStream(file).getChannel();
+         fill();
+         if (limit - position < 8 || readInt() != ExecutionTrace.MAGIC) {
+            channel.close();
+            throw new IOException("not a MARS execution trace");
+         }
+         if (readInt() != ExecutionTrace.VERSION) {
+            channel.close();
+            throw new IOException("unsupported version of MARS execution trace");
+         }
+      }
+
+     /**
+      *  Move to the next event of the trace.
+      *
+      *  @return the event: INSTRUCTION, LOAD, STORE, or END if there are no more
+      *  @throws IOException if the trace cannot be read, or ends in the middle of a record
+      */
+       public int next() throws IOException {
+         if (limit - position < 20 && !endOfFile) {
+            fill();
+         }
+         if (position == limit) {
+            return event = END;
+         }
+         long head = readVarint();
+         int tag = (int) head & 7;
+         int delta = unzigzag(head >>> ExecutionTrace.TAG_BITS);
+         if (tag == ExecutionTrace.INSTRUCTION_TAG) {
+            address = nextAddress + delta;
+            nextAddress = address + 4;
+            length = 4;
+            value = 0;
+            return event = INSTRUCTION;
+         }
+         address = lastAccess + delta;
+         lastAccess = address;
+         length = (tag & 3) == 3 ? 4 : tag & 3;
+         value = unzigzag(readVarint());
+         return event = ((tag & ExecutionTrace.STORE_TAG) != 0) ? STORE : LOAD;
+      }
+
+     /** Returns the current event, as last returned by next(). */
+       public int getEvent() {
+         return event;
+      }
+
+     /** Returns the address of the instruction, or the effective address of the load or store. */
+       public int getAddress() {
+         return address;
+      }
+
+     /** Returns the bytes loaded or stored: 1, 2 or 4.  4 for an instruction. */
+       public int getLength() {
+         return length;
+      }
+
+     /** Returns the value loaded or stored.  0 for an instruction. */
+       public int getValue() {
+         return value;
+      }
+
+     /**
+      *  Close the trace.
+      *
+      *  @throws IOException if the file cannot be closed
+      */
+       public void close() throws IOException {
+         channel.close();
+      }
+
+      // Move what is left of the block to its start and read more after it.
+       private void fill() throws IOException {
+         block.limit(limit).position(position);
+         block.compact();
+         while (block.hasRemaining()) {
+            if (channel.read(block) < 0) {
+               endOfFile = true;
+               break;
+            }
+         }
+         limit = block.position();
+         position = 0;
+      }
+
+       private int readInt() {
+         int result = 0;
+         for (int i = 0; i < 4; i++) {
+            result = (result << 8) | (bytes[position++] & 0xff);
+         }
+         return result;
+      }
+
+       private long readVarint() throws IOException {
+         long result = 0;
+         for (int shift = 0; shift < 64; shift += 7) {
+            if (position == limit) {
+               throw new IOException("MARS execution trace ends in the middle of a record");
+            }
+            byte b = bytes[position++];
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+               return result;
+            }
+         }
+         throw new IOException("MARS execution trace is corrupt");
+      }
+
+       private static int unzigzag(long zigzag) {
+         int bits = (int) zigzag;
+         return (bits >>> 1) ^ -(bits & 1);
+      }
+   }
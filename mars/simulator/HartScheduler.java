@@ -0,0 +1,308 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import java.util.*;
+
+/**
+ * The hardware threads, or harts, of a program that has started more than one.  Each
+ * hart has its own registers, coprocessors, delayed branch and Simulator (see
+ * Machine.newHart()), runs on a host thread of its own, and shares memory, console and
+ * files with the others.  The first hart, hart 0, is the machine the program was
+ * assembled on; it starts the others with the HartStart syscall.  Once harts are
+ * running, ll and sc keep reservations in Memory, so sc fails if another store to the
+ * word came after the ll.
+ * <p>
+ * Harts are scheduled one of two ways, chosen by Settings.getHartScheduler():
+ * <ul>
+ * <li>PARALLEL: every hart runs whenever its host thread does, so harts really run at
+ * the same time, and a program split among them runs faster on a multi-core host.
+ * Interleavings, and so the outcome of races, differ from run to run.</li>
+ * <li>A seed: one hart runs at a time, for a quantum of 1 to Globals.hartQuantum
+ * instructions, and then a hart chosen at random takes over.  Quanta and choices come
+ * from a java.util.Random with the given seed, so a run with the same seed and input
+ * interleaves the harts the same way every time, races included.</li>
+ * </ul>
+ * The harts run only while hart 0 does: when it pauses, stops at a breakpoint or is
+ * stepped, the others wait for it (with a seed, once the turn comes back to hart 0).
+ * When hart 0's run ends, whether by exit, by running off the end of the program or by
+ * an error, the other harts end with it.  A hart other than 0 ends by returning from the
+ * code it was started at, or with syscall 10; a runtime error in one of them ends hart
+ * 0's run with that error.  Breakpoints and watchpoints apply to hart 0 only, and
+ * backstepping is turned off once a second hart starts.
+ */
+
+    public class HartScheduler {
+
+     /** Value of Settings.getHartScheduler() for harts that run at the same time. */
+      public static final String PARALLEL = "Parallel";
+     /** Bytes of heap given to a hart started without a stack of its own. */
+      public static final int DEFAULT_STACK_BYTES = 64 * 1024;
+
+      // How long a hart waiting in HartJoin sleeps before it looks again, in parallel mode
+      // (it is woken as soon as any hart ends).
+      private static final int JOIN_POLL_MILLISECONDS = 10;
+
+      private static class Hart {
+         Machine machine;
+         Simulator.SimThread thread;  // null for hart 0, which is run by whoever started it
+         boolean finished;
+         int joining = -1;            // hart it is waiting for in HartJoin, or -1
+      }
+
+      private final Machine root;
+      private final ArrayList<Hart> harts = new ArrayList<Hart>();  // by hart number
+      private final Random random;     // null in parallel mode
+      private final int maxQuantum;
+      private int turn = 0;            // with a seed: the hart allowed to run...
+      private long remaining = 0;      // ...and the number of instructions it has left
+      private boolean rootRunning = true;
+      private boolean ended = false;
+      private ProcessingException failure;  // first runtime error of a hart other than 0
+
+      private HartScheduler(Machine root) {
+         this.root = root;
+         String scheduler = Globals.getSettings().getHartScheduler();
+         Random seeded = null;
+         if (!PARALLEL.equalsIgnoreCase(scheduler)) {
+            try {
+               seeded = new Random(Long.parseLong(scheduler.trim()));
+            }
+                catch (NumberFormatException e) {
+                  seeded = new Random(0);
+               }
+         }
+         random = seeded;
+         maxQuantum = Math.max(1, Globals.hartQuantum);
+         Hart first = new Hart();
+         first.machine = root;
+         harts.add(first);
+      }
+
+     /**
+      *  Start a new hart running at the given address, on the harts of the machine the
+      *  calling thread works on.  The first call turns on ll/sc reservations and sets up
+      *  the scheduler.  The new hart's $a0 holds the argument, $sp the given stack top,
+      *  $gp that of the calling hart, and $ra an address in the text segment that holds no
+      *  instruction, so returning ends the hart.  Called by the HartStart syscall, from the
+      *  simulator thread of the calling hart.
+      *
+      *  @param address address of the first instruction of the new hart
+      *  @param argument value for its $a0
+      *  @param stackTop value for its $sp, or 0 to give it DEFAULT_STACK_BYTES from the heap
+      *  @return number of the new hart
+      *  @throws IllegalArgumentException if the heap has no room for the stack
+      */
+       public static int startHart(final int address, final int argument, int stackTop) {
+         Machine caller = Machine.current();
+         HartScheduler scheduler = caller.getHarts();
+         if (scheduler == null) {
+            scheduler = new HartScheduler(caller);
+            caller.getMemory().setReservationsEnabled(true);
+            caller.setHarts(scheduler);
+         }
+         if (stackTop == 0) {
+            stackTop = caller.getMemory().allocateBytesFromHeap(DEFAULT_STACK_BYTES) + DEFAULT_STACK_BYTES;
+         }
+         final int stackPointer = stackTop;
+         final int globalPointer = RegisterFile.getValue(RegisterFile.GLOBAL_POINTER_REGISTER);
+         final int returnAddress = Memory.textLimitAddress - Instruction.INSTRUCTION_LENGTH;
+         Hart hart = new Hart();
+         synchronized (scheduler) {
+            hart.machine = caller.newHart(scheduler.harts.size());
+            hart.machine.run(
+                  new Runnable() {
+                      public void run() {
+                        RegisterFile.updateRegister(4, argument);
+                        RegisterFile.updateRegister(RegisterFile.STACK_POINTER_REGISTER, stackPointer);
+                        RegisterFile.updateRegister(RegisterFile.GLOBAL_POINTER_REGISTER, globalPointer);
+                        RegisterFile.updateRegister(31, returnAddress);
+                     }
+                  });
+            scheduler.harts.add(hart);
+            // Its thread waits for the scheduler, so it cannot run before this returns.
+            hart.thread = hart.machine.getSimulator().startHart(address);
+         }
+         return hart.machine.getHartId();
+      }
+
+     /**
+      *  Determine whether the given hart is done, for the HartJoin syscall.  If not, the
+      *  calling hart is taken to be waiting for it: it will execute the syscall again
+      *  after the other harts have had their turn.
+      *
+      *  @param hartId number of the hart to wait for
+      *  @return true if that hart has ended
+      *  @throws IllegalArgumentException if there is no such hart, or it is the caller
+      */
+       public synchronized boolean join(int hartId) {
+         int caller = Machine.current().getHartId();
+         if (hartId < 0 || hartId >= harts.size() || hartId == caller) {
+            throw new IllegalArgumentException("invalid hart number "+hartId);
+         }
+         Hart hart = harts.get(caller);
+         if (harts.get(hartId).finished) {
+            hart.joining = -1;
+            return true;
+         }
+         hart.joining = hartId;
+         return false;
+      }
+
+     /**
+      *  End all harts but hart 0 and wait for their threads to finish, then turn off
+      *  reservations.  Done when hart 0's run ends, and before a program is assembled
+      *  again on the same machine.
+      */
+       public void end() {
+         ArrayList<Hart> others;
+         synchronized (this) {
+            if (ended) {
+               return;
+            }
+            ended = true;
+            notifyAll();
+            others = new ArrayList<Hart>(harts.subList(1, harts.size()));
+         }
+         for (int i = 0; i < others.size(); i++) {
+            others.get(i).thread.setStop(null);
+         }
+         for (int i = 0; i < others.size(); i++) {
+            others.get(i).thread.get();
+         }
+         root.getMemory().setReservationsEnabled(false);
+         root.setHarts(null);
+      }
+
+     /**
+      *  Wait until the given hart may run, and tell it for how many instructions.  Called
+      *  by its simulator thread before each batch of instructions, without holding its
+      *  machine's lock.
+      *
+      *  @param hartId the hart about to run
+      *  @param batch the most instructions it would run otherwise
+      *  @return the most instructions it may run now, at least 1; or 0 if it must end its
+      *  run, because the harts have ended or, for hart 0, another hart failed
+      */
+       synchronized int beginQuantum(int hartId, int batch) {
+         Hart hart = harts.get(hartId);
+         if (hartId == 0 && !rootRunning) {
+            rootRunning = true;
+            notifyAll();
+         }
+         try {
+            while (true) {
+               if (ended || (hartId == 0 && failure != null)) {
+                  return 0;
+               }
+               if (random == null) {
+                  if (hartId != 0 && !rootRunning) {
+                     wait();
+                  }
+                  else if (hart.joining >= 0 && !harts.get(hart.joining).finished) {
+                     // Sleep, but run again even if nothing changed: a stop request only
+                     // shows up when the hart executes something.
+                     wait(JOIN_POLL_MILLISECONDS);
+                     return 1;
+                  }
+                  else {
+                     return batch;
+                  }
+               }
+               else if (turn == hartId) {
+                  if (remaining <= 0) {
+                     remaining = 1 + random.nextInt(maxQuantum);
+                  }
+                  return (int) Math.min(batch, remaining);
+               }
+               else {
+                  wait();
+               }
+            }
+         }
+             catch (InterruptedException e) {
+               return 0;
+            }
+      }
+
+     /**
+      *  Account for the instructions the given hart ran since beginQuantum().  With a seed,
+      *  the turn passes on if its quantum is used up or it asked to yield.
+      *
+      *  @param hartId the hart that ran
+      *  @param executed number of instructions it executed
+      *  @param yielded true if it is waiting for something only other harts can do
+      */
+       synchronized void endQuantum(int hartId, long executed, boolean yielded) {
+         if (random != null && turn == hartId) {
+            remaining -= executed;
+            if (remaining <= 0 || yielded) {
+               passTurn();
+            }
+         }
+      }
+
+     /**
+      *  Note that the given hart's run has ended.  For hart 0 that is the end of the whole
+      *  program if it is done, and otherwise a pause that the other harts wait out.  Any
+      *  other hart is finished for good.  Called by its simulator thread as the run ends.
+      *
+      *  @param hartId the hart
+      *  @param executed number of instructions it executed since beginQuantum()
+      *  @param done true if the program ended, rather than paused
+      *  @param error the runtime error that ended it, or null
+      */
+       void stopped(int hartId, long executed, boolean done, ProcessingException error) {
+         synchronized (this) {
+            Hart hart = harts.get(hartId);
+            if (hartId == 0) {
+               rootRunning = false;
+            }
+            else {
+               hart.finished = true;
+               if (error != null && failure == null) {
+                  failure = error;
+               }
+            }
+            if (random != null && turn == hartId) {
+               remaining -= executed;
+               if (remaining <= 0 || hart.finished) {
+                  passTurn();
+               }
+            }
+            notifyAll();
+         }
+         if (hartId == 0 && done) {
+            end();
+         }
+      }
+
+     /**
+      *  Returns the runtime error that ended a hart other than 0, for hart 0 to end with.
+      *
+      *  @return the first such error, or null if there was none
+      */
+       synchronized ProcessingException getFailure() {
+         return failure;
+      }
+
+      // Give the turn to a hart chosen at random among those not finished, for a quantum
+   	// of random length.  Hart 0 is never finished while the harts are running.
+       private void passTurn() {
+         int live = 0;
+         for (int i = 0; i < harts.size(); i++) {
+            if (!harts.get(i).finished) {
+               live++;
+            }
+         }
+         int chosen = random.nextInt(live);
+         for (int i = 0; i < harts.size(); i++) {
+            if (!harts.get(i).finished && chosen-- == 0) {
+               turn = i;
+               break;
+            }
+         }
+         remaining = 1 + random.nextInt(maxQuantum);
+         notifyAll();
+      }
+   }
@@ -0,0 +1,124 @@
+   package mars.simulator;
+   import mars.*;
+
+/**
+ * How a run from the command line ended, as returned by
+ * Simulator.simulate(MIPSprogram, int, ExecutionBudget, int[]): why it stopped, how many
+ * instructions it executed and how long that took, and the exit code of the program.
+ * toJson() gives it as one line of JSON, for the json option of MarsLaunch.
+ */
+
+    public class RunResult {
+
+      // Names of Simulator's reasons for a run to end, by value.
+      private static final String[] REASON_NAMES = {"UNKNOWN", "BREAKPOINT", "EXCEPTION", "MAX_STEPS",
+             "NORMAL_TERMINATION", "CLIFF_TERMINATION", "PAUSE_OR_STOP", "WATCHPOINT", "TIME_LIMIT", "OUTPUT_LIMIT"};
+
+      private final int reason;
+      private final boolean done;
+      private final long instructions;
+      private final long elapsedNanoseconds;
+      private final int exitCode;
+      private final ProcessingException error;
+
+     /**
+      *  Create the result of a run.
+      *
+      *  @param reason why it ended, e.g. Simulator.NORMAL_TERMINATION
+      *  @param done true if the program ended, false if it was stopped and could go on
+      *  @param instructions number of instructions executed
+      *  @param elapsedNanoseconds time the run took
+      *  @param exitCode exit code of the program
+      *  @param error the runtime error that ended it, or null
+      */
+       public RunResult(int reason, boolean done, long instructions, long elapsedNanoseconds, int exitCode, ProcessingException error) {
+         this.reason = reason;
+         this.done = done;
+         this.instructions = instructions;
+         this.elapsedNanoseconds = elapsedNanoseconds;
+         this.exitCode = exitCode;
+         this.error = error;
+      }
+
+     /** Returns why the run ended: Simulator.NORMAL_TERMINATION, MAX_STEPS, TIME_LIMIT, etc. */
+       public int getReason() {
+         return reason;
+      }
+
+     /** Returns the name of the Simulator constant getReason() returns, e.g. "MAX_STEPS". */
+       public String getReasonName() {
+         return (reason > 0 && reason < REASON_NAMES.length) ? REASON_NAMES[reason] : REASON_NAMES[0];
+      }
+
+     /** Returns true if the program ended, false if it was stopped and could go on. */
+       public boolean isDone() {
+         return done;
+      }
+
+     /** Returns the number of instructions executed in the run. */
+       public long getInstructions() {
+         return instructions;
+      }
+
+     /** Returns the time the run took, in milliseconds. */
+       public double getElapsedMilliseconds() {
+         return elapsedNanoseconds / 1e6;
+      }
+
+     /** Returns the instructions executed per second of the run, or 0 if it took no time. */
+       public long getInstructionsPerSecond() {
+         return (elapsedNanoseconds > 0) ? (long) (instructions * 1e9 / elapsedNanoseconds) : 0;
+      }
+
+     /** Returns the exit code of the program: that of syscall 17, else 0. */
+       public int getExitCode() {
+         return exitCode;
+      }
+
+     /** Returns the runtime error that ended the run, or null. */
+       public ProcessingException getError() {
+         return error;
+      }
+
+     /**
+      *  Returns the result as a JSON object on one line, with the fields reason, done,
+      *  instructions, elapsedMilliseconds, instructionsPerSecond, exitCode and, if the run
+      *  ended in error, error.
+      */
+       public String toJson() {
+         StringBuffer json = new StringBuffer("{");
+         json.append("\"reason\":\"").append(getReasonName()).append("\"");
+         json.append(",\"done\":").append(done);
+         json.append(",\"instructions\":").append(instructions);
+         json.append(",\"elapsedMilliseconds\":").append(String.format(java.util.Locale.ROOT, "%.3f", getElapsedMilliseconds()));
+         json.append(",\"instructionsPerSecond\":").append(getInstructionsPerSecond());
+         json.append(",\"exitCode\":").append(exitCode);
+         if (error != null && error.errors() != null) {
+            json.append(",\"error\":\"");
+            appendEscaped(json, error.errors().generateErrorReport().trim());
+            json.append("\"");
+         }
+         return json.append("}").toString();
+      }
+
+       private static void appendEscaped(StringBuffer json, String text) {
+         for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+               json.append('\\').append(c);
+            }
+            else if (c == '\n') {
+               json.append("\\n");
+            }
+            else if (c == '\t') {
+               json.append("\\t");
+            }
+            else if (c < ' ') {
+               json.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+               json.append(c);
+            }
+         }
+      }
+   }
@@ -5,6 +5,7 @@
    import mars.mips.hardware.*;
    import mars.mips.instructions.*;
    import java.util.*;
+   import java.util.concurrent.atomic.*;
    import javax.swing.*;
    import java.awt.event.*;
 	
@@ -37,21 +38,273 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 	
 /**
- * Used to simulate the execution of an assembled MIPS program.
+ * Used to simulate the execution of an assembled MIPS program.  Each mars.Machine has
+ * its own Simulator, which runs programs on that machine's memory and registers.
+ * getInstance() and the other static methods go to the Simulator of the machine the
+ * calling thread works on.
  * @author Pete Sanderson
  * @version August 2005
  **/
 
     public class Simulator extends Observable {
       private SimThread simulatorThread;
-      private static Simulator simulator = null;  // Singleton object
-      private static Runnable interactiveGUIUpdater = null;
-      // Others can set this true to indicate external interrupt.  Initially used
+      private final Machine machine;
+      private Runnable interactiveGUIUpdater = null;
+      // Others can set this to indicate external interrupt.  Initially used
    	// to simulate keyboard and display interrupts.  The device is identified
    	// by the address of its MMIO control register.  keyboard 0xFFFF0000 and
    	// display 0xFFFF0008.  DPS 23 July 2008.
+   	// Set it through raiseExternalInterrupt(), which also gets the simulator's attention.
       public static final int NO_DEVICE = 0;
-      public static volatile int externalInterruptingDevice = NO_DEVICE;
+      private volatile int externalInterruptingDevice = NO_DEVICE;
+      // While running, the simulator holds its machine's lock (Globals.memoryAndRegistersLock
+   	// for the default machine) for up to this many instructions at a time.  Set by others
+   	// (see requestSafepoint) to have the simulator release the lock at the next instruction
+   	// boundary.  The system property mars.lockBatchSize overrides it, for
+   	// benchmarks/lockbatch.sh to compare batch sizes.
+      public static final int LOCK_BATCH_SIZE = Math.max(1, Integer.getInteger("mars.lockBatchSize", 1000).intValue());
+   	
+      // Everything another thread may ask of a running simulation is flagged in this one
+   	// word, so that after each instruction the simulator reads a single variable and
+   	// looks further only if it is not zero.
+      private static final int STOP_REQUESTED = 1;
+      private static final int INTERRUPT_REQUESTED = 2;
+      private static final int SAFEPOINT_REQUESTED = 4;
+      private static final int RUN_SPEED_CHANGED = 8;
+      private static final int WATCHPOINT_REACHED = 16;
+      private static final int YIELD_REQUESTED = 32;
+      private static final int BUDGET_EXHAUSTED = 64;
+      private final AtomicInteger attention = new AtomicInteger(0);
+   	
+      // Threads that have called requestSafepoint() but not yet safepointTaken(), guarded
+   	// by safepointMonitor.  After a safepoint the simulator waits for them to take the lock,
+   	// for at most SAFEPOINT_HANDOFF_MILLIS so that a requester that never arrives cannot
+   	// hold up the run.
+      private static final long SAFEPOINT_HANDOFF_MILLIS = 100;
+      private final Object safepointMonitor = new Object();
+      private int safepointWaiters = 0;
+   	
+      // Number of instructions executed since the program was assembled, less those undone
+   	// by backstepping.  Checkpoints are taken and found by it.
+      long instructionCount = 0;
+      // Set while the Checkpointer executes forward from a checkpoint.  The run is then
+   	// neither slowed down for the GUI nor reported to observers.
+      private volatile boolean replaying = false;
+      // The pending delayed branch and the settings of the run in progress, for
+   	// DelayedBranch and ExecutionConfig.  The latter is null outside a run; it is
+   	// written and read on the simulator thread, so it is deliberately not volatile.
+      final DelayedBranch delayedBranch = new DelayedBranch();
+      ExecutionConfig executionConfig = null;
+      // The settings ExecutionConfig last captured outside a run.  Any thread may replace
+   	// it; its fields are final, so a stale read only costs another capture.
+      ExecutionConfig idleExecutionConfig = null;
+      // Counts the instructions executed in each run, if set.  Read as a run starts.
+      private volatile ExecutionProfile profile = null;
+      // The profile of the run in progress, told of its calls and returns.  Written and
+   	// read on the simulator thread, so not volatile.
+      private ExecutionProfile runProfile = null;
+      // Records the instructions, loads and stores of each run, if set.  Read as a run starts.
+      private volatile ExecutionTrace trace = null;
+   	
+      /**
+   	 * Returns the number of instructions executed since the program was assembled, less
+   	 * any undone by backstepping.  Going back to a checkpoint sets it back as well.
+   	 *
+   	 * @return number of instructions executed
+   	 */
+       public static long getInstructionCount() {
+         return getInstance().instructionCount;
+      }
+   	
+      /**
+   	 * Start the execution state kept outside the machine state over, for a program
+   	 * freshly assembled or reset: the instruction count, any pending delayed branch
+   	 * and the log of console input.
+   	 */
+       public void resetExecutionState() {
+         instructionCount = 0;
+         DelayedBranch.clear();
+         SystemIO.clearInputLog();
+      }
+   	
+      /**
+   	 * Sets the profile that counts the instructions this Simulator executes from its
+   	 * next run on.  Takes effect when a run starts, so a paused program is profiled once
+   	 * it resumes.
+   	 *
+   	 * @param profile the profile, or null to stop profiling
+   	 */
+       public void setProfile(ExecutionProfile profile) {
+         this.profile = profile;
+      }
+   	
+      /**
+   	 * Returns the profile that counts the instructions this Simulator executes.
+   	 *
+   	 * @return the profile, or null if there is none
+   	 */
+       public ExecutionProfile getProfile() {
+         return profile;
+      }
+   	
+      /**
+   	 * Sets the trace that records the instructions this Simulator executes, and their
+   	 * loads and stores, from its next run on.  Takes effect when a run starts.  Set it
+   	 * back to null before closing the trace.
+   	 *
+   	 * @param trace the trace, or null to stop tracing
+   	 */
+       public void setTrace(ExecutionTrace trace) {
+         this.trace = trace;
+      }
+   	
+      /**
+   	 * Returns the trace that records the instructions this Simulator executes.
+   	 *
+   	 * @return the trace, or null if there is none
+   	 */
+       public ExecutionTrace getTrace() {
+         return trace;
+      }
+   	
+      /**
+   	 * Tells the profile of the running program, if any, that the instruction being
+   	 * executed calls a function that is to return to the given address.  Called by
+   	 * InstructionSet.processReturnAddress(), for the "and link" instructions.
+   	 *
+   	 * @param returnAddress address the function is to return to
+   	 */
+       public static void noteCall(int returnAddress) {
+         Simulator simulator = getInstance();
+         if (simulator.runProfile != null) {
+            simulator.runProfile.call(returnAddress, simulator.instructionCount, ExecutionConfig.get().delayedBranching);
+         }
+      }
+   	
+      /**
+   	 * Tells the profile of the running program, if any, that the instruction being
+   	 * executed jumps to the address in $ra, which returns from a call to that address.
+   	 * Called by InstructionSet.processJumpRegister(), for jr.
+   	 *
+   	 * @param address address jumped to
+   	 */
+       public static void noteReturn(int address) {
+         Simulator simulator = getInstance();
+         if (simulator.runProfile != null) {
+            simulator.runProfile.jumpToReturnAddress(address, simulator.instructionCount);
+         }
+      }
+   	
+      /**
+   	 * Asks a running simulation to release its machine's lock at the next
+   	 * instruction boundary.  A thread other than the simulator should call this just
+   	 * before synchronizing on that lock, so it does not have to wait for the rest of
+   	 * the current batch of instructions, and then call safepointTaken() first thing
+   	 * once it holds the lock.  The simulator does not take the lock back until then.
+   	 */
+       public static void requestSafepoint() {
+         Simulator simulator = getInstance();
+         synchronized (simulator.safepointMonitor) {
+            simulator.safepointWaiters++;
+         }
+         simulator.raiseAttention(SAFEPOINT_REQUESTED);
+      }
+   	
+      /**
+   	 * Tells the simulator that a thread which called requestSafepoint() now holds the
+   	 * machine's lock, so that the simulator may wait for it again.
+   	 */
+       public static void safepointTaken() {
+         Simulator simulator = getInstance();
+         synchronized (simulator.safepointMonitor) {
+            if (simulator.safepointWaiters > 0) {
+               simulator.safepointWaiters--;
+            }
+            simulator.safepointMonitor.notifyAll();
+         }
+      }
+   	
+      // Called by the simulator with the lock released: lets every thread that asked for a
+   	// safepoint take the lock before the next batch competes for it.
+       private void awaitSafepointHandoff() {
+         long deadline = System.currentTimeMillis() + SAFEPOINT_HANDOFF_MILLIS;
+         synchronized (safepointMonitor) {
+            while (safepointWaiters > 0) {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0) {
+                  return;
+               }
+               try {
+                  safepointMonitor.wait(remaining);
+               } 
+                   catch (InterruptedException e) {
+                     return;
+                  }
+            }
+         }
+      }
+   	
+      /**
+   	 * Signals an external interrupt from the given device.  The running simulation
+   	 * takes it before executing its next instruction.
+   	 *
+   	 * @param device address of the device's MMIO control register, e.g.
+   	 *  Exceptions.EXTERNAL_INTERRUPT_KEYBOARD
+   	 */
+       public static void raiseExternalInterrupt(int device) {
+         Simulator simulator = getInstance();
+         simulator.externalInterruptingDevice = device;
+         simulator.raiseAttention(INTERRUPT_REQUESTED);
+      }
+   	
+      /**
+   	 * Tells a running simulation that the run speed setting has changed, so it
+   	 * re-reads it at the next instruction boundary.  Called by RunSpeedPanel.
+   	 */
+       public static void runSpeedChanged() {
+         getInstance().raiseAttention(RUN_SPEED_CHANGED);
+      }
+   	
+      /**
+   	 * Tells a running simulation that the instruction it is executing has reached a
+   	 * watchpoint, so that it stops once the instruction is done.  Called by Memory, which
+   	 * keeps the details (see Memory.getWatchpointHit()).
+   	 */
+       public static void watchpointReached() {
+         getInstance().raiseAttention(WATCHPOINT_REACHED);
+      }
+   	
+      /**
+   	 * Tells the running hart to end its turn once the instruction it is executing is
+   	 * done, since it started another hart or waits for one (see HartScheduler).  Called
+   	 * by the HartStart and HartJoin syscalls.
+   	 */
+       public static void requestYield() {
+         getInstance().raiseAttention(YIELD_REQUESTED);
+      }
+   	
+      /**
+   	 * Tells a running simulation that its ExecutionBudget has run out of time or output,
+   	 * so that it stops once the instruction it is executing is done.  Called by the budget.
+   	 */
+       void budgetExhausted() {
+         raiseAttention(BUDGET_EXHAUSTED);
+      }
+   	
+       private void raiseAttention(int flag) {
+         int current;
+         do {
+            current = attention.get();
+         } while (!attention.compareAndSet(current, current | flag));
+      }
+   	
+       private void clearAttention(int flag) {
+         int current;
+         do {
+            current = attention.get();
+         } while (!attention.compareAndSet(current, current & ~flag));
+      }
+   
    	/** various reasons for simulate to end... */
       public static final int BREAKPOINT = 1;
       public static final int EXCEPTION  = 2;
@@ -59,26 +312,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int NORMAL_TERMINATION = 4;
       public static final int CLIFF_TERMINATION = 5; // run off bottom of program
       public static final int PAUSE_OR_STOP = 6;
+      public static final int WATCHPOINT = 7;
+      public static final int TIME_LIMIT = 8;  // of an ExecutionBudget
+      public static final int OUTPUT_LIMIT = 9; // of an ExecutionBudget
    
       /**
-   	 * Returns the Simulator object
+   	 * Returns the Simulator object of the machine the calling thread works on
    	 *
    	 * @return the Simulator object in use
    	 */
        public static Simulator getInstance() {
-         // Do NOT change this to create the Simulator at load time (in declaration above)!
-      	// Its constructor looks for the GUI, which at load time is not created yet,
-      	// and incorrectly leaves interactiveGUIUpdater null!  This causes runtime
-      	// exceptions while running in timed mode.
-         if (simulator==null) {
-            simulator = new Simulator();
-         }
-         return simulator;
+         return Machine.current().getSimulator();
       }
    
-       private Simulator() {
+      /**
+   	 * Creates the Simulator of the given machine.  Called by Machine.getSimulator(),
+   	 * the first time it is needed.  Do NOT create it any earlier, e.g. with the machine!
+   	 * The constructor looks for the GUI, which at load time is not created yet,
+   	 * and would incorrectly leave interactiveGUIUpdater null!  This causes runtime
+   	 * exceptions while running in timed mode.
+   	 *
+   	 * @param machine the machine whose programs this Simulator runs
+   	 */
+       public Simulator(Machine machine) {
+         this.machine = machine;
          simulatorThread = null;
-         if (Globals.getGui() != null) {
+         if (Globals.getGui() != null && machine == Machine.getDefault()) {
             interactiveGUIUpdater = new UpdateGUI();
          } 
       }
@@ -132,6 +391,93 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    		
    
+      /**
+   	 * Simulate execution of the given MIPS program within the given budget, for a run
+   	 * from the command line.  Returns once execution stops, with a RunResult telling
+   	 * why: MAX_STEPS, TIME_LIMIT or OUTPUT_LIMIT if the budget ran out, and EXCEPTION
+   	 * for a runtime error, which is not thrown but returned in the result.
+   	 *
+   	 * @param p The MIPSprogram to be simulated.
+   	 * @param pc address of first instruction to simulate; this goes into program counter
+   	 * @param budget limits on the run, or null for none
+   	 * @param breakPoints array of breakpoint program counter values, use null if none
+   	 * @return how the run ended
+   	 */
+       public RunResult simulate(MIPSprogram p, int pc, ExecutionBudget budget, int[] breakPoints) {
+         SimThread thread = new SimThread(p, pc, -1, breakPoints, null);
+         thread.budget = budget;
+         long firstInstruction = instructionCount;
+         if (budget != null) {
+            SystemIO.setExecutionBudget(budget);
+         }
+         try {
+            simulatorThread = thread;
+            thread.start();
+            thread.get();
+         } 
+         finally {
+            simulatorThread = null;
+            if (budget != null) {
+               budget.finish();
+               SystemIO.setExecutionBudget(null);
+            }
+         }
+         if (thread.done) {
+            SystemIO.resetFiles(); // close any files opened in MIPS program
+         }
+         return new RunResult(thread.constructReturnReason, thread.done, instructionCount - firstInstruction,
+                              thread.elapsedTime, machine.getExitCode(), thread.pe);
+      }
+   
+      /**
+   	 * Execute the program forward from the current program counter, for the Checkpointer.
+   	 * Like simulate() with no actor, this returns once execution stops, but the run is
+   	 * not slowed down by the run speed setting, observers are not told of it, and console
+   	 * output is not shown (see SystemIO.setReplaying()).
+   	 *
+   	 * @param p The MIPSprogram to be simulated.
+   	 * @param maxSteps maximum number of steps to perform
+   	 * @param breakPoints array of breakpoint program counter values, use null if none
+   	 * @param watchpoints whether to stop at watchpoints
+   	 * @return the reason execution stopped: BREAKPOINT, WATCHPOINT, MAX_STEPS, NORMAL_TERMINATION, etc.
+   	 * @throws ProcessingException Throws exception if run-time exception occurs.
+   	 */
+       int replay(MIPSprogram p, int maxSteps, int[] breakPoints, boolean watchpoints) throws ProcessingException {
+         SimThread thread = new SimThread(p, RegisterFile.getProgramCounter(), maxSteps, breakPoints, null);
+         thread.watching = watchpoints;
+         replaying = true;
+         SystemIO.setReplaying(true);
+         try {
+            simulatorThread = thread;
+            thread.start();
+            thread.get();
+         } 
+         finally {
+            simulatorThread = null;
+            replaying = false;
+            SystemIO.setReplaying(false);
+         }
+         if (thread.pe != null) {
+            throw thread.pe;
+         }
+         return thread.constructReturnReason;
+      }
+   
+      /**
+   	 * Start running a hart other than hart 0 from the given address, on a thread of its
+   	 * own, and return at once.  For HartScheduler, which stops the thread and waits for it.
+   	 *
+   	 * @param pc address of first instruction to simulate
+   	 * @return the thread
+   	 */
+       SimThread startHart(int pc) {
+         SimThread thread = new SimThread(null, pc, -1, null, null);
+         thread.watching = false;
+         simulatorThread = thread;
+         thread.start();
+         return thread;
+      }
+   
        /**
    	  *  Set the volatile stop boolean variable checked by the execution
    	  *  thread at the end of each MIPS instruction execution.  If variable
@@ -175,12 +521,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // by Stop button, by Pause button, by Step button, by runtime exception, by
    	 // instruction count limit, by breakpoint, or by end of simulation (truly done).
        private void notifyObserversOfExecutionStart(int maxSteps, int programCounter) {
+         if (replaying) {
+            return;
+         }
          this.setChanged();
          this.notifyObservers(new SimulatorNotice(SimulatorNotice.SIMULATOR_START,
             maxSteps, RunSpeedPanel.getInstance().getRunSpeed(), programCounter) );
       }
    
        private void notifyObserversOfExecutionStop(int maxSteps, int programCounter) {
+         if (replaying) {
+            return;
+         }
          this.setChanged();
          this.notifyObservers(new SimulatorNotice(SimulatorNotice.SIMULATOR_STOP,
             maxSteps, RunSpeedPanel.getInstance().getRunSpeed(), programCounter) );
@@ -200,13 +552,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        class SimThread extends SwingWorker {
          private MIPSprogram p;
          private int pc, maxSteps;
-         private int[] breakPoints;
+         private BreakpointSet breakpoints;
+         private boolean watching = true;    // whether watchpoints stop this run
          private boolean done;
          private ProcessingException pe;
          private volatile boolean stop = false;
          private volatile AbstractAction stopper;
          private AbstractAction starter;
          private int constructReturnReason;
+         private SimulationCode fetchedCode; // handler for the last fetched statement, null if not pre-decoded
+         private BasicBlock fetchedBlock;    // hot basic block starting at the last fetched statement, or null
+         private ExecutionConfig config;     // settings captured for this run
+         private boolean blockExecution;     // whether fetch() may hand out basic blocks in this run
+         private boolean delayedBranching;   // whether delay slots need handling in this run
+         private boolean throttled;          // run speed below unlimited; re-read on RUN_SPEED_CHANGED
+         private boolean interruptPending;   // INTERRUPT_REQUESTED was seen after the last instruction
+         private Memory memory;              // memory of the machine being run
+         private BackStepper backStepper;    // records changes during this run, or null
+         private Checkpointer checkpointer;  // takes checkpoints during this run, or null
+         private long checkpointDue;         // instruction count at which to take the next one
+         private int hartId;                 // of this Simulator's machine
+         private HartScheduler harts;        // once the program has started harts, else null
+         private long quantumStart;          // instruction count when the current batch began
+         private ExecutionBudget budget;     // limits on this run, or null
+         private long instructionLimit;      // instruction count at which the budget runs out
+         private long startTime;             // System.nanoTime() as the first instruction was fetched
+         private ExecutionProfile profile;   // counts the instructions of this run, or null
+         private ExecutionTrace trace;       // records the instructions of this run, or null
+         long elapsedTime;                   // nanoseconds from then to the end of the run
       
       
          /**
@@ -223,7 +596,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             this.p = p;
             this.pc = pc;
             this.maxSteps = maxSteps;
-            this.breakPoints = breakPoints;
+            this.breakpoints = new BreakpointSet(breakPoints);
             this.done = false;
             this.pe = null;
             this.starter = starter;
@@ -240,18 +613,48 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
           public void setStop(AbstractAction actor) {
             stop = true;
             stopper = actor;
+            raiseAttention(STOP_REQUESTED);
          }
       	
       
       	/**
       	 *  This is comparable to the Runnable "run" method (it is called by
       	 *  SwingWorker's "run" method).  It simulates the program
-      	 *  execution in the backgorund.
+      	 *  execution in the backgorund, on this Simulator's machine, with the
+      	 *  execution settings captured in an ExecutionConfig for the length of
+      	 *  the run.
       	 *
       	 *  @return  boolean value true if execution done, false otherwise
       	 */
       	
           public Object construct() {
+            Machine previous = Machine.bind(machine);
+            config = ExecutionConfig.begin();
+            try {
+               return execute();
+            } 
+            finally {
+               elapsedTime = System.nanoTime() - startTime;
+               if (profile != null) {
+                  profile.finish(instructionCount);
+                  runProfile = null;
+               }
+               if (trace != null) {
+                  memory.setTrace(null);
+               }
+               if (memory != null) {
+                  memory.endWatching();
+               }
+               if (harts != null) {
+                  harts.stopped(hartId, instructionCount - quantumStart, done, pe);
+               }
+               ExecutionConfig.end();
+               Machine.bind(previous);
+            }
+         }
+      	
+      	// The run itself.  Returns as construct() does.
+          private Object execute() {
             // The next two statements are necessary for GUI to be consistently updated
          	// before the simulation gets underway.  Without them, this happens only intermittently,
          	// with a consequence that some simulations are interruptable using PAUSE/STOP and others
@@ -259,19 +662,65 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             Thread.currentThread().setPriority(Thread.NORM_PRIORITY-1);
             Thread.yield();  // let the main thread run a bit to finish updating the GUI
          	
-            if (breakPoints == null || breakPoints.length == 0) {
-               breakPoints = null;
-            } 
-            else {
-               Arrays.sort(breakPoints);  // must be pre-sorted for binary search
+            notifyObserversOfExecutionStart(maxSteps, pc);
+         	
+            // Running a block skips the per-instruction checks below, so only do it when none
+            // of them can matter: no step limit.  A block stops short of any breakpoint and
+            // of anything flagged in the attention word, and records backsteps as it goes.
+            // Observers and run speed can change during the run and are checked by fetch().
+            blockExecution = Globals.getSettings().getBooleanSetting(Settings.BLOCK_EXECUTION_ENABLED)
+                          && maxSteps <= 0;
+            // A stop request left over from an earlier run does not apply to this one.
+            // An interrupt raised before the run is taken by its first instruction.
+            clearAttention(STOP_REQUESTED | RUN_SPEED_CHANGED | WATCHPOINT_REACHED | YIELD_REQUESTED | BUDGET_EXHAUSTED);
+            memory = machine.getMemory();
+            hartId = machine.getHartId();
+            if (hartId == 0) {
+               memory.beginWatching();
+            }
+            if (stop) {
+               raiseAttention(STOP_REQUESTED);
+            }
+            // The budget's clock starts now, so that the time taken by observers and the
+            // GUI to see the run begin is not spent from it.
+            if (budget != null) {
+               budget.start(Simulator.this);
+            }
+            instructionLimit = (budget != null && budget.getMaxInstructions() > 0)
+                             ? instructionCount + budget.getMaxInstructions() : Long.MAX_VALUE;
+            // Instructions executed again from a checkpoint were counted and traced the first time.
+            profile = (replaying) ? null : Simulator.this.profile;
+            if (profile != null) {
+               profile.prepare(memory.getDecodedProgram(), pc, instructionCount);
+            }
+            runProfile = profile;
+            trace = (replaying) ? null : Simulator.this.trace;
+            if (trace != null) {
+               trace.start();
+               memory.setTrace(trace);
+            }
+            throttled = !replaying && !unthrottled();
+            interruptPending = true;
+            // Checkpoints go with backstepping: both are for going back, in the IDE.
+            backStepper = (config.backstepping) ? machine.getProgram().getBackStepper() : null;
+            checkpointer = (config.backstepping) ? machine.getProgram().getCheckpointer() : null;
+            checkpointDue = (checkpointer == null) ? Long.MAX_VALUE : checkpointer.getNextCheckpoint();
+            // A branch left pending in a delay slot is still honored if delayed branching
+            // was turned off while paused.
+            delayedBranching = config.delayedBranching || DelayedBranch.isRegistered() || DelayedBranch.isTriggered();
+            quantumStart = instructionCount;
+            if (machine.getHarts() != null) {
+               useHarts(machine.getHarts());
             }
             
-            Simulator.getInstance().notifyObserversOfExecutionStart(maxSteps, pc);
-         	
             RegisterFile.initializeProgramCounter(pc);
+            startTime = System.nanoTime();
+            if (instructionCount >= checkpointDue) {
+               checkpointDue = checkpointer.checkpoint();
+            }
             ProgramStatement statement = null;
             try {
-               statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
+               statement = fetch(RegisterFile.getProgramCounter());
             } 
                 catch (AddressErrorException e) {
                   ErrorList el = new ErrorList();
@@ -284,8 +733,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Coprocessor0.updateRegister(Coprocessor0.EPC, RegisterFile.getProgramCounter());
                   this.constructReturnReason = EXCEPTION;
                   this.done = true;
-                  SystemIO.resetFiles(); // close any files opened in MIPS program
-                  Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                  closeFiles(); // close any files opened in MIPS program
+                  notifyObserversOfExecutionStop(maxSteps, pc);
                   return new Boolean(done);
                }
             int steps = 0;
@@ -323,141 +772,285 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             int pc = 0;  // added: 7/26/06 (explanation above)
          
             while (statement != null) {
-               pc = RegisterFile.getProgramCounter(); // added: 7/26/06 (explanation above)
-               RegisterFile.incrementPC();           	
             	// Perform the MIPS instruction in synchronized block.  If external threads agree
             	// to access MIPS memory and registers only through synchronized blocks on same 
             	// lock variable, then full (albeit heavy-handed) protection of MIPS memory and 
             	// registers is assured.  Not as critical for reading from those resources.
-               synchronized (Globals.memoryAndRegistersLock) {
-                  try {                      
-                     if (Simulator.externalInterruptingDevice != NO_DEVICE) {
-                        int deviceInterruptCode = externalInterruptingDevice;
-                        Simulator.externalInterruptingDevice = NO_DEVICE;
-                        throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
+            	// The lock is held across a batch of instructions rather than taken for each one.
+            	// A thread that wants it during the run calls requestSafepoint() first, which ends
+            	// the current batch at the next instruction boundary, and safepointTaken() once it
+            	// holds the lock, which the simulator waits for.  Batches are a single
+            	// instruction when the run is throttled, so that the GUI sees every step.
+               // With harts, the HartScheduler says when this one may run and for how long.
+               int batch = (throttled) ? 1 : LOCK_BATCH_SIZE;
+               if (harts != null) {
+                  batch = harts.beginQuantum(hartId, batch);
+                  if (batch == 0) {
+                     return endWithHarts(pc);
+                  }
+                  quantumStart = instructionCount;
+               }
+               // Observers hear of the stop after the lock is released, so that one may
+               // take the lock without waiting on the simulator.
+               boolean stopped = false;
+               synchronized (machine.getLock()) {
+                  while (true) {
+                     pc = RegisterFile.getProgramCounter(); // added: 7/26/06 (explanation above)
+                     RegisterFile.incrementPC();
+                     instructionCount++;
+                     if (profile != null) {
+                        profile.count(pc);
                      }
-                     BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
-                     if (instruction == null) {
-                        throw new ProcessingException(statement,
-                            "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
-                            Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                     if (trace != null) {
+                        trace.instruction(pc);
                      }
-                     // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
-                     instruction.getSimulationCode().simulate(statement);
+                     try {                      
+                        if (interruptPending) {
+                           interruptPending = false;
+                           clearAttention(INTERRUPT_REQUESTED);
+                           int deviceInterruptCode = externalInterruptingDevice;
+                           externalInterruptingDevice = NO_DEVICE;
+                           if (deviceInterruptCode != NO_DEVICE) {
+                              throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
+                           }
+                        }
+                        SimulationCode code = fetchedCode;
+                        if (code == null) {
+                           BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
+                           if (instruction == null) {
+                              throw new ProcessingException(statement,
+                                  "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                                  Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                           }
+                           code = instruction.getSimulationCode();
+                        }
+                        // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
+                        code.simulate(statement);
                   	
-                  	// IF statement added 7/26/06 (explanation above)
-                     if (Globals.getSettings().getBackSteppingEnabled()) {
-                        Globals.program.getBackStepper().addDoNothing(pc);
-                     }
-                  } 
-                      catch (ProcessingException pe) {
-                        if (pe.errors() == null) {
-                           this.constructReturnReason = NORMAL_TERMINATION;
-                           this.done = true;
-                           SystemIO.resetFiles(); // close any files opened in MIPS program
-                           Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                           return new Boolean(done); // execution completed without error.
-                        } 
-                        else {
-                           // See if an exception handler is present.  Assume this is the case
-                        	// if and only if memory location Memory.exceptionHandlerAddress
-                        	// (e.g. 0x80000180) contains an instruction.  If so, then set the
-                        	// program counter there and continue.  Otherwise terminate the
-                        	// MIPS program with appropriate error message.
-                           ProgramStatement exceptionHandler = null;
-                           try {
-                              exceptionHandler = Globals.memory.getStatement(Memory.exceptionHandlerAddress);
-                           } 
-                               catch (AddressErrorException aee) { } // will not occur with this well-known addres
-                           if (exceptionHandler != null) {
-                              RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
+                     	// IF statement added 7/26/06 (explanation above)
+                        if (backStepper != null) {
+                           backStepper.addDoNothing(pc);
+                        }
+                     
+                        // If the statement starts a hot basic block, run the rest of the block here
+                        // for as long as control flows sequentially, no delayed branch is pending,
+                        // the next instruction has no breakpoint, nothing needs attention and the
+                        // budget has instructions left.
+                        // The checks below then apply to the last instruction run.
+                        BasicBlock block = fetchedBlock;
+                        if (block != null) {
+                           for (int i = 1; i < block.length() && block.valid
+                                   && RegisterFile.getProgramCounter() == pc + Instruction.INSTRUCTION_LENGTH
+                                   && (!delayedBranching || (!DelayedBranch.isRegistered() && !DelayedBranch.isTriggered()))
+                                   && !breakpoints.contains(pc + Instruction.INSTRUCTION_LENGTH)
+                                   && attention.get() == 0 && instructionCount < instructionLimit; i++) {
+                              pc += Instruction.INSTRUCTION_LENGTH;
+                              RegisterFile.incrementPC();
+                              instructionCount++;
+                              if (profile != null) {
+                                 profile.count(pc);
+                              }
+                              if (trace != null) {
+                                 trace.instruction(pc);
+                              }
+                              statement = block.statements[i];
+                              block.code[i].simulate(statement);
+                              if (backStepper != null) {
+                                 backStepper.addDoNothing(pc);
+                              }
+                           }
+                        }
+                     } 
+                         catch (ProcessingException pe) {
+                           if (pe.errors() == null) {
+                              this.constructReturnReason = NORMAL_TERMINATION;
+                              this.done = true;
+                              closeFiles(); // close any files opened in MIPS program
+                              stopped = true;
+                              break;
                            } 
                            else {
-                              this.constructReturnReason = EXCEPTION;
-                              this.pe = pe;
-                              this.done = true;
-                              SystemIO.resetFiles(); // close any files opened in MIPS program
-                              Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                              return new Boolean(done);
+                              // See if an exception handler is present.  Assume this is the case
+                           	// if and only if memory location Memory.exceptionHandlerAddress
+                           	// (e.g. 0x80000180) contains an instruction.  If so, then set the
+                           	// program counter there and continue.  Otherwise terminate the
+                           	// MIPS program with appropriate error message.
+                              ProgramStatement exceptionHandler = null;
+                              try {
+                                 exceptionHandler = memory.getStatement(Memory.exceptionHandlerAddress);
+                              } 
+                                  catch (AddressErrorException aee) { } // will not occur with this well-known addres
+                              if (exceptionHandler != null) {
+                                 RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
+                                 if (backStepper != null) {
+                                    backStepper.endInstruction();
+                                 }
+                              } 
+                              else {
+                                 this.constructReturnReason = EXCEPTION;
+                                 this.pe = pe;
+                                 this.done = true;
+                                 closeFiles(); // close any files opened in MIPS program
+                                 stopped = true;
+                                 break;
+                              }
+                           }
+                        }
+            	
+                  	///////// DPS 15 June 2007.  Handle delayed branching if it occurs./////
+                     if (delayedBranching) {
+                        if (DelayedBranch.isTriggered()) {
+                           // Taking the branch is undone with the instruction in the delay slot.
+                           if (backStepper != null) {
+                              backStepper.continueInstruction();
+                           }
+                           RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
+                           if (backStepper != null) {
+                              backStepper.endInstruction();
                            }
+                           DelayedBranch.clear();
+                        } 
+                        else if (DelayedBranch.isRegistered()) {
+                           DelayedBranch.trigger();
                         }
+                     }//////////////////////////////////////////////////////////////////////
+                  
+                  	// A block may run past the due count; the checkpoint records where it was taken.
+                     if (instructionCount >= checkpointDue) {
+                        checkpointDue = checkpointer.checkpoint();
                      }
-               }// end synchronized block
             	
-            	///////// DPS 15 June 2007.  Handle delayed branching if it occurs./////
-               if (DelayedBranch.isTriggered()) {
-                  RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
-                  DelayedBranch.clear();
-               } 
-               else if (DelayedBranch.isRegistered()) {
-                  DelayedBranch.trigger();
-               }//////////////////////////////////////////////////////////////////////
+                  	// Requests from other threads all show up in the attention word, which is
+                  	// zero nearly all the time.  Interrupts are taken before the next instruction;
+                  	// safepoints and run speed changes end the batch after fetching it.
+                     int pending = attention.get();
+                     if (pending != 0) {
+                     	// Volatile variable initialized false but can be set true by the main thread.
+                     	// Used to stop or pause a running MIPS program.  See stopSimulation() above.
+                        if ((pending & STOP_REQUESTED) != 0) {
+                           if (stop == true) { 
+                              this.constructReturnReason = PAUSE_OR_STOP;
+                              this.done = false;
+                              stopped = true;
+                              break;
+                           }
+                           clearAttention(STOP_REQUESTED);  // meant for an earlier run
+                           if (stop) {
+                              raiseAttention(STOP_REQUESTED);
+                           }
+                        }
+                        // The instruction just executed reached a watchpoint.
+                        if ((pending & WATCHPOINT_REACHED) != 0) {
+                           clearAttention(WATCHPOINT_REACHED);
+                           if (watching) {
+                              this.constructReturnReason = WATCHPOINT;
+                              this.done = false;
+                              stopped = true;
+                              break;
+                           }
+                           memory.clearWatchpointHit();
+                        }
+                        // The budget ran out of time or output.
+                        if ((pending & BUDGET_EXHAUSTED) != 0) {
+                           clearAttention(BUDGET_EXHAUSTED);
+                           if (budget != null) {
+                              this.constructReturnReason = budget.getExhaustedReason();
+                              this.done = false;
+                              stopped = true;
+                              break;
+                           }
+                        }
+                        interruptPending = (pending & INTERRUPT_REQUESTED) != 0;
+                     }
+                  	//	Return if we've reached a breakpoint.					
+                     if (breakpoints.contains(RegisterFile.getProgramCounter())) {
+                        this.constructReturnReason = BREAKPOINT;
+                        this.done = false;
+                        stopped = true;
+                        break;
+                     }
+                  	// Check number of MIPS instructions executed.  Return if at limit (-1 is no limit).
+                     if (maxSteps > 0) {
+                        steps++;
+                        if (steps >= maxSteps) {
+                           this.constructReturnReason = MAX_STEPS;
+                           this.done = false;
+                           stopped = true;
+                           break;
+                        }
+                     }
+                     // Likewise at the instruction limit of the budget, counted over all instructions.
+                     if (instructionCount >= instructionLimit) {
+                        this.constructReturnReason = MAX_STEPS;
+                        this.done = false;
+                        stopped = true;
+                        break;
+                     }
             	
-            	// Volatile variable initialized false but can be set true by the main thread.
-            	// Used to stop or pause a running MIPS program.  See stopSimulation() above.
-               if (stop == true) { 
-                  this.constructReturnReason = PAUSE_OR_STOP;
-                  this.done = false;
-                  Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                     // Get next instruction in preparation for next iteration.
+            
+                     try {
+                        statement = fetch(RegisterFile.getProgramCounter());
+                     } 
+                         catch (AddressErrorException e) {
+                           ErrorList el = new ErrorList();
+                           el.add(new ErrorMessage((MIPSprogram)null,0,0,"invalid program counter value: "+Binary.intToHexString(RegisterFile.getProgramCounter())));
+                           this.pe = new ProcessingException(el,e);
+      						   // Next statement is a hack.  Previous statement sets EPC register to ProgramCounter-4
+      						   // because it assumes the bad address comes from an operand so the ProgramCounter has already been
+      						   // incremented.  In this case, bad address is the instruction fetch itself so Program Counter has
+      						   // not yet been incremented.  We'll set the EPC directly here.  DPS 8-July-2013
+                           Coprocessor0.updateRegister(Coprocessor0.EPC, RegisterFile.getProgramCounter());
+                           this.constructReturnReason = EXCEPTION;
+                           this.done = true;
+                           closeFiles(); // close any files opened in MIPS program
+                           stopped = true;
+                           break;
+                        }
+                     if (statement == null || --batch == 0
+                         || (pending & (SAFEPOINT_REQUESTED | RUN_SPEED_CHANGED | YIELD_REQUESTED)) != 0) {
+                        break;
+                     }
+                  }
+               }// end synchronized block
+               if (stopped) {
+                  notifyObserversOfExecutionStop(maxSteps, pc);
                   return new Boolean(done);
                }
-            	//	Return if we've reached a breakpoint.					
-               if((breakPoints != null) && 
-               (Arrays.binarySearch(breakPoints,RegisterFile.getProgramCounter()) >= 0)) {
-                  this.constructReturnReason = BREAKPOINT;
-                  this.done = false;
-                  Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                  return new Boolean(done); // false;
+               int pending = attention.get();
+               if ((pending & YIELD_REQUESTED) != 0) {
+                  clearAttention(YIELD_REQUESTED);
                }
-            	// Check number of MIPS instructions executed.  Return if at limit (-1 is no limit).
-               if (maxSteps > 0) {
-                  steps++;
-                  if (steps >= maxSteps) {
-                     this.constructReturnReason = MAX_STEPS;
-                     this.done = false;
-                     Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                     return new Boolean(done);// false;
-                  }
+               if (harts == null && machine.getHarts() != null) {
+                  useHarts(machine.getHarts());  // the batch started the first hart
+               }
+               if (harts != null) {
+                  harts.endQuantum(hartId, instructionCount - quantumStart, (pending & YIELD_REQUESTED) != 0);
+                  quantumStart = instructionCount;
+               }
+               if ((pending & SAFEPOINT_REQUESTED) != 0) {
+                  clearAttention(SAFEPOINT_REQUESTED);
+                  awaitSafepointHandoff();
+               }
+               if ((pending & RUN_SPEED_CHANGED) != 0) {
+                  clearAttention(RUN_SPEED_CHANGED);
+                  throttled = !replaying && !unthrottled();
                }
             	
             	// schedule GUI update only if: there is in fact a GUI! AND
             	//                              using Run,  not Step (maxSteps > 1) AND
             	//                              running slowly enough for GUI to keep up
                //if (Globals.getGui() != null && maxSteps != 1 &&             
-               if (interactiveGUIUpdater != null && maxSteps != 1 && 
-                          RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
+               if (interactiveGUIUpdater != null && maxSteps != 1 && throttled) {
                   SwingUtilities.invokeLater(interactiveGUIUpdater);
                }
                if (Globals.getGui() != null || Globals.runSpeedPanelExists) { // OR added by DPS 24 July 2008 to enable speed control by stand-alone tool
-                  if (maxSteps != 1 && 
-                          RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
+                  if (maxSteps != 1 && throttled) {
                      try { Thread.sleep((int)(1000/RunSpeedPanel.getInstance().getRunSpeed())); // make sure it's never zero!
                      } 
                          catch (InterruptedException e) {}
                   }
                }
-               
-            
-               // Get next instruction in preparation for next iteration.
-            
-               try {
-                  statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
-               } 
-                   catch (AddressErrorException e) {
-                     ErrorList el = new ErrorList();
-                     el.add(new ErrorMessage((MIPSprogram)null,0,0,"invalid program counter value: "+Binary.intToHexString(RegisterFile.getProgramCounter())));
-                     this.pe = new ProcessingException(el,e);
-						   // Next statement is a hack.  Previous statement sets EPC register to ProgramCounter-4
-						   // because it assumes the bad address comes from an operand so the ProgramCounter has already been
-						   // incremented.  In this case, bad address is the instruction fetch itself so Program Counter has
-						   // not yet been incremented.  We'll set the EPC directly here.  DPS 8-July-2013
-                     Coprocessor0.updateRegister(Coprocessor0.EPC, RegisterFile.getProgramCounter());
-                     this.constructReturnReason = EXCEPTION;
-                     this.done = true;
-                     SystemIO.resetFiles(); // close any files opened in MIPS program
-                     Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                     return  new Boolean(done);
-                  }
             }
             // DPS July 2007.  This "if" statement is needed for correct program
          	// termination if delayed branching on and last statement in
@@ -468,13 +1061,88 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             }
          	// If we got here it was due to null statement, which means program
          	// counter "fell off the end" of the program.  NOTE: Assumes the 
-         	// "while" loop contains no "break;" statements.
+         	// outer "while" loop contains no "break;" statements.
             this.constructReturnReason = CLIFF_TERMINATION;
             this.done = true;
-            SystemIO.resetFiles(); // close any files opened in MIPS program
-            Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+            closeFiles(); // close any files opened in MIPS program
+            notifyObserversOfExecutionStop(maxSteps, pc);
             return new Boolean(done); // true;  // execution completed
          }
+      	
+      	// Run as one of several harts.  Blocks are not run, since a turn may end after any
+      	// instruction, and backstepping is turned off (see ExecutionConfig), since undoing
+      	// this hart's changes would not undo those of the others.
+          private void useHarts(HartScheduler scheduler) {
+            harts = scheduler;
+            blockExecution = false;
+            fetchedBlock = null;
+            if (backStepper != null) {
+               backStepper.clear();
+               config = ExecutionConfig.begin();
+               backStepper = null;
+               checkpointer = null;
+               checkpointDue = Long.MAX_VALUE;
+            }
+         }
+      	
+      	// End the run because the harts have ended while this one waited for its turn or,
+      	// for hart 0, because another hart failed, in which case it ends with that error.
+          private Object endWithHarts(int pc) {
+            this.pe = (hartId == 0) ? harts.getFailure() : null;
+            this.constructReturnReason = (pe != null) ? EXCEPTION : PAUSE_OR_STOP;
+            this.done = true;
+            closeFiles(); // close any files opened in MIPS program
+            notifyObserversOfExecutionStop(maxSteps, pc);
+            return new Boolean(done);
+         }
+      	
+      	// Files are shared by the harts and closed when hart 0's run ends.
+          private void closeFiles() {
+            if (hartId == 0) {
+               SystemIO.resetFiles();
+            }
+         }
+      	
+      	/**
+      	 *  Fetch the statement at the given address.  If no memory observers are registered
+      	 *  and the address holds a pre-decoded basic instruction, the statement and its
+      	 *  handler come straight from the DecodedProgram arrays, along with the basic block
+      	 *  starting there if block execution is allowed and the address is hot.  Otherwise
+      	 *  this is an ordinary Memory.getStatement() call, which notifies observers and
+      	 *  reports bad addresses.  Either way, fetchedCode and fetchedBlock are left
+      	 *  holding the handler and block, or null.
+      	 *
+      	 *  @param address the program counter value
+      	 *  @return the ProgramStatement at that address, or null if none
+      	 *  @throws AddressErrorException if the address is invalid for an instruction fetch
+      	 */
+          private ProgramStatement fetch(int address) throws AddressErrorException {
+            if ((address & 3) == 0 && memory.countObservers() == 0) {
+               DecodedProgram decoded = memory.getDecodedProgram();
+               int index = (address - decoded.textBase) >> 2;
+               if (index >= 0 && index < decoded.textCode.length && decoded.textCode[index] != null) {
+                  fetchedCode = decoded.textCode[index];
+                  fetchedBlock = (blockExecution && !throttled) ? decoded.getBlock(address) : null;
+                  return decoded.textStatements[index];
+               }
+               index = (address - decoded.kernelTextBase) >> 2;
+               if (index >= 0 && index < decoded.kernelTextCode.length && decoded.kernelTextCode[index] != null) {
+                  fetchedCode = decoded.kernelTextCode[index];
+                  fetchedBlock = (blockExecution && !throttled) ? decoded.getBlock(address) : null;
+                  return decoded.kernelTextStatements[index];
+               }
+            }
+            fetchedCode = null;
+            fetchedBlock = null;
+            return memory.getStatement(address);
+         }
+      	
+      	// True if the run is not being slowed down for the GUI or a tool's run speed panel,
+      	// in which case every instruction has to be visible on its own.
+          private boolean unthrottled() {
+            return (Globals.getGui() == null && !Globals.runSpeedPanelExists)
+                || RunSpeedPanel.getInstance().getRunSpeed() == RunSpeedPanel.UNLIMITED_SPEED;
+         }
          
       	
       	/**
@@ -489,7 +1157,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	 
           public void finished() {
            // If running from the command-line, then there is no GUI to update.
-            if (Globals.getGui() == null) {
+            // Nor is there when the Checkpointer runs the program.
+            if (Globals.getGui() == null || starter == null) {
                return;
             }
             String starterName = (String) starter.getValue(AbstractAction.NAME);
@@ -500,7 +1169,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                if (done) {
                   ((RunGoAction)starter).stopped(pe,constructReturnReason);
                } 
-               else if (constructReturnReason == BREAKPOINT) {
+               else if (constructReturnReason == BREAKPOINT || constructReturnReason == WATCHPOINT) {
                   ((RunGoAction)starter).paused(done,constructReturnReason,pe);
                } 
                else {
@@ -0,0 +1,197 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.util.*;
+   import mars.mips.hardware.*;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+   import java.util.*;
+
+/**
+ * Saves the whole state of a machine to a file and puts it back, so that a long run
+ * can be stopped and resumed later, or a test can start from a state reached once
+ * instead of running its setup every time.
+ * <p>
+ * A snapshot holds the CPU registers with hi, lo and the program counter, both
+ * coprocessors, any pending delayed branch, the instruction count, all of memory
+ * and the heap pointer, the files the program has open with their positions, and
+ * the state of its random number streams.  It does not hold the console, MMIO
+ * devices, watchpoints or breakpoints, nor harts other than hart 0.
+ * <p>
+ * The file starts with a header: a length, then the registers, files and random
+ * streams written with DataOutput.  Memory follows as written by
+ * Memory.writeImage(), page by page through a FileChannel.  A snapshot can only be
+ * restored with the memory configuration it was taken with.
+ */
+
+    public class SnapshotFile {
+
+      private static final int MAGIC = 0x4d415253;  // "MARS"
+      private static final int VERSION = 1;
+
+     /**
+      *  Save the state of the machine the calling thread works on to the given file.
+      *  Must not be called while the program is running.
+      *
+      *  @param file the file to write, replaced if it exists
+      *  @throws IOException if writing fails
+      */
+       public static void save(File file) throws IOException {
+         Machine machine = Machine.current();
+         synchronized (machine.getLock()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeUTF(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+            writeInts(header, RegisterFile.copyValues());
+            writeInts(header, Coprocessor0.copyValues());
+            writeInts(header, Coprocessor1.copyValues());
+            header.writeInt(DelayedBranch.getState());
+            header.writeInt(DelayedBranch.getBranchTargetAddress());
+            header.writeLong(Simulator.getInstance().instructionCount);
+            SystemIO.writeOpenFiles(header);
+            writeRandomStreams(header, machine.getRandomStreams());
+            header.close();
+            FileChannel channel = new FileOutputStream(file).getChannel();
+            try {
+               ByteBuffer length = ByteBuffer.allocate(4).putInt(bytes.size());
+               length.flip();
+               channel.write(length);
+               channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+               machine.getMemory().writeImage(channel);
+            }
+            finally {
+               channel.close();
+            }
+         }
+      }
+
+     /**
+      *  Put the machine the calling thread works on back in the state saved in the given
+      *  file.  The program assembled on it, if any, keeps its source lines wherever its
+      *  statements match those in the snapshot.  Its backstep history and checkpoints are
+      *  dropped.  Must not be called while the program is running.
+      *
+      *  @param file a file written by save()
+      *  @throws IOException if reading fails, the file is not a snapshot, or it was taken
+      *  with another memory configuration.  Memory may then be partly restored.
+      */
+       public static void restore(File file) throws IOException {
+         Machine machine = Machine.current();
+         synchronized (machine.getLock()) {
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+               ByteBuffer length = ByteBuffer.allocate(4);
+               while (length.hasRemaining()) {
+                  if (channel.read(length) < 0) {
+                     throw new EOFException(file+" is not a MARS snapshot");
+                  }
+               }
+               length.flip();
+               int size = length.getInt();
+               if (size < 8 || size > channel.size()) {
+                  throw new IOException(file+" is not a MARS snapshot");
+               }
+               byte[] bytes = new byte[size];
+               ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+               while (wrapped.hasRemaining()) {
+                  if (channel.read(wrapped) < 0) {
+                     throw new EOFException(file+" is not a MARS snapshot");
+                  }
+               }
+               DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+               if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                  throw new IOException(file+" is not a MARS snapshot");
+               }
+               String configuration = header.readUTF();
+               if (!configuration.equals(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier())) {
+                  throw new IOException("snapshot was taken with memory configuration "+configuration);
+               }
+               int[] registers = readInts(header, RegisterFile.copyValues().length);
+               int[] coprocessor0 = readInts(header, Coprocessor0.copyValues().length);
+               int[] coprocessor1 = readInts(header, Coprocessor1.copyValues().length);
+               int delayedBranchState = header.readInt();
+               int delayedBranchTarget = header.readInt();
+               long instructionCount = header.readLong();
+               machine.getMemory().readImage(channel);
+               RegisterFile.restoreValues(registers);
+               Coprocessor0.restoreValues(coprocessor0);
+               Coprocessor1.restoreValues(coprocessor1);
+               DelayedBranch.restore(delayedBranchState, delayedBranchTarget);
+               Simulator.getInstance().instructionCount = instructionCount;
+               SystemIO.reopenFiles(header);
+               readRandomStreams(header, machine.getRandomStreams());
+            }
+            finally {
+               channel.close();
+            }
+            MIPSprogram program = machine.getProgram();
+            if (program != null && program.getBackStepper() != null) {
+               program.getBackStepper().clear();
+            }
+            if (program != null && program.getCheckpointer() != null) {
+               program.getCheckpointer().discardAfter(-1);
+            }
+         }
+      }
+
+       private static void writeInts(DataOutput out, int[] values) throws IOException {
+         out.writeInt(values.length);
+         for (int i = 0; i < values.length; i++) {
+            out.writeInt(values[i]);
+         }
+      }
+
+      // Read values written by writeInts(), which must be as many as expected.
+       private static int[] readInts(DataInput in, int expected) throws IOException {
+         int length = in.readInt();
+         if (length != expected) {
+            throw new IOException("snapshot holds "+length+" register values where "+expected+" were expected");
+         }
+         int[] values = new int[length];
+         for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+         }
+         return values;
+      }
+
+      // The streams are java.util.Random objects, whose state only serialization reaches.
+       private static void writeRandomStreams(DataOutput out, HashMap<Integer, Random> streams) throws IOException {
+         out.writeInt(streams.size());
+         for (Map.Entry<Integer, Random> entry : streams.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream stream = new ObjectOutputStream(bytes);
+            stream.writeObject(entry.getValue());
+            stream.close();
+            out.writeInt(entry.getKey().intValue());
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+         }
+      }
+
+       private static void readRandomStreams(DataInput in, HashMap<Integer, Random> streams) throws IOException {
+         streams.clear();
+         int count = in.readInt();
+         for (int i = 0; i < count; i++) {
+            int index = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            ObjectInputStream stream = 
+                new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+                   protected Class<?> resolveClass(ObjectStreamClass type) throws IOException, ClassNotFoundException {
+                     if (!type.getName().equals(Random.class.getName())) {
+                        throw new InvalidClassException(type.getName(), "not a random stream");
+                     }
+                     return super.resolveClass(type);
+                  }
+               };
+            try {
+               streams.put(Integer.valueOf(index), (Random) stream.readObject());
+            }
+                catch (ClassNotFoundException e) {
+                  throw new IOException("invalid random stream "+index+" in snapshot");
+               }
+         }
+      }
+   }
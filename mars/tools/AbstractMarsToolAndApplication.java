@@ -74,6 +74,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// For MarsTool, is set true when "Connect" clicked, false when "Disconnect" clicked.
    	// For app, is set true when "Assemble and Run" clicked, false when program terminates.
       private volatile boolean observing = false;
+   	// Used only if the tool/app asks for asynchronous delivery of notices.  See
+   	// deliverNoticesAsynchronously().  Created on the first notice, dropped on reset and
+   	// disconnect.
+      private AccessNoticeBuffer noticeBuffer;
+      private Thread noticeDrainer;
+      private static final int NOTICE_DRAIN_BATCH = 1024;
    
    	// Several structures required for stand-alone use only (not MarsTool use)
       private File mostRecentlyOpenedFile = null; 
@@ -222,9 +228,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
       /**
    	 *  Method that will be called each time the default Reset button is clicked.
-   	 *  Use it to reset any data structures and/or GUI components.  By default it does nothing.
+   	 *  Use it to reset any data structures and/or GUI components.  By default it discards
+   	 *  any notices still waiting for asynchronous delivery (see deliverNoticesAsynchronously()),
+   	 *  so an override should call super.reset() first.
    	 */
        protected void reset() {
+         stopNoticeDrainer();
       }
    
       
@@ -467,11 +476,41 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
        public void update(Observable resource, Object accessNotice) {
          if (((AccessNotice)accessNotice).accessIsFromMIPS()) { 
-            processMIPSUpdate(resource, (AccessNotice)accessNotice);
-            updateDisplay();
+            if (deliverNoticesAsynchronously()) {
+               getNoticeBuffer().put(resource, (AccessNotice)accessNotice);
+            } 
+            else {
+               processMIPSUpdate(resource, (AccessNotice)accessNotice);
+               updateDisplay();
+            }
          }
       }
    	
+   	/**
+   	 * Override this method to return true if notices should be handed to processMIPSUpdate()
+   	 * on a separate thread rather than on the thread running the MIPS program.  Notices are
+   	 * then queued in an AccessNoticeBuffer and processed in batches, with updateDisplay()
+   	 * called once per batch, so a slow tool no longer slows the simulation down instruction
+   	 * by instruction.  Only suitable for a tool whose processMIPSUpdate() depends on nothing
+   	 * but the notice itself, since by the time it runs the MIPS program will have moved on.
+   	 * By default returns false.
+   	 * @return true for asynchronous delivery
+   	 */
+       protected boolean deliverNoticesAsynchronously() {
+         return false;
+      }
+   
+   	/**
+   	 * Override this method to return true if, with asynchronous delivery, no notice may
+   	 * be lost: the MIPS program then waits when the buffer is full.  By default returns
+   	 * false, and notices that do not fit in the buffer are dropped.  A tool that returns true
+   	 * must not synchronize on Globals.memoryAndRegistersLock in processMIPSUpdate().
+   	 * @return true if the simulator must wait for the tool to catch up
+   	 */
+       protected boolean requireBackPressure() {
+         return false;
+      }
+   	
    	/**
    	 * Override this method to process a received notice from MIPS Observable (memory or register)
    	 * It will only be called if the notice was generated as the result of MIPS instruction execution.
@@ -611,6 +650,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (connectButton.isConnected()) {
             connectButton.disconnect();
          }
+         stopNoticeDrainer();
          dialog.setVisible(false);
          dialog.dispose();
       }
@@ -618,11 +658,48 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// Closing duties for stand-alone application only.
        private void performAppClosingDuties() {
          performSpecialClosingDuties();
+         stopNoticeDrainer();
          thisMarsApp.setVisible(false);
          System.exit(0);
       }
    
    
+   	// Buffer for asynchronous delivery, creating it and starting the thread that
+   	// drains it if this is the first notice.
+       private synchronized AccessNoticeBuffer getNoticeBuffer() {
+         if (noticeBuffer == null) {
+            noticeBuffer = new AccessNoticeBuffer(AccessNoticeBuffer.DEFAULT_CAPACITY, requireBackPressure());
+            noticeDrainer = new Thread(new NoticeDrainer(noticeBuffer), getName() + " notices");
+            noticeDrainer.setDaemon(true);
+            noticeDrainer.start();
+         }
+         return noticeBuffer;
+      }
+   
+   	// Stop the thread draining the notice buffer, if there is one, dropping the notices
+   	// left in it.  Returns once the thread has finished, so no notice from before the
+   	// call reaches processMIPSUpdate() after it.
+       private void stopNoticeDrainer() {
+         Thread drainer;
+         synchronized (this) {
+            if (noticeBuffer == null) {
+               return;
+            }
+            noticeBuffer.close();
+            drainer = noticeDrainer;
+            noticeBuffer = null;
+            noticeDrainer = null;
+         }
+         if (drainer != Thread.currentThread()) {
+            try {
+               drainer.join();
+            } 
+                catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+         }
+      }
+   
    //////////////////////////////////////////////////////////////////////////////////
    ////////////////////  PRIVATE HELPER CLASSES    //////////////////////////////////
    //  Specialized inner classes.  Either used by stand-alone (JFrame-based) only  //
@@ -643,16 +720,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	
           public void connect() {
             observing = true;
+            mars.simulator.Simulator.requestSafepoint();
             synchronized (Globals.memoryAndRegistersLock) {// DPS 23 July 2008
+               mars.simulator.Simulator.safepointTaken();
                addAsObserver();
             }
             setText(disconnectText);
          }
       	
           public void disconnect() {
+            mars.simulator.Simulator.requestSafepoint();
             synchronized (Globals.memoryAndRegistersLock) {// DPS 23 July 2008
+               mars.simulator.Simulator.safepointTaken();
                deleteAsObserver();
             }
+            stopNoticeDrainer();
             observing = false;
             setText(connectText);
          }
@@ -688,6 +770,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       }
          	
+   	 //////////////////////////////////////////////////////////////////////
+   	 // Runs on its own thread, handing buffered notices to processMIPSUpdate()
+   	 // until the buffer is closed.  Used only with asynchronous delivery.
+       private class NoticeDrainer implements Runnable, Observer {
+         private AccessNoticeBuffer buffer;
+      	
+          public NoticeDrainer(AccessNoticeBuffer buffer) {
+            this.buffer = buffer;
+         }
+      	
+          public void run() {
+            while (true) {
+               try {
+                  if (!buffer.awaitNotices()) {
+                     return;  // closed
+                  }
+               } 
+                   catch (InterruptedException e) {
+                     return;
+                  }
+               if (buffer.drain(this, NOTICE_DRAIN_BATCH) > 0) {
+                  updateDisplay();
+               }
+            }
+         }
+      	
+          public void update(Observable resource, Object notice) {
+            processMIPSUpdate(resource, (AccessNotice)notice);
+         }
+      }
+   
     	 /////////////////////////////////////////////////////////////////////////////////   	  	
    	 // called when the Assemble and Run button is pressed.  Used only by stand-alone app.
        private class CreateAssembleRunMIPSprogram implements Runnable { 
@@ -707,6 +820,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             Thread.yield();
             MIPSprogram program = new MIPSprogram();
             mars.Globals.program = program; // Shouldn't have to do this...
+            mars.simulator.ExecutionConfig.refresh();
             String fileToAssemble = mostRecentlyOpenedFile.getPath();
             ArrayList filesToAssemble = null;
             if (multiFileAssemble) {// setting (check box in file open dialog) calls for multiple file assembly 
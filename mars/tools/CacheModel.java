@@ -0,0 +1,208 @@
+   package mars.tools;
+   import java.util.*;
+   import mars.mips.hardware.*;
+
+/**
+ * The cache of the Data Cache Simulator, without its display: direct mapped, fully
+ * associative or n-way set associative depending on the set size, with LRU or random
+ * replacement.  It models only which blocks are cached, not their contents, and counts
+ * the accesses, hits and misses.  The simulator tool feeds it memory access notices;
+ * TraceReplay feeds it the loads and stores of a recorded ExecutionTrace, so many cache
+ * designs can be tried on one run of a program.
+ * <p>
+ * An address is split into [ tag | set | word | byte ].  A direct mapped cache has a set
+ * per block, and a fully associative cache a single set of all the blocks.  An access
+ * hits if a valid block in its set has its tag.  Otherwise it misses, and the tag is
+ * placed in the first empty block of the set or, if the set is full, in one chosen by
+ * the replacement policy.
+ */
+
+    public class CacheModel {
+
+     /** Replacement policy: replace the least recently used block of the set. */
+      public static final int LRU = 0;
+     /** Replacement policy: replace a block of the set chosen at random. */
+      public static final int RANDOM = 1;
+
+      private final int numberOfBlocks, blockSizeInWords, setSizeInBlocks, numberOfSets;
+      private int replacementPolicy;
+      private final Random random;
+      // The blocks, by number: valid, tag, and the access count at the last access.
+      private final boolean[] valid;
+      private final int[] tags;
+      private final long[] mostRecentAccessTimes;
+      private long accessCount, hitCount;
+      private int lastBlock;
+
+     /**
+      *  Create an empty cache.
+      *
+      *  @param numberOfBlocks blocks in the cache
+      *  @param blockSizeInWords words in a block
+      *  @param setSizeInBlocks blocks in a set: 1 for direct mapping, numberOfBlocks for
+      *  fully associative; must divide numberOfBlocks
+      *  @param replacementPolicy LRU or RANDOM
+      *  @param random source of the blocks replaced under RANDOM
+      *  @throws IllegalArgumentException if a size is not positive, or the set size does
+      *  not divide the number of blocks
+      */
+       public CacheModel(int numberOfBlocks, int blockSizeInWords, int setSizeInBlocks,
+                         int replacementPolicy, Random random) {
+         if (numberOfBlocks <= 0 || blockSizeInWords <= 0 || setSizeInBlocks <= 0
+             || numberOfBlocks % setSizeInBlocks != 0) {
+            throw new IllegalArgumentException("invalid cache organization: "+numberOfBlocks+" blocks of "
+                                               +blockSizeInWords+" words, "+setSizeInBlocks+" blocks per set");
+         }
+         this.numberOfBlocks = numberOfBlocks;
+         this.blockSizeInWords = blockSizeInWords;
+         this.setSizeInBlocks = setSizeInBlocks;
+         this.numberOfSets = numberOfBlocks / setSizeInBlocks;
+         this.random = random;
+         this.valid = new boolean[numberOfBlocks];
+         this.tags = new int[numberOfBlocks];
+         this.mostRecentAccessTimes = new long[numberOfBlocks];
+         setReplacementPolicy(replacementPolicy);
+      }
+
+       public int getNumberOfBlocks() {
+         return numberOfBlocks;
+      }
+
+       public int getNumberOfSets() {
+         return numberOfSets;
+      }
+
+       public int getSetSizeInBlocks() {
+         return setSizeInBlocks;
+      }
+
+       public int getBlockSizeInWords() {
+         return blockSizeInWords;
+      }
+
+       public int getCacheSizeInBytes() {
+         return numberOfBlocks * blockSizeInWords * Memory.WORD_LENGTH_BYTES;
+      }
+
+       public int getReplacementPolicy() {
+         return replacementPolicy;
+      }
+
+     /**
+      *  Change the replacement policy from the next replacement on.
+      *
+      *  @param replacementPolicy LRU or RANDOM
+      */
+       public void setReplacementPolicy(int replacementPolicy) {
+         if (replacementPolicy != LRU && replacementPolicy != RANDOM) {
+            throw new IllegalArgumentException("invalid replacement policy: "+replacementPolicy);
+         }
+         this.replacementPolicy = replacementPolicy;
+      }
+
+     /**
+      *  Access the block holding an address, reading it into the cache on a miss.
+      *
+      *  @param address the address of the byte or word accessed
+      *  @return true if it is a hit, false if a miss
+      */
+       public boolean access(int address) {
+         long time = ++accessCount;
+         // Addresses go through the same divisions as in the tool, sign and all.
+         int blockAddress = address / Memory.WORD_LENGTH_BYTES / blockSizeInWords;
+         int tag = blockAddress / numberOfSets;
+         int first = blockAddress % numberOfSets * setSizeInBlocks;
+         int last = first + setSizeInBlocks - 1;
+         for (int block = first; block <= last; block++) {
+            if (!valid[block]) {
+               valid[block] = true;
+               tags[block] = tag;
+               mostRecentAccessTimes[block] = time;
+               lastBlock = block;
+               return false;
+            }
+            if (tags[block] == tag) {
+               mostRecentAccessTimes[block] = time;
+               lastBlock = block;
+               hitCount++;
+               return true;
+            }
+         }
+         int block = selectBlockToReplace(first, last);
+         tags[block] = tag;
+         mostRecentAccessTimes[block] = time;
+         lastBlock = block;
+         return false;
+      }
+
+      // Called when all blocks in the set are full.
+       private int selectBlockToReplace(int first, int last) {
+         if (first == last) {
+            return first;
+         }
+         if (replacementPolicy == RANDOM) {
+            return first + random.nextInt(last - first + 1);
+         }
+         int replaceBlock = first;
+         for (int block = first + 1; block <= last; block++) {
+            if (mostRecentAccessTimes[block] < mostRecentAccessTimes[replaceBlock]) {
+               replaceBlock = block;
+            }
+         }
+         return replaceBlock;
+      }
+
+     /**
+      *  Returns the block of the last access: the one hit, or the one the address was read into.
+      *
+      *  @return the block number
+      */
+       public int getLastBlock() {
+         return lastBlock;
+      }
+
+       public long getAccessCount() {
+         return accessCount;
+      }
+
+       public long getHitCount() {
+         return hitCount;
+      }
+
+       public long getMissCount() {
+         return accessCount - hitCount;
+      }
+
+     /**
+      *  Returns the fraction of accesses that hit.
+      *
+      *  @return hits divided by accesses, or 0 if there have been none
+      */
+       public double getHitRate() {
+         return (accessCount == 0) ? 0.0 : hitCount / (double) accessCount;
+      }
+
+     /**
+      *  Empty the cache and clear its counts.
+      */
+       public void reset() {
+         Arrays.fill(valid, false);
+         Arrays.fill(mostRecentAccessTimes, 0);
+         accessCount = 0;
+         hitCount = 0;
+         lastBlock = 0;
+      }
+
+     /**
+      *  Describe the organization of the cache, e.g. "64 blocks of 4 words, 2-way set associative, LRU".
+      *
+      *  @return the description
+      */
+       public String toString() {
+         String placement = (setSizeInBlocks == 1) ? "direct mapped"
+                          : (numberOfSets == 1) ? "fully associative"
+                          : setSizeInBlocks+"-way set associative";
+         return numberOfBlocks+" blocks of "+blockSizeInWords+" words, "+placement
+                +((setSizeInBlocks == 1) ? "" : (replacementPolicy == LRU) ? ", LRU" : ", random");
+      }
+   }
@@ -86,7 +86,7 @@ public class DigitalLabSim extends AbstractMarsToolAndApplication {
     		else{
     			CounterValue=CounterValueMax;
     			if((Coprocessor0.getValue(Coprocessor0.STATUS) & 2)==0){
-    				mars.simulator.Simulator.externalInterruptingDevice = /*Exceptions.*/EXTERNAL_INTERRUPT_TIMER;
+    				mars.simulator.Simulator.raiseExternalInterrupt(/*Exceptions.*/EXTERNAL_INTERRUPT_TIMER);
     			}
     		}
 	}
@@ -106,7 +106,9 @@ public class DigitalLabSim extends AbstractMarsToolAndApplication {
     }
     private synchronized void updateMMIOControlAndData(int dataAddr, int dataValue) {
         if (!this.isBeingUsedAsAMarsTool || (this.isBeingUsedAsAMarsTool && connectButton.isConnected())) {
+           mars.simulator.Simulator.requestSafepoint();
            synchronized (Globals.memoryAndRegistersLock) {
+              mars.simulator.Simulator.safepointTaken();
               try {
               		Globals.memory.setByte(dataAddr, dataValue);
               } 
@@ -327,7 +329,7 @@ public class DigitalLabSim extends AbstractMarsToolAndApplication {
 					KeyBoardValueButtonClick = buttonValue;
 					button[KeyBoardValueButtonClick].setBackground(Color.GREEN);
 					if( KeyboardInterruptOnOff &&  (Coprocessor0.getValue(Coprocessor0.STATUS) & 2)==0){
-						mars.simulator.Simulator.externalInterruptingDevice = /*Exceptions.*/EXTERNAL_INTERRUPT_HEXA_KEYBOARD;
+						mars.simulator.Simulator.raiseExternalInterrupt(/*Exceptions.*/EXTERNAL_INTERRUPT_HEXA_KEYBOARD);
 					}
 				}
 			}
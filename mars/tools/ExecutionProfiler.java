@@ -0,0 +1,154 @@
+   package mars.tools;
+   import mars.*;
+   import mars.simulator.*;
+   import java.awt.*;
+   import java.awt.event.*;
+   import java.io.*;
+   import java.util.*;
+   import javax.swing.*;
+
+/**
+ * Tool showing where a program spends its instructions: the labels with the most
+ * instructions executed under them, the functions that execute most in them and what
+ * they call, and the hottest instructions with their source lines.  The call stacks can be
+ * saved in collapsed stack format, to draw a flame graph from.
+ * While connected it attaches an ExecutionProfile to the simulator, and shows its report
+ * each time the program stops or pauses.  It observes neither memory nor registers, so
+ * unlike the Instruction Counter it leaves the simulator running at full speed.
+ */
+
+    public class ExecutionProfiler extends AbstractMarsToolAndApplication {
+
+      private static final long serialVersionUID = 1L;
+      private static String name = "Execution Profiler";
+      private static String version = "Version 1.0";
+      private static String heading = "Where the program spends its instructions";
+
+      private final ExecutionProfile profile = new ExecutionProfile();
+      private Simulator simulator;  // the one the profile is attached to, while connected
+      private JTextArea reportArea;
+      private JSpinner rowsSpinner;
+
+     /**
+      *  Simple constructor, likely used to run a stand-alone profiler.
+      *
+      *  @param title String containing title for title bar
+      *  @param heading String containing text for heading shown in upper part of window.
+      */
+       public ExecutionProfiler(String title, String heading) {
+         super(title, heading);
+      }
+
+     /**
+      *  Simple constructor, likely used by the MARS Tools menu mechanism.
+      */
+       public ExecutionProfiler() {
+         super(name+", "+version, heading);
+      }
+
+     /**
+      *  Main provided for pure stand-alone use.
+      */
+       public static void main(String[] args) {
+         new ExecutionProfiler(name+", "+version, heading).go();
+      }
+
+     /**
+      *  Required MarsTool method to return Tool name.
+      *
+      *  @return Tool name.  MARS will display this in menu item.
+      */
+       public String getName() {
+         return name;
+      }
+
+       protected JComponent buildMainDisplayArea() {
+         JPanel panel = new JPanel(new BorderLayout());
+         reportArea = new JTextArea(24, 110);
+         reportArea.setEditable(false);
+         reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+         panel.add(new JScrollPane(reportArea), BorderLayout.CENTER);
+         JPanel rowsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+         rowsSpinner = new JSpinner(new SpinnerNumberModel(ExecutionProfile.DEFAULT_REPORT_ROWS, 1, 10000, 10));
+         rowsSpinner.addChangeListener(
+                new javax.swing.event.ChangeListener() {
+                   public void stateChanged(javax.swing.event.ChangeEvent e) {
+                     updateDisplay();
+                  }
+               });
+         rowsPanel.add(new JLabel("Rows per table "));
+         rowsPanel.add(rowsSpinner);
+         JButton saveButton = new JButton("Save call stacks...");
+         saveButton.setToolTipText("Save the call stacks in collapsed stack format, for a flame graph");
+         saveButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     saveCollapsedStacks();
+                  }
+               });
+         rowsPanel.add(saveButton);
+         panel.add(rowsPanel, BorderLayout.SOUTH);
+         return panel;
+      }
+
+      // Attach the profile to the simulator, and hear from it when the program stops.
+       protected void addAsObserver() {
+         simulator = Simulator.getInstance();
+         simulator.setProfile(profile);
+         simulator.addObserver(this);
+      }
+
+       protected void deleteAsObserver() {
+         if (simulator != null) {
+            simulator.deleteObserver(this);
+            if (simulator.getProfile() == profile) {
+               simulator.setProfile(null);
+            }
+            simulator = null;
+         }
+      }
+
+     /**
+      *  Show the report when the program stops or pauses.  The simulator is the only
+      *  resource observed, so the notices are SimulatorNotices, not AccessNotices.
+      */
+       public void update(Observable resource, Object notice) {
+         if (notice instanceof SimulatorNotice
+             && ((SimulatorNotice) notice).getAction() == SimulatorNotice.SIMULATOR_STOP) {
+            SwingUtilities.invokeLater(
+                   new Runnable() {
+                      public void run() {
+                        updateDisplay();
+                     }
+                  });
+         }
+      }
+
+       protected void updateDisplay() {
+         if (reportArea != null) {
+            reportArea.setText(profile.getReport(((Integer) rowsSpinner.getValue()).intValue()));
+            reportArea.setCaretPosition(0);
+         }
+      }
+
+       private void saveCollapsedStacks() {
+         JFileChooser chooser = new JFileChooser();
+         if (chooser.showSaveDialog(theWindow) != JFileChooser.APPROVE_OPTION) {
+            return;
+         }
+         try {
+            FileWriter stacks = new FileWriter(chooser.getSelectedFile());
+            stacks.write(profile.getCollapsedStacks());
+            stacks.close();
+         } 
+             catch (IOException ioe) {
+               JOptionPane.showMessageDialog(theWindow, "Error writing "+chooser.getSelectedFile()+": "+ioe.getMessage(),
+                                             name, JOptionPane.ERROR_MESSAGE);
+            }
+      }
+
+       protected void reset() {
+         profile.clear();
+         updateDisplay();
+      }
+   }
@@ -389,7 +389,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// If display is attached to a register then update the register value.
        private synchronized void updateAnyAttachedRegister(int intValue) {
          if (attachedRegister != null) {
+            mars.simulator.Simulator.requestSafepoint();
             synchronized (Globals.memoryAndRegistersLock) {
+               mars.simulator.Simulator.safepointTaken();
                attachedRegister.setValue(intValue);
             }
          	// HERE'S A HACK!!  Want to immediately display the updated register value in MARS
@@ -274,7 +274,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                    && (Coprocessor0.getValue(Coprocessor0.STATUS) & 1)==1) {
                // interrupt-enabled bit is set in both Tranmitter Control and in
                // Coprocessor0 Status register, and Interrupt Level Bit is 0, so trigger external interrupt.
-                  mars.simulator.Simulator.externalInterruptingDevice = Exceptions.EXTERNAL_INTERRUPT_DISPLAY;
+                  mars.simulator.Simulator.raiseExternalInterrupt(Exceptions.EXTERNAL_INTERRUPT_DISPLAY);
                }
             }
          }
@@ -703,7 +703,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // NOTE: last argument TRUE means update only the MMIO Control register; FALSE means update both Control and Data.
       private synchronized void updateMMIOControlAndData(int controlAddr, int controlValue, int dataAddr, int dataValue, boolean controlOnly) {
          if (!this.isBeingUsedAsAMarsTool || (this.isBeingUsedAsAMarsTool && connectButton.isConnected())) {
+            mars.simulator.Simulator.requestSafepoint();
             synchronized (Globals.memoryAndRegistersLock) {
+               mars.simulator.Simulator.safepointTaken();
                try {
                   Globals.memory.setRawWord(controlAddr, controlValue);
                   if (!controlOnly) Globals.memory.setRawWord(dataAddr, dataValue);
@@ -805,7 +807,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             	 && (Coprocessor0.getValue(Coprocessor0.STATUS) & 1)==1) {
                // interrupt-enabled bit is set in both Receiver Control and in
             	// Coprocessor0 Status register, and Interrupt Level Bit is 0, so trigger external interrupt.
-               mars.simulator.Simulator.externalInterruptingDevice = Exceptions.EXTERNAL_INTERRUPT_KEYBOARD;
+               mars.simulator.Simulator.raiseExternalInterrupt(Exceptions.EXTERNAL_INTERRUPT_KEYBOARD);
             }
          }
       
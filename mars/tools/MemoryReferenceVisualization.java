@@ -205,6 +205,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    	
    
+   	/**
+   	 *  Process notices on the tool's own thread, since processing depends only on the
+   	 *  address in the notice.  Overrides inherited method that returns false.
+   	 */
+       protected boolean deliverNoticesAsynchronously() {
+         return true;
+      }
+   
+   	/**
+   	 *  No notice may be dropped, or the reference counts would be wrong.
+   	 *  Overrides inherited method that returns false.
+   	 */
+       protected boolean requireBackPressure() {
+         return true;
+      }
+   
    	/** 
    	 *  Initialize all JComboBox choice structures not already initialized at declaration.	
        *  Overrides inherited method that does nothing.
@@ -234,9 +250,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
    	/**
    	 *  Method to reset counters and display when the Reset button selected.
-   	 *  Overrides inherited method that does nothing.
+   	 *  Overrides inherited method that only discards undelivered notices.
    	 */
        protected void reset() {
+         super.reset();  // drop notices from before the reset
          resetCounts();
          updateDisplay();
       }
@@ -0,0 +1,163 @@
+   package mars.tools;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.simulator.*;
+   import java.io.*;
+   import java.util.*;
+
+/**
+ * Replays an ExecutionTrace into the models of the Data Cache Simulator and the BHT
+ * Simulator, without running the program again: the loads and stores of the data segment
+ * go to any number of CacheModels, and the conditional branches of the text segment to
+ * any number of branch history tables, as the tools would see them while the program ran.
+ * The trace is read once however many models there are, and no notices or display are
+ * involved, so a run can be replayed into many cache and predictor designs in the time it
+ * takes to read it.
+ * <p>
+ * The trace holds only addresses, so the program it was recorded from must be assembled
+ * into memory first: its statements tell which instructions are branches.  A branch was
+ * taken if the next instruction executed, after the delay slot when delayed branching is
+ * enabled, is not the one that follows it.
+ */
+
+    public class TraceReplay {
+
+      private final ArrayList<CacheModel> caches = new ArrayList<CacheModel>();
+      private final ArrayList<BHTableModel> branchHistoryTables = new ArrayList<BHTableModel>();
+      private final ArrayList<String> branchHistoryTableNames = new ArrayList<String>();
+      private long[] correctPredictions = new long[0];
+      private long instructions, loadsAndStores, branches;
+
+     /**
+      *  Add a cache to replay the loads and stores of the data segment into.
+      *
+      *  @param cache the cache, empty or not
+      */
+       public void addCache(CacheModel cache) {
+         caches.add(cache);
+      }
+
+     /**
+      *  Add a branch history table to replay the conditional branches into.
+      *
+      *  @param entries entries in the table, a power of 2
+      *  @param historySize branches remembered by each entry, 1 or 2
+      *  @param initiallyTaken whether each entry predicts the branch taken at first
+      *  @throws IllegalArgumentException if the size or history is not supported
+      */
+       public void addBranchHistoryTable(int entries, int historySize, boolean initiallyTaken) {
+         branchHistoryTables.add(new BHTableModel(entries, historySize, initiallyTaken));
+         branchHistoryTableNames.add(entries+" entries, "+historySize+"-bit history, initially "
+                                     +((initiallyTaken) ? "taken" : "not taken"));
+         correctPredictions = Arrays.copyOf(correctPredictions, branchHistoryTables.size());
+      }
+
+     /**
+      *  Returns whether there is nothing to replay into yet.
+      *
+      *  @return true if no cache or branch history table has been added
+      */
+       public boolean isEmpty() {
+         return caches.isEmpty() && branchHistoryTables.isEmpty();
+      }
+
+     /**
+      *  Replay a trace into the caches and branch history tables, adding to their counts.
+      *  The program must be assembled into memory.
+      *
+      *  @param reader the trace, read from its current position to its end
+      *  @param delayedBranching whether the trace was recorded with delayed branching
+      *  @throws IOException if the trace cannot be read
+      */
+       public void replay(ExecutionTraceReader reader, boolean delayedBranching) throws IOException {
+         CacheModel[] cacheArray = caches.toArray(new CacheModel[0]);
+         BHTableModel[] tableArray = branchHistoryTables.toArray(new BHTableModel[0]);
+         Memory memory = Memory.getInstance();
+         int lowDataAddress = Memory.dataSegmentBaseAddress;
+         int highDataAddress = Memory.stackBaseAddress;
+         int fallThrough = (delayedBranching) ? 8 : 4;
+         int pendingBranch = 0; // address of the branch whose outcome is not known yet, or 0
+         int instructionsToOutcome = 0;
+         int event;
+         while ((event = reader.next()) != ExecutionTraceReader.END) {
+            int address = reader.getAddress();
+            if (event == ExecutionTraceReader.INSTRUCTION) {
+               instructions++;
+               if (pendingBranch != 0 && --instructionsToOutcome == 0) {
+                  boolean taken = address != pendingBranch + fallThrough;
+                  branches++;
+                  for (int i = 0; i < tableArray.length; i++) {
+                     int index = tableArray[i].getIdxForAddress(pendingBranch);
+                     if (tableArray[i].getPredictionAtIdx(index) == taken) {
+                        correctPredictions[i]++;
+                     }
+                     tableArray[i].updatePredictionAtIdx(index, taken);
+                  }
+                  pendingBranch = 0;
+               }
+               if (pendingBranch == 0 && isBranch(memory, address)) {
+                  pendingBranch = address;
+                  instructionsToOutcome = (delayedBranching) ? 2 : 1;
+               }
+            }
+            else {
+               loadsAndStores++;
+               if (address >= lowDataAddress && address <= highDataAddress) {
+                  for (int i = 0; i < cacheArray.length; i++) {
+                     cacheArray[i].access(address);
+                  }
+               }
+            }
+         }
+      }
+
+      // Whether the instruction at an address of the text segment is a conditional branch.
+       private static boolean isBranch(Memory memory, int address) {
+         if (address < Memory.textBaseAddress || address >= Memory.textLimitAddress) {
+            return false;
+         }
+         try {
+            ProgramStatement statement = memory.getStatementNoNotify(address);
+            return statement != null && BHTSimulator.isBranchInstruction(statement);
+         }
+             catch (AddressErrorException aee) {
+               return false;
+            }
+      }
+
+     /**
+      *  Returns the counts of what was replayed, the hit rate of each cache, and the
+      *  prediction accuracy of each branch history table.
+      *
+      *  @return the report, a line per cache and table
+      */
+       public String getReport() {
+         StringWriter text = new StringWriter();
+         PrintWriter report = new PrintWriter(text);
+         report.println("Replayed "+instructions+" instructions, "+loadsAndStores+" loads and stores, "
+                        +branches+" conditional branches.");
+         if (caches.size() > 0) {
+            report.println();
+            report.println(String.format("%12s %12s %12s %8s  %s", "accesses", "hits", "misses", "hit rate", "cache"));
+            for (int i = 0; i < caches.size(); i++) {
+               CacheModel cache = caches.get(i);
+               report.println(String.format("%12d %12d %12d %7.2f%%  %d bytes: %s", cache.getAccessCount(),
+                                            cache.getHitCount(), cache.getMissCount(), cache.getHitRate() * 100,
+                                            cache.getCacheSizeInBytes(), cache));
+            }
+         }
+         if (branchHistoryTables.size() > 0) {
+            report.println();
+            report.println(String.format("%12s %12s %12s %8s  %s", "branches", "correct", "incorrect", "accuracy",
+                                         "branch history table"));
+            for (int i = 0; i < branchHistoryTables.size(); i++) {
+               long correct = correctPredictions[i];
+               report.println(String.format("%12d %12d %12d %7.2f%%  %s", branches, correct, branches - correct,
+                                            (branches == 0) ? 0.0 : correct * 100.0 / branches,
+                                            branchHistoryTableNames.get(i)));
+            }
+         }
+         report.flush();
+         return text.toString();
+      }
+   }
@@ -0,0 +1,347 @@
+   package mars.util;
+   import java.io.*;
+
+/**
+ * A log of the results of the syscalls whose outcome depends on the world outside the
+ * program: console input, the time of day, random numbers and files.  While a log is
+ * recorded, each such result is appended to it as the program runs.  While one is
+ * played back, the results come from the log instead, and the console, clock, random
+ * streams and file system are left alone; Sleep does not sleep.  Played back against
+ * the program and settings it was recorded with, a run does exactly what the recorded
+ * run did, so a failure can be reproduced, or the simulator timed, without the
+ * variations of input and output.  Console output is produced as usual either way.
+ * <p>
+ * The log is written with DataOutput: a header, then one entry per result, made of a
+ * byte for its kind and the value.  Strings and bytes read go out as a length and their
+ * bytes.  Playing back a log that runs out, or that holds another kind of result than
+ * the program asks for next, ends the run with an error.  A log is not meant for runs
+ * taken back to a checkpoint, whose syscalls would be recorded or played back again.
+ * <p>
+ * The log of a machine is set with SystemIO.setSyscallLog().  Harts share it.
+ */
+
+    public class SyscallLog {
+
+     /** Kind of entry for a line of console input, or its absence at end of input. */
+      public static final int INPUT = 1;
+     /** Kind of entry for the time of day, in milliseconds. */
+      public static final int TIME = 2;
+     /** Kind of entry for a random int, or float or double as bits. */
+      public static final int RANDOM = 3;
+     /** Kind of entry for the result of a file operation other than a read. */
+      public static final int FILE = 4;
+     /** Kind of entry for the bytes read from a file. */
+      public static final int FILE_READ = 5;
+
+      private static final int MAGIC = 0x4d53594c;  // "MSYL"
+      private static final int VERSION = 1;
+      private static final String[] KIND_NAMES = {"end of log", "console input", "time", "random number", "file result", "file read"};
+
+      private final DataOutputStream out;  // null when playing back
+      private final DataInputStream in;    // null when recording
+
+     /**
+      *  Thrown by a syscall when the log cannot be played back or recorded.  The syscall
+      *  then fails with a runtime error (see InstructionSet.findAndSimulateSyscall()).
+      */
+       public static class LogException extends RuntimeException {
+         private static final long serialVersionUID = 1L;
+          public LogException(String message) {
+            super(message);
+         }
+      }
+
+     /**
+      *  Create a log to record into.
+      *
+      *  @param stream where to write the log; closed by close()
+      *  @throws IOException if the header cannot be written
+      */
+       public SyscallLog(OutputStream stream) throws IOException {
+         out = new DataOutputStream(new BufferedOutputStream(stream));
+         in = null;
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+      }
+
+     /**
+      *  Create a log to play back.
+      *
+      *  @param stream a log written by an earlier recording; closed by close()
+      *  @throws IOException if the header cannot be read, or is not that of a log
+      */
+       public SyscallLog(InputStream stream) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(stream));
+         out = null;
+         try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+               throw new IOException("not a MARS syscall log");
+            }
+         }
+             catch (EOFException e) {
+               throw new IOException("not a MARS syscall log");
+            }
+      }
+
+     /**
+      *  Determine whether the log of the machine the calling thread works on is being
+      *  played back, i.e. whether syscalls must take their results from it.
+      *
+      *  @return true when playing back, false when recording or without a log
+      */
+       public static boolean playingBack() {
+         SyscallLog log = SystemIO.getSyscallLog();
+         return log != null && log.in != null;
+      }
+
+     /**
+      *  Append an int result to the log of the machine the calling thread works on, if it
+      *  is recording one.
+      *
+      *  @param kind kind of result, e.g. RANDOM
+      *  @param value the result
+      *  @return the result
+      */
+       public static int record(int kind, int value) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         if (log != null && log.out != null) {
+            synchronized (log) {
+               try {
+                  log.out.writeByte(kind);
+                  log.out.writeInt(value);
+               }
+                   catch (IOException e) {
+                     throw log.failed(e);
+                  }
+            }
+         }
+         return value;
+      }
+
+     /**
+      *  Append a long result to the log of the machine the calling thread works on, if it
+      *  is recording one.
+      *
+      *  @param kind kind of result, e.g. TIME
+      *  @param value the result
+      *  @return the result
+      */
+       public static long record(int kind, long value) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         if (log != null && log.out != null) {
+            synchronized (log) {
+               try {
+                  log.out.writeByte(kind);
+                  log.out.writeLong(value);
+               }
+                   catch (IOException e) {
+                     throw log.failed(e);
+                  }
+            }
+         }
+         return value;
+      }
+
+     /**
+      *  Append a string result to the log of the machine the calling thread works on, if
+      *  it is recording one.
+      *
+      *  @param kind kind of result, e.g. INPUT
+      *  @param value the result, or null
+      *  @return the result
+      */
+       public static String record(int kind, String value) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         if (log != null && log.out != null) {
+            synchronized (log) {
+               try {
+                  byte[] bytes = (value == null) ? null : value.getBytes("UTF-8");
+                  log.out.writeByte(kind);
+                  log.writeBytes(bytes, (bytes == null) ? 0 : bytes.length);
+               }
+                   catch (IOException e) {
+                     throw log.failed(e);
+                  }
+            }
+         }
+         return value;
+      }
+
+     /**
+      *  Append a count of bytes read, and the bytes, to the log of the machine the calling
+      *  thread works on, if it is recording one.
+      *
+      *  @param buffer the bytes read
+      *  @param count their number, or -1 for an error
+      *  @return the count
+      */
+       public static int recordRead(byte[] buffer, int count) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         if (log != null && log.out != null) {
+            synchronized (log) {
+               try {
+                  log.out.writeByte(FILE_READ);
+                  log.writeBytes((count < 0) ? null : buffer, count);
+               }
+                   catch (IOException e) {
+                     throw log.failed(e);
+                  }
+            }
+         }
+         return count;
+      }
+
+     /**
+      *  Take the next int result from the log being played back on the machine the
+      *  calling thread works on.
+      *
+      *  @param kind kind of result expected
+      *  @return the result
+      *  @throws LogException if the log holds no such result next
+      */
+       public static int nextInt(int kind) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         synchronized (log) {
+            try {
+               log.expect(kind);
+               return log.in.readInt();
+            }
+                catch (IOException e) {
+                  throw log.failed(e);
+               }
+         }
+      }
+
+     /**
+      *  Take the next long result from the log being played back on the machine the
+      *  calling thread works on.
+      *
+      *  @param kind kind of result expected
+      *  @return the result
+      *  @throws LogException if the log holds no such result next
+      */
+       public static long nextLong(int kind) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         synchronized (log) {
+            try {
+               log.expect(kind);
+               return log.in.readLong();
+            }
+                catch (IOException e) {
+                  throw log.failed(e);
+               }
+         }
+      }
+
+     /**
+      *  Take the next string result from the log being played back on the machine the
+      *  calling thread works on.
+      *
+      *  @param kind kind of result expected
+      *  @return the result, possibly null
+      *  @throws LogException if the log holds no such result next
+      */
+       public static String nextString(int kind) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         synchronized (log) {
+            try {
+               log.expect(kind);
+               byte[] bytes = log.readBytes(Integer.MAX_VALUE);
+               return (bytes == null) ? null : new String(bytes, "UTF-8");
+            }
+                catch (IOException e) {
+                  throw log.failed(e);
+               }
+         }
+      }
+
+     /**
+      *  Take the next file read from the log being played back on the machine the calling
+      *  thread works on, copying the bytes read into the given buffer.
+      *
+      *  @param buffer where the bytes go
+      *  @return the count of bytes read, or -1 for an error
+      *  @throws LogException if the log holds no file read next, or one of more bytes than
+      *  the buffer holds
+      */
+       public static int nextRead(byte[] buffer) {
+         SyscallLog log = SystemIO.getSyscallLog();
+         synchronized (log) {
+            try {
+               log.expect(FILE_READ);
+               byte[] bytes = log.readBytes(buffer.length);
+               if (bytes == null) {
+                  return -1;
+               }
+               System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+               return bytes.length;
+            }
+                catch (IOException e) {
+                  throw log.failed(e);
+               }
+         }
+      }
+
+     /**
+      *  Finish the log: flush and close a recording, close a playback.
+      *
+      *  @throws IOException if the log cannot be written
+      */
+       public synchronized void close() throws IOException {
+         if (out != null) {
+            out.close();
+         }
+         else {
+            in.close();
+         }
+      }
+
+      // Bytes go out as their count, -1 for none, and the bytes.
+       private void writeBytes(byte[] bytes, int length) throws IOException {
+         if (bytes == null) {
+            out.writeInt(-1);
+         }
+         else {
+            out.writeInt(length);
+            out.write(bytes, 0, length);
+         }
+      }
+
+       private byte[] readBytes(int limit) throws IOException {
+         int length = in.readInt();
+         if (length < 0) {
+            return null;
+         }
+         if (length > limit) {
+            throw new LogException("syscall log holds "+length+" bytes read where at most "+limit+" were asked for");
+         }
+         byte[] bytes = new byte[length];
+         in.readFully(bytes);
+         return bytes;
+      }
+
+      // Read the kind of the next entry, which must be the given one.
+       private void expect(int kind) throws IOException {
+         int next;
+         try {
+            next = in.readByte();
+         }
+             catch (EOFException e) {
+               next = 0;
+            }
+         if (next != kind) {
+            throw new LogException("syscall log holds "+kindName(next)+" where "+kindName(kind)+" was expected");
+         }
+      }
+
+       private static String kindName(int kind) {
+         return (kind >= 0 && kind < KIND_NAMES.length) ? KIND_NAMES[kind] : "an unknown entry";
+      }
+
+       private LogException failed(IOException e) {
+         if (e instanceof EOFException) {
+            return new LogException("syscall log ends early");
+         }
+         return new LogException("syscall log "+((out != null) ? "cannot be written" : "cannot be read")+": "+e.getMessage());
+      }
+   }
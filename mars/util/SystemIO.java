@@ -1,5 +1,7 @@
    package mars.util;
    import mars.*;
+   import mars.simulator.ExecutionConfig;
+   import mars.simulator.ExecutionBudget;
    import java.io.*;
    import javax.swing.*;
    import java.util.*;
@@ -37,7 +39,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  * routines.  These methods will detect whether the simulator is being
  * run from the command line or through the GUI, then do I/O to
  * System.in and System.out in the former situation, and interact with
- * the GUI in the latter.
+ * the GUI in the latter.  Open files, the console streams and the log of
+ * console input belong to the machine the calling thread works on (see
+ * mars.Machine).
  *
  * @author Pete Sanderson and Ken Vollmar
  * @version August 2003-2005
@@ -49,7 +53,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     /** Maximum number of files that can be open */
       public static final int SYSCALL_MAXFILES = 32;
     /** String used for description of file error */
-      public static String fileErrorString = new String("File operation OK");
+      private String fileErrorString = new String("File operation OK");
    
       private static final int O_RDONLY = 0x00000000;
       private static final int O_WRONLY = 0x00000001;
@@ -66,7 +70,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
       // Will use one buffered reader for all keyboard/redirected/piped input.
    	// Added by DPS 28 Feb 2008.  See getInputReader() below.
-      private static BufferedReader inputReader = null;
+      private BufferedReader inputReader = null;
+
+      // Console input is logged while checkpoints are taken, so that a program taken back
+   	// to a checkpoint and executed forward again (see mars.simulator.Checkpointer) gets
+   	// the same input as the first time instead of asking for it.  Console output is not
+   	// shown again while the Checkpointer executes forward.
+      private ArrayList inputLog = new ArrayList();  // of String
+      private int inputLogPosition = 0;  // index in inputLog of the next input read
+      private boolean replaying = false;
+   
+      // Console of the machine, for running from the command line; null for System.in
+   	// or System.out.
+      private InputStream in;
+      private PrintStream out;
+      private final FileIOData files = new FileIOData();
+      private SyscallLog syscallLog;  // null unless syscall results are recorded or played back
+      private ExecutionBudget budget;  // limits console output of the run, or null
+   
+    /**
+     * Create the console and file state of a machine's syscalls.  Each mars.Machine creates
+     * its own; the static methods act on that of the machine the calling thread works on.
+     * @param in console input when running without the GUI, or null for System.in
+     * @param out console output when running without the GUI, or null for System.out
+     */
+       public SystemIO(InputStream in, PrintStream out)
+      {
+         this.in = in;
+         this.out = out;
+      }
+   
+       private static SystemIO current()
+      {
+         return Machine.current().getSystemIO();
+      }
    
     /**
      * Implements syscall to read an integer value.  
@@ -77,12 +114,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
        public static int readInteger(int serviceNumber)
       {
+         SystemIO io = current();
          String input = "0";
          if (Globals.getGui() == null)
          {
             try
             {  
-               input = getInputReader().readLine();
+               input = io.readInputLine();
             } 
                 catch (IOException e)
                {}
@@ -90,11 +128,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else
          {
             if (Globals.getSettings().getBooleanSetting(Settings.POPUP_SYSCALL_INPUT)) {
-               input = Globals.getGui().getMessagesPane().getInputString(
+               input = io.getInputString(
                     "Enter an integer value (syscall "+serviceNumber+")");
             } 
             else {
-               input = Globals.getGui().getMessagesPane().getInputString(-1);
+               input = io.getInputString(-1);
             }
          }
       
@@ -112,12 +150,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static float readFloat(int serviceNumber)
       {
+         SystemIO io = current();
          String input = "0";
          if (Globals.getGui() == null)
          {
             try
             {
-               input = getInputReader().readLine();
+               input = io.readInputLine();
             } 
                 catch (IOException e)
                {}
@@ -125,11 +164,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else
          {
             if (Globals.getSettings().getBooleanSetting(Settings.POPUP_SYSCALL_INPUT)) {
-               input = Globals.getGui().getMessagesPane().getInputString(
+               input = io.getInputString(
                     "Enter a float value (syscall "+serviceNumber+")");
             } 
             else {
-               input = Globals.getGui().getMessagesPane().getInputString(-1);
+               input = io.getInputString(-1);
             }
          }
          return new Float(input.trim()).floatValue();
@@ -146,12 +185,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static double readDouble(int serviceNumber)
       {
+         SystemIO io = current();
          String input = "0";
          if (Globals.getGui() == null)
          {
             try
             {
-               input = getInputReader().readLine();
+               input = io.readInputLine();
             } 
                 catch (IOException e)
                {}
@@ -159,11 +199,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else
          {
             if (Globals.getSettings().getBooleanSetting(Settings.POPUP_SYSCALL_INPUT)) {
-               input = Globals.getGui().getMessagesPane().getInputString(
+               input = io.getInputString(
                     "Enter a double value (syscall "+serviceNumber+")");
             } 
             else {
-               input = Globals.getGui().getMessagesPane().getInputString(-1);
+               input = io.getInputString(-1);
             }
          }
          return new Double(input.trim()).doubleValue();
@@ -176,9 +216,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void printString(String string)
       {
+         SystemIO io = current();
+         if (io.replaying)
+         {
+            return;  // shown the first time through
+         }
          if (Globals.getGui() == null)
          {
-            System.out.print(string);
+            if (io.budget != null)
+            {
+               string = string.substring(0, io.budget.spendOutput(string.length()));
+            }
+            io.stdout().print(string);
          } 
          else
          {
@@ -196,12 +245,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static String readString(int serviceNumber, int maxLength)
       {
+         SystemIO io = current();
          String input = "";
          if (Globals.getGui() == null)
          {
             try
             {
-               input = getInputReader().readLine();
+               input = io.readInputLine();
             } 
                 catch (IOException e)
                {}
@@ -209,12 +259,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else
          {
             if (Globals.getSettings().getBooleanSetting(Settings.POPUP_SYSCALL_INPUT)) {
-               input = Globals.getGui().getMessagesPane().getInputString(
+               input = io.getInputString(
                     "Enter a string of maximum length " + maxLength
                     + " (syscall "+serviceNumber+")");            
             } 
             else {
-               input = Globals.getGui().getMessagesPane().getInputString(maxLength);
+               input = io.getInputString(maxLength);
                if (input.endsWith("\n")) {
                   input = input.substring(0, input.length() - 1);
                }
@@ -238,13 +288,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static int readChar(int serviceNumber)
       {
+         SystemIO io = current();
          String input = "0";
          int returnValue = 0;
          if (Globals.getGui() == null)
          {
             try
             {
-               input = getInputReader().readLine();
+               input = io.readInputLine();
             } 
                 catch (IOException e)
                {}
@@ -252,11 +303,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else
          {
             if (Globals.getSettings().getBooleanSetting(Settings.POPUP_SYSCALL_INPUT)) {
-               input = Globals.getGui().getMessagesPane().getInputString(
+               input = io.getInputString(
                     "Enter a character value (syscall "+serviceNumber+")");				
             } 
             else {			
-               input = Globals.getGui().getMessagesPane().getInputString(1);
+               input = io.getInputString(1);
             }
          }
          // The whole try-catch is not really necessary in this case since I'm
@@ -286,8 +337,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
        public static int writeToFile(int fd, byte[] myBuffer, int lengthRequested)
       {
+         SystemIO io = current();
        /////////////// DPS 8-Jan-2013  ////////////////////////////////////////////////////
        /// Write to STDOUT or STDERR file descriptor while using IDE - write to Messages pane. 
+         if ((fd==STDOUT || fd==STDERR) && io.replaying) {
+            return lengthRequested;  // shown the first time through
+         }
          if ((fd==STDOUT || fd==STDERR) && Globals.getGui() != null) {
             String data = new String(myBuffer);
             Globals.getGui().getMessagesPane().postRunMessage(data);
@@ -295,15 +350,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
        ///////////////////////////////////////////////////////////////////////////////////
        //// When running in command mode, code below works for either regular file or STDOUT/STDERR
+         if (fd != STDOUT && fd != STDERR && SyscallLog.playingBack()) {
+            return SyscallLog.nextInt(SyscallLog.FILE);
+         }
+         if ((fd==STDOUT || fd==STDERR) && io.budget != null) {
+            lengthRequested = io.budget.spendOutput(lengthRequested);
+         }
       
-         if (!FileIOData.fdInUse(fd, 1)) // Check the existence of the "write" fd
+         if (!io.files.fdInUse(fd, 1)) // Check the existence of the "write" fd
          {
-            fileErrorString = new String(
+            io.fileErrorString = new String(
                     "File descriptor " + fd + " is not open for writing");
-            return -1;
+            return recordWrite(fd, -1);
          }
          // retrieve FileOutputStream from storage
-         OutputStream outputStream = (OutputStream) FileIOData.getStreamInUse(fd);
+         OutputStream outputStream = (OutputStream) io.files.getStreamInUse(fd);
          try
          {
             // Oct. 9 2005 Ken Vollmar
@@ -326,21 +387,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
              catch (IOException e)
             {
-               fileErrorString = new String(
+               io.fileErrorString = new String(
                     "IO Exception on write of file with fd " + fd);
-               return -1;
+               return recordWrite(fd, -1);
             } 
              catch (IndexOutOfBoundsException e)
             {
-               fileErrorString = new String(
+               io.fileErrorString = new String(
                     "IndexOutOfBoundsException on write of file with fd" + fd);
-               return -1;
+               return recordWrite(fd, -1);
             }
       
-         return lengthRequested;
+         return recordWrite(fd, lengthRequested);
       
       } // end writeToFile
    
+      // Writes to the console are not logged: they are done again when a log is played back.
+       private static int recordWrite(int fd, int result)
+      {
+         return (fd == STDOUT || fd == STDERR) ? result : SyscallLog.record(SyscallLog.FILE, result);
+      }
+   
    
      /** Read bytes from file.
      *
@@ -351,11 +418,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static int readFromFile(int fd, byte[] myBuffer, int lengthRequested)
       {
+         SystemIO io = current();
          int retValue = -1;  
        /////////////// DPS 8-Jan-2013  //////////////////////////////////////////////////
        /// Read from STDIN file descriptor while using IDE - get input from Messages pane. 
          if (fd==STDIN && Globals.getGui() != null) {
-            String input = Globals.getGui().getMessagesPane().getInputString(lengthRequested);
+            String input = io.getInputString(lengthRequested);
             byte[] bytesRead = input.getBytes();;
             for (int i=0; i < myBuffer.length; i++) {
                myBuffer[i] = (i < bytesRead.length) ? bytesRead[i] : 0 ;
@@ -364,15 +432,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
        ////////////////////////////////////////////////////////////////////////////////////
        //// When running in command mode, code below works for either regular file or STDIN
+         if (SyscallLog.playingBack()) {
+            return SyscallLog.nextRead(myBuffer);
+         }
        
-         if (!FileIOData.fdInUse(fd, 0)) // Check the existence of the "read" fd
+         if (!io.files.fdInUse(fd, 0)) // Check the existence of the "read" fd
          {
-            fileErrorString = new String(
+            io.fileErrorString = new String(
                     "File descriptor " + fd + " is not open for reading");
-            return -1;
+            return SyscallLog.recordRead(myBuffer, -1);
          }
         // retrieve FileInputStream from storage
-         InputStream InputStream = (InputStream) FileIOData.getStreamInUse(fd);
+         InputStream InputStream = (InputStream) io.files.getStreamInUse(fd);
          try
          {
             // Reads up to lengthRequested bytes of data from this Input stream into an array of bytes.
@@ -385,17 +456,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
              catch (IOException e)
             {
-               fileErrorString = new String(
+               io.fileErrorString = new String(
                     "IO Exception on read of file with fd " + fd);
-               return -1;
+               return SyscallLog.recordRead(myBuffer, -1);
             } 
              catch (IndexOutOfBoundsException e)
             {
-               fileErrorString = new String(
+               io.fileErrorString = new String(
                     "IndexOutOfBoundsException on read of file with fd" + fd);
-               return -1;
+               return SyscallLog.recordRead(myBuffer, -1);
             }
-         return retValue;
+         return SyscallLog.recordRead(myBuffer, retValue);
       
       } // end readFromFile
    
@@ -411,6 +482,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     */
        public static int openFile(String filename, int flags)
       {
+         SystemIO io = current();
+         if (SyscallLog.playingBack()) {
+            return SyscallLog.nextInt(SyscallLog.FILE);
+         }
         // Internally, a "file descriptor" is an index into a table
         // of the filename, flag, and the File???putStream associated with
         // that file descriptor.
@@ -422,11 +497,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          int fdToUse;
       
         // Check internal plausibility of opening this file
-         fdToUse = FileIOData.nowOpening(filename, flags);
+         fdToUse = io.files.nowOpening(filename, flags);
          retValue = fdToUse; // return value is the fd
          if (fdToUse < 0)
          { 
-            return -1;
+            return SyscallLog.record(SyscallLog.FILE, -1);
          }   // fileErrorString would have been set
          
       	
@@ -436,11 +511,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             {
                 // Set up input stream from disk file
                inputStream = new FileInputStream(filename);
-               FileIOData.setStreamInUse(fdToUse, inputStream); // Save stream for later use
+               io.files.setStreamInUse(fdToUse, inputStream); // Save stream for later use
             } 
                 catch (FileNotFoundException e)
                {
-                  fileErrorString = new String(
+                  io.fileErrorString = new String(
                         "File " + filename + " not found, open for input.");
                   retValue = -1;
                }
@@ -451,16 +526,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             try
             { 
                outputStream = new FileOutputStream(filename, ((flags & O_APPEND) != 0) );
-               FileIOData.setStreamInUse(fdToUse, outputStream); // Save stream for later use
+               io.files.setStreamInUse(fdToUse, outputStream); // Save stream for later use
             } 
                 catch (FileNotFoundException e)
                {
-                  fileErrorString = new String(
+                  io.fileErrorString = new String(
                         "File " + filename + " not found, open for output.");
                   retValue = -1;
                }
          }
-         return retValue; // return the "file descriptor"
+         return SyscallLog.record(SyscallLog.FILE, retValue); // return the "file descriptor"
       
       }
    
@@ -470,7 +545,57 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void closeFile(int fd)
       {
-         FileIOData.close(fd);
+         if (!SyscallLog.playingBack())
+         {
+            current().files.close(fd);
+         }
+      }
+   
+    /**
+     * Replaces the console of the machine the calling thread works on, e.g. to run a
+     * program again on other input after MIPSprogram.reset().  Input already read ahead
+     * from the old console is dropped.  Must not be called while the program is running.
+     * @param in console input, or null for System.in
+     * @param out console output, or null for System.out
+     */
+       public static void setConsole(InputStream in, PrintStream out)
+      {
+         SystemIO io = current();
+         io.in = in;
+         io.out = out;
+         io.inputReader = null;
+         io.files.setupStdio();
+      }
+   
+    /**
+     * Sets the log in which the syscalls of the machine the calling thread works on
+     * record the results that depend on the world outside the program, or from which
+     * they play them back (see SyscallLog).
+     * @param log the log, or null for none
+     */
+       public static void setSyscallLog(SyscallLog log)
+      {
+         current().syscallLog = log;
+      }
+   
+    /**
+     * Returns the syscall log of the machine the calling thread works on.
+     * @return the log, or null if there is none
+     */
+       public static SyscallLog getSyscallLog()
+      {
+         return current().syscallLog;
+      }
+   
+    /**
+     * Sets the budget whose output limit applies to the console output of the machine
+     * the calling thread works on, for the length of a run from the command line.
+     * Output past the limit is dropped.
+     * @param budget the budget, or null for none
+     */
+       public static void setExecutionBudget(ExecutionBudget budget)
+      {
+         current().budget = budget;
       }
    
     /** 
@@ -478,7 +603,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void resetFiles()
       {
-         FileIOData.resetFiles();
+         current().files.resetFiles();
       }
    
      /**
@@ -488,7 +613,162 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	*/
        public static String getFileErrorMessage()
       {
-         return fileErrorString;
+         return current().fileErrorString;
+      }
+   
+    /**
+     * Returns the number of console inputs read so far, as a position in the log of
+     * console input.  A checkpoint saves it, to put it back with setInputLogPosition().
+     * @return position in the log
+     */
+       public static int getInputLogPosition()
+      {
+         return current().inputLogPosition;
+      }
+   
+    /**
+     * Goes back to an earlier position in the log of console input.  The inputs logged
+     * from there on are handed out again, in order, before any more are read.
+     * @param position value returned by getInputLogPosition()
+     */
+       public static void setInputLogPosition(int position)
+      {
+         current().inputLogPosition = position;
+      }
+   
+    /**
+     * Empties the log of console input, for a new program run.
+     */
+       public static void clearInputLog()
+      {
+         SystemIO io = current();
+         io.inputLog.clear();
+         io.inputLogPosition = 0;
+      }
+   
+    /**
+     * Sets whether the program is being executed again from a checkpoint, in which
+     * case console output is not shown.
+     * @param state true while executing again, false otherwise
+     */
+       public static void setReplaying(boolean state)
+      {
+         current().replaying = state;
+      }
+   
+    /**
+     * Writes the name, flags and position of each file the program has open, for a
+     * snapshot (see SnapshotFile).  Standard input, output and error are left out.
+     * @param out where to write
+     * @throws IOException if writing fails, or a position cannot be found
+     */
+       public static void writeOpenFiles(DataOutput out) throws IOException
+      {
+         FileIOData files = current().files;
+         int count = 0;
+         for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++)
+         {
+            if (files.fileNames[fd] != null && files.streams[fd] != null)
+               count++;
+         }
+         out.writeInt(count);
+         for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++)
+         {
+            Object stream = files.streams[fd];
+            if (files.fileNames[fd] != null && stream != null)
+            {
+               out.writeInt(fd);
+               out.writeInt(files.fileFlags[fd]);
+               out.writeUTF(files.fileNames[fd]);
+               out.writeLong((stream instanceof FileInputStream) 
+                             ? ((FileInputStream) stream).getChannel().position()
+                             : ((FileOutputStream) stream).getChannel().position());
+            }
+         }
+      }
+   
+    /**
+     * Closes the files the program has open and opens those written by writeOpenFiles()
+     * instead, with the same descriptors.  A file opened for reading is read on from
+     * where it was.  A file opened for writing is cut back to the length it had and
+     * written on from there.
+     * @param in where to read
+     * @throws IOException if reading fails, or a file cannot be opened again
+     */
+       public static void reopenFiles(DataInput in) throws IOException
+      {
+         FileIOData files = current().files;
+         files.resetFiles();
+         int count = in.readInt();
+         for (int i = 0; i < count; i++)
+         {
+            int fd = in.readInt();
+            int flags = in.readInt();
+            String filename = in.readUTF();
+            long position = in.readLong();
+            if (fd <= STDERR || fd >= SYSCALL_MAXFILES)
+               throw new IOException("invalid file descriptor "+fd+" for "+filename);
+            if (flags == O_RDONLY)
+            {
+               FileInputStream inputStream = new FileInputStream(filename);
+               inputStream.getChannel().position(position);
+               files.streams[fd] = inputStream;
+            }
+            else
+            {
+               FileOutputStream outputStream = new FileOutputStream(filename, true);
+               outputStream.getChannel().truncate(position);
+               files.streams[fd] = outputStream;
+            }
+            files.fileNames[fd] = filename;
+            files.fileFlags[fd] = flags;
+         }
+      }
+   
+      ///////////////////////////////////////////////////////////////////////
+      // Private methods to read one input from the console: a line from standard
+   	// input, or a string entered in the Run I/O pane or an input dialog.  An
+   	// input already in the log is handed out again instead, and one played back
+   	// from the syscall log is taken from there.
+   
+       private String readInputLine() throws IOException {
+         String input = replayedInput();
+         if (input == null) {
+            input = logInput(SyscallLog.playingBack() ? SyscallLog.nextString(SyscallLog.INPUT) 
+                             : SyscallLog.record(SyscallLog.INPUT, getInputReader().readLine()));
+         }
+         return input;
+      }
+   
+       private String getInputString(String prompt) {
+         String input = replayedInput();
+         if (input == null) {
+            input = logInput(SyscallLog.playingBack() ? SyscallLog.nextString(SyscallLog.INPUT) 
+                             : SyscallLog.record(SyscallLog.INPUT, Globals.getGui().getMessagesPane().getInputString(prompt)));
+         }
+         return input;
+      }
+   
+       private String getInputString(int maxLength) {
+         String input = replayedInput();
+         if (input == null) {
+            input = logInput(SyscallLog.playingBack() ? SyscallLog.nextString(SyscallLog.INPUT) 
+                             : SyscallLog.record(SyscallLog.INPUT, Globals.getGui().getMessagesPane().getInputString(maxLength)));
+         }
+         return input;
+      }
+   
+       private String replayedInput() {
+         return (inputLogPosition < inputLog.size()) ? (String) inputLog.get(inputLogPosition++) : null;
+      }
+   
+      // Checkpoints are taken only with backstepping enabled (see Checkpointer).
+       private String logInput(String input) {
+         if (input != null && Globals.checkpointInterval > 0 && ExecutionConfig.get().backstepping) {
+            inputLog.add(input);
+            inputLogPosition++;
+         }
+         return input;
       }
    
       ///////////////////////////////////////////////////////////////////////
@@ -497,26 +777,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// These are all equivalent in the eyes of the program because they are 
    	// transparent to it.  Lazy instantiation.  DPS.  28 Feb 2008
    	
-       private static BufferedReader getInputReader() {
+       private BufferedReader getInputReader() {
          if (inputReader == null) {
-            inputReader = new BufferedReader(new InputStreamReader(System.in));  
+            inputReader = new BufferedReader(new InputStreamReader(stdin()));  
          }
          return inputReader;
       }
+   
+       private InputStream stdin() {
+         return (in != null) ? in : System.in;
+      }
+   
+       private PrintStream stdout() {
+         return (out != null) ? out : System.out;
+      }
    	
    	
     // //////////////////////////////////////////////////////////////////////////////
     // Maintain information on files in use. The index to the arrays is the "file descriptor."
     // Ken Vollmar, August 2005
     
-       private static class FileIOData
+       private class FileIOData
       {
-         private static String[] fileNames = new String[ SYSCALL_MAXFILES ]; // The filenames in use. Null if file descriptor i is not in use.
-         private static int[] fileFlags = new int[ SYSCALL_MAXFILES ]; // The flags of this file, 0=READ, 1=WRITE. Invalid if this file descriptor is not in use.
-         private static Object[] streams = new Object[SYSCALL_MAXFILES]; // The streams in use, associated with the filenames
+         private String[] fileNames = new String[ SYSCALL_MAXFILES ]; // The filenames in use. Null if file descriptor i is not in use.
+         private int[] fileFlags = new int[ SYSCALL_MAXFILES ]; // The flags of this file, 0=READ, 1=WRITE. Invalid if this file descriptor is not in use.
+         private Object[] streams = new Object[SYSCALL_MAXFILES]; // The streams in use, associated with the filenames
       
         // Reset all file information. Closes any open files and resets the arrays
-          private static void resetFiles()
+          private void resetFiles()
          {
             for (int i = 0; i < SYSCALL_MAXFILES; i++)
             {
@@ -525,36 +813,36 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             setupStdio();
          }
       	// DPS 8-Jan-2013
-          private static void setupStdio() {
+          private void setupStdio() {
             fileNames[STDIN]  = "STDIN";
             fileNames[STDOUT] = "STDOUT";
             fileNames[STDERR] = "STDERR";
             fileFlags[STDIN]  = SystemIO.O_RDONLY;
             fileFlags[STDOUT] = SystemIO.O_WRONLY;
             fileFlags[STDERR] = SystemIO.O_WRONLY;
-            streams[STDIN]  = System.in;
-            streams[STDOUT] = System.out;
+            streams[STDIN]  = stdin();
+            streams[STDOUT] = stdout();
             streams[STDERR] = System.err;
             System.out.flush();
             System.err.flush();
          }
       
         // Preserve a stream that is in use
-          private static void setStreamInUse(int fd, Object s)
+          private void setStreamInUse(int fd, Object s)
          {
             streams[fd] = s;
          
          }
       
         // Retrieve a stream for use
-          private static Object getStreamInUse(int fd)
+          private Object getStreamInUse(int fd)
          {
             return streams[fd];
          
          }
       
         // Determine whether a given filename is already in use.
-          private static boolean filenameInUse(String requestedFilename)
+          private boolean filenameInUse(String requestedFilename)
          {
             for (int i = 0; i < SYSCALL_MAXFILES; i++)
             {
@@ -572,7 +860,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       
         // Determine whether a given fd is already in use with the given flag.
-          private static boolean fdInUse(int fd, int flag)
+          private boolean fdInUse(int fd, int flag)
          {
             if (fd < 0 || fd >= SYSCALL_MAXFILES)
             {
@@ -592,7 +880,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       
         // Close the file with file descriptor fd. No errors are recoverable -- if the user's
         // made an error in the call, it will come back to him.
-          private static void close(int fd)
+          private void close(int fd)
          {
             // Can't close STDIN, STDOUT, STDERR, or invalid fd
             if (fd <= STDERR || fd >= SYSCALL_MAXFILES) 
@@ -624,7 +912,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         // Attempt to open a new file with the given flag, using the lowest available file descriptor.
         // Check that filename is not in use, flag is reasonable, and there is an available file descriptor.
         // Return: file descriptor in 0...(SYSCALL_MAXFILES-1), or -1 if error
-          private static int nowOpening(String filename, int flag)
+          private int nowOpening(String filename, int flag)
          {
             int i = 0;
             if (filenameInUse(filename))
@@ -406,7 +406,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int iVal = Binary.stringToInt(sVal);
                      //  Assures that if changed during MIPS program execution, the update will
                      //  occur only between MIPS instructions.
+                     Simulator.requestSafepoint();
                      synchronized (Globals.memoryAndRegistersLock) {
+                        Simulator.safepointTaken();
                         Coprocessor1.updateRegister(row, iVal); 
                      }
                      data[row][col] = NumberDisplayBaseChooser.formatFloatNumber(iVal, valueBase);
@@ -416,7 +418,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      fVal = Float.parseFloat(sVal);
                      //  Assures that if changed during MIPS program execution, the update will
                      //  occur only between MIPS instructions.
+                     Simulator.requestSafepoint();
                      synchronized (Globals.memoryAndRegistersLock) {
+                        Simulator.safepointTaken();
                         Coprocessor1.setRegisterToFloat(row, fVal); 
                      }
                      data[row][col] = NumberDisplayBaseChooser.formatNumber(fVal, valueBase);					
@@ -431,7 +435,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      long lVal =Binary.stringToLong(sVal);
                      //  Assures that if changed during MIPS program execution, the update will
                      //  occur only between MIPS instructions.
+                     Simulator.requestSafepoint();
                      synchronized (Globals.memoryAndRegistersLock) {
+                        Simulator.safepointTaken();
                         Coprocessor1.setRegisterPairToLong(row, lVal); 
                      }
                      setDisplayAndModelValueAt(
@@ -441,7 +447,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      dVal =  Double.parseDouble(sVal);
                      //  Assures that if changed during MIPS program execution, the update will
                      //  occur only between MIPS instructions.
+                     Simulator.requestSafepoint();
                      synchronized (Globals.memoryAndRegistersLock) {
+                        Simulator.safepointTaken();
                         Coprocessor1.setRegisterPairToDouble(row, dVal); 
                      }
                      setDisplayAndModelValueAt(
@@ -961,7 +961,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
          	//  Assures that if changed during MIPS program execution, the update will
          	//  occur only between MIPS instructions.
+            Simulator.requestSafepoint();
             synchronized (Globals.memoryAndRegistersLock) {
+               Simulator.safepointTaken();
                try {
                   Globals.memory.setRawWord(address,val);
                } 
@@ -2,6 +2,7 @@
    import mars.mips.hardware.*;
    import mars.util.*;
    import mars.*;
+   import mars.simulator.*;
    import javax.swing.*;
    import javax.swing.event.*;
    import java.awt.*;
@@ -617,6 +618,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             FileStatus.set(FileStatus.OPENING);// DPS 9-Aug-2011
             if (theFile.canRead()) {
                Globals.program = new MIPSprogram();
+               ExecutionConfig.refresh();
                try {
                   Globals.program.readSource(currentFilePath);
                } 
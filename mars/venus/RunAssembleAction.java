@@ -2,6 +2,7 @@
    import mars.*;
    import mars.util.*;
    import mars.mips.hardware.*;
+   import mars.simulator.*;
    import java.util.*;
    import java.io.*;
    import java.awt.*;
@@ -77,6 +78,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             }
             try{
                Globals.program = new MIPSprogram();
+               ExecutionConfig.refresh();
                ArrayList filesToAssemble;
                if (Globals.getSettings().getAssembleAllEnabled()) {// setting calls for multiple file assembly 
                   filesToAssemble = FilenameFinder.getFilenameList(
@@ -1,6 +1,7 @@
    package mars.venus;
    import mars.*;
    import mars.mips.hardware.*;
+   import mars.simulator.*;
    import java.awt.*;
    import java.awt.event.*;
    import javax.swing.*;
@@ -62,13 +63,26 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       		
          if (Globals.getSettings().getBackSteppingEnabled()) {
             boolean inDelaySlot = Globals.program.getBackStepper().inDelaySlot(); // Added 25 June 2007
-				Memory.getInstance().addObserver(executePane.getDataSegmentWindow());
-				RegisterFile.addRegistersObserver(executePane.getRegistersWindow());
-				Coprocessor0.addRegistersObserver(executePane.getCoprocessor0Window());
-				Coprocessor1.addRegistersObserver(executePane.getCoprocessor1Window());
-            Globals.program.getBackStepper().backStep();
-				Memory.getInstance().deleteObserver(executePane.getDataSegmentWindow());
-				RegisterFile.deleteRegistersObserver(executePane.getRegistersWindow());
+            if (Globals.program.getBackStepper().empty()) {
+               // The step is no longer on the backstep stack, so go back by way of a
+               // checkpoint instead.
+               try {
+                  Globals.program.getCheckpointer().travelTo(Simulator.getInstructionCount() - 1);
+               } 
+                   catch (ProcessingException pe) {
+                     mainUI.getMessagesPane().postMarsMessage(pe.errors().generateErrorReport());
+                  }
+               inDelaySlot = Simulator.inDelaySlot();
+            } 
+            else {
+				   Memory.getInstance().addObserver(executePane.getDataSegmentWindow());
+				   RegisterFile.addRegistersObserver(executePane.getRegistersWindow());
+				   Coprocessor0.addRegistersObserver(executePane.getCoprocessor0Window());
+				   Coprocessor1.addRegistersObserver(executePane.getCoprocessor1Window());
+               Globals.program.getBackStepper().backStep();
+				   Memory.getInstance().deleteObserver(executePane.getDataSegmentWindow());
+				   RegisterFile.deleteRegistersObserver(executePane.getRegistersWindow());
+            }
             executePane.getRegistersWindow().updateRegisters();
             executePane.getCoprocessor1Window().updateRegisters();
             executePane.getCoprocessor0Window().updateRegisters();
@@ -108,6 +108,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             mainUI.messagesPane.postMarsMessage(
                        name+": execution paused at breakpoint: "+FileStatus.getFile().getName()+"\n\n");
          } 
+         else if (pauseReason == Simulator.WATCHPOINT) {
+            mainUI.messagesPane.postMarsMessage(
+                       name+": execution paused at "+Globals.memory.getWatchpointHit()+"\n\n");
+         } 
          else {
             mainUI.messagesPane.postMarsMessage(
                        name+": execution paused by user: "+FileStatus.getFile().getName()+"\n\n");			
@@ -57,19 +57,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	// 2. Simply re-assemble the program upon reset, and the assembler will 
       	//    build a new data segment.  Reset can only be done after a successful
       	//    assembly, so there is "no" chance of assembler error.
-      	// I am choosing the second approach although it will slow down the reset
-      	// operation.  The first approach requires additional Memory class methods.
-         try {
-            Globals.program.assemble(RunAssembleAction.getMIPSprogramsToAssemble(),
-				                         RunAssembleAction.getExtendedAssemblerEnabled(),
-												 RunAssembleAction.getWarningsAreErrors());
-         } 
-             catch (ProcessingException pe) {
-				 mainUI.getMessagesPane().postMarsMessage(
-				   //pe.errors().generateErrorReport());
-               "Unable to reset.  Please close file then re-open and re-assemble.\n");
-               return;
-            }
+      	// The first approach is now taken by MIPSprogram.reset(), which puts back the
+      	// memory snapshot taken at assembly.  The second remains for when it cannot,
+      	// i.e. memory was cleared since.
+         if (!Globals.program.reset(Globals.getSettings().getBooleanSetting(Settings.START_AT_MAIN))) {
+            try {
+               Globals.program.assemble(RunAssembleAction.getMIPSprogramsToAssemble(),
+                                        RunAssembleAction.getExtendedAssemblerEnabled(),
+                                        RunAssembleAction.getWarningsAreErrors());
+            } 
+                catch (ProcessingException pe) {
+                  mainUI.getMessagesPane().postMarsMessage(
+                  //pe.errors().generateErrorReport());
+                  "Unable to reset.  Please close file then re-open and re-assemble.\n");
+                  return;
+               }
+         }
          RegisterFile.resetRegisters();
          Coprocessor1.resetRegisters();
          Coprocessor0.resetRegisters();
@@ -0,0 +1,50 @@
+   package mars.venus;
+   import mars.*;
+   import mars.simulator.*;
+   import java.awt.event.*;
+   import javax.swing.*;
+
+    /**
+    * Action for the Run -> Reverse continue menu item: take execution back to the last
+    * time a breakpoint was reached, using the checkpoints taken while it ran.
+    */
+    public class RunReverseContinueAction extends GuiAction {
+
+      private static final long serialVersionUID = 1L;
+      ExecutePane executePane;
+       public RunReverseContinueAction(String name, Icon icon, String descrip,
+                             Integer mnemonic, KeyStroke accel, VenusUI gui) {
+         super(name, icon, descrip, mnemonic, accel, gui);
+      }
+
+   		/**
+   		 * go back to the last breakpoint reached.
+   		 */
+       public void actionPerformed(ActionEvent e) {
+         executePane = mainUI.getMainPane().getExecutePane();
+         if (!FileStatus.isAssembled() || !Globals.getSettings().getBackSteppingEnabled()) {
+            return;
+         }
+         VenusUI.setStarted(true);
+         mainUI.messagesPane.setSelectedComponent(mainUI.messagesPane.runTab);
+         executePane.getTextSegmentWindow().setCodeHighlighting(true);
+         try {
+            if (!Globals.program.getCheckpointer().reverseContinue(
+                  executePane.getTextSegmentWindow().getSortedBreakPointsArray())) {
+               mainUI.getMessagesPane().postMarsMessage(
+                  "Reverse continue: no breakpoint or watchpoint reached since instruction "
+                  + Globals.program.getCheckpointer().getEarliestCount() + ".\n");
+            }
+         } 
+             catch (ProcessingException pe) {
+               mainUI.getMessagesPane().postMarsMessage(pe.errors().generateErrorReport());
+            }
+         executePane.getRegistersWindow().updateRegisters();
+         executePane.getCoprocessor1Window().updateRegisters();
+         executePane.getCoprocessor0Window().updateRegisters();
+         executePane.getDataSegmentWindow().updateValues();
+         executePane.getTextSegmentWindow().highlightStepAtPC(Simulator.inDelaySlot());
+         FileStatus.set(FileStatus.RUNNABLE);
+         VenusUI.setReset(false);
+      }
+   }
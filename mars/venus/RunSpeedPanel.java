@@ -1,5 +1,6 @@
    package mars.venus;
    import mars.*;
+   import mars.simulator.*;
    import javax.swing.*;
    import javax.swing.event.*;
    import java.awt.*;
@@ -74,6 +75,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (runSpeedPanel==null) {
             runSpeedPanel = new RunSpeedPanel();
 				Globals.runSpeedPanelExists = true; // DPS 24 July 2008 (needed for standalone tools)
+				Simulator.runSpeedChanged();
          }
          return runSpeedPanel;
       }
@@ -140,6 +142,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             JSlider source = (JSlider)e.getSource(); 
             if (!source.getValueIsAdjusting()) { 
                runSpeedIndex = (int)source.getValue();
+               Simulator.runSpeedChanged();
             } 
             else {
                sliderLabel.setText(setLabel(source.getValue()));
@@ -80,6 +80,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (!done) {
             executePane.getTextSegmentWindow().highlightStepAtPC();
             FileStatus.set(FileStatus.RUNNABLE);
+            if (reason == Simulator.WATCHPOINT) {
+               mainUI.getMessagesPane().postMarsMessage(
+                             name+": "+Globals.memory.getWatchpointHit()+"\n");
+            }
          } 
          if (done) {
             RunGoAction.resetMaxSteps();
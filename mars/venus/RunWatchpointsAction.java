@@ -0,0 +1,132 @@
+   package mars.venus;
+   import mars.*;
+   import mars.util.*;
+   import mars.mips.hardware.*;
+   import java.awt.*;
+   import java.awt.event.*;
+   import javax.swing.*;
+   import javax.swing.border.*;
+
+   /**
+    * Action class for the Run menu item for setting and removing data watchpoints.
+    * The program stops when it reads, writes or changes a watched word.
+    */
+    public class RunWatchpointsAction extends GuiAction {
+
+      private static final long serialVersionUID = 1L;
+      JDialog watchpointsDialog;
+      JList<Watchpoint> watchpointList;
+      JTextField addressField;
+      JCheckBox readBox, writeBox, changeBox;
+
+       public RunWatchpointsAction(String name, Icon icon, String descrip,
+                             Integer mnemonic, KeyStroke accel, VenusUI gui) {
+         super(name, icon, descrip, mnemonic, accel, gui);
+      }
+
+   	 // launch dialog listing the watchpoints
+       public void actionPerformed(ActionEvent e) {
+         watchpointsDialog = new JDialog(Globals.getGui(), "Watchpoints", true);
+         watchpointsDialog.setContentPane(buildDialogPanel());
+         watchpointsDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+         watchpointsDialog.pack();
+         watchpointsDialog.setLocationRelativeTo(Globals.getGui());
+         watchpointsDialog.setVisible(true);
+      }
+
+      // The dialog box that appears when menu item is selected.
+       private JPanel buildDialogPanel() {
+         JPanel contents = new JPanel(new BorderLayout(10,10));
+         contents.setBorder(new EmptyBorder(10,10,10,10));
+      	// Top row - address and kinds of access for a new watchpoint
+         JPanel addPanel = new JPanel();
+         addPanel.add(new JLabel("Address"));
+         addressField = new JTextField(12);
+         addPanel.add(addressField);
+         readBox = new JCheckBox("Read");
+         writeBox = new JCheckBox("Write", true);
+         changeBox = new JCheckBox("Change");
+         addPanel.add(readBox);
+         addPanel.add(writeBox);
+         addPanel.add(changeBox);
+         JButton addButton = new JButton("Add");
+         addButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     performAdd();
+                  }
+               });
+         addPanel.add(addButton);
+         contents.add(addPanel, BorderLayout.NORTH);
+      	// Middle row - the watchpoints currently set
+         watchpointList = new JList<Watchpoint>();
+         watchpointList.setVisibleRowCount(8);
+         refreshList();
+         contents.add(new JScrollPane(watchpointList), BorderLayout.CENTER);
+      	// Bottom row - the control buttons
+         Box controlPanel = Box.createHorizontalBox();
+         JButton removeButton = new JButton("Remove");
+         removeButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     for (Watchpoint watchpoint : watchpointList.getSelectedValuesList()) {
+                        Globals.memory.removeWatchpoint(watchpoint.getAddress());
+                     }
+                     refreshList();
+                  }
+               });
+         JButton removeAllButton = new JButton("Remove All");
+         removeAllButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     Globals.memory.clearWatchpoints();
+                     refreshList();
+                  }
+               });
+         JButton closeButton = new JButton("Close");
+         closeButton.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     watchpointsDialog.dispose();
+                  }
+               });
+         controlPanel.add(Box.createHorizontalGlue());
+         controlPanel.add(removeButton);
+         controlPanel.add(Box.createHorizontalGlue());
+         controlPanel.add(removeAllButton);
+         controlPanel.add(Box.createHorizontalGlue());
+         controlPanel.add(closeButton);
+         controlPanel.add(Box.createHorizontalGlue());
+         contents.add(controlPanel, BorderLayout.SOUTH);
+         return contents;
+      }
+
+      // User has clicked "Add": set a watchpoint with the address and kinds given.
+       private void performAdd() {
+         int kind = (readBox.isSelected() ? Watchpoint.READ : 0)
+                  | (writeBox.isSelected() ? Watchpoint.WRITE : 0)
+                  | (changeBox.isSelected() ? Watchpoint.CHANGE : 0);
+         if (kind == 0) {
+            JOptionPane.showMessageDialog(watchpointsDialog, "Select Read, Write or Change.");
+            return;
+         }
+         try {
+            Globals.memory.addWatchpoint(new Watchpoint(Binary.stringToInt(addressField.getText().trim()), kind));
+         } 
+             catch (NumberFormatException nfe) {
+               JOptionPane.showMessageDialog(watchpointsDialog, "Invalid address: "+addressField.getText());
+               return;
+            }
+             catch (AddressErrorException aee) {
+               JOptionPane.showMessageDialog(watchpointsDialog, "Address "+Binary.intToHexString(aee.getAddress())
+                  +" is not in a data segment.");
+               return;
+            }
+         addressField.setText("");
+         refreshList();
+      }
+
+       private void refreshList() {
+         watchpointList.setListData(Globals.memory.getWatchpoints());
+      }
+   }
@@ -0,0 +1,24 @@
+   package mars.venus;
+   import mars.*;
+   import java.awt.event.*;
+   import javax.swing.*;
+
+   /**
+    * Action class for the Settings menu item to control whether the data segment,
+    * stack and kernel data segment extend to the limits of the memory configuration
+    * rather than 4MB each.  Takes effect at the next assembly, when memory is cleared.
+    */
+    public class SettingsLargeMemoryAction extends GuiAction  {
+   
+      private static final long serialVersionUID = 1L;
+   
+       public SettingsLargeMemoryAction(String name, Icon icon, String descrip,
+                             Integer mnemonic, KeyStroke accel, VenusUI gui) {
+         super(name, icon, descrip, mnemonic, accel, gui);
+      }
+   
+       public void actionPerformed(ActionEvent e) {
+         Globals.getSettings().setBooleanSetting(Settings.LARGE_MEMORY_ENABLED,
+               ((JCheckBoxMenuItem) e.getSource()).isSelected());
+      }
+   }
@@ -74,10 +74,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private JMenu file, run, window, help, edit, settings; // , language;
       private JMenuItem fileNew, fileOpen, fileClose, fileCloseAll, fileSave, fileSaveAs, fileSaveAll, fileDumpMemory, filePrint, fileExit;
       private JMenuItem editUndo, editRedo, editCut, editCopy, editPaste, editFindReplace, editSelectAll;
-      private JMenuItem runGo, runStep, runBackstep, runReset, runAssemble, runStop, runPause, runClearBreakpoints, runToggleBreakpoints;
+      private JMenuItem runGo, runStep, runBackstep, runReverseContinue, runReset, runAssemble, runStop, runPause, runClearBreakpoints, runToggleBreakpoints, runWatchpoints;
       private JCheckBoxMenuItem settingsLabel, settingsPopupInput, settingsValueDisplayBase, settingsAddressDisplayBase,
               settingsExtended, settingsAssembleOnOpen, settingsAssembleAll, settingsWarningsAreErrors, settingsStartAtMain,
-      		  settingsDelayedBranching, settingsProgramArguments, settingsSelfModifyingCode;
+      		  settingsDelayedBranching, settingsProgramArguments, settingsSelfModifyingCode, settingsLargeMemory;
       private JMenuItem settingsExceptionHandler, settingsEditor, settingsHighlighting, settingsMemoryConfiguration;
       private JMenuItem helpHelp, helpAbout;
          
@@ -96,13 +96,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       EditUndoAction editUndoAction;
       EditRedoAction editRedoAction;
       private Action editCutAction, editCopyAction, editPasteAction, editFindReplaceAction, editSelectAllAction;
-      private Action runAssembleAction, runGoAction, runStepAction, runBackstepAction, runResetAction, 
-                     runStopAction, runPauseAction, runClearBreakpointsAction, runToggleBreakpointsAction;
+      private Action runAssembleAction, runGoAction, runStepAction, runBackstepAction, runReverseContinueAction, runResetAction, 
+                     runStopAction, runPauseAction, runClearBreakpointsAction, runToggleBreakpointsAction,
+                     runWatchpointsAction;
       private Action settingsLabelAction, settingsPopupInputAction, settingsValueDisplayBaseAction, settingsAddressDisplayBaseAction,
                      settingsExtendedAction, settingsAssembleOnOpenAction, settingsAssembleAllAction,
       					settingsWarningsAreErrorsAction, settingsStartAtMainAction, settingsProgramArgumentsAction,
       					settingsDelayedBranchingAction, settingsExceptionHandlerAction, settingsEditorAction,
-      					settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction;    
+      					settingsHighlightingAction, settingsMemoryConfigurationAction, settingsSelfModifyingCodeAction,
+      					settingsLargeMemoryAction;    
       private Action helpHelpAction, helpAboutAction;
    
    
@@ -337,6 +339,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                									  "Undo the last step", new Integer(KeyEvent.VK_B),
                									  KeyStroke.getKeyStroke( KeyEvent.VK_F8, 0), 
                									  mainUI);	
+            runReverseContinueAction = new RunReverseContinueAction("Reverse continue", 
+                                            null,
+               									  "Go back to the last breakpoint reached", new Integer(KeyEvent.VK_V),
+               									  KeyStroke.getKeyStroke( KeyEvent.VK_F8, InputEvent.SHIFT_DOWN_MASK), 
+               									  mainUI);	
             runPauseAction = new RunPauseAction("Pause", 
                                             new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"Pause22.png"))),
                									  "Pause the currently running program", new Integer(KeyEvent.VK_P),
@@ -364,6 +371,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                									  new Integer(KeyEvent.VK_T),
                									  KeyStroke.getKeyStroke( KeyEvent.VK_T, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()),
                									  mainUI);  
+            runWatchpointsAction = new RunWatchpointsAction("Watchpoints ...",
+                                            null,
+               									  "Stop execution when the program reads, writes or changes a memory word",
+               									  new Integer(KeyEvent.VK_W),
+               									  null,
+               									  mainUI);  
             settingsLabelAction = new SettingsLabelAction("Show Labels Window (symbol table)",
                                             null,
                									  "Toggle visibility of Labels window (symbol table) in the Execute tab",
@@ -425,6 +438,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                									  "If set, the MIPS program can write and branch to both text and data segments.",
                									  null,null,
                									  mainUI);
+            settingsLargeMemoryAction  = new SettingsLargeMemoryAction("Large memory",
+                                            null,
+               									  "If set, data segment, stack and kernel data are not limited to 4MB each.  Takes effect at next assembly.",
+               									  null,null,
+               									  mainUI);
             settingsEditorAction          = new SettingsEditorAction("Editor...",
                                             null,
                									  "View and modify text editor settings.",
@@ -554,6 +572,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runStep.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"StepForward16.png"))));//"MyStepForward16.gif"))));
          runBackstep = new JMenuItem(runBackstepAction);
          runBackstep.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"StepBack16.png"))));//"MyStepBack16.gif"))));
+         runReverseContinue = new JMenuItem(runReverseContinueAction);
+         runReverseContinue.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"MyBlank16.gif"))));
          runReset = new JMenuItem(runResetAction);
          runReset.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"Reset16.png"))));//"MyReset16.gif"))));
          runStop = new JMenuItem(runStopAction);
@@ -564,17 +584,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runClearBreakpoints.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"MyBlank16.gif"))));
          runToggleBreakpoints = new JMenuItem(runToggleBreakpointsAction);
          runToggleBreakpoints.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"MyBlank16.gif"))));
+         runWatchpoints = new JMenuItem(runWatchpointsAction);
+         runWatchpoints.setIcon(new ImageIcon(tk.getImage(cs.getResource(Globals.imagesPath+"MyBlank16.gif"))));
       
          run.add(runAssemble);
          run.add(runGo);
          run.add(runStep);
          run.add(runBackstep);
+         run.add(runReverseContinue);
          run.add(runPause);
          run.add(runStop);
          run.add(runReset);
          run.addSeparator();
          run.add(runClearBreakpoints);
          run.add(runToggleBreakpoints);
+         run.add(runWatchpoints);
       	
          settingsLabel = new JCheckBoxMenuItem(settingsLabelAction);
          settingsLabel.setSelected(Globals.getSettings().getLabelWindowVisibility());
@@ -594,6 +618,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          settingsDelayedBranching.setSelected(Globals.getSettings().getDelayedBranchingEnabled());
          settingsSelfModifyingCode = new JCheckBoxMenuItem(settingsSelfModifyingCodeAction);
          settingsSelfModifyingCode.setSelected(Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED));
+         settingsLargeMemory = new JCheckBoxMenuItem(settingsLargeMemoryAction);
+         settingsLargeMemory.setSelected(Globals.getSettings().getBooleanSetting(Settings.LARGE_MEMORY_ENABLED));
          settingsAssembleOnOpen = new JCheckBoxMenuItem(settingsAssembleOnOpenAction);
          settingsAssembleOnOpen.setSelected(Globals.getSettings().getAssembleOnOpenEnabled());
          settingsAssembleAll = new JCheckBoxMenuItem(settingsAssembleAllAction);
@@ -623,6 +649,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          settings.add(settingsExtended);
          settings.add(settingsDelayedBranching);
          settings.add(settingsSelfModifyingCode);
+         settings.add(settingsLargeMemory);
          settings.addSeparator();
          settings.add(settingsEditor);
          settings.add(settingsHighlighting);
@@ -817,11 +844,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(false);
          runStepAction.setEnabled(false);
          runBackstepAction.setEnabled(false);
+         runReverseContinueAction.setEnabled(false);
          runResetAction.setEnabled(false);
          runStopAction.setEnabled(false);
          runPauseAction.setEnabled(false);
          runClearBreakpointsAction.setEnabled(false);
          runToggleBreakpointsAction.setEnabled(false);
+         runWatchpointsAction.setEnabled(false);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.updateUndoState();
@@ -857,11 +886,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             runGoAction.setEnabled(false);
             runStepAction.setEnabled(false);
             runBackstepAction.setEnabled(false);
+         runReverseContinueAction.setEnabled(false);
             runResetAction.setEnabled(false);
             runStopAction.setEnabled(false);
             runPauseAction.setEnabled(false);
             runClearBreakpointsAction.setEnabled(false);
             runToggleBreakpointsAction.setEnabled(false);
+            runWatchpointsAction.setEnabled(false);
          } 
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
@@ -895,11 +926,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(false);
          runStepAction.setEnabled(false);
          runBackstepAction.setEnabled(false);
+         runReverseContinueAction.setEnabled(false);
          runResetAction.setEnabled(false);
          runStopAction.setEnabled(false);
          runPauseAction.setEnabled(false);
          runClearBreakpointsAction.setEnabled(false);
          runToggleBreakpointsAction.setEnabled(false);
+         runWatchpointsAction.setEnabled(false);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.updateUndoState();
@@ -931,11 +964,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(false);
          runStepAction.setEnabled(false);
          runBackstepAction.setEnabled(false);
+         runReverseContinueAction.setEnabled(false);
          runResetAction.setEnabled(false);
          runStopAction.setEnabled(false);
          runPauseAction.setEnabled(false);
          runClearBreakpointsAction.setEnabled(false);
          runToggleBreakpointsAction.setEnabled(false);
+         runWatchpointsAction.setEnabled(false);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.updateUndoState();
@@ -967,12 +1002,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(true);
          runStepAction.setEnabled(true);
          runBackstepAction.setEnabled(
-            (Globals.getSettings().getBackSteppingEnabled()&& !Globals.program.getBackStepper().empty())
+            (Globals.getSettings().getBackSteppingEnabled()&& (!Globals.program.getBackStepper().empty()
+                                                               || Globals.program.getCheckpointer().canTravelBack()))
              ? true : false);
+         runReverseContinueAction.setEnabled(
+            Globals.getSettings().getBackSteppingEnabled() && Globals.program.getCheckpointer().canTravelBack());
          runResetAction.setEnabled(true);
          runStopAction.setEnabled(false);
          runPauseAction.setEnabled(false);
          runToggleBreakpointsAction.setEnabled(true);
+         runWatchpointsAction.setEnabled(true);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.updateUndoState();
@@ -1004,10 +1043,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(false);
          runStepAction.setEnabled(false);
          runBackstepAction.setEnabled(false);
+         runReverseContinueAction.setEnabled(false);
          runResetAction.setEnabled(false);
          runStopAction.setEnabled(true);
          runPauseAction.setEnabled(true);
          runToggleBreakpointsAction.setEnabled(false);
+         runWatchpointsAction.setEnabled(false);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.setEnabled(false);//updateUndoState(); // DPS 10 Jan 2008
@@ -1038,12 +1079,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          runGoAction.setEnabled(false);
          runStepAction.setEnabled(false);
          runBackstepAction.setEnabled(
-            (Globals.getSettings().getBackSteppingEnabled()&& !Globals.program.getBackStepper().empty())
+            (Globals.getSettings().getBackSteppingEnabled()&& (!Globals.program.getBackStepper().empty()
+                                                               || Globals.program.getCheckpointer().canTravelBack()))
              ? true : false);
+         runReverseContinueAction.setEnabled(
+            Globals.getSettings().getBackSteppingEnabled() && Globals.program.getCheckpointer().canTravelBack());
          runResetAction.setEnabled(true);
          runStopAction.setEnabled(false);
          runPauseAction.setEnabled(false);
          runToggleBreakpointsAction.setEnabled(true);
+         runWatchpointsAction.setEnabled(true);
          helpHelpAction.setEnabled(true);
          helpAboutAction.setEnabled(true);
          editUndoAction.updateUndoState();
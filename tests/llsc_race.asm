@@ -0,0 +1,64 @@
+# ll/sc against plain stores on two harts.  The writer hart stores 1, 2, 3, ... to a
+# shared word with sw, and reads the word back after each store.  The echo hart loads
+# the word with ll and stores the same value back with sc, over and over.  An sc must
+# fail if any store reached the word after its ll, so the echo can only ever write
+# back a value that is at least as new as the writer's last store, and the writer
+# never reads back less than it stored.  If the echo's sc succeeds after a newer sw,
+# the older value it loaded overwrites the writer's store.
+# Prints the number of stores lost that way, which must be 0, and the final value.
+        .data
+word:   .word 0
+lost:   .word 0
+        .text
+main:   li   $v0, 60              # start the writer
+        la   $a0, writer
+        li   $a1, 200000
+        li   $a2, 0
+        syscall
+        move $s0, $v0
+        li   $v0, 60              # start the echo
+        la   $a0, echo
+        li   $a1, 400000
+        li   $a2, 0
+        syscall
+        move $s1, $v0
+        move $a0, $s0             # wait for both
+        li   $v0, 61
+        syscall
+        move $a0, $s1
+        li   $v0, 61
+        syscall
+        lw   $a0, lost
+        li   $v0, 1
+        syscall
+        li   $a0, 32
+        li   $v0, 11
+        syscall
+        lw   $a0, word
+        li   $v0, 1
+        syscall
+        li   $a0, 10
+        li   $v0, 11
+        syscall
+        li   $v0, 10
+        syscall
+
+# $a0 = number of stores
+writer: li   $t0, 1
+        li   $t2, 0               # stores lost
+wloop:  sw   $t0, word
+        lw   $t1, word
+        bge  $t1, $t0, kept
+        addi $t2, $t2, 1          # an sc overwrote this store with an older value
+kept:   addi $t0, $t0, 1
+        ble  $t0, $a0, wloop
+        sw   $t2, lost
+        jr   $ra
+
+# $a0 = number of ll/sc pairs
+echo:   move $t1, $a0
+eloop:  ll   $t2, word
+        sc   $t2, word
+        addi $t1, $t1, -1
+        bnez $t1, eloop
+        jr   $ra
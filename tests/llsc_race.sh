@@ -0,0 +1,23 @@
+#!/bin/sh
+# Run llsc_race.asm a number of times with its two harts in parallel, and fail if any
+# run lost a plain store to a store conditional that should have failed.  Each run
+# prints the stores lost and the final value of the shared word.
+#
+# Usage, from the MARS directory:  tests/llsc_race.sh [classpath] [runs]
+# e.g. tests/llsc_race.sh . 10
+
+cp=${1:-.}
+runs=${2:-10}
+failed=0
+run=0
+while [ $run -lt $runs ]; do
+   result=$(java -cp "$cp" Mars nc hs Parallel tests/llsc_race.asm | grep -v "^Error instantiating")
+   echo "$result"
+   case "$result" in
+      "0 "*) ;;
+      *) failed=1 ;;
+   esac
+   run=$((run+1))
+done
+[ $failed = 0 ] && echo "no stores lost" || echo "FAILED: stores lost"
+exit $failed